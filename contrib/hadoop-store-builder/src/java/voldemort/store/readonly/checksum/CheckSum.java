@@ -41,6 +41,16 @@ public abstract class CheckSum {
         update(numberInBytes);
     }
 
+    /**
+     * 
+     * @param number number to be stored in checksum buffer
+     */
+    public void update(long number) {
+        byte[] numberInBytes = new byte[ByteUtils.SIZE_OF_LONG];
+        ByteUtils.writeLong(numberInBytes, number, 0);
+        update(numberInBytes);
+    }
+
     /**
      * Update the checksum buffer to include input
      * 
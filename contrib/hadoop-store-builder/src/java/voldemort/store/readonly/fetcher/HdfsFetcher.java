@@ -21,9 +21,20 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.ObjectName;
 
@@ -37,9 +48,11 @@ import org.apache.log4j.Logger;
 
 import voldemort.annotations.jmx.JmxGetter;
 import voldemort.store.readonly.FileFetcher;
+import voldemort.store.readonly.ReadOnlyUtils;
 import voldemort.store.readonly.checksum.CheckSum;
 import voldemort.store.readonly.checksum.CheckSum.CheckSumType;
 import voldemort.utils.ByteUtils;
+import voldemort.utils.DaemonThreadFactory;
 import voldemort.utils.EventThrottler;
 import voldemort.utils.JmxUtils;
 import voldemort.utils.Props;
@@ -49,6 +62,11 @@ import voldemort.utils.Utils;
 /**
  * A fetcher that fetches the store files from HDFS
  * 
+ * Up to a configurable number of files are copied at once, all under the one
+ * throttle of the fetcher. Each copy writes its buffers straight to disk and
+ * hands them to a second thread that computes the checksum of the file, so
+ * the checksum is computed while the next buffer is read.
+ * 
  * 
  */
 public class HdfsFetcher implements FileFetcher {
@@ -58,19 +76,30 @@ public class HdfsFetcher implements FileFetcher {
                                                             "hdfs-fetcher").getAbsolutePath();
     private static final int REPORTING_INTERVAL_BYTES = 100 * 1024 * 1024;
     private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_PARALLEL_COPIES = 4;
+
+    /*
+     * The number of buffers of a copy that can be in flight between the copy
+     * and the checksum
+     */
+    private static final int BUFFERS_PER_COPY = 4;
 
     private File tempDir;
     private final Long maxBytesPerSecond;
+    private final EventThrottler throttler;
     private final int bufferSize;
+    private final int parallelCopies;
     private final AtomicInteger copyCount = new AtomicInteger(0);
 
     public HdfsFetcher(Props props) {
         this(props.containsKey("fetcher.max.bytes.per.sec") ? props.getBytes("fetcher.max.bytes.per.sec")
                                                            : null,
              new File(props.getString("hdfs.fetcher.tmp.dir", DEFAULT_TEMP_DIR)),
-             (int) props.getBytes("hdfs.fetcher.buffer.size", DEFAULT_BUFFER_SIZE));
+             (int) props.getBytes("hdfs.fetcher.buffer.size", DEFAULT_BUFFER_SIZE),
+             props.getInt("hdfs.fetcher.parallel.copies", DEFAULT_PARALLEL_COPIES));
         logger.info("Created hdfs fetcher with temp dir = " + tempDir.getAbsolutePath()
-                    + " and throttle rate " + maxBytesPerSecond + " and buffer size " + bufferSize);
+                    + " and throttle rate " + maxBytesPerSecond + " and buffer size " + bufferSize
+                    + " and " + parallelCopies + " parallel copies");
     }
 
     public HdfsFetcher() {
@@ -78,12 +107,23 @@ public class HdfsFetcher implements FileFetcher {
     }
 
     public HdfsFetcher(Long maxBytesPerSecond, File tempDir, int bufferSize) {
+        this(maxBytesPerSecond, tempDir, bufferSize, DEFAULT_PARALLEL_COPIES);
+    }
+
+    public HdfsFetcher(Long maxBytesPerSecond, File tempDir, int bufferSize, int parallelCopies) {
+        if(parallelCopies < 1)
+            throw new IllegalArgumentException("parallelCopies must be at least 1.");
         if(tempDir == null)
             this.tempDir = new File(DEFAULT_TEMP_DIR);
         else
             this.tempDir = Utils.notNull(new File(tempDir, "hdfs-fetcher"));
         this.maxBytesPerSecond = maxBytesPerSecond;
+        if(maxBytesPerSecond != null)
+            this.throttler = new EventThrottler(maxBytesPerSecond);
+        else
+            this.throttler = null;
         this.bufferSize = bufferSize;
+        this.parallelCopies = parallelCopies;
         this.tempDir.mkdirs();
     }
 
@@ -94,19 +134,16 @@ public class HdfsFetcher implements FileFetcher {
         config.set("hadoop.rpc.socket.factory.class.ClientProtocol",
                    ConfigurableSocketFactory.class.getName());
         FileSystem fs = path.getFileSystem(config);
-        EventThrottler throttler = null;
-        if(maxBytesPerSecond != null)
-            throttler = new EventThrottler(maxBytesPerSecond);
 
-        CopyStats stats = new CopyStats(fileUrl);
-        ObjectName jmxName = JmxUtils.registerMbean("hdfs-copy-" + copyCount.getAndIncrement(),
-                                                    stats);
+        CopyStats stats = new CopyStats(fileUrl, storeName);
+        ObjectName jmxName = JmxUtils.registerMbean("hdfs-copy-" + storeName + "-"
+                                                    + copyCount.getAndIncrement(), stats);
         try {
             File storeDir = new File(this.tempDir, storeName + "_" + System.currentTimeMillis());
             storeDir.mkdir();
 
             File destination = new File(storeDir.getAbsoluteFile(), path.getName());
-            boolean result = fetch(fs, path, destination, throttler, stats);
+            boolean result = fetch(fs, path, destination, stats);
             if(result) {
                 return destination;
             } else {
@@ -117,11 +154,8 @@ public class HdfsFetcher implements FileFetcher {
         }
     }
 
-    private boolean fetch(FileSystem fs,
-                          Path source,
-                          File dest,
-                          EventThrottler throttler,
-                          CopyStats stats) throws IOException {
+    private boolean fetch(FileSystem fs, Path source, File dest, CopyStats stats)
+            throws IOException {
         if(!fs.isFile(source)) {
             dest.mkdirs();
             FileStatus[] statuses = fs.listStatus(source);
@@ -131,41 +165,43 @@ public class HdfsFetcher implements FileFetcher {
                 Arrays.sort(statuses, new IndexFileLastComparator());
                 byte[] origCheckSum = null;
                 CheckSumType checkSumType = CheckSumType.NONE;
-
-                // Do a checksum of checksum - Similar to HDFS
-                CheckSum checkSumGenerator = null;
-                CheckSum fileCheckSumGenerator = null;
+                List<FileStatus> files = new ArrayList<FileStatus>(statuses.length);
 
                 for(FileStatus status: statuses) {
 
                     if(status.getPath().getName().contains("checkSum.txt")) {
                         checkSumType = CheckSum.fromString(status.getPath().getName());
-                        checkSumGenerator = CheckSum.getInstance(checkSumType);
-                        fileCheckSumGenerator = CheckSum.getInstance(checkSumType);
                         FSDataInputStream input = fs.open(status.getPath());
                         origCheckSum = new byte[CheckSum.checkSumLength(checkSumType)];
                         input.read(origCheckSum);
                         input.close();
                         continue;
                     }
-                    if(!status.getPath().getName().startsWith(".")) {
-                        File copyLocation = new File(dest, status.getPath().getName());
+                    // the format and delta files are written after the job,
+                    // they are not covered by the checksum
+                    if(status.getPath().getName().equals(ReadOnlyUtils.FORMAT_FILE)
+                       || status.getPath().getName().equals(ReadOnlyUtils.DELTA_FILE)) {
                         copyFileWithCheckSum(fs,
                                              status.getPath(),
-                                             copyLocation,
-                                             throttler,
+                                             new File(dest, status.getPath().getName()),
                                              stats,
-                                             fileCheckSumGenerator);
-
-                        if(fileCheckSumGenerator != null && checkSumGenerator != null) {
-                            checkSumGenerator.update(fileCheckSumGenerator.getCheckSum());
-                        }
+                                             CheckSumType.NONE,
+                                             null);
+                        continue;
                     }
-
+                    if(!status.getPath().getName().startsWith("."))
+                        files.add(status);
                 }
+                stats.setTotalFiles(files.size());
 
-                // Check checksum
+                byte[][] fileCheckSums = copyFiles(fs, files, dest, stats, checkSumType);
+
+                // Check checksum, a checksum of the checksums of the files in
+                // sorted order - Similar to HDFS
                 if(checkSumType != CheckSumType.NONE) {
+                    CheckSum checkSumGenerator = CheckSum.getInstance(checkSumType);
+                    for(byte[] fileCheckSum: fileCheckSums)
+                        checkSumGenerator.update(fileCheckSum);
                     byte[] newCheckSum = checkSumGenerator.getCheckSum();
                     return (ByteUtils.compare(newCheckSum, origCheckSum) == 0);
                 } else {
@@ -178,91 +214,273 @@ public class HdfsFetcher implements FileFetcher {
 
     }
 
-    private void copyFileWithCheckSum(FileSystem fs,
-                                      Path source,
-                                      File dest,
-                                      EventThrottler throttler,
-                                      CopyStats stats,
-                                      CheckSum fileCheckSumGenerator) throws IOException {
+    /*
+     * Copy the files parallelCopies at a time, returning the checksum of each
+     * file in the order given
+     */
+    private byte[][] copyFiles(final FileSystem fs,
+                               List<FileStatus> files,
+                               final File dest,
+                               final CopyStats stats,
+                               final CheckSumType checkSumType) throws IOException {
+        int numThreads = Math.max(1, Math.min(parallelCopies, files.size()));
+        ExecutorService copiers = Executors.newFixedThreadPool(numThreads,
+                                                               new DaemonThreadFactory("hdfs-fetcher-copy-"));
+        // every copy waits on its own checksum task, so there is never more
+        // than one checksum task per copier
+        final ExecutorService checkSummers = Executors.newFixedThreadPool(numThreads,
+                                                                          new DaemonThreadFactory("hdfs-fetcher-checksum-"));
+        try {
+            List<Future<byte[]>> results = new ArrayList<Future<byte[]>>(files.size());
+            for(final FileStatus status: files) {
+                results.add(copiers.submit(new Callable<byte[]>() {
+
+                    public byte[] call() throws IOException {
+                        return copyFileWithCheckSum(fs,
+                                                    status.getPath(),
+                                                    new File(dest, status.getPath().getName()),
+                                                    stats,
+                                                    checkSumType,
+                                                    checkSummers);
+                    }
+                }));
+            }
+
+            byte[][] checkSums = new byte[files.size()][];
+            for(int i = 0; i < checkSums.length; i++)
+                checkSums[i] = getResult(results.get(i));
+            return checkSums;
+        } finally {
+            copiers.shutdownNow();
+            checkSummers.shutdownNow();
+        }
+    }
+
+    /**
+     * Copy one file, computing its checksum on the given executor
+     * 
+     * @return The checksum of the file, or null if checkSumType is NONE
+     */
+    private byte[] copyFileWithCheckSum(FileSystem fs,
+                                        Path source,
+                                        File dest,
+                                        CopyStats stats,
+                                        CheckSumType checkSumType,
+                                        ExecutorService checkSummers) throws IOException {
         logger.info("Starting copy of " + source + " to " + dest);
         FSDataInputStream input = null;
         OutputStream output = null;
+        BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(BUFFERS_PER_COPY);
+        BlockingQueue<Chunk> full = new ArrayBlockingQueue<Chunk>(BUFFERS_PER_COPY + 1);
+        for(int i = 0; i < BUFFERS_PER_COPY; i++)
+            free.add(new Chunk(new byte[bufferSize]));
+        Future<byte[]> checkSum = null;
+        if(checkSumType != CheckSumType.NONE)
+            checkSum = checkSummers.submit(new CheckSumTask(checkSumType, full, free));
         try {
             input = fs.open(source);
             output = new FileOutputStream(dest);
-            byte[] buffer = new byte[bufferSize];
             while(true) {
-                int read = input.read(buffer);
-                if(read < 0) {
+                Chunk chunk = checkSum == null ? free.peek() : take(free, checkSum);
+                chunk.length = input.read(chunk.bytes);
+                if(chunk.length < 0) {
+                    if(checkSum != null)
+                        full.add(chunk);
                     break;
-                } else if(read < bufferSize) {
-                    buffer = ByteUtils.copy(buffer, 0, read);
                 }
-                output.write(buffer);
-                if(fileCheckSumGenerator != null)
-                    fileCheckSumGenerator.update(buffer);
-                if(throttler != null)
-                    throttler.maybeThrottle(read);
-                stats.recordBytes(read);
-                if(stats.getBytesSinceLastReport() > REPORTING_INTERVAL_BYTES) {
-                    NumberFormat format = NumberFormat.getNumberInstance();
-                    format.setMaximumFractionDigits(2);
-                    logger.info(stats.getTotalBytesCopied() / (1024 * 1024) + " MB copied at "
-                                + format.format(stats.getBytesPerSecond() / (1024 * 1024))
-                                + " MB/sec");
-                    stats.reset();
+                output.write(chunk.bytes, 0, chunk.length);
+                if(checkSum != null)
+                    full.add(chunk);
+                if(throttler != null) {
+                    synchronized(throttler) {
+                        throttler.maybeThrottle(chunk.length);
+                    }
                 }
+                stats.recordBytes(chunk.length);
             }
+            byte[] result = checkSum == null ? null : getResult(checkSum);
+            stats.recordFileCopied();
             logger.info("Completed copy of " + source + " to " + dest);
+            return result;
         } finally {
+            if(checkSum != null)
+                checkSum.cancel(true);
             IOUtils.closeQuietly(output);
             IOUtils.closeQuietly(input);
         }
     }
 
+    /*
+     * Wait for a free buffer, giving up if the checksum task died
+     */
+    private Chunk take(BlockingQueue<Chunk> free, Future<byte[]> checkSum) throws IOException {
+        try {
+            while(true) {
+                Chunk chunk = free.poll(100, TimeUnit.MILLISECONDS);
+                if(chunk != null)
+                    return chunk;
+                if(checkSum.isDone()) {
+                    getResult(checkSum);
+                    throw new IOException("Checksum ended before the copy.");
+                }
+            }
+        } catch(InterruptedException e) {
+            throw new IOException("Interrupted while waiting for a buffer.");
+        }
+    }
+
+    private static byte[] getResult(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            throw new IOException("Interrupted while copying.");
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            IOException ioe = new IOException("Copy failed: " + e.getCause());
+            ioe.initCause(e.getCause());
+            throw ioe;
+        }
+    }
+
+    /**
+     * A buffer and the number of bytes read into it, a negative length marks
+     * the end of the file
+     */
+    private static class Chunk {
+
+        private final byte[] bytes;
+        private int length;
+
+        public Chunk(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Computes the checksum of the chunks of one file, handing each chunk back
+     * to the copy once it is done with it
+     */
+    private static class CheckSumTask implements Callable<byte[]> {
+
+        private final CheckSum checkSum;
+        private final BlockingQueue<Chunk> full;
+        private final BlockingQueue<Chunk> free;
+
+        public CheckSumTask(CheckSumType type, BlockingQueue<Chunk> full, BlockingQueue<Chunk> free) {
+            this.checkSum = CheckSum.getInstance(type);
+            this.full = full;
+            this.free = free;
+        }
+
+        public byte[] call() throws InterruptedException {
+            while(true) {
+                Chunk chunk = full.take();
+                if(chunk.length < 0)
+                    return checkSum.getCheckSum();
+                checkSum.update(chunk.bytes, 0, chunk.length);
+                free.add(chunk);
+            }
+        }
+    }
+
     public static class CopyStats {
 
         private final String fileName;
-        private volatile long bytesSinceLastReport;
-        private volatile long totalBytesCopied;
+        private final String storeName;
+        private final long startNs;
+        private final AtomicLong bytesSinceLastReport;
+        private final AtomicLong totalBytesCopied;
+        private final AtomicInteger filesCopied;
+        private volatile int totalFiles;
         private volatile long lastReportNs;
 
         public CopyStats(String fileName) {
+            this(fileName, null);
+        }
+
+        public CopyStats(String fileName, String storeName) {
             this.fileName = fileName;
-            this.totalBytesCopied = 0L;
-            this.bytesSinceLastReport = 0L;
-            this.lastReportNs = System.nanoTime();
+            this.storeName = storeName;
+            this.totalBytesCopied = new AtomicLong(0L);
+            this.bytesSinceLastReport = new AtomicLong(0L);
+            this.filesCopied = new AtomicInteger(0);
+            this.startNs = System.nanoTime();
+            this.lastReportNs = startNs;
         }
 
         public void recordBytes(long bytes) {
-            this.totalBytesCopied += bytes;
-            this.bytesSinceLastReport += bytes;
+            this.totalBytesCopied.addAndGet(bytes);
+            if(this.bytesSinceLastReport.addAndGet(bytes) > REPORTING_INTERVAL_BYTES)
+                report();
+        }
+
+        public void recordFileCopied() {
+            this.filesCopied.incrementAndGet();
+        }
+
+        public void setTotalFiles(int totalFiles) {
+            this.totalFiles = totalFiles;
         }
 
         public void reset() {
-            this.bytesSinceLastReport = 0;
+            this.bytesSinceLastReport.set(0);
             this.lastReportNs = System.nanoTime();
         }
 
         public long getBytesSinceLastReport() {
-            return bytesSinceLastReport;
+            return bytesSinceLastReport.get();
         }
 
         @JmxGetter(name = "totalBytesCopied", description = "The total number of bytes copied so far in this transfer.")
         public long getTotalBytesCopied() {
-            return totalBytesCopied;
+            return totalBytesCopied.get();
         }
 
         @JmxGetter(name = "bytesPerSecond", description = "The rate of the transfer in bytes/second.")
         public double getBytesPerSecond() {
             double ellapsedSecs = (System.nanoTime() - lastReportNs) / (double) Time.NS_PER_SECOND;
-            return bytesSinceLastReport / ellapsedSecs;
+            return bytesSinceLastReport.get() / ellapsedSecs;
+        }
+
+        @JmxGetter(name = "averageBytesPerSecond", description = "The rate of the whole transfer in bytes/second.")
+        public double getAverageBytesPerSecond() {
+            double ellapsedSecs = (System.nanoTime() - startNs) / (double) Time.NS_PER_SECOND;
+            return totalBytesCopied.get() / ellapsedSecs;
+        }
+
+        @JmxGetter(name = "filesCopied", description = "The number of files copied so far in this transfer.")
+        public int getFilesCopied() {
+            return filesCopied.get();
+        }
+
+        @JmxGetter(name = "totalFiles", description = "The number of files in this transfer.")
+        public int getTotalFiles() {
+            return totalFiles;
         }
 
         @JmxGetter(name = "filename", description = "The file path being copied.")
         public String getFilename() {
             return this.fileName;
         }
+
+        @JmxGetter(name = "storeName", description = "The store the files are copied for.")
+        public String getStoreName() {
+            return this.storeName;
+        }
+
+        private synchronized void report() {
+            // another copy may have reported in the meantime
+            if(getBytesSinceLastReport() <= REPORTING_INTERVAL_BYTES)
+                return;
+            NumberFormat format = NumberFormat.getNumberInstance();
+            format.setMaximumFractionDigits(2);
+            logger.info((storeName == null ? "" : storeName + ": ") + getTotalBytesCopied()
+                        / (1024 * 1024) + " MB copied at "
+                        + format.format(getBytesPerSecond() / (1024 * 1024)) + " MB/sec, "
+                        + getFilesCopied() + " of " + getTotalFiles() + " files done");
+            reset();
+        }
     }
 
     /**
@@ -293,7 +511,7 @@ public class HdfsFetcher implements FileFetcher {
      * Main method for testing fetching
      */
     public static void main(String[] args) throws Exception {
-        if(args.length != 1)
+        if(args.length != 2)
             Utils.croak("USAGE: java " + HdfsFetcher.class.getName() + " url storeName");
         String url = args[0];
         String storeName = args[1];
@@ -42,7 +42,8 @@ import voldemort.utils.ByteUtils;
  * to construct the key and value from the values given in map().
  * 
  * The values given by makeKey and makeValue will then be serialized with the
- * appropriate voldemort Serializer.
+ * appropriate voldemort Serializer. When building a delta a null value from
+ * makeValue deletes the key.
  * 
  * 
  */
@@ -57,6 +58,7 @@ public abstract class AbstractHadoopStoreBuilderMapper<K, V> extends
     private CompressionStrategy keyCompressor;
     private SerializerDefinition keySerializerDefinition;
     private SerializerDefinition valueSerializerDefinition;
+    private boolean delta;
 
     public abstract Object makeKey(K key, V value);
 
@@ -75,14 +77,16 @@ public abstract class AbstractHadoopStoreBuilderMapper<K, V> extends
                     OutputCollector<BytesWritable, BytesWritable> output,
                     Reporter reporter) throws IOException {
         byte[] keyBytes = keySerializer.toBytes(makeKey(key, value));
-        byte[] valBytes = valueSerializer.toBytes(makeValue(key, value));
+        Object voldemortValue = makeValue(key, value);
+        boolean deleted = delta && voldemortValue == null;
+        byte[] valBytes = deleted ? new byte[0] : valueSerializer.toBytes(voldemortValue);
 
         // compress key and values if required
         if(keySerializerDefinition.hasCompression()) {
             keyBytes = keyCompressor.deflate(keyBytes);
         }
 
-        if(valueSerializerDefinition.hasCompression()) {
+        if(valueSerializerDefinition.hasCompression() && !deleted) {
             valBytes = valueCompressor.deflate(valBytes);
         }
 
@@ -93,7 +97,8 @@ public abstract class AbstractHadoopStoreBuilderMapper<K, V> extends
         BytesWritable outputKey = new BytesWritable(md5er.digest(keyBytes));
         List<Node> nodes = routingStrategy.routeRequest(keyBytes);
         for(Node node: nodes) {
-            ByteUtils.writeInt(nodeIdAndValue, node.getId(), 0);
+            // a deleted key is sent with the complement of the node id
+            ByteUtils.writeInt(nodeIdAndValue, deleted ? ~node.getId() : node.getId(), 0);
             BytesWritable outputVal = new BytesWritable(nodeIdAndValue);
 
             output.collect(outputKey, outputVal);
@@ -107,6 +112,7 @@ public abstract class AbstractHadoopStoreBuilderMapper<K, V> extends
         super.configure(conf);
 
         md5er = ByteUtils.getDigest("md5");
+        delta = conf.getBoolean("store.delta", false);
         keySerializerDefinition = getStoreDef().getKeySerializer();
         valueSerializerDefinition = getStoreDef().getValueSerializer();
 
@@ -40,6 +40,8 @@ import org.apache.log4j.Logger;
 import voldemort.VoldemortException;
 import voldemort.cluster.Cluster;
 import voldemort.store.StoreDefinition;
+import voldemort.store.readonly.ReadOnlyStorageFormat;
+import voldemort.store.readonly.ReadOnlyUtils;
 import voldemort.store.readonly.checksum.CheckSum;
 import voldemort.store.readonly.checksum.CheckSum.CheckSumType;
 import voldemort.utils.Utils;
@@ -69,7 +71,9 @@ public class HadoopStoreBuilder {
     private final Path inputPath;
     private final Path outputDir;
     private final Path tempDir;
-    private CheckSumType checkSumType = CheckSumType.NONE;
+    private final CheckSumType checkSumType;
+    private final ReadOnlyStorageFormat format;
+    private final boolean delta;
 
     @SuppressWarnings("unchecked")
     public HadoopStoreBuilder(Configuration conf,
@@ -82,20 +86,17 @@ public class HadoopStoreBuilder {
                               Path tempDir,
                               Path outputDir,
                               Path inputPath) {
-        super();
-        this.config = conf;
-        this.mapperClass = Utils.notNull(mapperClass);
-        this.inputFormatClass = Utils.notNull(inputFormatClass);
-        this.inputPath = inputPath;
-        this.cluster = Utils.notNull(cluster);
-        this.storeDef = Utils.notNull(storeDef);
-        this.replicationFactor = replicationFactor;
-        this.chunkSizeBytes = chunkSizeBytes;
-        this.tempDir = tempDir;
-        this.outputDir = Utils.notNull(outputDir);
-        if(chunkSizeBytes > MAX_CHUNK_SIZE || chunkSizeBytes < MIN_CHUNK_SIZE)
-            throw new VoldemortException("Invalid chunk size, chunk size must be in the range "
-                                         + MIN_CHUNK_SIZE + "..." + MAX_CHUNK_SIZE);
+        this(conf,
+             mapperClass,
+             inputFormatClass,
+             cluster,
+             storeDef,
+             replicationFactor,
+             chunkSizeBytes,
+             tempDir,
+             outputDir,
+             inputPath,
+             CheckSumType.NONE);
     }
 
     /**
@@ -135,9 +136,112 @@ public class HadoopStoreBuilder {
              chunkSizeBytes,
              tempDir,
              outputDir,
-             inputPath);
-        this.checkSumType = checkSumType;
+             inputPath,
+             checkSumType,
+             ReadOnlyStorageFormat.READONLY_V0);
+    }
+
+    /**
+     * Create the store builder
+     * 
+     * @param conf A base configuration to start with
+     * @param mapperClass The class to use as the mapper
+     * @param inputFormatClass The input format to use for reading values
+     * @param cluster The voldemort cluster for which the stores are being built
+     * @param storeDef The store definition of the store
+     * @param replicationFactor The replication factor to use for storing the
+     *        built store.
+     * @param chunkSizeBytes The size of the chunks used by the read-only store
+     * @param tempDir The temporary directory to use in hadoop for intermediate
+     *        reducer output
+     * @param outputDir The directory in which to place the built stores
+     * @param inputPath The path from which to read input data
+     * @param checkSumType The checksum algorithm to use
+     * @param format The format of the index files, READONLY_V1 allows chunks
+     *        larger than 2GB
+     */
+    @SuppressWarnings("unchecked")
+    public HadoopStoreBuilder(Configuration conf,
+                              Class<? extends AbstractHadoopStoreBuilderMapper<?, ?>> mapperClass,
+                              Class<? extends InputFormat> inputFormatClass,
+                              Cluster cluster,
+                              StoreDefinition storeDef,
+                              int replicationFactor,
+                              long chunkSizeBytes,
+                              Path tempDir,
+                              Path outputDir,
+                              Path inputPath,
+                              CheckSumType checkSumType,
+                              ReadOnlyStorageFormat format) {
+        this(conf,
+             mapperClass,
+             inputFormatClass,
+             cluster,
+             storeDef,
+             replicationFactor,
+             chunkSizeBytes,
+             tempDir,
+             outputDir,
+             inputPath,
+             checkSumType,
+             format,
+             false);
+    }
 
+    /**
+     * Create the store builder
+     * 
+     * @param conf A base configuration to start with
+     * @param mapperClass The class to use as the mapper
+     * @param inputFormatClass The input format to use for reading values
+     * @param cluster The voldemort cluster for which the stores are being built
+     * @param storeDef The store definition of the store
+     * @param replicationFactor The replication factor to use for storing the
+     *        built store.
+     * @param chunkSizeBytes The size of the chunks used by the read-only store
+     * @param tempDir The temporary directory to use in hadoop for intermediate
+     *        reducer output
+     * @param outputDir The directory in which to place the built stores
+     * @param inputPath The path from which to read input data
+     * @param checkSumType The checksum algorithm to use
+     * @param format The format of the index files, READONLY_V1 allows chunks
+     *        larger than 2GB
+     * @param delta If true, build a delta holding only the changed keys. A key
+     *        for which the mapper makes a null value is deleted by the delta.
+     */
+    @SuppressWarnings("unchecked")
+    public HadoopStoreBuilder(Configuration conf,
+                              Class<? extends AbstractHadoopStoreBuilderMapper<?, ?>> mapperClass,
+                              Class<? extends InputFormat> inputFormatClass,
+                              Cluster cluster,
+                              StoreDefinition storeDef,
+                              int replicationFactor,
+                              long chunkSizeBytes,
+                              Path tempDir,
+                              Path outputDir,
+                              Path inputPath,
+                              CheckSumType checkSumType,
+                              ReadOnlyStorageFormat format,
+                              boolean delta) {
+        super();
+        this.config = conf;
+        this.mapperClass = Utils.notNull(mapperClass);
+        this.inputFormatClass = Utils.notNull(inputFormatClass);
+        this.inputPath = inputPath;
+        this.cluster = Utils.notNull(cluster);
+        this.storeDef = Utils.notNull(storeDef);
+        this.replicationFactor = replicationFactor;
+        this.chunkSizeBytes = chunkSizeBytes;
+        this.tempDir = tempDir;
+        this.outputDir = Utils.notNull(outputDir);
+        this.checkSumType = checkSumType;
+        this.format = Utils.notNull(format);
+        this.delta = delta;
+        long maxChunkSize = format == ReadOnlyStorageFormat.READONLY_V0 ? MAX_CHUNK_SIZE
+                                                                        : Long.MAX_VALUE;
+        if(chunkSizeBytes > maxChunkSize || chunkSizeBytes < MIN_CHUNK_SIZE)
+            throw new VoldemortException("Invalid chunk size, chunk size must be in the range "
+                                         + MIN_CHUNK_SIZE + "..." + maxChunkSize);
     }
 
     /**
@@ -163,6 +267,8 @@ public class HadoopStoreBuilder {
         FileInputFormat.setInputPaths(conf, inputPath);
         conf.set("final.output.dir", outputDir.toString());
         conf.set("checksum.type", CheckSum.toString(checkSumType));
+        conf.set("store.format", format.getCode());
+        conf.setBoolean("store.delta", delta);
         FileOutputFormat.setOutputPath(conf, tempDir);
 
         try {
@@ -191,6 +297,19 @@ public class HadoopStoreBuilder {
             logger.info("Building store...");
             JobClient.runJob(conf);
 
+            // Record the index format in every node directory
+            for(FileStatus node: outputFs.listStatus(outputDir)) {
+                if(node.isDir()) {
+                    FSDataOutputStream formatStream = outputFs.create(new Path(node.getPath(),
+                                                                               ReadOnlyUtils.FORMAT_FILE));
+                    formatStream.write(format.getCode().getBytes("UTF-8"));
+                    formatStream.close();
+                    if(delta)
+                        outputFs.create(new Path(node.getPath(), ReadOnlyUtils.DELTA_FILE))
+                                .close();
+                }
+            }
+
             if(checkSumType != CheckSumType.NONE) {
 
                 // Generate checksum for every node
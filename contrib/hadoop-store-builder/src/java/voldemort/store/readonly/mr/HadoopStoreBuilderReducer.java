@@ -33,6 +33,7 @@ import org.apache.hadoop.mapred.Reporter;
 import org.apache.log4j.Logger;
 
 import voldemort.VoldemortException;
+import voldemort.store.readonly.ReadOnlyStorageFormat;
 import voldemort.store.readonly.ReadOnlyUtils;
 import voldemort.store.readonly.checksum.CheckSum;
 import voldemort.store.readonly.checksum.CheckSum.CheckSumType;
@@ -50,7 +51,7 @@ public class HadoopStoreBuilderReducer extends AbstractStoreBuilderConfigurable
 
     private DataOutputStream indexFileStream = null;
     private DataOutputStream valueFileStream = null;
-    private int position = 0;
+    private long position = 0;
     private String taskId = null;
     private int numChunks = -1;
     private int nodeId = -1;
@@ -60,6 +61,7 @@ public class HadoopStoreBuilderReducer extends AbstractStoreBuilderConfigurable
     private String outputDir;
     private JobConf conf;
     private CheckSumType checkSumType;
+    private ReadOnlyStorageFormat format;
     private CheckSum checkSumDigestIndex;
     private CheckSum checkSumDigestValue;
 
@@ -73,29 +75,43 @@ public class HadoopStoreBuilderReducer extends AbstractStoreBuilderConfigurable
                        Reporter reporter) throws IOException {
         BytesWritable writable = values.next();
         byte[] valueBytes = writable.get();
+        // the mapper sends the complement of the node id for deleted keys
+        int valueNodeId = ByteUtils.readInt(valueBytes, 0);
+        boolean deleted = valueNodeId < 0;
 
         if(this.nodeId == -1)
-            this.nodeId = ByteUtils.readInt(valueBytes, 0);
+            this.nodeId = deleted ? ~valueNodeId : valueNodeId;
         if(this.chunkId == -1)
             this.chunkId = ReadOnlyUtils.chunk(key.get(), this.numChunks);
 
         // Write key and position
         this.indexFileStream.write(key.get(), 0, key.getSize());
         this.checkSumDigestIndex.update(key.get(), 0, key.getSize());
-        this.indexFileStream.writeInt(this.position);
-        this.checkSumDigestIndex.update(this.position);
+        if(this.format == ReadOnlyStorageFormat.READONLY_V0) {
+            this.indexFileStream.writeInt((int) this.position);
+            this.checkSumDigestIndex.update((int) this.position);
+        } else {
+            this.indexFileStream.writeLong(this.position);
+            this.checkSumDigestIndex.update(this.position);
+        }
 
         // Write length and value
-        int valueLength = writable.getSize() - 4;
-        this.valueFileStream.writeInt(valueLength);
-        this.checkSumDigestValue.update(valueLength);
-        this.valueFileStream.write(valueBytes, 4, valueLength);
-        this.checkSumDigestValue.update(valueBytes, 4, valueLength);
-
-        this.position += 4 + valueLength;
-        if(this.position < 0)
+        if(deleted) {
+            this.valueFileStream.writeInt(ReadOnlyUtils.DELETED_VALUE_SIZE);
+            this.checkSumDigestValue.update(ReadOnlyUtils.DELETED_VALUE_SIZE);
+            this.position += 4;
+        } else {
+            int valueLength = writable.getSize() - 4;
+            this.valueFileStream.writeInt(valueLength);
+            this.checkSumDigestValue.update(valueLength);
+            this.valueFileStream.write(valueBytes, 4, valueLength);
+            this.checkSumDigestValue.update(valueBytes, 4, valueLength);
+            this.position += 4 + valueLength;
+        }
+        if(this.position > this.format.getMaxDataFileSize())
             throw new VoldemortException("Chunk overflow exception: chunk " + chunkId
-                                         + " has exceeded " + Integer.MAX_VALUE + " bytes.");
+                                         + " has exceeded " + this.format.getMaxDataFileSize()
+                                         + " bytes.");
 
         // if we have multiple values for this md5 that is a collision, throw an
         // exception--either the data itself has duplicates, there are trillions
@@ -117,6 +133,9 @@ public class HadoopStoreBuilderReducer extends AbstractStoreBuilderConfigurable
             this.outputDir = job.get("final.output.dir");
             this.taskId = job.get("mapred.task.id");
             this.checkSumType = CheckSum.fromString(job.get("checksum.type"));
+            String formatCode = job.get("store.format",
+                                        ReadOnlyStorageFormat.READONLY_V0.getCode());
+            this.format = ReadOnlyStorageFormat.fromCode(formatCode);
             this.checkSumDigestIndex = CheckSum.getInstance(checkSumType);
             this.checkSumDigestValue = CheckSum.getInstance(checkSumType);
 
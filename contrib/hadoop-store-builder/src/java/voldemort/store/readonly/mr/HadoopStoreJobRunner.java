@@ -28,6 +28,7 @@ import org.jdom.JDOMException;
 import voldemort.cluster.Cluster;
 import voldemort.server.VoldemortConfig;
 import voldemort.store.StoreDefinition;
+import voldemort.store.readonly.ReadOnlyStorageFormat;
 import voldemort.store.readonly.checksum.CheckSum.CheckSumType;
 import voldemort.utils.CmdUtils;
 import voldemort.utils.ReflectUtils;
@@ -73,6 +74,8 @@ public class HadoopStoreJobRunner extends Configured implements Tool {
         parser.accepts("inputformat", "JavaClassName (default=text).").withRequiredArg();
         parser.accepts("jar", "mapper class jar if not in $HADOOP_CLASSPATH.").withRequiredArg();
         parser.accepts("checksum", "enable checksum using md5, adler32, crc32").withRequiredArg();
+        parser.accepts("format", "index format, ro0 (default) or ro1 for 64-bit positions.")
+              .withRequiredArg();
         parser.accepts("force-overwrite", "deletes final output directory if present.");
         parser.accepts("help", "print usage information");
         return parser;
@@ -159,6 +162,10 @@ public class HadoopStoreJobRunner extends Configured implements Tool {
         }
 
         CheckSumType checkSumType = CheckSumType.toType(CmdUtils.valueOf(options, "checksum", ""));
+        String formatCode = CmdUtils.valueOf(options,
+                                             "format",
+                                             ReadOnlyStorageFormat.READONLY_V0.getCode());
+        ReadOnlyStorageFormat format = ReadOnlyStorageFormat.fromCode(formatCode);
 
         Class[] deps = new Class[] { ImmutableCollection.class, JDOMException.class,
                 VoldemortConfig.class, HadoopStoreJobRunner.class, mapperClass };
@@ -175,7 +182,8 @@ public class HadoopStoreJobRunner extends Configured implements Tool {
                                                             tempDir,
                                                             outputDir,
                                                             inputPath,
-                                                            checkSumType);
+                                                            checkSumType,
+                                                            format);
 
         builder.build();
         return 0;
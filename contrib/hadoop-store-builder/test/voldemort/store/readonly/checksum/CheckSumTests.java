@@ -25,6 +25,7 @@ import java.util.Arrays;
 import java.util.Comparator;
 
 import junit.framework.TestCase;
+import voldemort.store.readonly.ReadOnlyUtils;
 import voldemort.store.readonly.checksum.CheckSum.CheckSumType;
 import voldemort.utils.ByteUtils;
 
@@ -96,7 +97,8 @@ public class CheckSumTests extends TestCase {
 
         for(File file: files) {
             if(file.isFile() && !file.getName().startsWith(".")
-               && !file.getName().contains("checkSum.txt")) {
+               && !file.getName().contains("checkSum.txt")
+               && !file.getName().equals(ReadOnlyUtils.FORMAT_FILE)) {
                 DataInputStream is;
                 try {
                     is = new DataInputStream(new FileInputStream(file));
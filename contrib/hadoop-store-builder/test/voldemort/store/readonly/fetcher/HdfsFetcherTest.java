@@ -19,8 +19,12 @@ package voldemort.store.readonly.fetcher;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
 import voldemort.TestUtils;
 import voldemort.store.readonly.checksum.CheckSumTests;
 import voldemort.store.readonly.checksum.CheckSum.CheckSumType;
@@ -103,4 +107,36 @@ public class HdfsFetcherTest extends TestCase {
         checkSumFile.delete();
 
     }
+
+    public void testParallelFetch() throws Exception {
+        File testDirectory = TestUtils.createTempDir();
+        for(int i = 0; i < 6; i++)
+            FileUtils.writeByteArrayToFile(new File(testDirectory, i + ".data"),
+                                           TestUtils.randomBytes(10000 + i * 3333));
+        for(int i = 0; i < 6; i++)
+            FileUtils.writeByteArrayToFile(new File(testDirectory, i + ".index"),
+                                           TestUtils.randomBytes(2000 + i * 777));
+        File checkSumFile = new File(testDirectory, "md5checkSum.txt");
+        byte[] checkSumBytes = CheckSumTests.calculateCheckSum(testDirectory.listFiles(),
+                                                               CheckSumType.MD5);
+        FileUtils.writeByteArrayToFile(checkSumFile, checkSumBytes);
+
+        HdfsFetcher fetcher = new HdfsFetcher(null, TestUtils.createTempDir(), 1000, 3);
+        File fetchedFile = fetcher.fetch(testDirectory.getAbsolutePath(), "storeName");
+        assertNotNull(fetchedFile);
+        for(File file: testDirectory.listFiles()) {
+            if(file.getName().endsWith("checkSum.txt"))
+                continue;
+            File copy = new File(fetchedFile, file.getName());
+            assertTrue(copy.getName() + " was not fetched", copy.exists());
+            assertTrue(copy.getName() + " differs",
+                       Arrays.equals(FileUtils.readFileToByteArray(file),
+                                     FileUtils.readFileToByteArray(copy)));
+        }
+
+        // a corrupt file fails the fetch
+        FileUtils.writeByteArrayToFile(new File(testDirectory, "3.data"),
+                                       TestUtils.randomBytes(10000));
+        assertNull(fetcher.fetch(testDirectory.getAbsolutePath(), "storeName"));
+    }
 }
@@ -46,6 +46,8 @@ import voldemort.store.StoreDefinitionBuilder;
 import voldemort.store.readonly.BinarySearchStrategy;
 import voldemort.store.readonly.ReadOnlyStorageConfiguration;
 import voldemort.store.readonly.ReadOnlyStorageEngine;
+import voldemort.store.readonly.ReadOnlyStorageFormat;
+import voldemort.store.readonly.ReadOnlyUtils;
 import voldemort.store.readonly.checksum.CheckSumTests;
 import voldemort.store.readonly.checksum.CheckSum.CheckSumType;
 import voldemort.store.serialized.SerializingStore;
@@ -78,6 +80,18 @@ public class HadoopStoreBuilderTest extends TestCase {
 
     }
 
+    /**
+     * Deletes the keys whose value is "-"
+     */
+    public static class DeltaTextStoreMapper extends TextStoreMapper {
+
+        @Override
+        public Object makeValue(LongWritable key, Text value) {
+            Object voldemortValue = super.makeValue(key, value);
+            return "-".equals(voldemortValue) ? null : voldemortValue;
+        }
+    }
+
     public void testHadoopBuild() throws Exception {
         // create test data
         Map<String, String> values = new HashMap<String, String>();
@@ -140,6 +154,9 @@ public class HadoopStoreBuilderTest extends TestCase {
                                                                CheckSumType.MD5);
         assertEquals(0, ByteUtils.compare(checkSumBytes, md5));
 
+        // the index format is recorded for the server
+        assertEquals(ReadOnlyStorageFormat.READONLY_V0, ReadOnlyUtils.readFormat(nodeFile));
+
         // rename files
         File versionDir = new File(storeDir, "version-0");
         versionDir.mkdirs();
@@ -162,4 +179,89 @@ public class HadoopStoreBuilderTest extends TestCase {
             assertEquals(entry.getValue(), found.get(0).getValue());
         }
     }
+
+    public void testHadoopDeltaBuild() throws Exception {
+        File testDir = TestUtils.createTempDir();
+        File storeDir = TestUtils.createTempDir(testDir);
+        Map<String, String> values = new HashMap<String, String>();
+        for(int i = 0; i < 200; i++)
+            values.put(Integer.toString(i), Integer.toBinaryString(i));
+        File nodeDir = build(testDir, "base", values, false);
+        assertFalse(ReadOnlyUtils.isDelta(nodeDir));
+        assertTrue("Rename failed.", nodeDir.renameTo(new File(storeDir, "version-0")));
+
+        Map<String, String> changes = new HashMap<String, String>();
+        for(int i = 0; i < 10; i++) {
+            changes.put(Integer.toString(i), "changed");
+            changes.put(Integer.toString(100 + i), "-");
+            changes.put(Integer.toString(1000 + i), "added");
+        }
+        File deltaDir = build(testDir, "delta", changes, true);
+        assertTrue(ReadOnlyUtils.isDelta(deltaDir));
+
+        SerializerDefinition serDef = new SerializerDefinition("string");
+        @SuppressWarnings("unchecked")
+        Serializer<Object> serializer = (Serializer<Object>) new DefaultSerializerFactory().getSerializer(serDef);
+        ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test",
+                                                                 new BinarySearchStrategy(),
+                                                                 storeDir,
+                                                                 1);
+        engine.swapFiles(deltaDir.getAbsolutePath());
+        Store<Object, Object> store = SerializingStore.wrap(engine, serializer, serializer);
+        for(Map.Entry<String, String> entry: changes.entrySet()) {
+            if(entry.getValue().equals("-"))
+                values.remove(entry.getKey());
+            else
+                values.put(entry.getKey(), entry.getValue());
+        }
+        for(Map.Entry<String, String> entry: values.entrySet()) {
+            List<Versioned<Object>> found = store.get(entry.getKey());
+            assertEquals("Incorrect number of results", 1, found.size());
+            assertEquals(entry.getValue(), found.get(0).getValue());
+        }
+        for(int i = 0; i < 10; i++)
+            assertEquals(0, store.get(Integer.toString(100 + i)).size());
+    }
+
+    /*
+     * Build a single node store from the given values, returning its directory
+     */
+    private File build(File testDir, String name, Map<String, String> values, boolean delta)
+            throws Exception {
+        File inputFile = File.createTempFile("input", ".txt", testDir);
+        inputFile.deleteOnExit();
+        StringBuilder contents = new StringBuilder();
+        for(Map.Entry<String, String> entry: values.entrySet())
+            contents.append(entry.getKey() + "\t" + entry.getValue() + "\n");
+        FileUtils.writeStringToFile(inputFile, contents.toString());
+
+        SerializerDefinition serDef = new SerializerDefinition("string");
+        StoreDefinition def = new StoreDefinitionBuilder().setName("test")
+                                                          .setType(ReadOnlyStorageConfiguration.TYPE_NAME)
+                                                          .setKeySerializer(serDef)
+                                                          .setValueSerializer(serDef)
+                                                          .setRoutingPolicy(RoutingTier.CLIENT)
+                                                          .setRoutingStrategyType(RoutingStrategyType.CONSISTENT_STRATEGY)
+                                                          .setReplicationFactor(1)
+                                                          .setPreferredReads(1)
+                                                          .setRequiredReads(1)
+                                                          .setPreferredWrites(1)
+                                                          .setRequiredWrites(1)
+                                                          .build();
+        File outputDir = new File(testDir, name + "-output");
+        new HadoopStoreBuilder(new Configuration(),
+                               DeltaTextStoreMapper.class,
+                               TextInputFormat.class,
+                               ServerTestUtils.getLocalCluster(1),
+                               def,
+                               1,
+                               64 * 1024,
+                               new Path(new File(testDir, name + "-temp").getAbsolutePath()),
+                               new Path(outputDir.getAbsolutePath()),
+                               new Path(inputFile.getAbsolutePath()),
+                               CheckSumType.MD5,
+                               ReadOnlyStorageFormat.READONLY_V0,
+                               delta).build();
+        return new File(outputDir, "node-0");
+    }
 }
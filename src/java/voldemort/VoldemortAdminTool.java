@@ -29,10 +29,17 @@ import org.codehaus.jackson.map.ObjectMapper;
 import voldemort.annotations.Experimental;
 import voldemort.client.protocol.admin.AdminClient;
 import voldemort.client.protocol.admin.AdminClientConfig;
+import voldemort.cluster.Node;
+import voldemort.serialization.Compression;
 import voldemort.serialization.DefaultSerializerFactory;
 import voldemort.serialization.Serializer;
+import voldemort.serialization.SerializerDefinition;
 import voldemort.serialization.SerializerFactory;
 import voldemort.store.StoreDefinition;
+import voldemort.store.compress.CompressionStrategy;
+import voldemort.store.compress.CompressionStrategyFactory;
+import voldemort.store.compress.DictionaryCompressionStrategy;
+import voldemort.store.compress.DictionaryTrainer;
 import voldemort.utils.*;
 import voldemort.versioning.VectorClock;
 import voldemort.versioning.Versioned;
@@ -97,6 +104,26 @@ public class VoldemortAdminTool {
               .withRequiredArg()
               .describedAs("input-directory")
               .ofType(String.class);
+        parser.accepts("train-dictionary", "Train a compression dictionary for the values of a store")
+              .withRequiredArg()
+              .describedAs("store-name")
+              .ofType(String.class);
+        parser.accepts("sample-size", "Number of values to train the dictionary on")
+              .withRequiredArg()
+              .describedAs("sample-size")
+              .ofType(Integer.class);
+        parser.accepts("dictionary-size", "Maximum size of the dictionary in bytes")
+              .withRequiredArg()
+              .describedAs("dictionary-size")
+              .ofType(Integer.class);
+        parser.accepts("set-current-dictionary", "Compress the values of a store with the given dictionary version")
+              .withRequiredArg()
+              .describedAs("store-name")
+              .ofType(String.class);
+        parser.accepts("dictionary-version", "Version of the compression dictionary")
+              .withRequiredArg()
+              .describedAs("dictionary-version")
+              .ofType(Integer.class);
         
         OptionSet options = parser.parse(args);
 
@@ -142,8 +169,14 @@ public class VoldemortAdminTool {
         if (options.has("update-entries")) {
             ops += "u";
         }
+        if (options.has("train-dictionary")) {
+            ops += "t";
+        }
+        if (options.has("set-current-dictionary")) {
+            ops += "c";
+        }
         if (ops.length() < 1) {
-            Utils.croak("At least one of (delete-partitions, restore, add-node, fetch-entries, fetch-keys) must be specified");
+            Utils.croak("At least one of (delete-partitions, restore, add-node, fetch-entries, fetch-keys, train-dictionary, set-current-dictionary) must be specified");
         }
 
         List<String> storeNames = null;
@@ -218,6 +251,27 @@ public class VoldemortAdminTool {
                                      useAscii);
                 
             }
+            if (ops.contains("t")) {
+                String storeName = (String) options.valueOf("train-dictionary");
+                int sampleSize = CmdUtils.valueOf(options, "sample-size", 1000);
+                int dictionarySize = CmdUtils.valueOf(options, "dictionary-size", 16 * 1024);
+                executeTrainDictionary(nodeId,
+                                       adminClient,
+                                       storeName,
+                                       sampleSize,
+                                       dictionarySize);
+            }
+            if (ops.contains("c")) {
+                if (!options.has("dictionary-version")) {
+                    Utils.croak("The dictionary-version must be specified for set-current-dictionary");
+                }
+                String storeName = (String) options.valueOf("set-current-dictionary");
+                int version = (Integer) options.valueOf("dictionary-version");
+                executeSetCurrentDictionary(nodeId,
+                                            adminClient,
+                                            storeName,
+                                            version);
+            }
         } catch (Exception e) {
             e.printStackTrace();
             Utils.croak(e.getMessage());
@@ -532,6 +586,141 @@ public class VoldemortAdminTool {
         }
     }
 
+    /**
+     * Train a compression dictionary on values of the given store sampled from
+     * the given node. If the values of the store are already compressed with a
+     * dictionary, the new dictionary is added to its store definition on every
+     * node as the newest version, but values go on being compressed with the
+     * current one until {@link #executeSetCurrentDictionary} is run. Otherwise
+     * the existing values could not be read back, so the compression element
+     * for a new store is only printed.
+     */
+    public static void executeTrainDictionary(Integer nodeId,
+                                              AdminClient adminClient,
+                                              String storeName,
+                                              int sampleSize,
+                                              int dictionarySize) throws IOException {
+        List<StoreDefinition> storeDefinitionList = adminClient.getRemoteStoreDefList(nodeId).getValue();
+        StoreDefinition storeDefinition = getStoreDefinition(storeDefinitionList, storeName, nodeId);
+
+        SerializerDefinition valueSerializer = storeDefinition.getValueSerializer();
+        CompressionStrategy compressionStrategy = new CompressionStrategyFactory().get(valueSerializer.getCompression());
+        List<Integer> partitionIds = adminClient.getAdminClientCluster()
+                                                .getNodeById(nodeId)
+                                                .getPartitionIds();
+        DictionaryTrainer trainer = new DictionaryTrainer(dictionarySize);
+        Iterator<Pair<ByteArray, Versioned<byte[]>>> entries = adminClient.fetchEntries(nodeId,
+                                                                                        storeName,
+                                                                                        partitionIds,
+                                                                                        null);
+        while (entries.hasNext() && trainer.getNumSamples() < sampleSize) {
+            trainer.add(compressionStrategy.inflate(entries.next().getSecond().getValue()));
+        }
+        byte[] dictionary = trainer.train();
+        if (dictionary.length == 0)
+            Utils.croak("The " + trainer.getNumSamples() + " sampled values have nothing in common");
+        System.out.println("Trained a dictionary of " + dictionary.length + " bytes on "
+                           + trainer.getNumSamples() + " values");
+
+        boolean inPlace = compressionStrategy instanceof DictionaryCompressionStrategy;
+        String dictionaries = DictionaryCompressionStrategy.addDictionary(inPlace ? valueSerializer.getCompression()
+                                                                                                  .getOptions()
+                                                                                 : null,
+                                                                          dictionary);
+        Compression compression = new Compression(DictionaryCompressionStrategy.TYPE_NAME,
+                                                  dictionaries);
+        if (!inPlace) {
+            System.out.println("The values of " + storeName + " are not compressed with a dictionary, "
+                               + "use this value compression for a new store:");
+            System.out.println("<compression><type>" + compression.getType() + "</type><options>"
+                               + compression.getOptions() + "</options></compression>");
+            return;
+        }
+
+        updateValueCompression(adminClient, storeDefinitionList, storeDefinition, compression);
+        int version = DictionaryCompressionStrategy.parseDictionaries(dictionaries).lastKey();
+        System.out.println("Added dictionary version " + version + " of " + storeName
+                           + ", values are still compressed with version "
+                           + DictionaryCompressionStrategy.parseCurrentVersion(dictionaries) + ".");
+        System.out.println("Once every client has bootstrapped the new store definition, "
+                           + "compress with it using --set-current-dictionary " + storeName
+                           + " --dictionary-version " + version);
+    }
+
+    /**
+     * Make the given dictionary version the one the values of the given store
+     * are compressed with, on every node. Clients that have not yet
+     * bootstrapped a store definition containing the version cannot read the
+     * values written with it.
+     */
+    public static void executeSetCurrentDictionary(Integer nodeId,
+                                                   AdminClient adminClient,
+                                                   String storeName,
+                                                   int version) {
+        List<StoreDefinition> storeDefinitionList = adminClient.getRemoteStoreDefList(nodeId).getValue();
+        StoreDefinition storeDefinition = getStoreDefinition(storeDefinitionList, storeName, nodeId);
+        Compression current = storeDefinition.getValueSerializer().getCompression();
+        if (current == null || !DictionaryCompressionStrategy.TYPE_NAME.equals(current.getType()))
+            Utils.croak("The values of " + storeName + " are not compressed with a dictionary");
+        Compression compression = new Compression(DictionaryCompressionStrategy.TYPE_NAME,
+                                                  DictionaryCompressionStrategy.setCurrentVersion(current.getOptions(),
+                                                                                                  version));
+        updateValueCompression(adminClient, storeDefinitionList, storeDefinition, compression);
+    }
+
+    private static StoreDefinition getStoreDefinition(List<StoreDefinition> storeDefinitionList,
+                                                      String storeName,
+                                                      Integer nodeId) {
+        for (StoreDefinition definition: storeDefinitionList) {
+            if (definition.getName().equals(storeName))
+                return definition;
+        }
+        Utils.croak("No store named " + storeName + " on node " + nodeId);
+        return null;
+    }
+
+    /*
+     * Replace the value compression of the given store in its store
+     * definition on every node
+     */
+    private static void updateValueCompression(AdminClient adminClient,
+                                               List<StoreDefinition> storeDefinitionList,
+                                               StoreDefinition storeDefinition,
+                                               Compression compression) {
+        String storeName = storeDefinition.getName();
+        SerializerDefinition valueSerializer = storeDefinition.getValueSerializer();
+        SerializerDefinition newValueSerializer = new SerializerDefinition(valueSerializer.getName(),
+                                                                           valueSerializer.getAllSchemaInfoVersions(),
+                                                                           valueSerializer.hasVersion(),
+                                                                           compression);
+        List<StoreDefinition> newStoreDefinitionList = Lists.newArrayList();
+        for (StoreDefinition definition: storeDefinitionList) {
+            if (definition == storeDefinition)
+                definition = new StoreDefinition(definition.getName(),
+                                                 definition.getType(),
+                                                 definition.getKeySerializer(),
+                                                 newValueSerializer,
+                                                 definition.getRoutingPolicy(),
+                                                 definition.getRoutingStrategyType(),
+                                                 definition.getReplicationFactor(),
+                                                 definition.hasPreferredReads() ? definition.getPreferredReads() : null,
+                                                 definition.getRequiredReads(),
+                                                 definition.hasPreferredWrites() ? definition.getPreferredWrites() : null,
+                                                 definition.getRequiredWrites(),
+                                                 definition.getViewTargetStoreName(),
+                                                 definition.getValueTransformation(),
+                                                 definition.getRetentionDays(),
+                                                 definition.getRetentionScanThrottleRate(),
+                                                 definition.getVectorClockMaxEntries(),
+                                                 definition.getVectorClockMaxAgeMs());
+            newStoreDefinitionList.add(definition);
+        }
+        for (Node node: adminClient.getAdminClientCluster().getNodes()) {
+            System.out.println("Updating the value compression of " + storeName + " on node " + node.getId());
+            adminClient.updateRemoteStoreDefList(node.getId(), newStoreDefinitionList);
+        }
+    }
+
     public static void executeDeletePartitions(Integer nodeId,
                                                AdminClient adminClient,
                                                List<Integer> partitionIdList,
@@ -32,9 +32,11 @@ import voldemort.client.protocol.RequestFormatType;
 import voldemort.cluster.Cluster;
 import voldemort.cluster.Node;
 import voldemort.cluster.failuredetector.FailureDetector;
+import voldemort.serialization.ByteArraySerializer;
 import voldemort.serialization.Serializer;
 import voldemort.serialization.SerializerDefinition;
 import voldemort.serialization.SerializerFactory;
+import voldemort.serialization.SlopSerializer;
 import voldemort.serialization.StringSerializer;
 import voldemort.store.Store;
 import voldemort.store.StoreDefinition;
@@ -43,8 +45,10 @@ import voldemort.store.compress.CompressionStrategy;
 import voldemort.store.compress.CompressionStrategyFactory;
 import voldemort.store.logging.LoggingStore;
 import voldemort.store.metadata.MetadataStore;
+import voldemort.store.routed.NodeLatencyTracker;
 import voldemort.store.routed.RoutedStore;
 import voldemort.store.serialized.SerializingStore;
+import voldemort.store.slop.Slop;
 import voldemort.store.stats.StatTrackingStore;
 import voldemort.store.stats.StoreStats;
 import voldemort.store.stats.StoreStatsJmx;
@@ -87,6 +91,8 @@ public abstract class AbstractStoreClientFactory implements StoreClientFactory {
     private final int jmxId;
     protected volatile FailureDetector failureDetector;
     private final int maxBootstrapRetries;
+    private final int getAllBatchSize;
+    private final NodeLatencyTracker hedgeTracker;
     private final StoreStats stats;
     private final ClientConfig config;
 
@@ -102,6 +108,12 @@ public abstract class AbstractStoreClientFactory implements StoreClientFactory {
         this.requestFormatType = config.getRequestFormatType();
         this.jmxId = jmxIdCounter.getAndIncrement();
         this.maxBootstrapRetries = config.getMaxBootstrapRetries();
+        this.getAllBatchSize = config.getGetAllBatchSize();
+        if(config.getHedgedReadPercentile() > 0)
+            this.hedgeTracker = new NodeLatencyTracker(config.getHedgedReadPercentile(),
+                                                       NodeLatencyTracker.DEFAULT_WINDOW_SIZE);
+        else
+            this.hedgeTracker = null;
         this.stats = new StoreStats();
         if(this.isJmxEnabled) {
             JmxUtils.registerMbean(threadPool,
@@ -150,6 +162,21 @@ public abstract class AbstractStoreClientFactory implements StoreClientFactory {
             clientMapping.put(node.getId(), store);
         }
 
+        // the deletes that follow a put with a pruned clock are retried as
+        // slop through the servers' slop stores
+        Map<Integer, Store<ByteArray, Slop>> slopStores = null;
+        if(storeDef.hasVectorClockMaxEntries() || storeDef.hasVectorClockMaxAgeMs()) {
+            slopStores = Maps.newHashMap();
+            for(Node node: cluster.getNodes())
+                slopStores.put(node.getId(),
+                               SerializingStore.wrap(getStore(Slop.SLOP_STORE_NAME,
+                                                              node.getHost(),
+                                                              getPort(node),
+                                                              this.requestFormatType),
+                                                     new ByteArraySerializer(),
+                                                     new SlopSerializer()));
+        }
+
         boolean repairReads = !storeDef.isView();
         Store<ByteArray, byte[]> store = new RoutedStore(storeName,
                                                          clientMapping,
@@ -159,7 +186,10 @@ public abstract class AbstractStoreClientFactory implements StoreClientFactory {
                                                          threadPool,
                                                          routingTimeoutMs,
                                                          getFailureDetector(),
-                                                         SystemTime.INSTANCE);
+                                                         SystemTime.INSTANCE,
+                                                         getAllBatchSize,
+                                                         hedgeTracker,
+                                                         slopStores);
 
         if(isJmxEnabled) {
             StatTrackingStore statStore = new StatTrackingStore(store, this.stats);
@@ -25,6 +25,7 @@ import voldemort.client.protocol.RequestFormatType;
 import voldemort.cluster.failuredetector.FailureDetectorConfig;
 import voldemort.serialization.DefaultSerializerFactory;
 import voldemort.serialization.SerializerFactory;
+import voldemort.store.routed.RoutedStore;
 import voldemort.utils.Props;
 import voldemort.utils.ReflectUtils;
 import voldemort.utils.Utils;
@@ -51,6 +52,8 @@ public class ClientConfig {
     private volatile RequestFormatType requestFormatType = RequestFormatType.VOLDEMORT_V1;
     private volatile RoutingTier routingTier = RoutingTier.CLIENT;
     private volatile boolean enableJmx = true;
+    private volatile boolean enableNonblockingTransport = false;
+    private volatile int selectors = 4;
 
     private volatile String failureDetectorImplementation = FailureDetectorConfig.DEFAULT_IMPLEMENTATION_CLASS_NAME;
     private volatile long failureDetectorBannagePeriod = FailureDetectorConfig.DEFAULT_BANNAGE_PERIOD;
@@ -62,6 +65,8 @@ public class ClientConfig {
     private long failureDetectorRequestLengthThreshold = socketTimeoutMs;
 
     private volatile int maxBootstrapRetries = 2;
+    private volatile int getAllBatchSize = RoutedStore.DEFAULT_GET_ALL_BATCH_SIZE;
+    private volatile double hedgedReadPercentile = 0;
 
     public ClientConfig() {}
 
@@ -82,6 +87,8 @@ public class ClientConfig {
     public static final String BOOTSTRAP_URLS_PROPERTY = "bootstrap_urls";
     public static final String REQUEST_FORMAT_PROPERTY = "request_format";
     public static final String ENABLE_JMX_PROPERTY = "enable_jmx";
+    public static final String ENABLE_NONBLOCKING_TRANSPORT_PROPERTY = "enable_nonblocking_transport";
+    public static final String SELECTORS_PROPERTY = "selectors";
     public static final String FAILUREDETECTOR_IMPLEMENTATION_PROPERTY = "failuredetector_implementation";
     public static final String FAILUREDETECTOR_BANNAGE_PERIOD_PROPERTY = "failuredetector_bannage_period";
     public static final String FAILUREDETECTOR_THRESHOLD_PROPERTY = "failuredetector_threshold";
@@ -91,6 +98,8 @@ public class ClientConfig {
     public static final String FAILUREDETECTOR_CATASTROPHIC_ERROR_TYPES_PROPERTY = "failuredetector_catastrophic_error_types";
     public static final String FAILUREDETECTOR_REQUEST_LENGTH_THRESHOLD_PROPERTY = "failuredetector_request_length_threshold";
     public static final String MAX_BOOTSTRAP_RETRIES = "max_bootstrap_retries";
+    public static final String GET_ALL_BATCH_SIZE_PROPERTY = "get_all_batch_size";
+    public static final String HEDGED_READ_PERCENTILE_PROPERTY = "hedged_read_percentile";
 
     /**
      * Initiate the client config from a set of properties. This is useful for
@@ -148,6 +157,12 @@ public class ClientConfig {
         if(props.containsKey(ENABLE_JMX_PROPERTY))
             this.setEnableJmx(props.getBoolean(ENABLE_JMX_PROPERTY));
 
+        if(props.containsKey(ENABLE_NONBLOCKING_TRANSPORT_PROPERTY))
+            this.setEnableNonblockingTransport(props.getBoolean(ENABLE_NONBLOCKING_TRANSPORT_PROPERTY));
+
+        if(props.containsKey(SELECTORS_PROPERTY))
+            this.setSelectors(props.getInt(SELECTORS_PROPERTY));
+
         if(props.containsKey(FAILUREDETECTOR_IMPLEMENTATION_PROPERTY))
             this.setFailureDetectorImplementation(props.getString(FAILUREDETECTOR_IMPLEMENTATION_PROPERTY));
 
@@ -184,6 +199,12 @@ public class ClientConfig {
 
         if(props.containsKey(MAX_BOOTSTRAP_RETRIES))
             this.setMaxBootstrapRetries(props.getInt(MAX_BOOTSTRAP_RETRIES));
+
+        if(props.containsKey(GET_ALL_BATCH_SIZE_PROPERTY))
+            this.setGetAllBatchSize(props.getInt(GET_ALL_BATCH_SIZE_PROPERTY));
+
+        if(props.containsKey(HEDGED_READ_PERCENTILE_PROPERTY))
+            this.setHedgedReadPercentile(props.getDouble(HEDGED_READ_PERCENTILE_PROPERTY));
     }
 
     public int getMaxConnectionsPerNode() {
@@ -448,6 +469,43 @@ public class ClientConfig {
         return this;
     }
 
+    public boolean isNonblockingTransportEnabled() {
+        return this.enableNonblockingTransport;
+    }
+
+    /**
+     * Use the selector based, non-blocking transport for socket stores instead
+     * of a pool of blocking sockets. Requests then queue for a free connection
+     * rather than blocking the caller, and can also be submitted
+     * asynchronously through {@link voldemort.store.nonblockingstore.NonblockingStore}.
+     * RoutedStore still makes its requests through the blocking interface.
+     * 
+     * @param enableNonblockingTransport If true the non-blocking transport is
+     *        used
+     */
+    public ClientConfig setEnableNonblockingTransport(boolean enableNonblockingTransport) {
+        this.enableNonblockingTransport = enableNonblockingTransport;
+        return this;
+    }
+
+    public int getSelectors() {
+        return this.selectors;
+    }
+
+    /**
+     * Set the number of selector threads used by the non-blocking transport
+     * 
+     * @param selectors The number of selector threads (must be >= 1)
+     * @throws IllegalArgumentException If selectors < 1
+     */
+    public ClientConfig setSelectors(int selectors) {
+        if(selectors < 1)
+            throw new IllegalArgumentException("selectors should be >= 1");
+
+        this.selectors = selectors;
+        return this;
+    }
+
     public String getFailureDetectorImplementation() {
         return failureDetectorImplementation;
     }
@@ -539,4 +597,48 @@ public class ClientConfig {
         return this;
     }
 
+    public int getGetAllBatchSize() {
+        return getAllBatchSize;
+    }
+
+    /**
+     * Set the maximum number of keys that a getAll sends to a single node in
+     * one request. Larger requests are split into several batches that are
+     * sent in parallel.
+     * 
+     * @param getAllBatchSize The maximum number of keys per request (must be
+     *        >= 1)
+     * @throws IllegalArgumentException If getAllBatchSize < 1
+     */
+    public ClientConfig setGetAllBatchSize(int getAllBatchSize) {
+        if(getAllBatchSize < 1)
+            throw new IllegalArgumentException("getAllBatchSize should be >= 1");
+
+        this.getAllBatchSize = getAllBatchSize;
+        return this;
+    }
+
+    public double getHedgedReadPercentile() {
+        return hedgedReadPercentile;
+    }
+
+    /**
+     * Set the percentile of a node's recent read latencies after which a get
+     * is also sent to the next node in the preference list. The first answer
+     * to come back is used. For example 95 hedges the slowest 5% of reads, at
+     * the cost of about 5% more read requests. 0 disables hedging.
+     * 
+     * @param hedgedReadPercentile The latency percentile to hedge at (must be
+     *        between 0 and 100)
+     * @throws IllegalArgumentException If hedgedReadPercentile is not between
+     *         0 and 100
+     */
+    public ClientConfig setHedgedReadPercentile(double hedgedReadPercentile) {
+        if(hedgedReadPercentile < 0 || hedgedReadPercentile > 100)
+            throw new IllegalArgumentException("hedgedReadPercentile should be between 0 and 100");
+
+        this.hedgedReadPercentile = hedgedReadPercentile;
+        return this;
+    }
+
 }
@@ -30,9 +30,11 @@ import voldemort.cluster.failuredetector.FailureDetectorConfig;
 import voldemort.cluster.failuredetector.FailureDetectorListener;
 import voldemort.store.Store;
 import voldemort.store.metadata.MetadataStore;
+import voldemort.store.socket.NonblockingSocketStore;
 import voldemort.store.socket.SocketDestination;
 import voldemort.store.socket.SocketPool;
 import voldemort.store.socket.SocketStore;
+import voldemort.store.socket.clientrequest.ClientRequestExecutorPool;
 import voldemort.utils.ByteArray;
 import voldemort.utils.JmxUtils;
 import voldemort.utils.Utils;
@@ -50,19 +52,35 @@ public class SocketStoreClientFactory extends AbstractStoreClientFactory {
     public static final String URL_SCHEME = "tcp";
 
     private final SocketPool socketPool;
+    private final ClientRequestExecutorPool clientRequestExecutorPool;
     private final RoutingTier routingTier;
     private FailureDetectorListener failureDetectorListener;
 
     public SocketStoreClientFactory(ClientConfig config) {
         super(config);
         this.routingTier = config.getRoutingTier();
-        this.socketPool = new SocketPool(config.getMaxConnectionsPerNode(),
-                                         config.getConnectionTimeout(TimeUnit.MILLISECONDS),
-                                         config.getSocketTimeout(TimeUnit.MILLISECONDS),
-                                         config.getSocketBufferSize(),
-                                         config.getSocketKeepAlive());
-        if(config.isJmxEnabled())
-            JmxUtils.registerMbean(socketPool, JmxUtils.createObjectName(SocketPool.class));
+        if(config.isNonblockingTransportEnabled()) {
+            this.socketPool = null;
+            this.clientRequestExecutorPool = new ClientRequestExecutorPool(config.getSelectors(),
+                                                                           config.getMaxConnectionsPerNode(),
+                                                                           config.getConnectionTimeout(TimeUnit.MILLISECONDS),
+                                                                           config.getSocketTimeout(TimeUnit.MILLISECONDS),
+                                                                           config.getSocketBufferSize(),
+                                                                           config.getSocketKeepAlive(),
+                                                                           config.getMaxQueuedRequests());
+            if(config.isJmxEnabled())
+                JmxUtils.registerMbean(clientRequestExecutorPool,
+                                       JmxUtils.createObjectName(ClientRequestExecutorPool.class));
+        } else {
+            this.clientRequestExecutorPool = null;
+            this.socketPool = new SocketPool(config.getMaxConnectionsPerNode(),
+                                             config.getConnectionTimeout(TimeUnit.MILLISECONDS),
+                                             config.getSocketTimeout(TimeUnit.MILLISECONDS),
+                                             config.getSocketBufferSize(),
+                                             config.getSocketKeepAlive());
+            if(config.isJmxEnabled())
+                JmxUtils.registerMbean(socketPool, JmxUtils.createObjectName(SocketPool.class));
+        }
     }
 
     @Override
@@ -70,8 +88,14 @@ public class SocketStoreClientFactory extends AbstractStoreClientFactory {
                                                 String host,
                                                 int port,
                                                 RequestFormatType type) {
+        SocketDestination destination = new SocketDestination(Utils.notNull(host), port, type);
+        if(clientRequestExecutorPool != null)
+            return new NonblockingSocketStore(Utils.notNull(storeName),
+                                              destination,
+                                              clientRequestExecutorPool,
+                                              RoutingTier.SERVER.equals(routingTier));
         return new SocketStore(Utils.notNull(storeName),
-                               new SocketDestination(Utils.notNull(host), port, type),
+                               destination,
                                socketPool,
                                RoutingTier.SERVER.equals(routingTier));
     }
@@ -93,7 +117,10 @@ public class SocketStoreClientFactory extends AbstractStoreClientFactory {
                 SocketDestination destination = new SocketDestination(node.getHost(),
                                                                       node.getSocketPort(),
                                                                       config.getRequestFormatType());
-                socketPool.close(destination);
+                if(clientRequestExecutorPool != null)
+                    clientRequestExecutorPool.close(destination);
+                else
+                    socketPool.close(destination);
             }
 
         };
@@ -133,7 +160,10 @@ public class SocketStoreClientFactory extends AbstractStoreClientFactory {
 
     @Override
     public void close() {
-        this.socketPool.close();
+        if(clientRequestExecutorPool != null)
+            this.clientRequestExecutorPool.close();
+        else
+            this.socketPool.close();
         if(failureDetector != null)
             this.failureDetector.removeFailureDetectorListener(failureDetectorListener);
         this.getThreadPool().shutdown();
@@ -32,6 +32,8 @@ public class RequestFormatFactory {
     public RequestFormat getRequestFormat(RequestFormatType type) {
         switch(type) {
             case VOLDEMORT_V1:
+            case VOLDEMORT_V3:
+                // the request id framing of v3 is added by the transport
                 return new VoldemortNativeClientRequestFormat(1);
             case PROTOCOL_BUFFERS:
                 return new ProtoBuffClientRequestFormat();
@@ -19,21 +19,34 @@ package voldemort.client.protocol;
 /**
  * An enumeration of request serialization types
  * 
+ * VOLDEMORT_V3 frames each voldemort-native-v1 request and response with a
+ * request id and a length, which lets a client have many requests outstanding
+ * on one connection. An NIO server with worker threads executes them
+ * concurrently and answers each as soon as it is done; otherwise they are
+ * answered in the order they arrived.
+ * 
  * 
  */
 public enum RequestFormatType {
     VOLDEMORT_V0("vp0", "voldemort-native-v0"),
     VOLDEMORT_V1("vp1", "voldemort-native-v1"),
     VOLDEMORT_V2("vp2", "voldemort-native-v2"),
+    VOLDEMORT_V3("vp3", "voldemort-native-v3", true),
     PROTOCOL_BUFFERS("pb0", "protocol-buffers-v0"),
     ADMIN_PROTOCOL_BUFFERS("ad1", "admin-v1");
 
     private final String code;
     private final String displayName;
+    private final boolean isPipelined;
 
     private RequestFormatType(String code, String display) {
+        this(code, display, false);
+    }
+
+    private RequestFormatType(String code, String display, boolean isPipelined) {
         this.code = code;
         this.displayName = display;
+        this.isPipelined = isPipelined;
     }
 
     public String getCode() {
@@ -44,6 +57,14 @@ public enum RequestFormatType {
         return this.displayName;
     }
 
+    /**
+     * @return True if requests in this format carry an id, so that more than
+     *         one of them can be outstanding on a connection
+     */
+    public boolean isPipelined() {
+        return isPipelined;
+    }
+
     public static RequestFormatType fromCode(String code) {
         for(RequestFormatType type: RequestFormatType.values())
             if(type.getCode().equals(code))
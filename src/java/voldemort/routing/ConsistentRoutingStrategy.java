@@ -147,7 +147,10 @@ public class ConsistentRoutingStrategy implements RoutingStrategy {
     }
 
     public List<Integer> getPartitionList(byte[] key) {
-        int index = abs(hash.hash(key)) % (Math.max(1, this.partitionToNode.length));
-        return getReplicatingPartitionList(index);
+        return getReplicatingPartitionList(getMasterPartition(key));
+    }
+
+    public int getMasterPartition(byte[] key) {
+        return abs(hash.hash(key)) % (Math.max(1, this.partitionToNode.length));
     }
 }
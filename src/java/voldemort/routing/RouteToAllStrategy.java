@@ -32,9 +32,16 @@ import voldemort.cluster.Node;
 public class RouteToAllStrategy implements RoutingStrategy {
 
     private Collection<Node> nodes;
+    private final int masterPartition;
 
     public RouteToAllStrategy(Collection<Node> nodes) {
         this.nodes = nodes;
+        int lowest = -1;
+        for(Node node: nodes)
+            for(int partition: node.getPartitionIds())
+                if(lowest < 0 || partition < lowest)
+                    lowest = partition;
+        this.masterPartition = lowest;
     }
 
     public List<Node> routeRequest(byte[] key) {
@@ -52,4 +59,14 @@ public class RouteToAllStrategy implements RoutingStrategy {
     public List<Integer> getReplicatingPartitionList(int partitionId) {
         throw new UnsupportedOperationException("Not yet implemented.");
     }
+
+    /**
+     * Every key is kept on every node, so all keys share one master partition:
+     * the lowest partition in the cluster
+     */
+    public int getMasterPartition(byte[] key) {
+        if(masterPartition < 0)
+            throw new IllegalStateException("No partitions are assigned to the nodes.");
+        return masterPartition;
+    }
 }
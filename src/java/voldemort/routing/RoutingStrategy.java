@@ -47,6 +47,16 @@ public interface RoutingStrategy {
      */
     public List<Integer> getPartitionList(byte[] key);
 
+    /**
+     * Get the partition the given key hashes to, the first partition of its
+     * partition list. Unlike the rest of the partition list, it does not change
+     * when partitions move between nodes.
+     * 
+     * @param key The key
+     * @return The id of the master partition of the key
+     */
+    public int getMasterPartition(byte[] key);
+
     /**
      * Get the replication partitions list for the given partition.
      * 
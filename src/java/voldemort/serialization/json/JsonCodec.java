@@ -0,0 +1,790 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.serialization.json;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import voldemort.serialization.SerializationException;
+import voldemort.utils.ByteUtils;
+
+/**
+ * A reader and writer for the values of one JsonTypeDefinition. The type tree
+ * is compiled once into a tree of codecs, so serializing a value dispatches
+ * directly to the codec of each field instead of re-interpreting the type
+ * definition, and maps are read and written through arrays of their
+ * properties.
+ * 
+ * A codec can also skip over a serialized value without reading it, which
+ * lets a single property be pulled out of a serialized map without
+ * materializing the rest of it (see {@link #seek(byte[], int, String[])}).
+ * 
+ * 
+ */
+public abstract class JsonCodec {
+
+    static final int MAX_SEQ_LENGTH = 0x3FFFFFFF;
+
+    /**
+     * Compile the given type
+     * 
+     * @param type The type, as returned by JsonTypeDefinition.getType()
+     * @return The codec for values of that type
+     */
+    @SuppressWarnings("unchecked")
+    public static JsonCodec compile(Object type) {
+        if(type instanceof Map<?, ?>) {
+            return new MapCodec((Map<String, Object>) type);
+        } else if(type instanceof List<?>) {
+            List<?> list = (List<?>) type;
+            if(list.size() != 1)
+                throw new SerializationException("Invalid type: expected single value type in list: "
+                                                 + type);
+            return new ListCodec(type, compile(list.get(0)));
+        } else if(type instanceof JsonTypes) {
+            switch((JsonTypes) type) {
+                case BOOLEAN:
+                    return BOOLEAN_CODEC;
+                case STRING:
+                    return STRING_CODEC;
+                case INT8:
+                    return INT8_CODEC;
+                case INT16:
+                    return INT16_CODEC;
+                case INT32:
+                    return INT32_CODEC;
+                case INT64:
+                    return INT64_CODEC;
+                case FLOAT32:
+                    return FLOAT32_CODEC;
+                case FLOAT64:
+                    return FLOAT64_CODEC;
+                case BYTES:
+                    return BYTES_CODEC;
+                case DATE:
+                    return DATE_CODEC;
+            }
+        }
+        throw new SerializationException("Unknown type: " + type);
+    }
+
+    private final Object type;
+
+    private JsonCodec(Object type) {
+        this.type = type;
+    }
+
+    public Object getType() {
+        return type;
+    }
+
+    /**
+     * Write the given object
+     * 
+     * @throws SerializationException If the object does not match the type
+     */
+    public final void write(DataOutputStream output, Object object) throws IOException {
+        try {
+            writeValue(output, object);
+        } catch(ClassCastException e) {
+            // simpler than doing every test
+            throw new SerializationException("Expected type " + type
+                                             + " but got object of incompatible type "
+                                             + object.getClass().getName() + ".", e);
+        }
+    }
+
+    public abstract Object read(DataInputStream input) throws IOException;
+
+    /**
+     * Get the offset of the end of the value starting at the given offset
+     * 
+     * @param bytes The serialized bytes
+     * @param offset The offset of a value of this type
+     * @return The offset of the first byte after the value
+     */
+    public abstract int skip(byte[] bytes, int offset);
+
+    /**
+     * Find a property in a serialized value, without reading any of the other
+     * properties
+     * 
+     * @param bytes The serialized bytes
+     * @param offset The offset of a value of this type
+     * @param path The names of the nested map properties leading to the
+     *        property to find
+     * @return The offset of the property, or -1 if one of the maps on the path
+     *         is null
+     * @throws SerializationException If the path does not exist in this type
+     */
+    public int seek(byte[] bytes, int offset, String[] path) {
+        JsonCodec codec = this;
+        for(String property: path) {
+            if(!(codec instanceof MapCodec))
+                throw new SerializationException("Cannot read property " + property
+                                                 + " of non-map type " + codec.getType() + ".");
+            MapCodec map = (MapCodec) codec;
+            int index = map.indexOf(property);
+            offset = map.seek(bytes, offset, index);
+            if(offset < 0)
+                return -1;
+            codec = map.codecs[index];
+        }
+        return offset;
+    }
+
+    /**
+     * Get the codec of the property at the given path in this type
+     * 
+     * @throws SerializationException If the path does not exist in this type
+     */
+    public JsonCodec getCodec(String[] path) {
+        JsonCodec codec = this;
+        for(String property: path) {
+            if(!(codec instanceof MapCodec))
+                throw new SerializationException("Cannot read property " + property
+                                                 + " of non-map type " + codec.getType() + ".");
+            MapCodec map = (MapCodec) codec;
+            codec = map.codecs[map.indexOf(property)];
+        }
+        return codec;
+    }
+
+    /**
+     * @return The size of every serialized value of this type, or -1 if the
+     *         size depends on the value
+     */
+    int getFixedSize() {
+        return -1;
+    }
+
+    abstract void writeValue(DataOutputStream output, Object object) throws IOException;
+
+    /* Fail on values that run past the end of the serialized bytes */
+    static int checkBounds(byte[] bytes, int end) {
+        if(end > bytes.length || end < 0)
+            throw new SerializationException("Unexpected end of input: value needs " + end
+                                             + " bytes, but only " + bytes.length
+                                             + " are available.");
+        return end;
+    }
+
+    static void writeLength(DataOutputStream stream, int size) throws IOException {
+        if(size < Short.MAX_VALUE) {
+            stream.writeShort(size);
+        } else if(size <= MAX_SEQ_LENGTH) {
+            stream.writeInt(size | 0xC0000000);
+        } else {
+            throw new SerializationException("Invalid length: maximum is " + MAX_SEQ_LENGTH);
+        }
+    }
+
+    static int readLength(DataInputStream stream) throws IOException {
+        short size = stream.readShort();
+        // this is a hack for backwards compatibility
+        if(size == -1) {
+            return -1;
+        } else if(size < -1) {
+            // mask off first two bits, remainder is the size
+            int fixedSize = size & 0x3FFF;
+            fixedSize <<= 16;
+            fixedSize += stream.readShort() & 0xFFFF;
+            return fixedSize;
+        } else {
+            return size;
+        }
+    }
+
+    /*
+     * The same as readLength(), but returns the length in the low bits and the
+     * number of bytes it was written in in the high bits, or -1 for null
+     */
+    private static long readLengthAt(byte[] bytes, int offset) {
+        checkBounds(bytes, offset + ByteUtils.SIZE_OF_SHORT);
+        short size = ByteUtils.readShort(bytes, offset);
+        if(size == -1) {
+            return -1;
+        } else if(size < -1) {
+            checkBounds(bytes, offset + ByteUtils.SIZE_OF_INT);
+            long fixedSize = ByteUtils.readInt(bytes, offset) & MAX_SEQ_LENGTH;
+            return ((long) ByteUtils.SIZE_OF_INT << 32) | fixedSize;
+        } else {
+            return ((long) ByteUtils.SIZE_OF_SHORT << 32) | size;
+        }
+    }
+
+    /* The offset after a length read by readLengthAt() */
+    private static int skipLength(int offset, long length) {
+        if(length == -1)
+            return offset + ByteUtils.SIZE_OF_SHORT;
+        return offset + (int) (length >>> 32);
+    }
+
+    private static int size(long length) {
+        return length == -1 ? 0 : (int) length;
+    }
+
+    private static final JsonCodec BOOLEAN_CODEC = new FixedSizeCodec(JsonTypes.BOOLEAN,
+                                                                      ByteUtils.SIZE_OF_BYTE) {
+
+        @Override
+        void writeValue(DataOutputStream output, Object object) throws IOException {
+            Boolean b = (Boolean) object;
+            if(b == null)
+                output.writeByte(-1);
+            else if(b.booleanValue())
+                output.writeByte(1);
+            else
+                output.write(0);
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            byte b = input.readByte();
+            if(b < 0)
+                return null;
+            else if(b == 0)
+                return false;
+            else
+                return true;
+        }
+    };
+
+    private static final JsonCodec INT8_CODEC = new FixedSizeCodec(JsonTypes.INT8,
+                                                                   ByteUtils.SIZE_OF_BYTE) {
+
+        @Override
+        void writeValue(DataOutputStream output, Object object) throws IOException {
+            Byte b = (Byte) object;
+            if(b == null)
+                output.writeByte(Byte.MIN_VALUE);
+            else if(b.byteValue() == Byte.MIN_VALUE)
+                throw new SerializationException("Underflow: attempt to store " + Byte.MIN_VALUE
+                                                 + " in int8, but minimum value is "
+                                                 + (Byte.MIN_VALUE - 1) + ".");
+            else
+                output.writeByte(b.byteValue());
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            byte b = input.readByte();
+            if(b == Byte.MIN_VALUE)
+                return null;
+            else
+                return b;
+        }
+    };
+
+    private static final JsonCodec INT16_CODEC = new FixedSizeCodec(JsonTypes.INT16,
+                                                                    ByteUtils.SIZE_OF_SHORT) {
+
+        @Override
+        void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null)
+                output.writeShort(Short.MIN_VALUE);
+            else {
+                short s = coerceToShort(object);
+                if(s == Short.MIN_VALUE)
+                    throw new SerializationException("Underflow: attempt to store "
+                                                     + Short.MIN_VALUE
+                                                     + " in int16, but minimum value is "
+                                                     + (Short.MIN_VALUE - 1) + ".");
+                output.writeShort(s);
+            }
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            short s = input.readShort();
+            if(s == Short.MIN_VALUE)
+                return null;
+            else
+                return s;
+        }
+    };
+
+    private static final JsonCodec INT32_CODEC = new FixedSizeCodec(JsonTypes.INT32,
+                                                                    ByteUtils.SIZE_OF_INT) {
+
+        @Override
+        void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null)
+                output.writeInt(Integer.MIN_VALUE);
+            else {
+                int i = coerceToInteger(object);
+                if(i == Integer.MIN_VALUE)
+                    throw new SerializationException("Underflow: attempt to store "
+                                                     + Integer.MIN_VALUE
+                                                     + " in int32, but minimum value is "
+                                                     + (Integer.MIN_VALUE - 1) + ".");
+                output.writeInt(i);
+            }
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            int i = input.readInt();
+            if(i == Integer.MIN_VALUE)
+                return null;
+            else
+                return i;
+        }
+    };
+
+    private static final JsonCodec INT64_CODEC = new FixedSizeCodec(JsonTypes.INT64,
+                                                                    ByteUtils.SIZE_OF_LONG) {
+
+        @Override
+        void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null)
+                output.writeLong(Long.MIN_VALUE);
+            else {
+                long l = coerceToLong(object);
+                if(l == Long.MIN_VALUE)
+                    throw new SerializationException("Underflow: attempt to store "
+                                                     + Long.MIN_VALUE
+                                                     + " in int64, but minimum value is "
+                                                     + (Long.MIN_VALUE - 1) + ".");
+                output.writeLong(l);
+            }
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            long l = input.readLong();
+            if(l == Long.MIN_VALUE)
+                return null;
+            else
+                return l;
+        }
+    };
+
+    private static final JsonCodec FLOAT32_CODEC = new FixedSizeCodec(JsonTypes.FLOAT32,
+                                                                      ByteUtils.SIZE_OF_INT) {
+
+        @Override
+        void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null)
+                output.writeFloat(Float.MIN_VALUE);
+            else {
+                float f = coerceToFloat(object);
+                if(f == Float.MIN_VALUE)
+                    throw new SerializationException("Underflow: attempt to store "
+                                                     + Float.MIN_VALUE
+                                                     + " in float32, but that value is reserved for null.");
+                output.writeFloat(f);
+            }
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            float f = input.readFloat();
+            if(f == Float.MIN_VALUE)
+                return null;
+            else
+                return f;
+        }
+    };
+
+    private static final JsonCodec FLOAT64_CODEC = new FixedSizeCodec(JsonTypes.FLOAT64,
+                                                                      ByteUtils.SIZE_OF_LONG) {
+
+        @Override
+        void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null)
+                output.writeDouble(Double.MIN_VALUE);
+            else {
+                double d = coerceToDouble(object);
+                if(d == Double.MIN_VALUE)
+                    throw new SerializationException("Underflow: attempt to store "
+                                                     + Double.MIN_VALUE
+                                                     + " in float64, but that value is reserved for null.");
+                output.writeDouble(d);
+            }
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            double d = input.readDouble();
+            if(d == Double.MIN_VALUE)
+                return null;
+            else
+                return d;
+        }
+    };
+
+    private static final JsonCodec DATE_CODEC = new FixedSizeCodec(JsonTypes.DATE,
+                                                                   ByteUtils.SIZE_OF_LONG) {
+
+        @Override
+        void writeValue(DataOutputStream output, Object object) throws IOException {
+            Date d = coerceToDate(object);
+            if(d == null)
+                output.writeLong(Long.MIN_VALUE);
+            else if(d.getTime() == Long.MIN_VALUE)
+                throw new SerializationException("Underflow: attempt to store "
+                                                 + new Date(Long.MIN_VALUE)
+                                                 + " in date, but that value is reserved for null.");
+            else
+                output.writeLong(d.getTime());
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            long l = input.readLong();
+            if(l == Long.MIN_VALUE)
+                return null;
+            else
+                return new Date(l);
+        }
+    };
+
+    private static final JsonCodec BYTES_CODEC = new BytesCodec(JsonTypes.BYTES) {
+
+        @Override
+        void writeValue(DataOutputStream output, Object object) throws IOException {
+            writeBytes(output, (byte[]) object);
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            return readBytes(input);
+        }
+    };
+
+    private static final JsonCodec STRING_CODEC = new BytesCodec(JsonTypes.STRING) {
+
+        @Override
+        void writeValue(DataOutputStream output, Object object) throws IOException {
+            String s = (String) object;
+            writeBytes(output, s == null ? null : s.getBytes("UTF-8"));
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            byte[] bytes = readBytes(input);
+            if(bytes == null)
+                return null;
+            else
+                return new String(bytes, "UTF-8");
+        }
+    };
+
+    private static abstract class FixedSizeCodec extends JsonCodec {
+
+        private final int size;
+
+        FixedSizeCodec(JsonTypes type, int size) {
+            super(type);
+            this.size = size;
+        }
+
+        @Override
+        public int skip(byte[] bytes, int offset) {
+            return checkBounds(bytes, offset + size);
+        }
+
+        @Override
+        int getFixedSize() {
+            return size;
+        }
+    }
+
+    private static abstract class BytesCodec extends JsonCodec {
+
+        BytesCodec(JsonTypes type) {
+            super(type);
+        }
+
+        @Override
+        public int skip(byte[] bytes, int offset) {
+            long length = readLengthAt(bytes, offset);
+            return checkBounds(bytes, skipLength(offset, length) + size(length));
+        }
+
+        static byte[] readBytes(DataInputStream stream) throws IOException {
+            int size = readLength(stream);
+            if(size < 0)
+                return null;
+            byte[] bytes = new byte[size];
+            ByteUtils.read(stream, bytes);
+            return bytes;
+        }
+
+        static void writeBytes(DataOutputStream output, byte[] b) throws IOException {
+            if(b == null) {
+                writeLength(output, -1);
+            } else {
+                writeLength(output, b.length);
+                output.write(b);
+            }
+        }
+    }
+
+    private static class ListCodec extends JsonCodec {
+
+        private final JsonCodec entryCodec;
+
+        ListCodec(Object type, JsonCodec entryCodec) {
+            super(type);
+            this.entryCodec = entryCodec;
+        }
+
+        @Override
+        void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null) {
+                writeLength(output, -1);
+                return;
+            }
+            if(!(object instanceof List<?>))
+                throw new SerializationException("Expected List but got " + object.getClass()
+                                                 + ": " + object);
+            List<?> objects = (List<?>) object;
+            writeLength(output, objects.size());
+            for(Object o: objects)
+                entryCodec.write(output, o);
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            int size = readLength(input);
+            if(size < 0)
+                return null;
+            List<Object> items = new ArrayList<Object>(size);
+            for(int i = 0; i < size; i++)
+                items.add(entryCodec.read(input));
+            return items;
+        }
+
+        @Override
+        public int skip(byte[] bytes, int offset) {
+            long length = readLengthAt(bytes, offset);
+            offset = skipLength(offset, length);
+            int entrySize = entryCodec.getFixedSize();
+            if(entrySize >= 0)
+                return checkBounds(bytes, offset + size(length) * entrySize);
+            for(int i = 0; i < size(length); i++)
+                offset = entryCodec.skip(bytes, offset);
+            return offset;
+        }
+    }
+
+    private static class MapCodec extends JsonCodec {
+
+        private final String[] properties;
+        private final JsonCodec[] codecs;
+        private final Map<String, Integer> indexes;
+        /*
+         * The offset of each property from the start of the map, or -1 for the
+         * properties after the first variable size one
+         */
+        private final int[] offsets;
+
+        MapCodec(Map<String, Object> type) {
+            super(type);
+            int size = type.size();
+            this.properties = new String[size];
+            this.codecs = new JsonCodec[size];
+            this.indexes = new HashMap<String, Integer>(size * 2);
+            this.offsets = new int[size];
+            int i = 0;
+            int offset = ByteUtils.SIZE_OF_BYTE;
+            for(Map.Entry<String, Object> entry: type.entrySet()) {
+                properties[i] = entry.getKey();
+                codecs[i] = compile(entry.getValue());
+                indexes.put(entry.getKey(), i);
+                offsets[i] = offset;
+                if(offset >= 0 && codecs[i].getFixedSize() >= 0)
+                    offset += codecs[i].getFixedSize();
+                else
+                    offset = -1;
+                i++;
+            }
+        }
+
+        @Override
+        void writeValue(DataOutputStream output, Object object) throws IOException {
+            if(object == null) {
+                output.writeByte(-1);
+                return;
+            }
+            if(!(object instanceof Map<?, ?>))
+                throw new SerializationException("Expected Map, but got " + object.getClass()
+                                                 + ": " + object);
+            Map<?, ?> map = (Map<?, ?>) object;
+            output.writeByte(1);
+            if(map.size() != properties.length)
+                throw new SerializationException("Invalid map for serialization, expected: "
+                                                 + getType() + " but got " + map);
+            for(int i = 0; i < properties.length; i++) {
+                Object value = map.get(properties[i]);
+                if(value == null && !map.containsKey(properties[i]))
+                    throw new SerializationException("Missing property: " + properties[i]
+                                                     + " that is required by the type ("
+                                                     + getType() + ")");
+                try {
+                    codecs[i].write(output, value);
+                } catch(SerializationException e) {
+                    throw new SerializationException("Fail to write property: " + properties[i],
+                                                     e);
+                }
+            }
+        }
+
+        @Override
+        public Object read(DataInputStream input) throws IOException {
+            if(input.readByte() == -1)
+                return null;
+            Map<String, Object> m = new HashMap<String, Object>((int) (properties.length / 0.75f) + 1);
+            for(int i = 0; i < properties.length; i++)
+                m.put(properties[i], codecs[i].read(input));
+            return m;
+        }
+
+        @Override
+        public int skip(byte[] bytes, int offset) {
+            checkBounds(bytes, offset + 1);
+            if(bytes[offset] == -1)
+                return offset + 1;
+            if(properties.length == 0)
+                return offset + 1;
+            int last = properties.length - 1;
+            return codecs[last].skip(bytes, seek(bytes, offset, last));
+        }
+
+        int indexOf(String property) {
+            Integer index = indexes.get(property);
+            if(index == null)
+                throw new SerializationException("No property " + property + " in type "
+                                                 + getType() + ".");
+            return index;
+        }
+
+        /* The offset of the given property, or -1 if the map is null */
+        int seek(byte[] bytes, int offset, int index) {
+            checkBounds(bytes, offset + 1);
+            if(bytes[offset] == -1)
+                return -1;
+            if(offsets[index] >= 0)
+                return offset + offsets[index];
+            // skip from the last property with a known offset
+            int i = index;
+            while(offsets[i] < 0)
+                i--;
+            int position = offset + offsets[i];
+            for(; i < index; i++)
+                position = codecs[i].skip(bytes, position);
+            return position;
+        }
+    }
+
+    private static short coerceToShort(Object o) {
+        Class<?> c = o.getClass();
+        if(c == Short.class)
+            return (Short) o;
+        else if(c == Byte.class)
+            return ((Byte) o).shortValue();
+        else
+            throw new SerializationException("Object of type " + c.getName()
+                                             + " cannot be coerced to type " + JsonTypes.INT16
+                                             + " as the schema specifies.");
+    }
+
+    private static int coerceToInteger(Object o) {
+        Class<?> c = o.getClass();
+        if(c == Integer.class)
+            return (Integer) o;
+        else if(c == Byte.class)
+            return ((Byte) o).intValue();
+        else if(c == Short.class)
+            return ((Short) o).intValue();
+        else
+            throw new SerializationException("Object of type " + c.getName()
+                                             + " cannot be coerced to type " + JsonTypes.INT32
+                                             + " as the schema specifies.");
+    }
+
+    private static long coerceToLong(Object o) {
+        Class<?> c = o.getClass();
+        if(c == Long.class)
+            return (Long) o;
+        else if(c == Byte.class)
+            return ((Byte) o).longValue();
+        else if(c == Short.class)
+            return ((Short) o).longValue();
+        else if(c == Integer.class)
+            return ((Integer) o).longValue();
+        else
+            throw new SerializationException("Object of type " + c.getName()
+                                             + " cannot be coerced to type " + JsonTypes.INT64
+                                             + " as the schema specifies.");
+    }
+
+    private static float coerceToFloat(Object o) {
+        Class<?> c = o.getClass();
+        if(c == Float.class)
+            return (Float) o;
+        else if(c == Byte.class)
+            return ((Byte) o).floatValue();
+        else if(c == Short.class)
+            return ((Short) o).floatValue();
+        else if(c == Integer.class)
+            return ((Integer) o).floatValue();
+        else
+            throw new SerializationException("Object of type " + c.getName()
+                                             + " cannot be coerced to type " + JsonTypes.FLOAT32
+                                             + " as the schema specifies.");
+    }
+
+    private static double coerceToDouble(Object o) {
+        Class<?> c = o.getClass();
+        if(c == Double.class)
+            return (Double) o;
+        else if(c == Byte.class)
+            return ((Byte) o).doubleValue();
+        else if(c == Short.class)
+            return ((Short) o).doubleValue();
+        else if(c == Integer.class)
+            return ((Integer) o).doubleValue();
+        else if(c == Float.class)
+            return ((Float) o).doubleValue();
+        else
+            throw new SerializationException("Object of type " + c.getName()
+                                             + " cannot be coerced to type " + JsonTypes.FLOAT64
+                                             + " as the schema specifies.");
+    }
+
+    private static Date coerceToDate(Object o) {
+        if(o == null)
+            return null;
+        else if(o instanceof Date)
+            return (Date) o;
+        else if(o instanceof Number)
+            return new Date(((Number) o).longValue());
+        else
+            throw new SerializationException("Object of type " + o.getClass()
+                                             + " can not be coerced to type " + JsonTypes.DATE);
+    }
+
+}
@@ -25,6 +25,7 @@ import java.util.Properties;
 import voldemort.client.protocol.RequestFormatType;
 import voldemort.cluster.failuredetector.FailureDetectorConfig;
 import voldemort.store.bdb.BdbStorageConfiguration;
+import voldemort.store.logstructured.LogStructuredStorageConfiguration;
 import voldemort.store.memory.CacheStorageConfiguration;
 import voldemort.store.memory.InMemoryStorageConfiguration;
 import voldemort.store.mysql.MysqlStorageConfiguration;
@@ -57,10 +58,17 @@ public class VoldemortConfig implements Serializable {
     private String metadataDirectory;
 
     private String slopStoreType;
+    private int slopBatchSize;
+    private int slopPushParallelism;
+    private long slopMaxWriteBytesPerSec;
+    private long slopFrequencyMs;
 
     private long bdbCacheSize;
     private boolean bdbWriteTransactions;
     private boolean bdbFlushTransactions;
+    private boolean bdbGroupCommit;
+    private long bdbGroupCommitWindowUs;
+    private int bdbGroupCommitMaxBatchSize;
     private boolean bdbSortedDuplicates;
     private String bdbDataDirectory;
     private long bdbMaxLogFileSize;
@@ -71,6 +79,8 @@ public class VoldemortConfig implements Serializable {
     private int bdbCleanerMinFileUtilization;
     private int bdbCleanerMinUtilization;
     private boolean bdbCursorPreload;
+    private boolean bdbPartitionPrefixedKeys;
+    private boolean bdbMultiVersionRecords;
 
     private String mysqlUsername;
     private String mysqlPassword;
@@ -81,6 +91,18 @@ public class VoldemortConfig implements Serializable {
     private int readOnlyBackups;
     private String readOnlyStorageDir;
     private String readOnlySearchStrategy;
+    private boolean readOnlyDataMmap;
+    private boolean readOnlyIndexFences;
+    private int readOnlyMaxDeltas;
+    private boolean readOnlyWarmup;
+    private long readOnlyWarmupBytesPerSec;
+    private int readOnlyWarmupHotKeys;
+
+    private String logStructuredDataDirectory;
+    private long logStructuredMaxSegmentSize;
+    private boolean logStructuredSyncWrites;
+    private int logStructuredCompactionMinUtilization;
+    private long logStructuredCompactionIntervalMs;
 
     private int coreThreads;
     private int maxThreads;
@@ -92,6 +114,11 @@ public class VoldemortConfig implements Serializable {
     private boolean useNioConnector;
     private int nioConnectorSelectors;
     private int nioAdminConnectorSelectors;
+    private int nioConnectorWorkerThreads;
+    private int nioConnectorWorkerQueueSize;
+    private long nioConnectorBufferPoolBytes;
+    private int nioConnectorMaxPipelinedRequests;
+    private int nioConnectorMaxUnwrittenResponseBytes;
 
     private int clientRoutingTimeoutMs;
     private int clientMaxConnectionsPerNode;
@@ -181,6 +208,9 @@ public class VoldemortConfig implements Serializable {
         this.bdbCacheSize = props.getBytes("bdb.cache.size", 200 * 1024 * 1024);
         this.bdbWriteTransactions = props.getBoolean("bdb.write.transactions", false);
         this.bdbFlushTransactions = props.getBoolean("bdb.flush.transactions", false);
+        this.bdbGroupCommit = props.getBoolean("bdb.group.commit", false);
+        this.bdbGroupCommitWindowUs = props.getLong("bdb.group.commit.window.us", 1000);
+        this.bdbGroupCommitMaxBatchSize = props.getInt("bdb.group.commit.max.batch.size", 128);
         this.bdbDataDirectory = props.getString("bdb.data.directory", this.dataDirectory
                                                                       + File.separator + "bdb");
         this.bdbMaxLogFileSize = props.getBytes("bdb.max.logfile.size", 60 * 1024 * 1024);
@@ -194,6 +224,8 @@ public class VoldemortConfig implements Serializable {
 
         // enabling preload make cursor slow for insufficient bdb cache size.
         this.bdbCursorPreload = props.getBoolean("bdb.cursor.preload", false);
+        this.bdbPartitionPrefixedKeys = props.getBoolean("bdb.partition.prefixed.keys", false);
+        this.bdbMultiVersionRecords = props.getBoolean("bdb.multi.version.records", false);
 
         this.readOnlyBackups = props.getInt("readonly.backups", 1);
         this.readOnlySearchStrategy = props.getString("readonly.search.strategy",
@@ -201,8 +233,30 @@ public class VoldemortConfig implements Serializable {
         this.readOnlyStorageDir = props.getString("readonly.data.directory", this.dataDirectory
                                                                              + File.separator
                                                                              + "read-only");
+        this.readOnlyDataMmap = props.getBoolean("readonly.data.mmap", false);
+        this.readOnlyIndexFences = props.getBoolean("readonly.index.fences", false);
+        this.readOnlyMaxDeltas = props.getInt("readonly.max.deltas", 4);
+        this.readOnlyWarmup = props.getBoolean("readonly.warmup.enable", true);
+        this.readOnlyWarmupBytesPerSec = props.getBytes("readonly.warmup.bytes.per.sec",
+                                                        100 * 1024 * 1024);
+        this.readOnlyWarmupHotKeys = props.getInt("readonly.warmup.hot.keys", 10000);
+
+        this.logStructuredDataDirectory = props.getString("log.structured.data.directory",
+                                                          this.dataDirectory + File.separator
+                                                                  + "log-structured");
+        this.logStructuredMaxSegmentSize = props.getBytes("log.structured.max.segment.size",
+                                                          256 * 1024 * 1024);
+        this.logStructuredSyncWrites = props.getBoolean("log.structured.sync.writes", false);
+        this.logStructuredCompactionMinUtilization = props.getInt("log.structured.compaction.min.utilization",
+                                                                  50);
+        this.logStructuredCompactionIntervalMs = props.getLong("log.structured.compaction.interval.ms",
+                                                               60 * Time.MS_PER_SECOND);
 
         this.slopStoreType = props.getString("slop.store.engine", BdbStorageConfiguration.TYPE_NAME);
+        this.slopBatchSize = props.getInt("slop.batch.size", 1000);
+        this.slopPushParallelism = props.getInt("slop.push.parallelism", 2);
+        this.slopMaxWriteBytesPerSec = props.getBytes("slop.write.byte.per.sec", 10 * 1000 * 1000);
+        this.slopFrequencyMs = props.getLong("slop.frequency.ms", 5 * 60 * Time.MS_PER_SECOND);
 
         this.mysqlUsername = props.getString("mysql.user", "root");
         this.mysqlPassword = props.getString("mysql.password", "");
@@ -236,6 +290,14 @@ public class VoldemortConfig implements Serializable {
         this.nioAdminConnectorSelectors = props.getInt("nio.admin.connector.selectors",
                                                        Math.max(8, Runtime.getRuntime()
                                                                           .availableProcessors()));
+        this.nioConnectorWorkerThreads = props.getInt("nio.connector.worker.threads", maxThreads);
+        this.nioConnectorWorkerQueueSize = props.getInt("nio.connector.worker.queue.size", 1000);
+        this.nioConnectorBufferPoolBytes = props.getBytes("nio.connector.buffer.pool.bytes",
+                                                          64 * 1024 * 1024);
+        this.nioConnectorMaxPipelinedRequests = props.getInt("nio.connector.max.pipelined.requests",
+                                                             64);
+        this.nioConnectorMaxUnwrittenResponseBytes = (int) props.getBytes("nio.connector.max.unwritten.response.bytes",
+                                                                          4 * 1024 * 1024);
 
         this.clientMaxConnectionsPerNode = props.getInt("client.max.connections.per.node", 5);
         this.clientConnectionTimeoutMs = props.getInt("client.connection.timeout.ms", 400);
@@ -269,7 +331,8 @@ public class VoldemortConfig implements Serializable {
                                                                     MysqlStorageConfiguration.class.getName(),
                                                                     InMemoryStorageConfiguration.class.getName(),
                                                                     CacheStorageConfiguration.class.getName(),
-                                                                    ReadOnlyStorageConfiguration.class.getName()));
+                                                                    ReadOnlyStorageConfiguration.class.getName(),
+                                                                    LogStructuredStorageConfiguration.class.getName()));
 
         // start at midnight (0-23)
         this.retentionCleanupFirstStartTimeInHour = props.getInt("retention.cleanup.first.start.hour",
@@ -330,8 +393,38 @@ public class VoldemortConfig implements Serializable {
             throw new IllegalArgumentException("core.threads cannot be greater than max.threads.");
         if(maxThreads < 1)
             throw new ConfigurationException("max.threads cannot be less than 1.");
+        if(nioConnectorWorkerThreads < 0)
+            throw new ConfigurationException("nio.connector.worker.threads cannot be less than 0.");
+        if(nioConnectorWorkerThreads > 0 && nioConnectorWorkerQueueSize < 1)
+            throw new ConfigurationException("nio.connector.worker.queue.size cannot be less than 1.");
+        if(nioConnectorMaxPipelinedRequests < 1)
+            throw new ConfigurationException("nio.connector.max.pipelined.requests cannot be less than 1.");
+        if(nioConnectorMaxUnwrittenResponseBytes < 0)
+            throw new ConfigurationException("nio.connector.max.unwritten.response.bytes cannot be negative.");
         if(pusherPollMs < 1)
             throw new ConfigurationException("pusher.poll.ms cannot be less than 1.");
+        if(bdbGroupCommitWindowUs < 0)
+            throw new ConfigurationException("bdb.group.commit.window.us cannot be negative.");
+        if(bdbGroupCommitMaxBatchSize < 1)
+            throw new ConfigurationException("bdb.group.commit.max.batch.size cannot be less than 1.");
+        if(logStructuredCompactionMinUtilization < 0 || logStructuredCompactionMinUtilization > 100)
+            throw new ConfigurationException("log.structured.compaction.min.utilization must be between 0 and 100.");
+        if(logStructuredCompactionIntervalMs < 1)
+            throw new ConfigurationException("log.structured.compaction.interval.ms cannot be less than 1.");
+        if(slopBatchSize < 1)
+            throw new ConfigurationException("slop.batch.size cannot be less than 1.");
+        if(slopPushParallelism < 1)
+            throw new ConfigurationException("slop.push.parallelism cannot be less than 1.");
+        if(slopMaxWriteBytesPerSec < 1)
+            throw new ConfigurationException("slop.write.byte.per.sec cannot be less than 1.");
+        if(slopFrequencyMs < 1)
+            throw new ConfigurationException("slop.frequency.ms cannot be less than 1.");
+        if(readOnlyMaxDeltas < 0)
+            throw new ConfigurationException("readonly.max.deltas cannot be negative.");
+        if(readOnlyWarmupBytesPerSec < 0)
+            throw new ConfigurationException("readonly.warmup.bytes.per.sec cannot be negative.");
+        if(readOnlyWarmupHotKeys < 0)
+            throw new ConfigurationException("readonly.warmup.hot.keys cannot be negative.");
         if(socketTimeoutMs < 0)
             throw new ConfigurationException("socket.timeout.ms must be 0 or more ms.");
         if(clientRoutingTimeoutMs < 0)
@@ -459,6 +552,45 @@ public class VoldemortConfig implements Serializable {
         this.bdbFlushTransactions = bdbSyncTransactions;
     }
 
+    /**
+     * Do we batch the log syncs of concurrent transactions? Only applies when
+     * both write and flush transactions are enabled. Each writer still returns
+     * only once its commit is on disk, but concurrent writers share one fsync.
+     * Given by "bdb.group.commit" default: false
+     */
+    public boolean isBdbGroupCommitEnabled() {
+        return bdbGroupCommit;
+    }
+
+    public void setBdbGroupCommit(boolean bdbGroupCommit) {
+        this.bdbGroupCommit = bdbGroupCommit;
+    }
+
+    /**
+     * The longest time a group commit waits for more writers to join its
+     * batch before syncing. Given by "bdb.group.commit.window.us" default: 1000
+     */
+    public long getBdbGroupCommitWindowUs() {
+        return bdbGroupCommitWindowUs;
+    }
+
+    public void setBdbGroupCommitWindowUs(long bdbGroupCommitWindowUs) {
+        this.bdbGroupCommitWindowUs = bdbGroupCommitWindowUs;
+    }
+
+    /**
+     * The number of commits after which a group commit syncs without waiting
+     * for the rest of its window. Given by "bdb.group.commit.max.batch.size"
+     * default: 128
+     */
+    public int getBdbGroupCommitMaxBatchSize() {
+        return bdbGroupCommitMaxBatchSize;
+    }
+
+    public void setBdbGroupCommitMaxBatchSize(int bdbGroupCommitMaxBatchSize) {
+        this.bdbGroupCommitMaxBatchSize = bdbGroupCommitMaxBatchSize;
+    }
+
     /**
      * The directory in which bdb data is stored. Given by "bdb.data.directory"
      * default: data.directory/bdb
@@ -553,6 +685,39 @@ public class VoldemortConfig implements Serializable {
         this.bdbCursorPreload = bdbCursorPreload;
     }
 
+    /**
+     * Do we prefix the keys of new bdb stores with their partition? This lets
+     * the entries of a partition be fetched or deleted without reading the
+     * whole store, which makes rebalancing much cheaper. It changes the on-disk
+     * layout, which is recorded per store: a store written with the other
+     * layout fails to open rather than being misread. Given by
+     * "bdb.partition.prefixed.keys" default: false
+     */
+    public boolean isBdbPartitionPrefixedKeys() {
+        return this.bdbPartitionPrefixedKeys;
+    }
+
+    public void setBdbPartitionPrefixedKeys(boolean bdbPartitionPrefixedKeys) {
+        this.bdbPartitionPrefixedKeys = bdbPartitionPrefixedKeys;
+    }
+
+    /**
+     * Do we pack all the versions of a key into a single record of new bdb
+     * stores, instead of storing each version as a sorted duplicate? A put
+     * then reads and writes a single record, and a get is a single lookup.
+     * Sorted duplicates are not used for stores in this layout, which is
+     * recorded per store: a store written with the other layout fails to open
+     * rather than being misread. Given by "bdb.multi.version.records" default:
+     * false
+     */
+    public boolean isBdbMultiVersionRecords() {
+        return this.bdbMultiVersionRecords;
+    }
+
+    public void setBdbMultiVersionRecords(boolean bdbMultiVersionRecords) {
+        this.bdbMultiVersionRecords = bdbMultiVersionRecords;
+    }
+
     /**
      * The comfortable number of threads the threadpool will attempt to
      * maintain. Specified by "core.threads" default: max(1, floor(0.5 *
@@ -702,6 +867,54 @@ public class VoldemortConfig implements Serializable {
         this.slopStoreType = slopStoreType;
     }
 
+    /**
+     * The number of slops pushed to a node in one streaming update. Given by
+     * "slop.batch.size" default: 1000
+     */
+    public int getSlopBatchSize() {
+        return slopBatchSize;
+    }
+
+    public void setSlopBatchSize(int slopBatchSize) {
+        this.slopBatchSize = slopBatchSize;
+    }
+
+    /**
+     * The number of batches of slops pushed to each node at the same time.
+     * Given by "slop.push.parallelism" default: 2
+     */
+    public int getSlopPushParallelism() {
+        return slopPushParallelism;
+    }
+
+    public void setSlopPushParallelism(int slopPushParallelism) {
+        this.slopPushParallelism = slopPushParallelism;
+    }
+
+    /**
+     * The maximum rate, in bytes per second, at which slops are pushed out.
+     * Given by "slop.write.byte.per.sec" default: 10MB
+     */
+    public long getSlopMaxWriteBytesPerSec() {
+        return slopMaxWriteBytesPerSec;
+    }
+
+    public void setSlopMaxWriteBytesPerSec(long slopMaxWriteBytesPerSec) {
+        this.slopMaxWriteBytesPerSec = slopMaxWriteBytesPerSec;
+    }
+
+    /**
+     * The interval between runs of the job pushing slops out to their nodes.
+     * Given by "slop.frequency.ms" default: 5 minutes
+     */
+    public long getSlopFrequencyMs() {
+        return slopFrequencyMs;
+    }
+
+    public void setSlopFrequencyMs(long slopFrequencyMs) {
+        this.slopFrequencyMs = slopFrequencyMs;
+    }
+
     public int getSocketTimeoutMs() {
         return this.socketTimeoutMs;
     }
@@ -920,6 +1133,72 @@ public class VoldemortConfig implements Serializable {
         this.nioAdminConnectorSelectors = nioAdminConnectorSelectors;
     }
 
+    /**
+     * The number of threads the NIO connector executes requests on, so that
+     * the selector threads only do I/O. With 0 the selector threads execute
+     * the requests themselves. Given by "nio.connector.worker.threads"
+     * default: max.threads
+     */
+    public int getNioConnectorWorkerThreads() {
+        return nioConnectorWorkerThreads;
+    }
+
+    public void setNioConnectorWorkerThreads(int nioConnectorWorkerThreads) {
+        this.nioConnectorWorkerThreads = nioConnectorWorkerThreads;
+    }
+
+    /**
+     * The number of requests that may wait for an NIO connector worker, beyond
+     * that connections stop reading until a worker frees up. Given by
+     * "nio.connector.worker.queue.size" default: 1000
+     */
+    public int getNioConnectorWorkerQueueSize() {
+        return nioConnectorWorkerQueueSize;
+    }
+
+    public void setNioConnectorWorkerQueueSize(int nioConnectorWorkerQueueSize) {
+        this.nioConnectorWorkerQueueSize = nioConnectorWorkerQueueSize;
+    }
+
+    /**
+     * The most memory the NIO connector holds in idle direct buffers for its
+     * connections; with 0 the connections use unpooled heap buffers. Given by
+     * "nio.connector.buffer.pool.bytes" default: 64MB
+     */
+    public long getNioConnectorBufferPoolBytes() {
+        return nioConnectorBufferPoolBytes;
+    }
+
+    public void setNioConnectorBufferPoolBytes(long nioConnectorBufferPoolBytes) {
+        this.nioConnectorBufferPoolBytes = nioConnectorBufferPoolBytes;
+    }
+
+    /**
+     * The number of requests a pipelining connection may have executing or
+     * waiting to be written before the NIO connector stops reading from it.
+     * Given by "nio.connector.max.pipelined.requests" default: 64
+     */
+    public int getNioConnectorMaxPipelinedRequests() {
+        return nioConnectorMaxPipelinedRequests;
+    }
+
+    public void setNioConnectorMaxPipelinedRequests(int nioConnectorMaxPipelinedRequests) {
+        this.nioConnectorMaxPipelinedRequests = nioConnectorMaxPipelinedRequests;
+    }
+
+    /**
+     * The number of bytes of responses a pipelining connection may have
+     * waiting to be written before the NIO connector stops reading from it.
+     * Given by "nio.connector.max.unwritten.response.bytes" default: 4MB
+     */
+    public int getNioConnectorMaxUnwrittenResponseBytes() {
+        return nioConnectorMaxUnwrittenResponseBytes;
+    }
+
+    public void setNioConnectorMaxUnwrittenResponseBytes(int nioConnectorMaxUnwrittenResponseBytes) {
+        this.nioConnectorMaxUnwrittenResponseBytes = nioConnectorMaxUnwrittenResponseBytes;
+    }
+
     public int getAdminSocketBufferSize() {
         return adminStreamBufferSize;
     }
@@ -1096,6 +1375,146 @@ public class VoldemortConfig implements Serializable {
         this.readOnlySearchStrategy = readOnlySearchStrategy;
     }
 
+    /**
+     * Given by "readonly.data.mmap". If true the read-only data files are
+     * memory mapped along with the index files. default: false
+     */
+    public boolean isReadOnlyDataMmapEnabled() {
+        return readOnlyDataMmap;
+    }
+
+    public void setReadOnlyDataMmapEnabled(boolean readOnlyDataMmap) {
+        this.readOnlyDataMmap = readOnlyDataMmap;
+    }
+
+    /**
+     * Given by "readonly.index.fences". If true an in-heap table of fence
+     * pointers is built over each read-only index file when it is opened.
+     * default: false
+     */
+    public boolean isReadOnlyIndexFencesEnabled() {
+        return readOnlyIndexFences;
+    }
+
+    public void setReadOnlyIndexFencesEnabled(boolean readOnlyIndexFences) {
+        this.readOnlyIndexFences = readOnlyIndexFences;
+    }
+
+    /**
+     * Given by "readonly.max.deltas". The number of deltas layered over a
+     * read-only store version before they are merged into a new version in
+     * the background, 0 to never merge them automatically. default: 4
+     */
+    public int getReadOnlyMaxDeltas() {
+        return readOnlyMaxDeltas;
+    }
+
+    public void setReadOnlyMaxDeltas(int readOnlyMaxDeltas) {
+        this.readOnlyMaxDeltas = readOnlyMaxDeltas;
+    }
+
+    /**
+     * Given by "readonly.warmup.enable". If true the index files and hot
+     * values of a newly swapped in read-only store version are loaded into the
+     * page cache before the version is served. default: true
+     */
+    public boolean isReadOnlyWarmupEnabled() {
+        return readOnlyWarmup;
+    }
+
+    public void setReadOnlyWarmupEnabled(boolean readOnlyWarmup) {
+        this.readOnlyWarmup = readOnlyWarmup;
+    }
+
+    /**
+     * Given by "readonly.warmup.bytes.per.sec". The maximum rate at which a
+     * swapped in read-only store version is read during warmup, 0 for no
+     * limit. default: 100MB
+     */
+    public long getReadOnlyWarmupBytesPerSec() {
+        return readOnlyWarmupBytesPerSec;
+    }
+
+    public void setReadOnlyWarmupBytesPerSec(long readOnlyWarmupBytesPerSec) {
+        this.readOnlyWarmupBytesPerSec = readOnlyWarmupBytesPerSec;
+    }
+
+    /**
+     * Given by "readonly.warmup.hot.keys". The number of keys sampled from the
+     * reads of each read-only store whose values are warmed along with the
+     * index files, 0 to only warm the index files. default: 10000
+     */
+    public int getReadOnlyWarmupHotKeys() {
+        return readOnlyWarmupHotKeys;
+    }
+
+    public void setReadOnlyWarmupHotKeys(int readOnlyWarmupHotKeys) {
+        this.readOnlyWarmupHotKeys = readOnlyWarmupHotKeys;
+    }
+
+    /**
+     * The directory in which the segment files of log-structured stores are
+     * kept. Given by "log.structured.data.directory" default:
+     * data.directory/log-structured
+     */
+    public String getLogStructuredDataDirectory() {
+        return logStructuredDataDirectory;
+    }
+
+    public void setLogStructuredDataDirectory(String logStructuredDataDirectory) {
+        this.logStructuredDataDirectory = logStructuredDataDirectory;
+    }
+
+    /**
+     * The size after which a log-structured store starts a new segment file.
+     * Given by "log.structured.max.segment.size" default: 256MB
+     */
+    public long getLogStructuredMaxSegmentSize() {
+        return logStructuredMaxSegmentSize;
+    }
+
+    public void setLogStructuredMaxSegmentSize(long logStructuredMaxSegmentSize) {
+        this.logStructuredMaxSegmentSize = logStructuredMaxSegmentSize;
+    }
+
+    /**
+     * Given by "log.structured.sync.writes". If true every write to a
+     * log-structured store is synced to disk before it returns. default: false
+     */
+    public boolean isLogStructuredSyncWritesEnabled() {
+        return logStructuredSyncWrites;
+    }
+
+    public void setLogStructuredSyncWritesEnabled(boolean logStructuredSyncWrites) {
+        this.logStructuredSyncWrites = logStructuredSyncWrites;
+    }
+
+    /**
+     * The percentage of live bytes below which a segment of a log-structured
+     * store is compacted. Given by "log.structured.compaction.min.utilization"
+     * default: 50
+     */
+    public int getLogStructuredCompactionMinUtilization() {
+        return logStructuredCompactionMinUtilization;
+    }
+
+    public void setLogStructuredCompactionMinUtilization(int logStructuredCompactionMinUtilization) {
+        this.logStructuredCompactionMinUtilization = logStructuredCompactionMinUtilization;
+    }
+
+    /**
+     * How often the segments of log-structured stores are checked for
+     * compaction. Given by "log.structured.compaction.interval.ms" default: 1
+     * minute
+     */
+    public long getLogStructuredCompactionIntervalMs() {
+        return logStructuredCompactionIntervalMs;
+    }
+
+    public void setLogStructuredCompactionIntervalMs(long logStructuredCompactionIntervalMs) {
+        this.logStructuredCompactionIntervalMs = logStructuredCompactionIntervalMs;
+    }
+
     public boolean isNetworkClassLoaderEnabled() {
         return enableNetworkClassLoader;
     }
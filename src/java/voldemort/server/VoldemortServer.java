@@ -140,6 +140,11 @@ public class VoldemortServer extends AbstractService {
                                                   identityNode.getSocketPort(),
                                                   voldemortConfig.getSocketBufferSize(),
                                                   voldemortConfig.getNioConnectorSelectors(),
+                                                  voldemortConfig.getNioConnectorWorkerThreads(),
+                                                  voldemortConfig.getNioConnectorWorkerQueueSize(),
+                                                  voldemortConfig.getNioConnectorBufferPoolBytes(),
+                                                  voldemortConfig.getNioConnectorMaxPipelinedRequests(),
+                                                  voldemortConfig.getNioConnectorMaxUnwrittenResponseBytes(),
                                                   "nio-socket-server",
                                                   voldemortConfig.isJmxEnabled()));
             } else {
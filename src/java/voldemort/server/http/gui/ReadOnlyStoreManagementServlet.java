@@ -52,6 +52,8 @@ import com.google.common.collect.Maps;
  * operation=fetch, index=index-file-url, data=data-file-url</li>
  * <li>SWAP. operation=swap, store=store-name, index=index-file-url,
  * data=data-file-url</li>
+ * <li>WARMUP-STATUS. The progress of the running or last warmup of the files
+ * swapped into the store. operation=warmup-status, store=store-name</li>
  * </ol>
  * 
  * 
@@ -133,6 +135,8 @@ public class ReadOnlyStoreManagementServlet extends HttpServlet {
                 doFetch(req, resp);
             } else if("rollback".equals(operation)) {
                 doRollback(req);
+            } else if("warmup-status".equals(operation)) {
+                doWarmupStatus(req, resp);
             } else {
                 throw new IllegalArgumentException("Unknown operation parameter: "
                                                    + req.getParameter("operation"));
@@ -185,6 +189,13 @@ public class ReadOnlyStoreManagementServlet extends HttpServlet {
         store.rollback();
     }
 
+    private void doWarmupStatus(HttpServletRequest req, HttpServletResponse resp)
+            throws IOException, ServletException {
+        String storeName = getRequired(req, "store");
+        ReadOnlyStorageEngine store = getStore(storeName);
+        resp.getWriter().write(store.getWarmupStatus());
+    }
+
     private String getRequired(HttpServletRequest req, String name) throws ServletException {
         String val = req.getParameter(name);
         if(val == null)
@@ -196,6 +196,22 @@ public class StatusServlet extends HttpServlet {
 
                     sb.append("\"avg_time_ms\": ");
                     sb.append(stats.get(t).getDisplayAverageTimeInMs());
+                    sb.append(", ");
+
+                    sb.append("\"p50_time_ms\": ");
+                    sb.append(stats.get(t).getDisplayQuantileTimeInMs(0.5));
+                    sb.append(", ");
+
+                    sb.append("\"p95_time_ms\": ");
+                    sb.append(stats.get(t).getDisplayQuantileTimeInMs(0.95));
+                    sb.append(", ");
+
+                    sb.append("\"p99_time_ms\": ");
+                    sb.append(stats.get(t).getDisplayQuantileTimeInMs(0.99));
+                    sb.append(", ");
+
+                    sb.append("\"p999_time_ms\": ");
+                    sb.append(stats.get(t).getDisplayQuantileTimeInMs(0.999));
                     sb.append(" }");
                 }
 
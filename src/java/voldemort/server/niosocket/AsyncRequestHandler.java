@@ -16,6 +16,8 @@
 
 package voldemort.server.niosocket;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -26,6 +28,10 @@ import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -40,6 +46,7 @@ import voldemort.server.protocol.StreamRequestHandler.StreamRequestHandlerState;
 import voldemort.utils.ByteBufferBackedInputStream;
 import voldemort.utils.ByteBufferBackedOutputStream;
 import voldemort.utils.ByteUtils;
+import voldemort.utils.pool.ByteBufferPool;
 
 /**
  * AsyncRequestHandler manages a Selector, SocketChannel, and RequestHandler
@@ -50,6 +57,32 @@ import voldemort.utils.ByteUtils;
  * The bulk of the complexity in this class surrounds partial reads and writes,
  * as well as determining when all the data needed for the request has been
  * read.
+ * <p/>
+ * If there is a worker pool, complete requests are executed on it rather
+ * than on the selector thread. While a worker has the connection, its
+ * SelectionKey has no interest in any events, so only one thread at a time
+ * ever touches the state of this class. Changes to the interest set made by
+ * the worker are only recorded; they're applied by the selector thread in
+ * {@link #resume()}.
+ * <p/>
+ * Pipelined protocols are the exception. Each of their requests carries an
+ * id, so with a worker pool every complete request is copied out of the input
+ * buffer and executed on its own, while the selector thread goes on reading.
+ * Responses are queued as the workers finish and written back by the selector
+ * thread in the order they complete, not the order the requests arrived in.
+ * Such a connection stops reading while it has too many requests executing or
+ * waiting to be written, or too many bytes of responses its client hasn't
+ * read, and takes up the requests it has buffered again once it's back under
+ * both limits.
+ * <p/>
+ * Requests are never executed on the selector thread when there's a worker
+ * pool. If the pool's queue is full the request is kept, the connection stops
+ * reading, and the SelectorManager hands the request to the pool again once a
+ * worker frees up (see {@link #retryDispatch()}).
+ * <p/>
+ * The buffers come from the {@link ByteBufferPool} shared by the service, if
+ * there is one. Buffers that grow are replaced through the pool too, and
+ * they all go back to it when the connection is closed.
  * 
  * 
  * @see voldemort.server.protocol.RequestHandler
@@ -73,22 +106,104 @@ public class AsyncRequestHandler implements Runnable {
 
     private RequestHandler requestHandler;
 
+    private boolean isPipelined;
+
     private StreamRequestHandler streamRequestHandler;
 
+    private final Executor workerPool;
+
+    private final SelectorManager selectorManager;
+
+    private final ByteBufferPool bufferPool;
+
+    private final int maxPipelinedRequests;
+
+    private final int maxUnwrittenResponseBytes;
+
+    /*
+     * The pipelined requests handed to workers whose responses haven't yet
+     * been moved to the output buffer
+     */
+    private int pipelinedRequests;
+
+    private boolean isDispatched;
+
+    private int pendingInterestOps;
+
+    /*
+     * A request that the worker pool rejected because its queue was full,
+     * waiting for the SelectorManager to retry it
+     */
+    private Runnable waitingTask;
+
+    /*
+     * The responses to pipelined requests that workers have finished but the
+     * selector thread hasn't yet moved to the output buffer
+     */
+    private final Queue<byte[]> completedResponses;
+
+    private volatile Throwable workerError;
+
     private final Logger logger = Logger.getLogger(getClass());
 
     public AsyncRequestHandler(Selector selector,
                                SocketChannel socketChannel,
                                RequestHandlerFactory requestHandlerFactory,
                                int socketBufferSize) {
+        this(selector,
+             socketChannel,
+             requestHandlerFactory,
+             socketBufferSize,
+             null,
+             null,
+             null,
+             Integer.MAX_VALUE,
+             Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create an AsyncRequestHandler
+     * 
+     * @param selector The Selector the channel is registered with
+     * @param socketChannel The channel to the client
+     * @param requestHandlerFactory The factory for the protocol handlers
+     * @param socketBufferSize The initial size of the buffers
+     * @param workerPool The pool to execute requests on, or null to execute
+     *        them on the selector thread
+     * @param selectorManager The SelectorManager to hand the connection back
+     *        to once a worker is done with it; only needed with a worker pool
+     * @param bufferPool The pool to take the buffers from, or null to
+     *        allocate them on the heap
+     * @param maxPipelinedRequests The number of pipelined requests the
+     *        connection may have executing or unwritten before it stops
+     *        reading
+     * @param maxUnwrittenResponseBytes The number of bytes of pipelined
+     *        responses the connection may have unwritten before it stops
+     *        reading
+     */
+    public AsyncRequestHandler(Selector selector,
+                               SocketChannel socketChannel,
+                               RequestHandlerFactory requestHandlerFactory,
+                               int socketBufferSize,
+                               Executor workerPool,
+                               SelectorManager selectorManager,
+                               ByteBufferPool bufferPool,
+                               int maxPipelinedRequests,
+                               int maxUnwrittenResponseBytes) {
         this.selector = selector;
         this.socketChannel = socketChannel;
         this.requestHandlerFactory = requestHandlerFactory;
         this.socketBufferSize = socketBufferSize;
         this.resizeThreshold = socketBufferSize * 2; // This is arbitrary...
+        this.workerPool = workerPool;
+        this.selectorManager = selectorManager;
+        this.bufferPool = bufferPool;
+        this.maxPipelinedRequests = maxPipelinedRequests;
+        this.maxUnwrittenResponseBytes = maxUnwrittenResponseBytes;
+        this.completedResponses = new ConcurrentLinkedQueue<byte[]>();
 
-        inputStream = new ByteBufferBackedInputStream(ByteBuffer.allocate(socketBufferSize));
-        outputStream = new ByteBufferBackedOutputStream(ByteBuffer.allocate(socketBufferSize));
+        inputStream = new ByteBufferBackedInputStream(allocate(socketBufferSize));
+        outputStream = new ByteBufferBackedOutputStream(allocate(socketBufferSize), bufferPool);
 
         if(logger.isInfoEnabled())
             logger.info("Accepting remote connection from "
@@ -99,9 +214,14 @@ public class AsyncRequestHandler implements Runnable {
         SelectionKey selectionKey = socketChannel.keyFor(selector);
 
         try {
-            if(selectionKey.isReadable())
+            if(selectionKey.isReadable()) {
                 read(selectionKey);
-            else if(selectionKey.isWritable())
+
+                // A connection executing pipelined requests concurrently
+                // reads and writes at the same time
+                if(isConcurrent() && selectionKey.isValid() && selectionKey.isWritable())
+                    write(selectionKey);
+            } else if(selectionKey.isWritable())
                 write(selectionKey);
             else if(!selectionKey.isValid())
                 throw new IllegalStateException("Selection key not valid for "
@@ -109,20 +229,55 @@ public class AsyncRequestHandler implements Runnable {
             else
                 throw new IllegalStateException("Unknown state, not readable, writable, or valid for "
                                                 + socketChannel.socket().getRemoteSocketAddress());
-        } catch(ClosedByInterruptException e) {
-            close(selectionKey);
-        } catch(CancelledKeyException e) {
-            close(selectionKey);
-        } catch(EOFException e) {
-            close(selectionKey);
         } catch(Throwable t) {
-            if(logger.isEnabledFor(Level.ERROR))
-                logger.error(t.getMessage(), t);
+            handleError(selectionKey, t);
+        }
+    }
 
-            close(selectionKey);
+    /**
+     * Called on the selector thread once a worker has finished with this
+     * connection, to apply the interest set the request left behind. For
+     * pipelined requests executed concurrently it instead queues the
+     * responses the workers have finished for writing.
+     */
+    void resume() {
+        isDispatched = false;
+
+        SelectionKey selectionKey = socketChannel.keyFor(selector);
+        if(selectionKey == null || !selectionKey.isValid())
+            return;
+
+        try {
+            if(isConcurrent()) {
+                writeCompletedResponses(selectionKey);
+                if(selectionKey.isValid())
+                    dispatchBuffered(selectionKey);
+            } else
+                selectionKey.interestOps(pendingInterestOps);
+        } catch(Throwable t) {
+            handleError(selectionKey, t);
         }
     }
 
+    /*
+     * True if the requests on this connection are executed concurrently, see
+     * dispatchPipelined
+     */
+    private boolean isConcurrent() {
+        return isPipelined && workerPool != null;
+    }
+
+    private void handleError(SelectionKey selectionKey, Throwable t) {
+        // These just mean that the connection went away
+        boolean isClosed = t instanceof ClosedByInterruptException
+                           || t instanceof CancelledKeyException || t instanceof EOFException;
+
+        if(!isClosed && logger.isEnabledFor(Level.ERROR))
+            logger.error(t.getMessage(), t);
+
+        close(selectionKey);
+    }
+
     private void read(SelectionKey selectionKey) throws IOException {
         int count = 0;
 
@@ -154,44 +309,279 @@ public class AsyncRequestHandler implements Runnable {
         if(streamRequestHandler != null) {
             // We're continuing an existing streaming request from our last pass
             // through. So handle it and return.
-            handleStreamRequest(selectionKey);
+            dispatch(selectionKey, true);
+            return;
+        }
+
+        if(isConcurrent()) {
+            dispatchPipelined(selectionKey);
             return;
         }
 
-        if(!requestHandler.isCompleteRequest(inputStream.getBuffer())) {
+        if(!isCompleteRequest()) {
             // Ouch - we're missing some data for a full request, so handle that
             // and return.
             handleIncompleteRequest(position);
             return;
         }
 
-        // At this point we have the full request (and it's not streaming), so
-        // rewind the buffer for reading and execute the request.
-        inputStream.getBuffer().rewind();
+        dispatch(selectionKey, false);
+    }
 
-        if(logger.isTraceEnabled())
-            logger.trace("Starting execution for "
-                         + socketChannel.socket().getRemoteSocketAddress());
+    /*
+     * Hand each complete pipelined request in the input buffer to a worker of
+     * its own, and keep a trailing partial request for the next read. The
+     * connection stays interested in reads, and the responses are picked up by
+     * resume as the workers finish. If a request has to wait for a worker, or
+     * the connection is at its limits, the requests behind it stay in the
+     * buffer and reading stops until dispatchBuffered gets to them.
+     */
+    private void dispatchPipelined(SelectionKey selectionKey) {
+        ByteBuffer buffer = inputStream.getBuffer();
+
+        while(!isReadPaused(selectionKey) && buffer.hasRemaining()) {
+            int start = buffer.position();
+            if(!requestHandler.isCompleteRequest(buffer)) {
+                buffer.position(start);
+                break;
+            }
 
-        streamRequestHandler = requestHandler.handleRequest(new DataInputStream(inputStream),
-                                                            new DataOutputStream(outputStream));
+            final byte[] request = new byte[buffer.position() - start];
+            buffer.position(start);
+            buffer.get(request);
+
+            pipelinedRequests++;
+            execute(new Runnable() {
+
+                public void run() {
+                    try {
+                        ByteArrayOutputStream response = new ByteArrayOutputStream();
+                        requestHandler.handleRequest(new DataInputStream(new ByteArrayInputStream(request)),
+                                                     new DataOutputStream(response));
+                        completedResponses.add(response.toByteArray());
+                    } catch(Throwable t) {
+                        workerError = t;
+                    } finally {
+                        selectorManager.resume(AsyncRequestHandler.this);
+                    }
+                }
+            });
+        }
 
-        if(streamRequestHandler != null) {
-            // In the case of a StreamRequestHandler, we handle that separately
-            // (attempting to process multiple "segments").
+        buffer.compact();
+        if(buffer.position() == 0 && buffer.capacity() >= resizeThreshold) {
+            release(buffer);
+            inputStream.setBuffer(allocate(socketBufferSize));
+        } else if(!isReadPaused(selectionKey)) {
+            handleIncompleteRequest(buffer.position());
+        }
+
+        int writeInterestOps = selectionKey.interestOps() & SelectionKey.OP_WRITE;
+        selectionKey.interestOps(isReadPaused(selectionKey) ? writeInterestOps
+                                                            : writeInterestOps
+                                                              | SelectionKey.OP_READ);
+    }
+
+    /*
+     * Go on with the pipelined requests left in the input buffer, after the
+     * connection may have got back under its limits
+     */
+    private void dispatchBuffered(SelectionKey selectionKey) {
+        inputStream.getBuffer().flip();
+        dispatchPipelined(selectionKey);
+    }
+
+    /*
+     * A connection doesn't read while one of its requests waits for a worker,
+     * so that a saturated pool pushes back on the client rather than on the
+     * selector thread. Neither does a pipelining connection that has too much
+     * outstanding, so that a client that sends requests faster than it reads
+     * the responses can't take over the worker pool or the heap.
+     */
+    private boolean isReadPaused(SelectionKey selectionKey) {
+        if(waitingTask != null)
+            return true;
+        if(!isConcurrent())
+            return false;
+
+        int unwrittenResponseBytes = 0;
+        // The output buffer is flipped for writing while a write is in
+        // progress, and cleared otherwise
+        if((selectionKey.interestOps() & SelectionKey.OP_WRITE) != 0)
+            unwrittenResponseBytes = outputStream.getBuffer().remaining();
+
+        return pipelinedRequests >= maxPipelinedRequests
+               || unwrittenResponseBytes > maxUnwrittenResponseBytes;
+    }
+
+    /*
+     * Hand a task to the worker pool. If the pool is saturated the task is
+     * kept for the SelectorManager to retry once a worker frees up, rather
+     * than executed here on the selector thread.
+     */
+    private void execute(Runnable task) {
+        try {
+            workerPool.execute(task);
+        } catch(RejectedExecutionException e) {
+            waitingTask = task;
+            selectorManager.waitForWorker(this);
+        }
+    }
+
+    /**
+     * Called on the selector thread when a worker may have freed up, to hand
+     * the task the worker pool rejected to it again. A pipelined connection
+     * then goes on with the requests it has buffered, and reads again.
+     * 
+     * @return False if the pool is still saturated and the task still waits
+     */
+    boolean retryDispatch() {
+        SelectionKey selectionKey = socketChannel.keyFor(selector);
+        if(selectionKey == null || !selectionKey.isValid()) {
+            waitingTask = null;
+            return true;
+        }
+
+        try {
+            workerPool.execute(waitingTask);
+        } catch(RejectedExecutionException e) {
+            return false;
+        }
+        waitingTask = null;
+
+        if(isConcurrent()) {
+            try {
+                dispatchBuffered(selectionKey);
+            } catch(Throwable t) {
+                handleError(selectionKey, t);
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Append the responses the workers have finished to whatever is still
+     * waiting to be written, and ask to write them. If a worker failed the
+     * connection is closed, as the other pipelined protocols would.
+     */
+    private void writeCompletedResponses(SelectionKey selectionKey) throws IOException {
+        Throwable error = workerError;
+        if(error != null) {
+            handleError(selectionKey, error);
+            return;
+        }
+
+        if(completedResponses.isEmpty())
+            return;
+
+        // The output buffer is flipped for writing while a write is in
+        // progress, and cleared otherwise
+        if((selectionKey.interestOps() & SelectionKey.OP_WRITE) != 0)
+            outputStream.getBuffer().compact();
+
+        byte[] response = null;
+        while((response = completedResponses.poll()) != null) {
+            outputStream.write(response);
+            pipelinedRequests--;
+        }
+
+        outputStream.getBuffer().flip();
+        selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+    }
+
+    /*
+     * Execute the request(s) in the input buffer, or continue the streaming
+     * request in progress, either right here or on a worker.
+     */
+    private void dispatch(final SelectionKey selectionKey, final boolean continueStream)
+            throws IOException {
+        if(workerPool == null) {
+            process(selectionKey, continueStream);
+            return;
+        }
+
+        // Stop selecting this connection until the worker hands it back.
+        pendingInterestOps = selectionKey.interestOps();
+        selectionKey.interestOps(0);
+        isDispatched = true;
+
+        execute(new Runnable() {
+
+            public void run() {
+                try {
+                    process(selectionKey, continueStream);
+                } catch(Throwable t) {
+                    handleError(selectionKey, t);
+                } finally {
+                    selectorManager.resume(AsyncRequestHandler.this);
+                }
+            }
+        });
+    }
+
+    private void process(SelectionKey selectionKey, boolean continueStream) throws IOException {
+        if(continueStream) {
             handleStreamRequest(selectionKey);
             return;
         }
 
-        // At this point we've completed a full stand-alone request. So clear
-        // our input buffer and prepare for outputting back to the client.
-        if(logger.isTraceEnabled())
-            logger.trace("Finished execution for "
-                         + socketChannel.socket().getRemoteSocketAddress());
+        // At this point we have the full request (and it's not streaming), so
+        // execute it. A pipelined client may have sent more requests behind
+        // it; without a worker pool to execute them concurrently we execute
+        // every complete one in turn before writing all the responses back
+        // together. Other protocols only ever have one
+        // request in the buffer, and whatever a failed request left unread is
+        // thrown away.
+        do {
+            if(logger.isTraceEnabled())
+                logger.trace("Starting execution for "
+                             + socketChannel.socket().getRemoteSocketAddress());
 
+            streamRequestHandler = requestHandler.handleRequest(new DataInputStream(inputStream),
+                                                                new DataOutputStream(outputStream));
+
+            if(streamRequestHandler != null) {
+                // In the case of a StreamRequestHandler, we handle that
+                // separately (attempting to process multiple "segments").
+                handleStreamRequest(selectionKey);
+                return;
+            }
+
+            if(logger.isTraceEnabled())
+                logger.trace("Finished execution for "
+                             + socketChannel.socket().getRemoteSocketAddress());
+        } while(isPipelined && inputStream.getBuffer().hasRemaining() && isCompleteRequest());
+
+        if(isPipelined && inputStream.getBuffer().hasRemaining()) {
+            // A pipelined client has already sent part of its next request, so
+            // move that to the front of the input buffer for the next read
+            // instead of clearing it.
+            inputStream.getBuffer().compact();
+            outputStream.getBuffer().flip();
+            setInterestOps(selectionKey, SelectionKey.OP_WRITE);
+            return;
+        }
+
+        // At this point we've completed the stand-alone requests. So clear our
+        // input buffer and prepare for outputting back to the client.
         prepForWrite(selectionKey);
     }
 
+    /*
+     * Check whether a whole request starts at the current position of the
+     * input buffer, leaving the position where it was.
+     */
+    private boolean isCompleteRequest() {
+        ByteBuffer buffer = inputStream.getBuffer();
+        int start = buffer.position();
+
+        try {
+            return requestHandler.isCompleteRequest(buffer);
+        } finally {
+            buffer.position(start);
+        }
+    }
+
     private void write(SelectionKey selectionKey) throws IOException {
         if(outputStream.getBuffer().hasRemaining()) {
             // If we have data, write what we can now...
@@ -215,9 +605,10 @@ public class AsyncRequestHandler implements Runnable {
 
         // If we don't have anything else to write, that means we're done with
         // the request! So clear the buffers (resizing if necessary).
-        if(outputStream.getBuffer().capacity() >= resizeThreshold)
-            outputStream.setBuffer(ByteBuffer.allocate(socketBufferSize));
-        else
+        if(outputStream.getBuffer().capacity() >= resizeThreshold) {
+            release(outputStream.getBuffer());
+            outputStream.setBuffer(allocate(socketBufferSize));
+        } else
             outputStream.getBuffer().clear();
 
         if(streamRequestHandler != null
@@ -230,7 +621,12 @@ public class AsyncRequestHandler implements Runnable {
                 logger.trace("Request is streaming for "
                              + socketChannel.socket().getRemoteSocketAddress());
 
-            handleStreamRequest(selectionKey);
+            dispatch(selectionKey, true);
+        } else if(isConcurrent()) {
+            // Writing out the responses may have taken the connection back
+            // under its limits, so go on with what it has buffered.
+            selectionKey.interestOps(0);
+            dispatchBuffered(selectionKey);
         } else {
             // If we're not streaming writes, signal the Selector that we're
             // ready to read the next request.
@@ -357,16 +753,28 @@ public class AsyncRequestHandler implements Runnable {
         if(logger.isTraceEnabled())
             traceInputBufferState("About to clear read buffer");
 
-        if(inputStream.getBuffer().capacity() >= resizeThreshold)
-            inputStream.setBuffer(ByteBuffer.allocate(socketBufferSize));
-        else
+        if(inputStream.getBuffer().capacity() >= resizeThreshold) {
+            release(inputStream.getBuffer());
+            inputStream.setBuffer(allocate(socketBufferSize));
+        } else
             inputStream.getBuffer().clear();
 
         if(logger.isTraceEnabled())
             traceInputBufferState("Cleared read buffer");
 
         outputStream.getBuffer().flip();
-        selectionKey.interestOps(SelectionKey.OP_WRITE);
+        setInterestOps(selectionKey, SelectionKey.OP_WRITE);
+    }
+
+    /*
+     * A worker mustn't touch the Selector, so it only records the interest set
+     * for resume to apply.
+     */
+    private void setInterestOps(SelectionKey selectionKey, int interestOps) {
+        if(isDispatched)
+            pendingInterestOps = interestOps;
+        else
+            selectionKey.interestOps(interestOps);
     }
 
     private void handleIncompleteRequest(int newPosition) {
@@ -383,8 +791,8 @@ public class AsyncRequestHandler implements Runnable {
             // We haven't read all the data needed for the request AND we
             // don't have enough data in our buffer. So expand it. Note:
             // doubling the current buffer size is arbitrary.
-            inputStream.setBuffer(ByteUtils.expand(inputStream.getBuffer(),
-                                                   inputStream.getBuffer().capacity() * 2));
+            inputStream.setBuffer(expand(inputStream.getBuffer(),
+                                         inputStream.getBuffer().capacity() * 2));
 
             if(logger.isTraceEnabled())
                 traceInputBufferState("Expanded input buffer");
@@ -417,6 +825,40 @@ public class AsyncRequestHandler implements Runnable {
             if(logger.isEnabledFor(Level.WARN))
                 logger.warn(e.getMessage(), e);
         }
+
+        // Hand the buffers back. Whatever still runs for this connection gets
+        // empty ones, so a pooled buffer can't be written to once another
+        // connection has it.
+        release(inputStream.getBuffer());
+        inputStream.setBuffer(ByteBuffer.allocate(0));
+        release(outputStream.getBuffer());
+        outputStream.setBuffer(ByteBuffer.allocate(0));
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        if(bufferPool == null)
+            return ByteBuffer.allocate(capacity);
+        else
+            return bufferPool.allocate(capacity);
+    }
+
+    private void release(ByteBuffer buffer) {
+        if(bufferPool != null)
+            bufferPool.release(buffer);
+    }
+
+    /*
+     * Like ByteUtils.expand, but the new buffer comes from the pool and the
+     * old one goes back to it.
+     */
+    private ByteBuffer expand(ByteBuffer buffer, int newCapacity) {
+        ByteBuffer newBuffer = allocate(newCapacity);
+        int position = buffer.position();
+        buffer.rewind();
+        newBuffer.put(buffer);
+        newBuffer.position(position);
+        release(buffer);
+        return newBuffer;
     }
 
     /**
@@ -439,6 +881,7 @@ public class AsyncRequestHandler implements Runnable {
             String proto = ByteUtils.getString(protoBytes, "UTF-8");
             RequestFormatType requestFormatType = RequestFormatType.fromCode(proto);
             requestHandler = requestHandlerFactory.getRequestHandler(requestFormatType);
+            isPipelined = requestFormatType.isPipelined();
 
             if(logger.isInfoEnabled())
                 logger.info("Protocol negotiated for "
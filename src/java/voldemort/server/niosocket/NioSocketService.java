@@ -21,6 +21,7 @@ import java.net.InetSocketAddress;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -31,11 +32,13 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import voldemort.VoldemortException;
+import voldemort.annotations.jmx.JmxGetter;
 import voldemort.server.AbstractSocketService;
 import voldemort.server.ServiceType;
 import voldemort.server.StatusManager;
 import voldemort.server.protocol.RequestHandlerFactory;
 import voldemort.utils.DaemonThreadFactory;
+import voldemort.utils.pool.ByteBufferPool;
 
 /**
  * NioSocketService is an NIO-based socket service, comparable to the
@@ -47,6 +50,23 @@ import voldemort.utils.DaemonThreadFactory;
  * to a positive integer value. Otherwise, the number of selectors will be equal
  * to the number of CPUs visible to the JVM.
  * <p/>
+ * The requests themselves are executed on a pool of
+ * "nio.connector.worker.threads" workers, so that a request that blocks in the
+ * storage engine doesn't hold up the other connections of its selector. The
+ * pool queues up to "nio.connector.worker.queue.size" requests; once that is
+ * full, a connection with a new request stops reading until a worker frees
+ * up, which pushes back on its client without holding up the selector. With
+ * no worker threads all requests are executed on the selector threads.
+ * <p/>
+ * A connection that pipelines its requests stops reading while it has
+ * "nio.connector.max.pipelined.requests" requests executing or waiting to be
+ * written, or more than "nio.connector.max.unwritten.response.bytes" of
+ * responses its client hasn't read yet.
+ * <p/>
+ * The connections take their buffers from a shared pool of direct buffers
+ * that keeps at most "nio.connector.buffer.pool.bytes" in idle buffers. With
+ * a pool size of 0 each connection allocates its own heap buffers.
+ * <p/>
  * This code uses the NIO APIs directly. It would be a good idea to consider
  * some of the NIO frameworks to handle this more cleanly, efficiently, and to
  * handle corner cases.
@@ -59,6 +79,16 @@ public class NioSocketService extends AbstractSocketService {
 
     private static final int SHUTDOWN_TIMEOUT_MS = 15000;
 
+    /*
+     * The number of buffer size classes, the largest pooled buffer is 32 times
+     * the socket buffer size
+     */
+    private static final int BUFFER_POOL_SIZE_CLASSES = 6;
+
+    private static final int DEFAULT_MAX_PIPELINED_REQUESTS = 64;
+
+    private static final int DEFAULT_MAX_UNWRITTEN_RESPONSE_BYTES = 4 * 1024 * 1024;
+
     private final RequestHandlerFactory requestHandlerFactory;
 
     private final ServerSocketChannel serverSocketChannel;
@@ -69,8 +99,16 @@ public class NioSocketService extends AbstractSocketService {
 
     private final ExecutorService selectorManagerThreadPool;
 
+    private final ThreadPoolExecutor workerPool;
+
+    private final ByteBufferPool bufferPool;
+
     private final int socketBufferSize;
 
+    private final int maxPipelinedRequests;
+
+    private final int maxUnwrittenResponseBytes;
+
     private final StatusManager statusManager;
 
     private final Thread acceptorThread;
@@ -83,9 +121,55 @@ public class NioSocketService extends AbstractSocketService {
                             int selectors,
                             String serviceName,
                             boolean enableJmx) {
+        this(requestHandlerFactory,
+             port,
+             socketBufferSize,
+             selectors,
+             0,
+             0,
+             0,
+             serviceName,
+             enableJmx);
+    }
+
+    public NioSocketService(RequestHandlerFactory requestHandlerFactory,
+                            int port,
+                            int socketBufferSize,
+                            int selectors,
+                            int workerThreads,
+                            int workerQueueSize,
+                            long bufferPoolBytes,
+                            String serviceName,
+                            boolean enableJmx) {
+        this(requestHandlerFactory,
+             port,
+             socketBufferSize,
+             selectors,
+             workerThreads,
+             workerQueueSize,
+             bufferPoolBytes,
+             DEFAULT_MAX_PIPELINED_REQUESTS,
+             DEFAULT_MAX_UNWRITTEN_RESPONSE_BYTES,
+             serviceName,
+             enableJmx);
+    }
+
+    public NioSocketService(RequestHandlerFactory requestHandlerFactory,
+                            int port,
+                            int socketBufferSize,
+                            int selectors,
+                            int workerThreads,
+                            int workerQueueSize,
+                            long bufferPoolBytes,
+                            int maxPipelinedRequests,
+                            int maxUnwrittenResponseBytes,
+                            String serviceName,
+                            boolean enableJmx) {
         super(ServiceType.SOCKET, port, serviceName, enableJmx);
         this.requestHandlerFactory = requestHandlerFactory;
         this.socketBufferSize = socketBufferSize;
+        this.maxPipelinedRequests = maxPipelinedRequests;
+        this.maxUnwrittenResponseBytes = maxUnwrittenResponseBytes;
 
         try {
             this.serverSocketChannel = ServerSocketChannel.open();
@@ -95,10 +179,40 @@ public class NioSocketService extends AbstractSocketService {
 
         this.endpoint = new InetSocketAddress(port);
 
+        if(bufferPoolBytes > 0)
+            this.bufferPool = new ByteBufferPool(socketBufferSize,
+                                                 BUFFER_POOL_SIZE_CLASSES,
+                                                 bufferPoolBytes);
+        else
+            this.bufferPool = null;
+
         this.selectorManagers = new SelectorManager[selectors];
         this.selectorManagerThreadPool = Executors.newFixedThreadPool(selectorManagers.length,
                                                                       new DaemonThreadFactory("voldemort-niosocket-server"));
-        this.statusManager = new StatusManager((ThreadPoolExecutor) this.selectorManagerThreadPool);
+
+        if(workerThreads > 0) {
+            this.workerPool = new ThreadPoolExecutor(workerThreads,
+                                                     workerThreads,
+                                                     0,
+                                                     TimeUnit.MILLISECONDS,
+                                                     new ArrayBlockingQueue<Runnable>(workerQueueSize),
+                                                     new DaemonThreadFactory("voldemort-niosocket-worker")) {
+
+                @Override
+                protected void beforeExecute(Thread thread, Runnable runnable) {
+                    // Taking the task off the queue made room for a request
+                    // that was rejected
+                    for(SelectorManager selectorManager: selectorManagers)
+                        if(selectorManager != null)
+                            selectorManager.workerAvailable();
+                }
+            };
+            this.statusManager = new StatusManager(workerPool);
+        } else {
+            this.workerPool = null;
+            this.statusManager = new StatusManager((ThreadPoolExecutor) this.selectorManagerThreadPool);
+        }
+
         this.acceptorThread = new Thread(new Acceptor());
     }
 
@@ -107,6 +221,21 @@ public class NioSocketService extends AbstractSocketService {
         return statusManager;
     }
 
+    @JmxGetter(name = "bufferPoolHitRate", description = "The fraction of connection buffers taken from the pool.")
+    public double getBufferPoolHitRate() {
+        return bufferPool == null ? 0.0 : bufferPool.getHitRate();
+    }
+
+    @JmxGetter(name = "bufferPoolPooledBytes", description = "The number of bytes held in idle pooled buffers.")
+    public long getBufferPoolPooledBytes() {
+        return bufferPool == null ? 0 : bufferPool.getPooledBytes();
+    }
+
+    @JmxGetter(name = "bufferPoolAllocatedBytes", description = "The number of bytes of direct buffers allocated by the pool and not yet dropped.")
+    public long getBufferPoolAllocatedBytes() {
+        return bufferPool == null ? 0 : bufferPool.getAllocatedBytes();
+    }
+
     @Override
     protected void startInner() {
         if(logger.isEnabledFor(Level.INFO))
@@ -117,7 +246,11 @@ public class NioSocketService extends AbstractSocketService {
             for(int i = 0; i < selectorManagers.length; i++) {
                 selectorManagers[i] = new SelectorManager(endpoint,
                                                           requestHandlerFactory,
-                                                          socketBufferSize);
+                                                          socketBufferSize,
+                                                          workerPool,
+                                                          bufferPool,
+                                                          maxPipelinedRequests,
+                                                          maxUnwrittenResponseBytes);
                 selectorManagerThreadPool.execute(selectorManagers[i]);
             }
 
@@ -191,6 +324,19 @@ public class NioSocketService extends AbstractSocketService {
                     logger.warn("SelectorManager thread pool did not stop cleanly after "
                                 + SHUTDOWN_TIMEOUT_MS + " ms");
             }
+
+            if(workerPool != null) {
+                // Let the requests in progress finish, there's no one left to
+                // write their responses to but the storage engines shouldn't
+                // be interrupted either.
+                workerPool.shutdown();
+
+                if(!workerPool.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    if(logger.isEnabledFor(Level.WARN))
+                        logger.warn("Worker thread pool did not stop cleanly after "
+                                    + SHUTDOWN_TIMEOUT_MS + " ms");
+                }
+            }
         } catch(Exception e) {
             if(logger.isEnabledFor(Level.WARN))
                 logger.warn(e.getMessage(), e);
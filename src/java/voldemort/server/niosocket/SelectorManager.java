@@ -25,12 +25,14 @@ import java.nio.channels.SocketChannel;
 import java.util.Iterator;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import voldemort.server.protocol.RequestHandlerFactory;
+import voldemort.utils.pool.ByteBufferPool;
 
 /**
  * SelectorManager handles the non-blocking polling of IO events using the
@@ -90,6 +92,23 @@ import voldemort.server.protocol.RequestHandlerFactory;
  * connections 1 and 3 disconnect. This leaves SelectorManager B with two
  * connections and SelectorManager A with none. There's no provision to
  * re-balance the remaining requests evenly.
+ * <p/>
+ * Serial processing does have one serious drawback: a request that blocks in
+ * the storage engine (say a BDB read that has to go to disk) stalls every
+ * other connection on the same SelectorManager. So if a worker pool is given,
+ * the SelectorManager only does the I/O and checks that a request is
+ * complete; the request is then executed on a worker while the selector goes
+ * on serving its other connections. The worker doesn't touch the Selector
+ * itself. It hands the connection back through a queue (see
+ * {@link #resume(AsyncRequestHandler)}), and the selector thread re-enables
+ * its events, which keeps the selector lock uncontended.
+ * <p/>
+ * When the worker pool is saturated, a connection whose request was rejected
+ * waits in a queue of its SelectorManager (see
+ * {@link #waitForWorker(AsyncRequestHandler)}) and stops reading. The pool
+ * calls {@link #workerAvailable()} whenever it takes a task off its queue, and
+ * the selector thread then hands the waiting requests to it again. The
+ * selector thread never executes a request itself.
  * 
  */
 
@@ -101,10 +120,22 @@ public class SelectorManager implements Runnable {
 
     private final Queue<SocketChannel> socketChannelQueue;
 
+    private final Queue<AsyncRequestHandler> resumeQueue;
+
+    private final Queue<AsyncRequestHandler> waitingQueue;
+
+    private final Executor workerPool;
+
+    private final ByteBufferPool bufferPool;
+
     private final RequestHandlerFactory requestHandlerFactory;
 
     private final int socketBufferSize;
 
+    private final int maxPipelinedRequests;
+
+    private final int maxUnwrittenResponseBytes;
+
     private final AtomicBoolean isClosed;
 
     private final Logger logger = Logger.getLogger(getClass());
@@ -112,11 +143,50 @@ public class SelectorManager implements Runnable {
     public SelectorManager(InetSocketAddress endpoint,
                            RequestHandlerFactory requestHandlerFactory,
                            int socketBufferSize) throws IOException {
+        this(endpoint,
+             requestHandlerFactory,
+             socketBufferSize,
+             null,
+             null,
+             Integer.MAX_VALUE,
+             Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a SelectorManager
+     * 
+     * @param endpoint The address the service listens on
+     * @param requestHandlerFactory The factory for the protocol handlers
+     * @param socketBufferSize The size of the socket buffers
+     * @param workerPool The pool to execute requests on, or null to execute
+     *        them on the selector thread
+     * @param bufferPool The pool of connection buffers, or null to allocate
+     *        them on the heap
+     * @param maxPipelinedRequests The number of requests a pipelining
+     *        connection may have executing or unwritten before it stops
+     *        reading
+     * @param maxUnwrittenResponseBytes The number of bytes of responses a
+     *        pipelining connection may have unwritten before it stops reading
+     * @throws IOException If the Selector can't be opened
+     */
+    public SelectorManager(InetSocketAddress endpoint,
+                           RequestHandlerFactory requestHandlerFactory,
+                           int socketBufferSize,
+                           Executor workerPool,
+                           ByteBufferPool bufferPool,
+                           int maxPipelinedRequests,
+                           int maxUnwrittenResponseBytes) throws IOException {
         this.endpoint = endpoint;
         this.selector = Selector.open();
         this.socketChannelQueue = new ConcurrentLinkedQueue<SocketChannel>();
+        this.resumeQueue = new ConcurrentLinkedQueue<AsyncRequestHandler>();
+        this.waitingQueue = new ConcurrentLinkedQueue<AsyncRequestHandler>();
+        this.workerPool = workerPool;
+        this.bufferPool = bufferPool;
         this.requestHandlerFactory = requestHandlerFactory;
         this.socketBufferSize = socketBufferSize;
+        this.maxPipelinedRequests = maxPipelinedRequests;
+        this.maxUnwrittenResponseBytes = maxUnwrittenResponseBytes;
         this.isClosed = new AtomicBoolean(false);
     }
 
@@ -128,6 +198,36 @@ public class SelectorManager implements Runnable {
         selector.wakeup();
     }
 
+    /**
+     * Hand a connection back to the selector thread once a worker is done
+     * executing its request
+     * 
+     * @param asyncRequestHandler The handler for the connection
+     */
+    public void resume(AsyncRequestHandler asyncRequestHandler) {
+        resumeQueue.add(asyncRequestHandler);
+        selector.wakeup();
+    }
+
+    /**
+     * Called on the selector thread when the worker pool rejected a request of
+     * the connection, to retry it once a worker frees up
+     * 
+     * @param asyncRequestHandler The handler for the connection
+     */
+    void waitForWorker(AsyncRequestHandler asyncRequestHandler) {
+        waitingQueue.add(asyncRequestHandler);
+    }
+
+    /**
+     * Called by the worker pool when it has room for another request, to wake
+     * the selector thread if a connection is waiting for a worker
+     */
+    public void workerAvailable() {
+        if(!waitingQueue.isEmpty())
+            selector.wakeup();
+    }
+
     public void close() {
         // Attempt to close, but if already closed, then we've been beaten to
         // the punch...
@@ -180,6 +280,8 @@ public class SelectorManager implements Runnable {
                 }
 
                 processSockets();
+                processResumes();
+                processWaiting();
 
                 try {
                     int selected = selector.select();
@@ -265,7 +367,12 @@ public class SelectorManager implements Runnable {
                     AsyncRequestHandler attachment = new AsyncRequestHandler(selector,
                                                                              socketChannel,
                                                                              requestHandlerFactory,
-                                                                             socketBufferSize);
+                                                                             socketBufferSize,
+                                                                             workerPool,
+                                                                             this,
+                                                                             bufferPool,
+                                                                             maxPipelinedRequests,
+                                                                             maxUnwrittenResponseBytes);
 
                     if(!isClosed.get())
                         socketChannel.register(selector, SelectionKey.OP_READ, attachment);
@@ -287,4 +394,36 @@ public class SelectorManager implements Runnable {
         }
     }
 
+    private void processResumes() {
+        AsyncRequestHandler asyncRequestHandler = null;
+
+        while((asyncRequestHandler = resumeQueue.poll()) != null) {
+            try {
+                asyncRequestHandler.resume();
+            } catch(Exception e) {
+                if(logger.isEnabledFor(Level.ERROR))
+                    logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /*
+     * Retry the waiting connections in the order they were rejected, until the
+     * worker pool rejects one again
+     */
+    private void processWaiting() {
+        AsyncRequestHandler asyncRequestHandler = null;
+
+        while((asyncRequestHandler = waitingQueue.peek()) != null) {
+            try {
+                if(!asyncRequestHandler.retryDispatch())
+                    break;
+            } catch(Exception e) {
+                if(logger.isEnabledFor(Level.ERROR))
+                    logger.error(e.getMessage(), e);
+            }
+            waitingQueue.poll();
+        }
+    }
+
 }
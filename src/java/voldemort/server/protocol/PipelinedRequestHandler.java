@@ -0,0 +1,101 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.server.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import voldemort.VoldemortException;
+
+/**
+ * A request handler for pipelined protocols such as
+ * {@link voldemort.client.protocol.RequestFormatType#VOLDEMORT_V3}. Every
+ * request is framed as a request id and a length followed by a request body in
+ * the format of the wrapped handler. The response is framed the same way and
+ * carries the id of its request, so the client can match responses to requests
+ * no matter how many it has outstanding or in what order they are answered.
+ * <p/>
+ * Streaming requests can't share a connection with other requests and are
+ * not supported.
+ * 
+ * 
+ */
+public class PipelinedRequestHandler implements RequestHandler {
+
+    /*
+     * The size of the request id and the length that precede a request or
+     * response body
+     */
+    public static final int FRAME_HEADER_SIZE = 8;
+
+    private final RequestHandler delegate;
+
+    public PipelinedRequestHandler(RequestHandler delegate) {
+        this.delegate = delegate;
+    }
+
+    public StreamRequestHandler handleRequest(DataInputStream inputStream,
+                                              DataOutputStream outputStream) throws IOException {
+        int requestId = inputStream.readInt();
+        int length = inputStream.readInt();
+        if(length < 0)
+            throw new IOException("Invalid request length: " + length);
+
+        // Read the whole body so that a request the delegate doesn't fully
+        // consume can't throw off the framing of the next one
+        byte[] body = new byte[length];
+        inputStream.readFully(body);
+
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        StreamRequestHandler streamRequestHandler = delegate.handleRequest(new DataInputStream(new ByteArrayInputStream(body)),
+                                                                           new DataOutputStream(response));
+        if(streamRequestHandler != null) {
+            streamRequestHandler.close(new DataOutputStream(response));
+            throw new VoldemortException("Streaming requests are not supported by a pipelined protocol");
+        }
+
+        outputStream.writeInt(requestId);
+        outputStream.writeInt(response.size());
+        response.writeTo(outputStream);
+        outputStream.flush();
+        return null;
+    }
+
+    /**
+     * A request is complete once its header and as many bytes as the header
+     * gives as its length have arrived. On success the buffer is left
+     * positioned just after the request.
+     */
+    public boolean isCompleteRequest(ByteBuffer buffer) {
+        if(buffer.remaining() < FRAME_HEADER_SIZE)
+            return false;
+
+        int length = buffer.getInt(buffer.position() + 4);
+        if(length < 0)
+            throw new VoldemortException("Invalid request length: " + length);
+        if(buffer.remaining() - FRAME_HEADER_SIZE < length)
+            return false;
+
+        buffer.position(buffer.position() + FRAME_HEADER_SIZE + length);
+        return true;
+    }
+
+}
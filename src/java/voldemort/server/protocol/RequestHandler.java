@@ -50,9 +50,10 @@ public interface RequestHandler {
      * definition not just block waiting for more data, it's possible to get
      * partial reads, and this identifies that case.
      * 
-     * @param buffer Buffer to check; the buffer is reset to position 0 before
-     *        calling this method and the caller must reset it after the call
-     *        returns
+     * @param buffer Buffer to check; the buffer is positioned at the start of
+     *        the request before calling this method and the caller must reset
+     *        it after the call returns. Only pipelined protocols need to
+     *        expect more than one request in the buffer.
      * @return True if the buffer holds a complete request, false otherwise
      */
 
@@ -44,6 +44,7 @@ import voldemort.server.protocol.StreamRequestHandler;
 import voldemort.server.rebalance.Rebalancer;
 import voldemort.server.storage.StorageService;
 import voldemort.store.ErrorCodeMapper;
+import voldemort.store.PartitionScanningStorageEngine;
 import voldemort.store.StorageEngine;
 import voldemort.store.StoreDefinition;
 import voldemort.store.StoreOperationFailureException;
@@ -363,7 +364,15 @@ public class AdminServiceRequestHandler implements RequestHandler {
             RoutingStrategy routingStrategy = metadataStore.getRoutingStrategy(storageEngine.getName());
 
             EventThrottler throttler = new EventThrottler(voldemortConfig.getStreamMaxReadBytesPerSec());
-            iterator = storageEngine.entries();
+            if(storageEngine instanceof PartitionScanningStorageEngine<?, ?>) {
+                List<Integer> masterPartitions = getMasterPartitions(routingStrategy,
+                                                                     metadataStore.getCluster()
+                                                                                  .getNumberOfPartitions(),
+                                                                     partitions);
+                iterator = ((PartitionScanningStorageEngine<ByteArray, byte[]>) storageEngine).entries(masterPartitions);
+            } else {
+                iterator = storageEngine.entries();
+            }
             int deleteSuccess = 0;
 
             while(iterator.hasNext()) {
@@ -597,6 +606,32 @@ public class AdminServiceRequestHandler implements RequestHandler {
         return storageEngine;
     }
 
+    /**
+     * Get the master partitions of the keys that are replicated to any of the
+     * given partitions. Only these partitions need to be read from a
+     * {@link PartitionScanningStorageEngine} to find all keys of the given
+     * partitions.
+     * 
+     * @param routingStrategy The routing strategy of the store
+     * @param numPartitions The number of partitions in the cluster
+     * @param partitions The partitions to find the keys of
+     * @return The master partitions
+     */
+    static List<Integer> getMasterPartitions(RoutingStrategy routingStrategy,
+                                             int numPartitions,
+                                             List<Integer> partitions) {
+        List<Integer> masterPartitions = new ArrayList<Integer>();
+        for(int partition = 0; partition < numPartitions; partition++) {
+            for(int replica: routingStrategy.getReplicatingPartitionList(partition)) {
+                if(partitions.contains(replica)) {
+                    masterPartitions.add(partition);
+                    break;
+                }
+            }
+        }
+        return masterPartitions;
+    }
+
     /**
      * Check that the key belong to a delete partition.
      * <p>
@@ -16,6 +16,7 @@ import voldemort.server.StoreRepository;
 import voldemort.server.VoldemortConfig;
 import voldemort.server.protocol.StreamRequestHandler;
 import voldemort.store.ErrorCodeMapper;
+import voldemort.store.PartitionScanningStorageEngine;
 import voldemort.store.StorageEngine;
 import voldemort.store.metadata.MetadataStore;
 import voldemort.utils.ByteArray;
@@ -66,7 +67,15 @@ public abstract class FetchStreamRequestHandler implements StreamRequestHandler
                                                                                          voldemortConfig,
                                                                                          networkClassLoader)
                                       : new DefaultVoldemortFilter();
-        keyIterator = storageEngine.keys();
+        if(storageEngine instanceof PartitionScanningStorageEngine<?, ?>) {
+            List<Integer> masterPartitions = AdminServiceRequestHandler.getMasterPartitions(routingStrategy,
+                                                                                            metadataStore.getCluster()
+                                                                                                         .getNumberOfPartitions(),
+                                                                                            partitionList);
+            keyIterator = ((PartitionScanningStorageEngine<ByteArray, byte[]>) storageEngine).keys(masterPartitions);
+        } else {
+            keyIterator = storageEngine.keys();
+        }
         startTime = System.currentTimeMillis();
     }
 
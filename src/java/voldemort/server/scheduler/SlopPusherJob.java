@@ -16,16 +16,38 @@
 
 package voldemort.server.scheduler;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
+import voldemort.annotations.jmx.JmxGetter;
+import voldemort.annotations.jmx.JmxManaged;
+import voldemort.client.protocol.admin.AdminClient;
+import voldemort.client.protocol.admin.AdminClientConfig;
 import voldemort.server.StoreRepository;
+import voldemort.server.VoldemortConfig;
 import voldemort.store.StorageEngine;
 import voldemort.store.Store;
+import voldemort.store.metadata.MetadataStore;
 import voldemort.store.slop.Slop;
 import voldemort.store.slop.Slop.Operation;
 import voldemort.utils.ByteArray;
 import voldemort.utils.ClosableIterator;
+import voldemort.utils.DaemonThreadFactory;
+import voldemort.utils.EventThrottler;
 import voldemort.utils.Pair;
 import voldemort.versioning.ObsoleteVersionException;
 import voldemort.versioning.Versioned;
@@ -34,16 +56,72 @@ import voldemort.versioning.Versioned;
  * A task which goes through the slop table and attempts to push out all the
  * slop to its rightful owner node
  * 
+ * Slops are grouped by destination node and store into batches. Each node has
+ * its own small pool of threads delivering its batches, and when the pool is
+ * busy the iterating thread delivers the batch itself, so at most a few
+ * batches per node are ever held in memory. Batches of puts are streamed to
+ * the node over the admin updateEntries request when the cluster metadata is
+ * available, everything else goes through the node stores. The slops of a
+ * batch are deleted once it has been delivered. A node that fails a batch is
+ * not sent any more slops until the next run.
+ * 
  * 
  */
+@JmxManaged(description = "Pushes the slops in the slop store out to their nodes.")
 public class SlopPusherJob implements Runnable {
 
     private static final Logger logger = Logger.getLogger(SlopPusherJob.class.getName());
 
+    private static final long PROGRESS_INTERVAL_MS = 10 * 1000;
+
     private final StoreRepository storeRepo;
+    private final MetadataStore metadataStore;
+    private final int batchSize;
+    private final int parallelism;
+    private final long maxWriteBytesPerSec;
+
+    private final AtomicLong attemptedPushes = new AtomicLong(0);
+    private final AtomicLong slopsPushed = new AtomicLong(0);
+    private final AtomicLong failedPushes = new AtomicLong(0);
+    private final AtomicLong batchesPushed = new AtomicLong(0);
+    private final AtomicLong bytesPushed = new AtomicLong(0);
 
     public SlopPusherJob(StoreRepository storeRepo) {
+        this(storeRepo, null, 1000, 2, 10 * 1000 * 1000);
+    }
+
+    public SlopPusherJob(StoreRepository storeRepo,
+                         MetadataStore metadataStore,
+                         VoldemortConfig voldemortConfig) {
+        this(storeRepo,
+             metadataStore,
+             voldemortConfig.getSlopBatchSize(),
+             voldemortConfig.getSlopPushParallelism(),
+             voldemortConfig.getSlopMaxWriteBytesPerSec());
+    }
+
+    /**
+     * @param storeRepo The repository holding the slop store and node stores
+     * @param metadataStore The metadata of the cluster to stream puts to, or
+     *        null to deliver everything through the node stores
+     * @param batchSize The maximum number of slops delivered together
+     * @param parallelism The number of batches delivered to a node at once
+     * @param maxWriteBytesPerSec The maximum rate at which slops are pushed
+     */
+    public SlopPusherJob(StoreRepository storeRepo,
+                         MetadataStore metadataStore,
+                         int batchSize,
+                         int parallelism,
+                         long maxWriteBytesPerSec) {
+        if(batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be at least 1.");
+        if(parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1.");
         this.storeRepo = storeRepo;
+        this.metadataStore = metadataStore;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+        this.maxWriteBytesPerSec = maxWriteBytesPerSec;
     }
 
     /**
@@ -52,57 +130,287 @@ public class SlopPusherJob implements Runnable {
      */
     public void run() {
         logger.debug("Pushing slop...");
-        int slopsPushed = 0;
-        int attemptedPushes = 0;
+        attemptedPushes.set(0);
+        slopsPushed.set(0);
+        failedPushes.set(0);
+        batchesPushed.set(0);
+        bytesPushed.set(0);
+
+        StorageEngine<ByteArray, Slop> slopStore = storeRepo.getSlopStore();
+        Set<Integer> failedNodes = Collections.synchronizedSet(new HashSet<Integer>());
+        Map<Integer, ExecutorService> executors = new HashMap<Integer, ExecutorService>();
+        Map<Pair<Integer, String>, List<Pair<ByteArray, Versioned<Slop>>>> batches = new HashMap<Pair<Integer, String>, List<Pair<ByteArray, Versioned<Slop>>>>();
+        EventThrottler throttler = new EventThrottler(maxWriteBytesPerSec);
+        AdminClient adminClient = null;
         ClosableIterator<Pair<ByteArray, Versioned<Slop>>> iterator = null;
+        boolean completed = false;
         try {
-            StorageEngine<ByteArray, Slop> slopStore = storeRepo.getSlopStore();
+            if(metadataStore != null)
+                adminClient = new AdminClient(metadataStore.getCluster(),
+                                              new AdminClientConfig().setMaxConnectionsPerNode(parallelism));
+            long lastProgress = System.currentTimeMillis();
             iterator = slopStore.entries();
             while(iterator.hasNext()) {
                 if(Thread.interrupted())
                     throw new InterruptedException("Task cancelled!");
-                attemptedPushes++;
 
                 try {
                     Pair<ByteArray, Versioned<Slop>> keyAndVal = iterator.next();
-                    Versioned<Slop> versioned = keyAndVal.getSecond();
-                    Slop slop = versioned.getValue();
-                    Store<ByteArray, byte[]> store = storeRepo.getNodeStore(slop.getStoreName(),
-                                                                            slop.getNodeId());
-                    try {
-                        if(slop.getOperation() == Operation.PUT)
-                            store.put(keyAndVal.getFirst(),
-                                      new Versioned<byte[]>(slop.getValue(), versioned.getVersion()));
-                        else if(slop.getOperation() == Operation.DELETE)
-                            store.delete(keyAndVal.getFirst(), versioned.getVersion());
-                        else
-                            logger.error("Unknown slop operation: " + slop.getOperation());
-                        slopStore.delete(slop.makeKey(), versioned.getVersion());
-                        slopsPushed++;
-                    } catch(ObsoleteVersionException e) {
-                        // okay it is old, just delete it
-                        slopStore.delete(slop.makeKey(), versioned.getVersion());
+                    Slop slop = keyAndVal.getSecond().getValue();
+                    attemptedPushes.incrementAndGet();
+                    if(failedNodes.contains(slop.getNodeId())) {
+                        failedPushes.incrementAndGet();
+                        continue;
+                    }
+                    throttler.maybeThrottle(sizeOf(slop));
+
+                    Pair<Integer, String> destination = Pair.create(slop.getNodeId(),
+                                                                    slop.getStoreName());
+                    List<Pair<ByteArray, Versioned<Slop>>> batch = batches.get(destination);
+                    if(batch == null) {
+                        batch = new ArrayList<Pair<ByteArray, Versioned<Slop>>>(batchSize);
+                        batches.put(destination, batch);
+                    }
+                    batch.add(keyAndVal);
+                    if(batch.size() >= batchSize) {
+                        batches.remove(destination);
+                        submit(executors, destination, batch, adminClient, failedNodes);
                     }
                 } catch(Exception e) {
                     logger.error(e);
                 }
+
+                long now = System.currentTimeMillis();
+                if(now - lastProgress > PROGRESS_INTERVAL_MS) {
+                    logger.info("Attempted " + attemptedPushes.get() + " hinted handoff pushes, "
+                                + slopsPushed.get() + " succeeded and " + failedPushes.get()
+                                + " failed in " + batchesPushed.get() + " batches so far.");
+                    lastProgress = now;
+                }
             }
+
+            for(Map.Entry<Pair<Integer, String>, List<Pair<ByteArray, Versioned<Slop>>>> entry: batches.entrySet())
+                submit(executors, entry.getKey(), entry.getValue(), adminClient, failedNodes);
+            for(ExecutorService executor: executors.values())
+                executor.shutdown();
+            for(ExecutorService executor: executors.values())
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            completed = true;
+        } catch(InterruptedException e) {
+            logger.warn("Slop push interrupted.");
+            Thread.currentThread().interrupt();
         } catch(Exception e) {
             logger.error(e);
         } finally {
+            if(!completed) {
+                for(ExecutorService executor: executors.values())
+                    executor.shutdownNow();
+            }
             try {
                 if(iterator != null)
                     iterator.close();
             } catch(Exception e) {
                 logger.error("Failed to close iterator.", e);
             }
+            if(adminClient != null)
+                adminClient.stop();
         }
 
         // typically not useful to hear that 0 items were attempted so log as
         // debug
-        logger.log(attemptedPushes > 0 ? Level.INFO : Level.DEBUG,
-                   "Attempted " + attemptedPushes + " hinted handoff pushes of which "
-                           + slopsPushed + " succeeded.");
+        logger.log(attemptedPushes.get() > 0 ? Level.INFO : Level.DEBUG,
+                   "Attempted " + attemptedPushes.get() + " hinted handoff pushes of which "
+                           + slopsPushed.get() + " succeeded in " + batchesPushed.get()
+                           + " batches (" + bytesPushed.get() + " bytes).");
+    }
+
+    /**
+     * The number of slops read from the slop store in the current or last run
+     */
+    @JmxGetter(name = "attemptedPushes", description = "The number of slops read from the slop store in the current or last run.")
+    public long getAttemptedPushes() {
+        return attemptedPushes.get();
+    }
+
+    /**
+     * The number of slops delivered, or found to be obsolete, in the current
+     * or last run
+     */
+    @JmxGetter(name = "slopsPushed", description = "The number of slops delivered, or found to be obsolete, in the current or last run.")
+    public long getSlopsPushed() {
+        return slopsPushed.get();
+    }
+
+    /**
+     * The number of slops left in the slop store because their node failed in
+     * the current or last run
+     */
+    @JmxGetter(name = "failedPushes", description = "The number of slops left in the slop store because their node failed in the current or last run.")
+    public long getFailedPushes() {
+        return failedPushes.get();
+    }
+
+    @JmxGetter(name = "batchesPushed", description = "The number of batches of slops delivered in the current or last run.")
+    public long getBatchesPushed() {
+        return batchesPushed.get();
+    }
+
+    @JmxGetter(name = "bytesPushed", description = "The number of key and value bytes of the slops delivered in the current or last run.")
+    public long getBytesPushed() {
+        return bytesPushed.get();
+    }
+
+    private void submit(Map<Integer, ExecutorService> executors,
+                        Pair<Integer, String> destination,
+                        List<Pair<ByteArray, Versioned<Slop>>> batch,
+                        AdminClient adminClient,
+                        Set<Integer> failedNodes) {
+        int nodeId = destination.getFirst();
+        ExecutorService executor = executors.get(nodeId);
+        if(executor == null) {
+            // the iterating thread runs the batch itself once the pool and
+            // its queue are full, which keeps it from reading ahead
+            executor = new ThreadPoolExecutor(parallelism,
+                                              parallelism,
+                                              0L,
+                                              TimeUnit.MILLISECONDS,
+                                              new ArrayBlockingQueue<Runnable>(parallelism),
+                                              new DaemonThreadFactory("voldemort-slop-pusher-"
+                                                                      + nodeId + "-"),
+                                              new ThreadPoolExecutor.CallerRunsPolicy());
+            executors.put(nodeId, executor);
+        }
+        executor.execute(new BatchPusher(destination.getSecond(),
+                                         nodeId,
+                                         batch,
+                                         adminClient,
+                                         failedNodes));
+    }
+
+    private static int sizeOf(Slop slop) {
+        return slop.getKey().length() + (slop.getValue() == null ? 0 : slop.getValue().length);
+    }
+
+    /**
+     * Delivers one batch of slops to a node and deletes them from the slop
+     * store
+     */
+    private class BatchPusher implements Runnable {
+
+        private final String storeName;
+        private final int nodeId;
+        private final List<Pair<ByteArray, Versioned<Slop>>> batch;
+        private final AdminClient adminClient;
+        private final Set<Integer> failedNodes;
+
+        public BatchPusher(String storeName,
+                           int nodeId,
+                           List<Pair<ByteArray, Versioned<Slop>>> batch,
+                           AdminClient adminClient,
+                           Set<Integer> failedNodes) {
+            this.storeName = storeName;
+            this.nodeId = nodeId;
+            this.batch = batch;
+            this.adminClient = adminClient;
+            this.failedNodes = failedNodes;
+        }
+
+        public void run() {
+            int delivered = 0;
+            try {
+                if(failedNodes.contains(nodeId))
+                    return;
+                if(adminClient == null) {
+                    delivered += pushToNodeStore(batch);
+                } else {
+                    // puts stream in one request, anything else goes one at
+                    // a time through the node store
+                    List<Pair<ByteArray, Versioned<Slop>>> puts = new ArrayList<Pair<ByteArray, Versioned<Slop>>>(batch.size());
+                    List<Pair<ByteArray, Versioned<Slop>>> others = new ArrayList<Pair<ByteArray, Versioned<Slop>>>();
+                    for(Pair<ByteArray, Versioned<Slop>> keyAndVal: batch) {
+                        if(keyAndVal.getSecond().getValue().getOperation() == Operation.PUT)
+                            puts.add(keyAndVal);
+                        else
+                            others.add(keyAndVal);
+                    }
+                    if(puts.size() > 0)
+                        delivered += streamPuts(puts);
+                    delivered += pushToNodeStore(others);
+                }
+                batchesPushed.incrementAndGet();
+            } catch(Exception e) {
+                failedNodes.add(nodeId);
+                logger.error("Pushing slop to node " + nodeId + " for store " + storeName
+                             + " failed, skipping the node until the next run.", e);
+            } finally {
+                failedPushes.addAndGet(batch.size() - delivered);
+            }
+        }
+
+        /*
+         * Obsolete versions are skipped by the receiving node, so the whole
+         * batch can be deleted once the stream is through
+         */
+        private int streamPuts(List<Pair<ByteArray, Versioned<Slop>>> puts) {
+            final Iterator<Pair<ByteArray, Versioned<Slop>>> slops = puts.iterator();
+            adminClient.updateEntries(nodeId,
+                                      storeName,
+                                      new Iterator<Pair<ByteArray, Versioned<byte[]>>>() {
+
+                                          public boolean hasNext() {
+                                              return slops.hasNext();
+                                          }
+
+                                          public Pair<ByteArray, Versioned<byte[]>> next() {
+                                              Versioned<Slop> versioned = slops.next()
+                                                                               .getSecond();
+                                              Slop slop = versioned.getValue();
+                                              return Pair.create(slop.getKey(),
+                                                                 new Versioned<byte[]>(slop.getValue(),
+                                                                                       versioned.getVersion()));
+                                          }
+
+                                          public void remove() {
+                                              throw new UnsupportedOperationException();
+                                          }
+                                      },
+                                      null);
+            for(Pair<ByteArray, Versioned<Slop>> keyAndVal: puts)
+                delete(keyAndVal);
+            return puts.size();
+        }
+
+        private int pushToNodeStore(List<Pair<ByteArray, Versioned<Slop>>> slops) {
+            if(slops.isEmpty())
+                return 0;
+            Store<ByteArray, byte[]> store = storeRepo.getNodeStore(storeName, nodeId);
+            int delivered = 0;
+            for(Pair<ByteArray, Versioned<Slop>> keyAndVal: slops) {
+                Versioned<Slop> versioned = keyAndVal.getSecond();
+                Slop slop = versioned.getValue();
+                try {
+                    if(slop.getOperation() == Operation.PUT)
+                        store.put(slop.getKey(),
+                                  new Versioned<byte[]>(slop.getValue(), versioned.getVersion()));
+                    else if(slop.getOperation() == Operation.DELETE)
+                        store.delete(slop.getKey(), versioned.getVersion());
+                    else
+                        logger.error("Unknown slop operation: " + slop.getOperation());
+                } catch(ObsoleteVersionException e) {
+                    // okay it is old, just delete it
+                }
+                delete(keyAndVal);
+                delivered++;
+            }
+            return delivered;
+        }
+
+        private void delete(Pair<ByteArray, Versioned<Slop>> keyAndVal) {
+            storeRepo.getSlopStore().delete(keyAndVal.getFirst(),
+                                            keyAndVal.getSecond().getVersion());
+            slopsPushed.incrementAndGet();
+            bytesPushed.addAndGet(sizeOf(keyAndVal.getSecond().getValue()));
+        }
     }
 
 }
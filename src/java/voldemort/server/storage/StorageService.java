@@ -47,6 +47,9 @@ import voldemort.cluster.Node;
 import voldemort.cluster.failuredetector.FailureDetector;
 import voldemort.cluster.failuredetector.FailureDetectorConfig;
 import voldemort.cluster.failuredetector.ServerStoreVerifier;
+import voldemort.routing.RoutingStrategy;
+import voldemort.routing.RoutingStrategyFactory;
+import voldemort.routing.RoutingStrategyType;
 import voldemort.serialization.ByteArraySerializer;
 import voldemort.serialization.SlopSerializer;
 import voldemort.server.AbstractService;
@@ -55,10 +58,12 @@ import voldemort.server.StoreRepository;
 import voldemort.server.VoldemortConfig;
 import voldemort.server.scheduler.DataCleanupJob;
 import voldemort.server.scheduler.SchedulerService;
+import voldemort.server.scheduler.SlopPusherJob;
 import voldemort.store.StorageConfiguration;
 import voldemort.store.StorageEngine;
 import voldemort.store.Store;
 import voldemort.store.StoreDefinition;
+import voldemort.store.bdb.BdbStorageConfiguration;
 import voldemort.store.invalidmetadata.InvalidMetadataCheckingStore;
 import voldemort.store.logging.LoggingStore;
 import voldemort.store.metadata.MetadataStore;
@@ -67,6 +72,7 @@ import voldemort.store.rebalancing.RebootstrappingStore;
 import voldemort.store.rebalancing.RedirectingStore;
 import voldemort.store.routed.RoutedStore;
 import voldemort.store.serialized.SerializingStorageEngine;
+import voldemort.store.slop.Slop;
 import voldemort.store.socket.SocketDestination;
 import voldemort.store.socket.SocketPool;
 import voldemort.store.socket.SocketStore;
@@ -176,7 +182,7 @@ public class StorageService extends AbstractService {
 
         /* Register slop store */
         if(voldemortConfig.isSlopEnabled()) {
-            StorageEngine<ByteArray, byte[]> slopEngine = getStorageEngine("slop",
+            StorageEngine<ByteArray, byte[]> slopEngine = getStorageEngine(Slop.SLOP_STORE_NAME,
                                                                            voldemortConfig.getSlopStoreType());
             registerEngine(slopEngine);
             storeRepository.setSlopStore(SerializingStorageEngine.wrap(slopEngine,
@@ -197,6 +203,10 @@ public class StorageService extends AbstractService {
             if(def.isView())
                 openStore(def);
 
+        /* Push the slop out to its nodes */
+        if(voldemortConfig.isSlopEnabled())
+            scheduleSlopPusherJob();
+
         // enable aggregate jmx statistics
         if(voldemortConfig.isStatTrackingEnabled())
             JmxUtils.registerMbean(new StoreStatsJmx(this.storeStats),
@@ -208,12 +218,14 @@ public class StorageService extends AbstractService {
 
     public void openStore(StoreDefinition storeDef) {
         logger.info("Opening store '" + storeDef.getName() + "' (" + storeDef.getType() + ").");
-        StorageEngine<ByteArray, byte[]> engine = getStorageEngine(storeDef.getName(),
-                                                                   storeDef.getType());
+        StorageEngine<ByteArray, byte[]> engine = getStorageEngine(storeDef);
         registerEngine(engine);
 
         if(voldemortConfig.isServerRoutingEnabled())
             registerNodeStores(storeDef, metadata.getCluster(), voldemortConfig.getNodeId());
+        else if(voldemortConfig.isSlopEnabled())
+            // the slop pusher delivers slops through the node stores
+            addNodeStores(storeDef, metadata.getCluster(), voldemortConfig.getNodeId());
 
         if(storeDef.hasRetentionPeriod())
             scheduleCleanupJob(storeDef, engine);
@@ -281,13 +293,7 @@ public class StorageService extends AbstractService {
      * @param localNode
      */
     public void registerNodeStores(StoreDefinition def, Cluster cluster, int localNode) {
-        Map<Integer, Store<ByteArray, byte[]>> nodeStores = new HashMap<Integer, Store<ByteArray, byte[]>>(cluster.getNumberOfNodes());
-
-        for(Node node: cluster.getNodes()) {
-            Store<ByteArray, byte[]> store = getNodeStore(def.getName(), node, localNode);
-            this.storeRepository.addNodeStore(node.getId(), store);
-            nodeStores.put(node.getId(), store);
-        }
+        Map<Integer, Store<ByteArray, byte[]>> nodeStores = addNodeStores(def, cluster, localNode);
 
         Store<ByteArray, byte[]> routedStore = new RoutedStore(def.getName(),
                                                                nodeStores,
@@ -297,7 +303,10 @@ public class StorageService extends AbstractService {
                                                                this.clientThreadPool,
                                                                voldemortConfig.getRoutingTimeoutMs(),
                                                                failureDetector,
-                                                               SystemTime.INSTANCE);
+                                                               SystemTime.INSTANCE,
+                                                               RoutedStore.DEFAULT_GET_ALL_BATCH_SIZE,
+                                                               null,
+                                                               getSlopStores(localNode));
 
         routedStore = new RebootstrappingStore(metadata,
                                                storeRepository,
@@ -310,6 +319,27 @@ public class StorageService extends AbstractService {
         this.storeRepository.addRoutedStore(routedStore);
     }
 
+    private Map<Integer, Store<ByteArray, byte[]>> addNodeStores(StoreDefinition def,
+                                                                 Cluster cluster,
+                                                                 int localNode) {
+        Map<Integer, Store<ByteArray, byte[]>> nodeStores = new HashMap<Integer, Store<ByteArray, byte[]>>(cluster.getNumberOfNodes());
+
+        for(Node node: cluster.getNodes()) {
+            Store<ByteArray, byte[]> store = getNodeStore(def.getName(), node, localNode);
+            this.storeRepository.addNodeStore(node.getId(), store);
+            nodeStores.put(node.getId(), store);
+        }
+        return nodeStores;
+    }
+
+    private Map<Integer, Store<ByteArray, Slop>> getSlopStores(int localNode) {
+        if(!storeRepository.hasSlopStore())
+            return null;
+        Map<Integer, Store<ByteArray, Slop>> slopStores = new HashMap<Integer, Store<ByteArray, Slop>>(1);
+        slopStores.put(localNode, storeRepository.getSlopStore());
+        return slopStores;
+    }
+
     private Store<ByteArray, byte[]> getNodeStore(String storeName, Node node, int localNode) {
         Store<ByteArray, byte[]> store;
         if(node.getId() == localNode) {
@@ -329,6 +359,21 @@ public class StorageService extends AbstractService {
                                false);
     }
 
+    /**
+     * Schedule the job pushing the slops in the slop store out to their nodes
+     */
+    private void scheduleSlopPusherJob() {
+        SlopPusherJob slopPusher = new SlopPusherJob(storeRepository, metadata, voldemortConfig);
+        if(voldemortConfig.isJmxEnabled())
+            JmxUtils.registerMbean("SlopPusherJob", slopPusher);
+
+        long frequencyMs = voldemortConfig.getSlopFrequencyMs();
+        logger.info("Scheduling slop pusher job every " + frequencyMs + " ms.");
+        this.scheduler.schedule(slopPusher,
+                                new Date(System.currentTimeMillis() + frequencyMs),
+                                frequencyMs);
+    }
+
     /**
      * Schedule a data retention cleanup job for the given store
      * 
@@ -371,6 +416,20 @@ public class StorageService extends AbstractService {
 
     }
 
+    private StorageEngine<ByteArray, byte[]> getStorageEngine(StoreDefinition storeDef) {
+        StorageConfiguration config = storageConfigs.get(storeDef.getType());
+        // bdb can group the entries of a partition together if the store
+        // hashes its keys to partitions
+        if(config instanceof BdbStorageConfiguration
+           && RoutingStrategyType.CONSISTENT_STRATEGY.equals(storeDef.getRoutingStrategyType())) {
+            RoutingStrategy routingStrategy = new RoutingStrategyFactory().updateRoutingStrategy(storeDef,
+                                                                                                 metadata.getCluster());
+            return ((BdbStorageConfiguration) config).getStore(storeDef.getName(),
+                                                               routingStrategy);
+        }
+        return getStorageEngine(storeDef.getName(), storeDef.getType());
+    }
+
     private StorageEngine<ByteArray, byte[]> getStorageEngine(String name, String type) {
         StorageConfiguration config = storageConfigs.get(type);
         if(config == null)
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store;
+
+import java.util.Collection;
+
+import voldemort.utils.ClosableIterator;
+import voldemort.utils.Pair;
+import voldemort.versioning.Versioned;
+
+/**
+ * A storage engine that stores the entries of each partition together, so that
+ * the entries of a few partitions can be read without scanning the whole
+ * store.
+ * 
+ * Entries are grouped by the master partition of their key, see
+ * {@link voldemort.routing.RoutingStrategy#getMasterPartition(byte[])}, which
+ * does not change when partitions move between nodes.
+ * 
+ * 
+ * @param <K> The type of the key being stored
+ * @param <V> The type of the value being stored
+ */
+public interface PartitionScanningStorageEngine<K, V> extends StorageEngine<K, V> {
+
+    /**
+     * Get an iterator over the entries whose keys have one of the given master
+     * partitions.
+     * 
+     * Note that the iterator need not be threadsafe, and that it must be
+     * manually closed after use.
+     * 
+     * @param masterPartitions The master partitions to read
+     * @return An iterator over the entries of the given partitions
+     */
+    public ClosableIterator<Pair<K, Versioned<V>>> entries(Collection<Integer> masterPartitions);
+
+    /**
+     * Get an iterator over the keys that have one of the given master
+     * partitions.
+     * 
+     * Note that the iterator need not be threadsafe, and that it must be
+     * manually closed after use.
+     * 
+     * @param masterPartitions The master partitions to read
+     * @return An iterator over the keys of the given partitions
+     */
+    public ClosableIterator<K> keys(Collection<Integer> masterPartitions);
+
+}
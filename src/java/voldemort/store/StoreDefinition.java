@@ -46,6 +46,8 @@ public class StoreDefinition implements Serializable {
     private final int requiredReads;
     private final Integer retentionPeriodDays;
     private final Integer retentionScanThrottleRate;
+    private final Integer vectorClockMaxEntries;
+    private final Long vectorClockMaxAgeMs;
     private final String routingStrategyType;
     private final String viewOf;
     private final View<?, ?, ?> valueTransformation;
@@ -65,6 +67,42 @@ public class StoreDefinition implements Serializable {
                            View<?, ?, ?> valTrans,
                            Integer retentionDays,
                            Integer retentionThrottleRate) {
+        this(name,
+             type,
+             keySerializer,
+             valueSerializer,
+             routingPolicy,
+             routingStrategyType,
+             replicationFactor,
+             preferredReads,
+             requiredReads,
+             preferredWrites,
+             requiredWrites,
+             viewOfStore,
+             valTrans,
+             retentionDays,
+             retentionThrottleRate,
+             null,
+             null);
+    }
+
+    public StoreDefinition(String name,
+                           String type,
+                           SerializerDefinition keySerializer,
+                           SerializerDefinition valueSerializer,
+                           RoutingTier routingPolicy,
+                           String routingStrategyType,
+                           int replicationFactor,
+                           Integer preferredReads,
+                           int requiredReads,
+                           Integer preferredWrites,
+                           int requiredWrites,
+                           String viewOfStore,
+                           View<?, ?, ?> valTrans,
+                           Integer retentionDays,
+                           Integer retentionThrottleRate,
+                           Integer vectorClockMaxEntries,
+                           Long vectorClockMaxAgeMs) {
         this.name = Utils.notNull(name);
         this.type = Utils.notNull(type);
         this.replicationFactor = replicationFactor;
@@ -80,6 +118,8 @@ public class StoreDefinition implements Serializable {
         this.routingStrategyType = routingStrategyType;
         this.viewOf = viewOfStore;
         this.valueTransformation = valTrans;
+        this.vectorClockMaxEntries = vectorClockMaxEntries;
+        this.vectorClockMaxAgeMs = vectorClockMaxAgeMs;
         checkParameterLegality();
     }
 
@@ -109,6 +149,11 @@ public class StoreDefinition implements Serializable {
 
         if(retentionPeriodDays != null && retentionPeriodDays < 0)
             throw new IllegalArgumentException("Retention days must be non-negative.");
+
+        if(vectorClockMaxEntries != null && vectorClockMaxEntries < 1)
+            throw new IllegalArgumentException("Vector clock max entries must be at least 1.");
+        if(vectorClockMaxAgeMs != null && vectorClockMaxAgeMs < 0)
+            throw new IllegalArgumentException("Vector clock max age must be non-negative.");
     }
 
     public String getName() {
@@ -179,6 +224,31 @@ public class StoreDefinition implements Serializable {
         return this.retentionScanThrottleRate;
     }
 
+    public boolean hasVectorClockMaxEntries() {
+        return this.vectorClockMaxEntries != null;
+    }
+
+    /**
+     * @return The largest number of entries the vector clocks of new versions
+     *         may have, or null if they are not bounded
+     */
+    public Integer getVectorClockMaxEntries() {
+        return this.vectorClockMaxEntries;
+    }
+
+    public boolean hasVectorClockMaxAgeMs() {
+        return this.vectorClockMaxAgeMs != null;
+    }
+
+    /**
+     * @return The time since the last write after which the vector clock of a
+     *         new version only keeps the entry of the node that wrote it, or
+     *         null if clocks are not pruned by age
+     */
+    public Long getVectorClockMaxAgeMs() {
+        return this.vectorClockMaxAgeMs;
+    }
+
     public boolean isView() {
         return this.viewOf != null;
     }
@@ -221,7 +291,9 @@ public class StoreDefinition implements Serializable {
                                 def.getValueTransformation() != null ? def.getValueTransformation()
                                                                           .getClass() : null)
                && Objects.equal(getRetentionDays(), def.getRetentionDays())
-               && Objects.equal(getRetentionScanThrottleRate(), def.getRetentionScanThrottleRate());
+               && Objects.equal(getRetentionScanThrottleRate(), def.getRetentionScanThrottleRate())
+               && Objects.equal(getVectorClockMaxEntries(), def.getVectorClockMaxEntries())
+               && Objects.equal(getVectorClockMaxAgeMs(), def.getVectorClockMaxAgeMs());
     }
 
     @Override
@@ -240,7 +312,9 @@ public class StoreDefinition implements Serializable {
                                 getValueTransformation() == null ? null
                                                                 : getValueTransformation().getClass(),
                                 getRetentionDays(),
-                                getRetentionScanThrottleRate());
+                                getRetentionScanThrottleRate(),
+                                getVectorClockMaxEntries(),
+                                getVectorClockMaxAgeMs());
     }
 
     @Override
@@ -253,6 +327,8 @@ public class StoreDefinition implements Serializable {
                + getRequiredWrites() + ", preferred-writes = " + getPreferredWrites()
                + ", view-target = " + getViewTargetStoreName() + ", value-transformation = "
                + getValueTransformation() + ", retention-days = " + getRetentionDays()
-               + ", throttle-rate = " + getRetentionScanThrottleRate() + ")";
+               + ", throttle-rate = " + getRetentionScanThrottleRate()
+               + ", vector-clock-max-entries = " + getVectorClockMaxEntries()
+               + ", vector-clock-max-age-ms = " + getVectorClockMaxAgeMs() + ")";
     }
 }
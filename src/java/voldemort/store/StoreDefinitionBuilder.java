@@ -25,6 +25,8 @@ public class StoreDefinitionBuilder {
     private int requiredReads = -1;
     private Integer retentionPeriodDays = null;
     private Integer retentionScanThrottleRate = null;
+    private Integer vectorClockMaxEntries = null;
+    private Long vectorClockMaxAgeMs = null;
     private String routingStrategyType = null;
     private String viewOf = null;
     private View<?, ?, ?> view = null;
@@ -149,6 +151,24 @@ public class StoreDefinitionBuilder {
         return this;
     }
 
+    public Integer getVectorClockMaxEntries() {
+        return vectorClockMaxEntries;
+    }
+
+    public StoreDefinitionBuilder setVectorClockMaxEntries(Integer vectorClockMaxEntries) {
+        this.vectorClockMaxEntries = vectorClockMaxEntries;
+        return this;
+    }
+
+    public Long getVectorClockMaxAgeMs() {
+        return vectorClockMaxAgeMs;
+    }
+
+    public StoreDefinitionBuilder setVectorClockMaxAgeMs(Long vectorClockMaxAgeMs) {
+        this.vectorClockMaxAgeMs = vectorClockMaxAgeMs;
+        return this;
+    }
+
     public String getRoutingStrategyType() {
         return routingStrategyType;
     }
@@ -195,7 +215,9 @@ public class StoreDefinitionBuilder {
                                    this.getViewOf(),
                                    this.getView(),
                                    this.getRetentionPeriodDays(),
-                                   this.getRetentionScanThrottleRate());
+                                   this.getRetentionScanThrottleRate(),
+                                   this.getVectorClockMaxEntries(),
+                                   this.getVectorClockMaxAgeMs());
     }
 
 }
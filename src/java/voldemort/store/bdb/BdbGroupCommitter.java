@@ -0,0 +1,177 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.bdb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import voldemort.annotations.concurrency.Threadsafe;
+import voldemort.store.PersistenceFailureException;
+import voldemort.utils.Time;
+import voldemort.utils.Utils;
+
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.DbInternal;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.Transaction;
+
+/**
+ * Makes the commits of concurrent transactions on one environment durable with
+ * a shared log flush, instead of an fsync per transaction.
+ * 
+ * Each transaction is committed without a sync, which writes its commit record
+ * to the log file, and its caller then waits for a sync of the log. The first
+ * waiter becomes the leader of a batch: it waits up to the batch window for
+ * other commits to join, fsyncs the log once for all of them and releases the
+ * whole batch. Since the log is written sequentially, the fsync covers every
+ * commit written before it, so no caller returns before its commit is durable.
+ * 
+ * 
+ */
+@Threadsafe
+public class BdbGroupCommitter {
+
+    private final Environment environment;
+    private final long windowNs;
+    private final int maxBatchSize;
+
+    private final Object lock = new Object();
+    /* The number of commits written to the log */
+    private long written;
+    /* The number of commits known to be durable */
+    private long synced;
+    private boolean syncing;
+
+    private final AtomicLong numSyncs = new AtomicLong(0);
+
+    /**
+     * @param environment The environment whose log is synced
+     * @param windowUs The longest time to wait for a batch to fill, in us
+     * @param maxBatchSize The number of commits after which a batch is synced
+     *        without waiting for the window to end
+     */
+    public BdbGroupCommitter(Environment environment, long windowUs, int maxBatchSize) {
+        if(windowUs < 0)
+            throw new IllegalArgumentException("windowUs cannot be negative.");
+        if(maxBatchSize < 1)
+            throw new IllegalArgumentException("maxBatchSize must be at least 1.");
+        this.environment = Utils.notNull(environment);
+        this.windowNs = windowUs * Time.NS_PER_US;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Commit the transaction, returning once the commit is durable
+     * 
+     * Once the commit record is written the transaction is committed, so the
+     * wait for the sync is not cut short by an interrupt: the interrupt status
+     * is restored when the commit returns.
+     * 
+     * @param transaction The transaction to commit
+     * @throws DatabaseException If the commit fails, in which case the
+     *         transaction is not committed
+     * @throws PersistenceFailureException If the commit is written but the
+     *         sync of the log fails
+     */
+    public void commit(Transaction transaction) throws DatabaseException {
+        transaction.commitWriteNoSync();
+        long ticket;
+        synchronized(lock) {
+            ticket = ++written;
+            // a leader may be waiting for its batch to fill
+            lock.notifyAll();
+        }
+        if(awaitSync(ticket))
+            Thread.currentThread().interrupt();
+    }
+
+    /* Wait for the sync covering the ticket, returning true if interrupted */
+    private boolean awaitSync(long ticket) {
+        boolean interrupted = false;
+        while(true) {
+            synchronized(lock) {
+                while(synced < ticket && syncing)
+                    interrupted |= waitOn(Long.MAX_VALUE);
+                if(synced >= ticket)
+                    return interrupted;
+                // lead the next batch
+                syncing = true;
+            }
+
+            long target = 0;
+            boolean succeeded = false;
+            try {
+                synchronized(lock) {
+                    long deadline = System.nanoTime() + windowNs;
+                    long remaining = windowNs;
+                    while(remaining > 0 && written - synced < maxBatchSize) {
+                        interrupted |= waitOn(remaining);
+                        remaining = deadline - System.nanoTime();
+                    }
+                    target = written;
+                }
+                DbInternal.getEnvironmentImpl(environment).getLogManager().flush();
+                numSyncs.incrementAndGet();
+                succeeded = true;
+            } catch(DatabaseException e) {
+                if(interrupted)
+                    Thread.currentThread().interrupt();
+                throw new PersistenceFailureException("The commit was written but the log sync failed.",
+                                                      e);
+            } finally {
+                synchronized(lock) {
+                    if(succeeded)
+                        synced = Math.max(synced, target);
+                    syncing = false;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /*
+     * Wait on the lock for at most the given time, which must be held,
+     * returning true if the wait was interrupted
+     */
+    private boolean waitOn(long ns) {
+        try {
+            if(ns == Long.MAX_VALUE)
+                lock.wait();
+            else
+                lock.wait(ns / Time.NS_PER_MS, (int) (ns % Time.NS_PER_MS));
+            return false;
+        } catch(InterruptedException e) {
+            return true;
+        }
+    }
+
+    /**
+     * @return The number of commits made durable so far
+     */
+    public long getNumCommits() {
+        synchronized(lock) {
+            return synced;
+        }
+    }
+
+    /**
+     * @return The number of log syncs made so far
+     */
+    public long getNumSyncs() {
+        return numSyncs.get();
+    }
+
+}
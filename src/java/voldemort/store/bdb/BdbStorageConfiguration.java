@@ -24,11 +24,13 @@ import org.apache.log4j.Logger;
 
 import voldemort.VoldemortException;
 import voldemort.annotations.jmx.JmxOperation;
+import voldemort.routing.RoutingStrategy;
 import voldemort.server.VoldemortConfig;
 import voldemort.store.StorageConfiguration;
 import voldemort.store.StorageEngine;
 import voldemort.store.StorageInitializationException;
 import voldemort.utils.ByteArray;
+import voldemort.utils.ByteUtils;
 import voldemort.utils.Time;
 
 import com.google.common.collect.Maps;
@@ -44,6 +46,16 @@ public class BdbStorageConfiguration implements StorageConfiguration {
     public static final String TYPE_NAME = "bdb";
     private static final String SHARED_ENV_KEY = "shared";
 
+    /*
+     * The database of each environment that records the key layout and the
+     * record encoding of its stores, and the layouts themselves. A layout
+     * without the multi-version suffix keeps one record per version.
+     */
+    private static final String KEY_LAYOUTS_DATABASE = "voldemort-key-layouts";
+    private static final String PLAIN_KEY_LAYOUT = "plain";
+    private static final String PARTITION_PREFIXED_KEY_LAYOUT = "partition-prefixed";
+    private static final String MULTI_VERSION_RECORDS_SUFFIX = "+multi-version-records";
+
     private static Logger logger = Logger.getLogger(BdbStorageConfiguration.class);
 
     private final Object lock = new Object();
@@ -51,6 +63,9 @@ public class BdbStorageConfiguration implements StorageConfiguration {
     private final EnvironmentConfig environmentConfig;
     private final DatabaseConfig databaseConfig;
     private final Map<String, BdbStorageEngine> stores = Maps.newHashMap();
+    private final Map<Environment, BdbGroupCommitter> groupCommitters = Maps.newHashMap();
+    private final Map<Environment, Database> keyLayoutDatabases = Maps.newHashMap();
+    private final boolean useGroupCommit;
     private final String bdbMasterDir;
     private final boolean useOneEnvPerStore;
     private final VoldemortConfig voldemortConfig;
@@ -69,6 +84,10 @@ public class BdbStorageConfiguration implements StorageConfiguration {
         } else {
             environmentConfig.setTxnNoSync(true);
         }
+        // group commits sync the log themselves
+        useGroupCommit = config.isBdbWriteTransactionsEnabled()
+                         && config.isBdbFlushTransactionsEnabled()
+                         && config.isBdbGroupCommitEnabled();
         environmentConfig.setAllowCreate(true);
         environmentConfig.setConfigParam(EnvironmentConfig.LOG_FILE_MAX,
                                          Long.toString(config.getBdbMaxLogFileSize()));
@@ -82,7 +101,9 @@ public class BdbStorageConfiguration implements StorageConfiguration {
                                          Integer.toString(config.getBdbCleanerMinUtilization()));
         databaseConfig = new DatabaseConfig();
         databaseConfig.setAllowCreate(true);
-        databaseConfig.setSortedDuplicates(config.isBdbSortedDuplicatesEnabled());
+        // multi-version records keep a single record per key
+        databaseConfig.setSortedDuplicates(config.isBdbSortedDuplicatesEnabled()
+                                           && !config.isBdbMultiVersionRecords());
         databaseConfig.setNodeMaxEntries(config.getBdbBtreeFanout());
         databaseConfig.setTransactional(true);
         bdbMasterDir = config.getBdbDataDirectory();
@@ -92,20 +113,87 @@ public class BdbStorageConfiguration implements StorageConfiguration {
     }
 
     public StorageEngine<ByteArray, byte[]> getStore(String storeName) {
+        return getStore(storeName, null);
+    }
+
+    /**
+     * Get the store with the given name, creating it if necessary. If
+     * partition prefixed keys are enabled and a routing strategy is given, the
+     * keys of the store are prefixed with their master partition.
+     * <p/>
+     * The key layout and record encoding of each store are recorded when it
+     * is first opened, and a store isn't opened with a different layout or
+     * encoding than the one its records were written in.
+     * 
+     * @param storeName The name of the store
+     * @param routingStrategy The routing strategy of the store, or null if the
+     *        store isn't partitioned
+     * @return The store
+     */
+    public StorageEngine<ByteArray, byte[]> getStore(String storeName,
+                                                     RoutingStrategy routingStrategy) {
         synchronized(lock) {
             BdbStorageEngine store = stores.get(storeName);
             if(store != null)
                 return stores.get(storeName);
             try {
                 Environment environment = getEnvironment(storeName);
-                Database db = environment.openDatabase(null, storeName, databaseConfig);
+                boolean prefixed = voldemortConfig.isBdbPartitionPrefixedKeys()
+                                   && routingStrategy != null;
+                String layout = prefixed ? PARTITION_PREFIXED_KEY_LAYOUT : PLAIN_KEY_LAYOUT;
+                if(voldemortConfig.isBdbMultiVersionRecords())
+                    layout += MULTI_VERSION_RECORDS_SUFFIX;
+
+                // the recorded layout is checked before the database is
+                // opened, as bdb won't open it with the other duplicates
+                // setting of the record encodings
+                String recorded = getRecordedLayout(environment, storeName);
+                if(recorded != null)
+                    checkLayout(storeName, recorded, layout);
+                Database db;
+                try {
+                    db = environment.openDatabase(null, storeName, databaseConfig);
+                } catch(IllegalArgumentException e) {
+                    throw new StorageInitializationException("Store '" + storeName
+                                                             + "' can't be opened with the "
+                                                             + layout
+                                                             + " layout; check bdb.multi.version.records.",
+                                                             e);
+                }
+                if(recorded == null) {
+                    try {
+                        // a store with data but no recorded layout predates
+                        // the records, so its keys are plain and it has a
+                        // record per version
+                        if(!isEmpty(db))
+                            checkLayout(storeName, PLAIN_KEY_LAYOUT, layout);
+                        recordLayout(environment, storeName, layout);
+                    } catch(StorageInitializationException e) {
+                        db.close();
+                        throw e;
+                    }
+                }
                 if (voldemortConfig.getBdbCursorPreload()) {
                     PreloadConfig preloadConfig = new PreloadConfig();
                     preloadConfig.setLoadLNs(true);
                     db.preload(preloadConfig);
                 }
-                BdbStorageEngine engine = new BdbStorageEngine(storeName, environment, db,
-                    voldemortConfig.getBdbCursorPreload());
+                BdbStorageEngine engine;
+                if(prefixed)
+                    engine = new PartitionPrefixedBdbStorageEngine(storeName,
+                                                                   environment,
+                                                                   db,
+                                                                   voldemortConfig.getBdbCursorPreload(),
+                                                                   voldemortConfig.isBdbMultiVersionRecords(),
+                                                                   getGroupCommitter(environment),
+                                                                   routingStrategy);
+                else
+                    engine = new BdbStorageEngine(storeName,
+                                                  environment,
+                                                  db,
+                                                  voldemortConfig.getBdbCursorPreload(),
+                                                  voldemortConfig.isBdbMultiVersionRecords(),
+                                                  getGroupCommitter(environment));
                 stores.put(storeName, engine);
                 return engine;
             } catch(DatabaseException d) {
@@ -114,6 +202,64 @@ public class BdbStorageConfiguration implements StorageConfiguration {
         }
     }
 
+    private String getRecordedLayout(Environment environment, String storeName)
+            throws DatabaseException {
+        Database layouts = getKeyLayoutDatabase(environment);
+        DatabaseEntry keyEntry = new DatabaseEntry(ByteUtils.getBytes(storeName, "UTF-8"));
+        DatabaseEntry valueEntry = new DatabaseEntry();
+        OperationStatus status = layouts.get(null, keyEntry, valueEntry, LockMode.DEFAULT);
+        if(status != OperationStatus.SUCCESS)
+            return null;
+        return ByteUtils.getString(valueEntry.getData(), "UTF-8");
+    }
+
+    private void recordLayout(Environment environment, String storeName, String layout)
+            throws DatabaseException {
+        getKeyLayoutDatabase(environment).put(null,
+                                              new DatabaseEntry(ByteUtils.getBytes(storeName,
+                                                                                   "UTF-8")),
+                                              new DatabaseEntry(ByteUtils.getBytes(layout, "UTF-8")));
+    }
+
+    private void checkLayout(String storeName, String existing, String layout) {
+        if(!existing.equals(layout))
+            throw new StorageInitializationException("Store '" + storeName + "' has the "
+                                                     + existing
+                                                     + " layout, but is being opened with the "
+                                                     + layout
+                                                     + " layout; check bdb.partition.prefixed.keys"
+                                                     + " and bdb.multi.version.records.");
+    }
+
+    private boolean isEmpty(Database db) throws DatabaseException {
+        Cursor cursor = db.openCursor(null, null);
+        try {
+            DatabaseEntry keyEntry = new DatabaseEntry();
+            DatabaseEntry valueEntry = new DatabaseEntry();
+            valueEntry.setPartial(true);
+            OperationStatus status = cursor.getFirst(keyEntry,
+                                                     valueEntry,
+                                                     LockMode.READ_UNCOMMITTED);
+            return status != OperationStatus.SUCCESS;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Database getKeyLayoutDatabase(Environment environment) throws DatabaseException {
+        synchronized(lock) {
+            Database layouts = keyLayoutDatabases.get(environment);
+            if(layouts == null) {
+                DatabaseConfig config = new DatabaseConfig();
+                config.setAllowCreate(true);
+                config.setTransactional(true);
+                layouts = environment.openDatabase(null, KEY_LAYOUTS_DATABASE, config);
+                keyLayoutDatabases.put(environment, layouts);
+            }
+            return layouts;
+        }
+    }
+
     private Environment getEnvironment(String storeName) throws DatabaseException {
         synchronized(lock) {
             if(useOneEnvPerStore) {
@@ -148,6 +294,25 @@ public class BdbStorageConfiguration implements StorageConfiguration {
         }
     }
 
+    /*
+     * Get the committer shared by the stores of the environment, or null if
+     * group commit isn't used
+     */
+    private BdbGroupCommitter getGroupCommitter(Environment environment) {
+        if(!useGroupCommit)
+            return null;
+        synchronized(lock) {
+            BdbGroupCommitter committer = groupCommitters.get(environment);
+            if(committer == null) {
+                committer = new BdbGroupCommitter(environment,
+                                                  voldemortConfig.getBdbGroupCommitWindowUs(),
+                                                  voldemortConfig.getBdbGroupCommitMaxBatchSize());
+                groupCommitters.put(environment, committer);
+            }
+            return committer;
+        }
+    }
+
     private void createBdbDirIfNecessary(File bdbDir) {
         if(!bdbDir.exists()) {
             logger.info("Creating BDB data directory '" + bdbDir.getAbsolutePath() + ".");
@@ -192,6 +357,9 @@ public class BdbStorageConfiguration implements StorageConfiguration {
     public void close() {
         synchronized(lock) {
             try {
+                for(Database layouts: keyLayoutDatabases.values())
+                    layouts.close();
+                keyLayoutDatabases.clear();
                 for(Environment environment: environments.values()) {
                     environment.sync();
                     environment.close();
@@ -18,6 +18,7 @@ package voldemort.store.bdb;
 
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.codec.binary.Hex;
@@ -62,6 +63,13 @@ import com.sleepycat.je.Transaction;
 /**
  * A store that uses BDB for persistence
  * 
+ * By default each version of a key is stored as a sorted duplicate of the key.
+ * With multi-version records all the versions of a key are packed into a
+ * single record, as an int count followed by the size and bytes of each
+ * version, so that a put is a single read-modify-write and a get a single
+ * lookup. The two layouts are not compatible, and a store with multi-version
+ * records should be opened without sorted duplicates.
+ * 
  * 
  */
 public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
@@ -75,6 +83,8 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
     private final VersionedSerializer<byte[]> versionedSerializer;
     private final AtomicBoolean isOpen;
     private final boolean cursorPreload;
+    private final boolean multiVersionRecords;
+    private final BdbGroupCommitter groupCommitter;
     private final Serializer<Version> versionSerializer;
     private final AtomicBoolean isTruncating = new AtomicBoolean(false);
 
@@ -86,6 +96,43 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
                             Environment environment,
                             Database database,
                             boolean cursorPreload) {
+        this(name, environment, database, cursorPreload, false);
+    }
+
+    /**
+     * @param name The name of the store
+     * @param environment The BDB environment of the database
+     * @param database The database the store is kept in
+     * @param cursorPreload Whether to preload the database before iterating
+     *        over its entries
+     * @param multiVersionRecords Whether all the versions of a key are packed
+     *        into a single record instead of being stored as duplicates
+     */
+    public BdbStorageEngine(String name,
+                            Environment environment,
+                            Database database,
+                            boolean cursorPreload,
+                            boolean multiVersionRecords) {
+        this(name, environment, database, cursorPreload, multiVersionRecords, null);
+    }
+
+    /**
+     * @param name The name of the store
+     * @param environment The BDB environment of the database
+     * @param database The database the store is kept in
+     * @param cursorPreload Whether to preload the database before iterating
+     *        over its entries
+     * @param multiVersionRecords Whether all the versions of a key are packed
+     *        into a single record instead of being stored as duplicates
+     * @param groupCommitter The committer that batches the log syncs of the
+     *        environment, or null to commit each transaction by itself
+     */
+    public BdbStorageEngine(String name,
+                            Environment environment,
+                            Database database,
+                            boolean cursorPreload,
+                            boolean multiVersionRecords,
+                            BdbGroupCommitter groupCommitter) {
         this.name = Utils.notNull(name);
         this.bdbDatabase = Utils.notNull(database);
         this.environment = Utils.notNull(environment);
@@ -102,6 +149,8 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
         };
         this.isOpen = new AtomicBoolean(true);
         this.cursorPreload = cursorPreload;
+        this.multiVersionRecords = multiVersionRecords;
+        this.groupCommitter = groupCommitter;
     }
 
     public String getName() {
@@ -117,6 +166,8 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
             }
 
             Cursor cursor = getBdbDatabase().openCursor(null, null);
+            if(multiVersionRecords)
+                return new MultiVersionEntriesIterator(new BdbRecordsIterator(cursor));
             return new BdbEntriesIterator(cursor);
         } catch(DatabaseException e) {
             logger.error(e);
@@ -232,7 +283,7 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
      * 
      * @return
      */
-    private Database getBdbDatabase() {
+    protected Database getBdbDatabase() {
         if(isTruncating.get()) {
             throw new VoldemortException("Bdb Store " + getName()
                                          + " is currently truncating cannot serve any request.");
@@ -265,16 +316,24 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
         return result;
     }
 
-    private static <T> List<T> get(Cursor cursor,
-                                   ByteArray key,
-                                   LockMode lockMode,
-                                   Serializer<T> serializer) throws DatabaseException {
+    private <T> List<T> get(Cursor cursor,
+                            ByteArray key,
+                            LockMode lockMode,
+                            Serializer<T> serializer) throws DatabaseException {
         StoreUtils.assertValidKey(key);
 
-        DatabaseEntry keyEntry = new DatabaseEntry(key.get());
+        DatabaseEntry keyEntry = new DatabaseEntry(toStorageKey(key));
         DatabaseEntry valueEntry = new DatabaseEntry();
         List<T> results = Lists.newArrayList();
 
+        if(multiVersionRecords) {
+            if(cursor.getSearchKey(keyEntry, valueEntry, lockMode) == OperationStatus.SUCCESS) {
+                for(byte[] bytes: unpack(valueEntry.getData()))
+                    results.add(serializer.toObject(bytes));
+            }
+            return results;
+        }
+
         for(OperationStatus status = cursor.getSearchKey(keyEntry, valueEntry, lockMode); status == OperationStatus.SUCCESS; status = cursor.getNextDup(keyEntry,
                                                                                                                                                         valueEntry,
                                                                                                                                                         lockMode)) {
@@ -285,14 +344,20 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
 
     public void put(ByteArray key, Versioned<byte[]> value) throws PersistenceFailureException {
         StoreUtils.assertValidKey(key);
+        if(multiVersionRecords) {
+            putMultiVersion(key, value);
+            return;
+        }
 
-        DatabaseEntry keyEntry = new DatabaseEntry(key.get());
+        DatabaseEntry keyEntry = new DatabaseEntry(toStorageKey(key));
         boolean succeeded = false;
         Transaction transaction = null;
         Cursor cursor = null;
         try {
             transaction = this.environment.beginTransaction(null, null);
 
+            VectorClock clock = (VectorClock) value.getVersion();
+
             // Check existing values
             // if there is a version obsoleted by this value delete it
             // if there is a version later than this one, throw an exception
@@ -301,15 +366,9 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
             for(OperationStatus status = cursor.getSearchKey(keyEntry, valueEntry, LockMode.RMW); status == OperationStatus.SUCCESS; status = cursor.getNextDup(keyEntry,
                                                                                                                                                                 valueEntry,
                                                                                                                                                                 LockMode.RMW)) {
-                VectorClock clock = new VectorClock(valueEntry.getData());
-                Occured occured = value.getVersion().compare(clock);
+                Occured occured = clock.compare(valueEntry.getData(), 0);
                 if(occured == Occured.BEFORE)
-                    throw new ObsoleteVersionException("Key "
-                                                       + new String(hexCodec.encode(key.get()))
-                                                       + " "
-                                                       + value.getVersion().toString()
-                                                       + " is obsolete, it is no greater than the current version of "
-                                                       + clock + ".");
+                    throw obsoleteVersion(key, value, valueEntry.getData());
                 else if(occured == Occured.AFTER)
                     // best effort delete of obsolete previous value!
                     cursor.delete();
@@ -335,14 +394,70 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
         }
     }
 
+    /*
+     * Replace the versions of the key that the new value supersedes, reading
+     * and writing the single record of the key
+     */
+    private void putMultiVersion(ByteArray key, Versioned<byte[]> value)
+            throws PersistenceFailureException {
+        DatabaseEntry keyEntry = new DatabaseEntry(toStorageKey(key));
+        boolean succeeded = false;
+        Transaction transaction = null;
+        try {
+            transaction = this.environment.beginTransaction(null, null);
+            DatabaseEntry valueEntry = new DatabaseEntry();
+            List<byte[]> versions = Lists.newArrayList();
+            OperationStatus status = getBdbDatabase().get(transaction,
+                                                          keyEntry,
+                                                          valueEntry,
+                                                          LockMode.RMW);
+            if(status == OperationStatus.SUCCESS) {
+                VectorClock clock = (VectorClock) value.getVersion();
+                for(byte[] bytes: unpack(valueEntry.getData())) {
+                    Occured occured = clock.compare(bytes, 0);
+                    if(occured == Occured.BEFORE)
+                        throw obsoleteVersion(key, value, bytes);
+                    else if(occured != Occured.AFTER)
+                        versions.add(bytes);
+                }
+            }
+            versions.add(versionedSerializer.toBytes(value));
+
+            status = getBdbDatabase().put(transaction, keyEntry, new DatabaseEntry(pack(versions)));
+            if(status != OperationStatus.SUCCESS)
+                throw new PersistenceFailureException("Put operation failed with status: " + status);
+            succeeded = true;
+        } catch(DatabaseException e) {
+            logger.error(e);
+            throw new PersistenceFailureException(e);
+        } finally {
+            if(succeeded)
+                attemptCommit(transaction);
+            else
+                attemptAbort(transaction);
+        }
+    }
+
+    private ObsoleteVersionException obsoleteVersion(ByteArray key,
+                                                     Versioned<byte[]> value,
+                                                     byte[] current) {
+        VectorClock clock = new VectorClock(current);
+        return new ObsoleteVersionException("Key " + new String(hexCodec.encode(key.get())) + " "
+                                            + value.getVersion().toString()
+                                            + " is obsolete, it is no greater than the current version of "
+                                            + clock + ".");
+    }
+
     public boolean delete(ByteArray key, Version version) throws PersistenceFailureException {
         StoreUtils.assertValidKey(key);
+        if(multiVersionRecords)
+            return deleteMultiVersion(key, version);
         boolean deletedSomething = false;
         Cursor cursor = null;
         Transaction transaction = null;
         try {
             transaction = this.environment.beginTransaction(null, null);
-            DatabaseEntry keyEntry = new DatabaseEntry(key.get());
+            DatabaseEntry keyEntry = new DatabaseEntry(toStorageKey(key));
             DatabaseEntry valueEntry = new DatabaseEntry();
             cursor = getBdbDatabase().openCursor(transaction, null);
             OperationStatus status = cursor.getSearchKey(keyEntry,
@@ -350,7 +465,7 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
                                                          LockMode.READ_UNCOMMITTED);
             while(status == OperationStatus.SUCCESS) {
                 // if version is null no comparison is necessary
-                if(new VectorClock(valueEntry.getData()).compare(version) == Occured.BEFORE) {
+                if(VectorClock.compare(valueEntry.getData(), 0, version) == Occured.BEFORE) {
                     cursor.delete();
                     deletedSomething = true;
                 }
@@ -369,6 +484,107 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
         }
     }
 
+    private boolean deleteMultiVersion(ByteArray key, Version version)
+            throws PersistenceFailureException {
+        Transaction transaction = null;
+        try {
+            transaction = this.environment.beginTransaction(null, null);
+            DatabaseEntry keyEntry = new DatabaseEntry(toStorageKey(key));
+            DatabaseEntry valueEntry = new DatabaseEntry();
+            OperationStatus status = getBdbDatabase().get(transaction,
+                                                          keyEntry,
+                                                          valueEntry,
+                                                          LockMode.RMW);
+            if(status != OperationStatus.SUCCESS)
+                return false;
+
+            List<byte[]> versions = unpack(valueEntry.getData());
+            List<byte[]> remaining = Lists.newArrayListWithCapacity(versions.size());
+            for(byte[] bytes: versions) {
+                if(VectorClock.compare(bytes, 0, version) != Occured.BEFORE)
+                    remaining.add(bytes);
+            }
+            if(remaining.size() == versions.size())
+                return false;
+
+            if(remaining.isEmpty())
+                getBdbDatabase().delete(transaction, keyEntry);
+            else
+                getBdbDatabase().put(transaction, keyEntry, new DatabaseEntry(pack(remaining)));
+            return true;
+        } catch(DatabaseException e) {
+            logger.error(e);
+            throw new PersistenceFailureException(e);
+        } finally {
+            attemptCommit(transaction);
+        }
+    }
+
+    /**
+     * @return true if all the versions of a key are kept in a single record
+     */
+    public boolean isMultiVersionRecords() {
+        return multiVersionRecords;
+    }
+
+    /**
+     * Get the key that a key is stored under in the database
+     * 
+     * @param key The key of the store
+     * @return The bytes of the database key
+     */
+    protected byte[] toStorageKey(ByteArray key) {
+        return key.get();
+    }
+
+    /**
+     * Get the key of the store from a database key, the inverse of
+     * {@link #toStorageKey(ByteArray)}
+     * 
+     * @param storageKey The bytes of the database key
+     * @return The key of the store
+     */
+    protected ByteArray fromStorageKey(byte[] storageKey) {
+        return new ByteArray(storageKey);
+    }
+
+    /*
+     * Pack the serialized versions of a key into a single record
+     */
+    static byte[] pack(List<byte[]> versions) {
+        int size = ByteUtils.SIZE_OF_INT;
+        for(byte[] bytes: versions)
+            size += ByteUtils.SIZE_OF_INT + bytes.length;
+        byte[] record = new byte[size];
+        ByteUtils.writeInt(record, versions.size(), 0);
+        int offset = ByteUtils.SIZE_OF_INT;
+        for(byte[] bytes: versions) {
+            ByteUtils.writeInt(record, bytes.length, offset);
+            System.arraycopy(bytes, 0, record, offset + ByteUtils.SIZE_OF_INT, bytes.length);
+            offset += ByteUtils.SIZE_OF_INT + bytes.length;
+        }
+        return record;
+    }
+
+    static List<byte[]> unpack(byte[] record) {
+        int numVersions = ByteUtils.readInt(record, 0);
+        List<byte[]> versions = Lists.newArrayListWithCapacity(numVersions);
+        int offset = ByteUtils.SIZE_OF_INT;
+        for(int i = 0; i < numVersions; i++) {
+            int size = ByteUtils.readInt(record, offset);
+            offset += ByteUtils.SIZE_OF_INT;
+            versions.add(ByteUtils.copy(record, offset, offset + size));
+            offset += size;
+        }
+        return versions;
+    }
+
+    static Versioned<byte[]> toVersioned(byte[] data) {
+        VectorClock clock = new VectorClock(data);
+        byte[] bytes = ByteUtils.copy(data, clock.sizeInBytes(), data.length);
+        return new Versioned<byte[]>(bytes, clock);
+    }
+
     public Object getCapability(StoreCapabilityType capability) {
         throw new NoSuchCapabilityException(capability, getName());
     }
@@ -407,8 +623,13 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
 
     private void attemptCommit(Transaction transaction) {
         try {
-            transaction.commit();
+            if(groupCommitter != null)
+                groupCommitter.commit(transaction);
+            else
+                transaction.commit();
         } catch(DatabaseException e) {
+            // the transaction is not committed, a failed sync after a
+            // group commit is not caught here since it must not be aborted
             logger.error("Transaction commit failed!", e);
             attemptAbort(transaction);
             throw new PersistenceFailureException(e);
@@ -523,7 +744,7 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
         }
     }
 
-    private static class BdbKeysIterator extends BdbIterator<ByteArray> {
+    private class BdbKeysIterator extends BdbIterator<ByteArray> {
 
         public BdbKeysIterator(Cursor cursor) {
             super(cursor, true);
@@ -531,7 +752,7 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
 
         @Override
         protected ByteArray get(DatabaseEntry key, DatabaseEntry value) {
-            return new ByteArray(key.getData());
+            return fromStorageKey(key.getData());
         }
 
         @Override
@@ -541,7 +762,7 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
 
     }
 
-    private static class BdbEntriesIterator extends BdbIterator<Pair<ByteArray, Versioned<byte[]>>> {
+    private class BdbEntriesIterator extends BdbIterator<Pair<ByteArray, Versioned<byte[]>>> {
 
         public BdbEntriesIterator(Cursor cursor) {
             super(cursor, false);
@@ -549,11 +770,7 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
 
         @Override
         protected Pair<ByteArray, Versioned<byte[]>> get(DatabaseEntry key, DatabaseEntry value) {
-            VectorClock clock = new VectorClock(value.getData());
-            byte[] bytes = ByteUtils.copy(value.getData(),
-                                          clock.sizeInBytes(),
-                                          value.getData().length);
-            return Pair.create(new ByteArray(key.getData()), new Versioned<byte[]>(bytes, clock));
+            return Pair.create(fromStorageKey(key.getData()), toVersioned(value.getData()));
         }
 
         @Override
@@ -561,4 +778,62 @@ public class BdbStorageEngine implements StorageEngine<ByteArray, byte[]> {
             cursor.getNext(key, value, LockMode.READ_UNCOMMITTED);
         }
     }
+
+    private class BdbRecordsIterator extends BdbIterator<Pair<ByteArray, byte[]>> {
+
+        public BdbRecordsIterator(Cursor cursor) {
+            super(cursor, false);
+        }
+
+        @Override
+        protected Pair<ByteArray, byte[]> get(DatabaseEntry key, DatabaseEntry value) {
+            return Pair.create(fromStorageKey(key.getData()), value.getData());
+        }
+
+        @Override
+        protected void moveCursor(DatabaseEntry key, DatabaseEntry value) throws DatabaseException {
+            cursor.getNext(key, value, LockMode.READ_UNCOMMITTED);
+        }
+    }
+
+    /**
+     * Turns an iterator over multi-version records into an iterator with an
+     * entry for each version
+     */
+    static class MultiVersionEntriesIterator implements
+            ClosableIterator<Pair<ByteArray, Versioned<byte[]>>> {
+
+        private final ClosableIterator<Pair<ByteArray, byte[]>> records;
+        private ByteArray key;
+        private List<byte[]> versions;
+        private int index;
+
+        public MultiVersionEntriesIterator(ClosableIterator<Pair<ByteArray, byte[]>> records) {
+            this.records = records;
+        }
+
+        public boolean hasNext() {
+            while((versions == null || index >= versions.size()) && records.hasNext()) {
+                Pair<ByteArray, byte[]> record = records.next();
+                key = record.getFirst();
+                versions = unpack(record.getSecond());
+                index = 0;
+            }
+            return versions != null && index < versions.size();
+        }
+
+        public Pair<ByteArray, Versioned<byte[]>> next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            return Pair.create(key, toVersioned(versions.get(index++)));
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("No removal y'all.");
+        }
+
+        public void close() {
+            records.close();
+        }
+    }
 }
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.bdb;
+
+import java.util.Collection;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import voldemort.routing.RoutingStrategy;
+import voldemort.store.PartitionScanningStorageEngine;
+import voldemort.store.PersistenceFailureException;
+import voldemort.utils.ByteArray;
+import voldemort.utils.ByteUtils;
+import voldemort.utils.ClosableIterator;
+import voldemort.utils.Pair;
+import voldemort.utils.Utils;
+import voldemort.versioning.Versioned;
+
+import com.sleepycat.je.Cursor;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.LockMode;
+import com.sleepycat.je.OperationStatus;
+
+/**
+ * A BDB store that prefixes every key with the id of its master partition.
+ * Since BDB keeps the keys sorted, the entries of each partition are stored
+ * together, and the entries of a few partitions can be read with a range scan
+ * instead of a scan over the whole store.
+ * 
+ * The prefix is a 4 byte big endian int, which sorts in partition order. The
+ * layout is not compatible with the one of {@link BdbStorageEngine}, so it can
+ * only be used for new stores.
+ * 
+ * 
+ */
+public class PartitionPrefixedBdbStorageEngine extends BdbStorageEngine implements
+        PartitionScanningStorageEngine<ByteArray, byte[]> {
+
+    private static final int PREFIX_SIZE = ByteUtils.SIZE_OF_INT;
+
+    private final RoutingStrategy routingStrategy;
+
+    public PartitionPrefixedBdbStorageEngine(String name,
+                                             Environment environment,
+                                             Database database,
+                                             RoutingStrategy routingStrategy) {
+        this(name, environment, database, false, routingStrategy);
+    }
+
+    public PartitionPrefixedBdbStorageEngine(String name,
+                                             Environment environment,
+                                             Database database,
+                                             boolean cursorPreload,
+                                             RoutingStrategy routingStrategy) {
+        this(name, environment, database, cursorPreload, false, null, routingStrategy);
+    }
+
+    public PartitionPrefixedBdbStorageEngine(String name,
+                                             Environment environment,
+                                             Database database,
+                                             boolean cursorPreload,
+                                             boolean multiVersionRecords,
+                                             BdbGroupCommitter groupCommitter,
+                                             RoutingStrategy routingStrategy) {
+        super(name, environment, database, cursorPreload, multiVersionRecords, groupCommitter);
+        this.routingStrategy = Utils.notNull(routingStrategy);
+    }
+
+    @Override
+    protected byte[] toStorageKey(ByteArray key) {
+        byte[] storageKey = new byte[PREFIX_SIZE + key.length()];
+        ByteUtils.writeInt(storageKey, routingStrategy.getMasterPartition(key.get()), 0);
+        System.arraycopy(key.get(), 0, storageKey, PREFIX_SIZE, key.length());
+        return storageKey;
+    }
+
+    @Override
+    protected ByteArray fromStorageKey(byte[] storageKey) {
+        return new ByteArray(ByteUtils.copy(storageKey, PREFIX_SIZE, storageKey.length));
+    }
+
+    public ClosableIterator<Pair<ByteArray, Versioned<byte[]>>> entries(Collection<Integer> masterPartitions) {
+        if(isMultiVersionRecords())
+            return new MultiVersionEntriesIterator(new PartitionRecordsIterator(openCursor(),
+                                                                                masterPartitions));
+        return new PartitionEntriesIterator(openCursor(), masterPartitions);
+    }
+
+    public ClosableIterator<ByteArray> keys(Collection<Integer> masterPartitions) {
+        return new PartitionKeysIterator(openCursor(), masterPartitions);
+    }
+
+    private Cursor openCursor() {
+        try {
+            return getBdbDatabase().openCursor(null, null);
+        } catch(DatabaseException e) {
+            throw new PersistenceFailureException(e);
+        }
+    }
+
+    /*
+     * Iterates over the partitions in order, positioning the cursor at the
+     * first key of each partition and stopping at the first key of the next
+     */
+    private abstract class PartitionIterator<T> implements ClosableIterator<T> {
+
+        private final Cursor cursor;
+        private final int[] partitions;
+        private final boolean noValues;
+        private int partitionIndex;
+        private T current;
+        private volatile boolean isOpen;
+
+        public PartitionIterator(Cursor cursor,
+                                 Collection<Integer> masterPartitions,
+                                 boolean noValues) {
+            this.cursor = cursor;
+            this.noValues = noValues;
+            SortedSet<Integer> sorted = new TreeSet<Integer>(masterPartitions);
+            this.partitions = new int[sorted.size()];
+            int i = 0;
+            for(int partition: sorted)
+                partitions[i++] = partition;
+            this.partitionIndex = -1;
+            this.isOpen = true;
+            try {
+                this.current = advance(true);
+            } catch(RuntimeException e) {
+                // the caller never gets the iterator, so it can't close it
+                try {
+                    close();
+                } catch(PersistenceFailureException closeFailure) {
+                    // report the failure to seek rather than this one
+                }
+                throw e;
+            }
+        }
+
+        protected abstract T get(DatabaseEntry key, DatabaseEntry value);
+
+        protected abstract OperationStatus moveCursor(Cursor cursor,
+                                                      DatabaseEntry key,
+                                                      DatabaseEntry value)
+                throws DatabaseException;
+
+        private T advance(boolean seek) {
+            DatabaseEntry keyEntry = new DatabaseEntry();
+            DatabaseEntry valueEntry = new DatabaseEntry();
+            if(noValues)
+                valueEntry.setPartial(true);
+            try {
+                while(true) {
+                    OperationStatus status;
+                    if(seek) {
+                        if(++partitionIndex >= partitions.length)
+                            return null;
+                        byte[] prefix = new byte[PREFIX_SIZE];
+                        ByteUtils.writeInt(prefix, partitions[partitionIndex], 0);
+                        keyEntry.setData(prefix);
+                        status = cursor.getSearchKeyRange(keyEntry,
+                                                          valueEntry,
+                                                          LockMode.READ_UNCOMMITTED);
+                    } else {
+                        status = moveCursor(cursor, keyEntry, valueEntry);
+                    }
+
+                    if(status == OperationStatus.SUCCESS && keyEntry.getSize() >= PREFIX_SIZE
+                       && ByteUtils.readInt(keyEntry.getData(), 0) == partitions[partitionIndex])
+                        return get(keyEntry, valueEntry);
+
+                    // we're past the end of this partition
+                    seek = true;
+                }
+            } catch(DatabaseException e) {
+                throw new PersistenceFailureException(e);
+            }
+        }
+
+        public final boolean hasNext() {
+            return current != null;
+        }
+
+        public final T next() {
+            if(!isOpen)
+                throw new PersistenceFailureException("Call to next() on a closed iterator.");
+            T previous = current;
+            current = advance(false);
+            return previous;
+        }
+
+        public final void remove() {
+            throw new UnsupportedOperationException("No removal y'all.");
+        }
+
+        public final void close() {
+            try {
+                cursor.close();
+                isOpen = false;
+            } catch(DatabaseException e) {
+                throw new PersistenceFailureException(e);
+            }
+        }
+    }
+
+    private class PartitionKeysIterator extends PartitionIterator<ByteArray> {
+
+        public PartitionKeysIterator(Cursor cursor, Collection<Integer> masterPartitions) {
+            super(cursor, masterPartitions, true);
+        }
+
+        @Override
+        protected ByteArray get(DatabaseEntry key, DatabaseEntry value) {
+            return fromStorageKey(key.getData());
+        }
+
+        @Override
+        protected OperationStatus moveCursor(Cursor cursor, DatabaseEntry key, DatabaseEntry value)
+                throws DatabaseException {
+            return cursor.getNextNoDup(key, value, LockMode.READ_UNCOMMITTED);
+        }
+    }
+
+    private class PartitionEntriesIterator extends
+            PartitionIterator<Pair<ByteArray, Versioned<byte[]>>> {
+
+        public PartitionEntriesIterator(Cursor cursor, Collection<Integer> masterPartitions) {
+            super(cursor, masterPartitions, false);
+        }
+
+        @Override
+        protected Pair<ByteArray, Versioned<byte[]>> get(DatabaseEntry key, DatabaseEntry value) {
+            return Pair.create(fromStorageKey(key.getData()), toVersioned(value.getData()));
+        }
+
+        @Override
+        protected OperationStatus moveCursor(Cursor cursor, DatabaseEntry key, DatabaseEntry value)
+                throws DatabaseException {
+            return cursor.getNext(key, value, LockMode.READ_UNCOMMITTED);
+        }
+    }
+
+    private class PartitionRecordsIterator extends PartitionIterator<Pair<ByteArray, byte[]>> {
+
+        public PartitionRecordsIterator(Cursor cursor, Collection<Integer> masterPartitions) {
+            super(cursor, masterPartitions, false);
+        }
+
+        @Override
+        protected Pair<ByteArray, byte[]> get(DatabaseEntry key, DatabaseEntry value) {
+            return Pair.create(fromStorageKey(key.getData()), value.getData());
+        }
+
+        @Override
+        protected OperationStatus moveCursor(Cursor cursor, DatabaseEntry key, DatabaseEntry value)
+                throws DatabaseException {
+            return cursor.getNext(key, value, LockMode.READ_UNCOMMITTED);
+        }
+    }
+}
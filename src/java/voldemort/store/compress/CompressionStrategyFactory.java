@@ -11,6 +11,8 @@ public class CompressionStrategyFactory {
             return new GzipCompressionStrategy();
         if(compression.getType().equals("lzf"))
             return new LzfCompressionStrategy();
+        if(compression.getType().equals(DictionaryCompressionStrategy.TYPE_NAME))
+            return new DictionaryCompressionStrategy(compression.getOptions());
         throw new IllegalArgumentException("Unsupported compression algorithm: "
                                            + compression.getType());
     }
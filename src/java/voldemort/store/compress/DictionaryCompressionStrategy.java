@@ -0,0 +1,313 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.compress;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.codec.binary.Base64;
+
+import voldemort.utils.ByteUtils;
+
+/**
+ * A CompressionStrategy that deflates each value against a preset dictionary
+ * shared by all the values of a store. Small values have too little history of
+ * their own to compress well on their own, but a dictionary trained on sample
+ * values of the store (see {@link DictionaryTrainer}) supplies the strings they
+ * have in common.
+ * 
+ * The dictionaries are kept in the options of the compression element of the
+ * serializer, as a comma separated list of version:base64-dictionary pairs, so
+ * they are distributed with the store definition. Values are compressed with
+ * the current dictionary and prefixed with its version, so a dictionary can be
+ * retrained by adding a new version while values written with the older ones
+ * stay readable. Version 0 marks values that are stored uncompressed because
+ * compressing them would not make them smaller.
+ * 
+ * The current dictionary is the newest one unless the options name it with a
+ * current=version entry. A retrained dictionary is added without becoming
+ * current, and is only made current once every client and server has it,
+ * since a value compressed with a dictionary the reader does not know cannot
+ * be read.
+ * 
+ * 
+ */
+public class DictionaryCompressionStrategy implements CompressionStrategy {
+
+    public static final String TYPE_NAME = "dictionary";
+
+    public static final int MAX_VERSION = 255;
+
+    public static final String CURRENT = "current";
+
+    private static final byte UNCOMPRESSED = 0;
+
+    private final byte[][] dictionaries;
+    private final int currentVersion;
+    private final ThreadLocal<Deflater> deflater;
+    private final ThreadLocal<Inflater> inflater;
+
+    public DictionaryCompressionStrategy(String options) {
+        this(parseDictionaries(options), parseCurrentVersion(options));
+    }
+
+    public DictionaryCompressionStrategy(SortedMap<Integer, byte[]> dictionaries) {
+        this(dictionaries, dictionaries.isEmpty() ? UNCOMPRESSED : dictionaries.lastKey());
+    }
+
+    /**
+     * @param dictionaries The dictionaries by version
+     * @param currentVersion The version of the dictionary to compress with
+     */
+    public DictionaryCompressionStrategy(SortedMap<Integer, byte[]> dictionaries,
+                                         int currentVersion) {
+        if(dictionaries.isEmpty())
+            throw new IllegalArgumentException("At least one dictionary is required.");
+        if(!dictionaries.containsKey(currentVersion))
+            throw new IllegalArgumentException("No dictionary for the current version "
+                                               + currentVersion + ".");
+        this.dictionaries = new byte[MAX_VERSION + 1][];
+        for(Map.Entry<Integer, byte[]> entry: dictionaries.entrySet()) {
+            checkVersion(entry.getKey());
+            this.dictionaries[entry.getKey()] = entry.getValue();
+        }
+        this.currentVersion = currentVersion;
+        this.deflater = new ThreadLocal<Deflater>() {
+
+            @Override
+            protected Deflater initialValue() {
+                return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            }
+        };
+        this.inflater = new ThreadLocal<Inflater>() {
+
+            @Override
+            protected Inflater initialValue() {
+                return new Inflater(true);
+            }
+        };
+    }
+
+    public String getType() {
+        return TYPE_NAME;
+    }
+
+    public int getCurrentVersion() {
+        return currentVersion;
+    }
+
+    public byte[] deflate(byte[] data) throws IOException {
+        Deflater deflater = this.deflater.get();
+        deflater.reset();
+        deflater.setDictionary(dictionaries[currentVersion]);
+        deflater.setInput(data);
+        deflater.finish();
+        // anything that does not fit in the size of the data is not worth it
+        byte[] deflated = new byte[data.length + 1];
+        deflated[0] = (byte) currentVersion;
+        int size = 1;
+        while(!deflater.finished()) {
+            if(size == deflated.length) {
+                deflated[0] = UNCOMPRESSED;
+                System.arraycopy(data, 0, deflated, 1, data.length);
+                return deflated;
+            }
+            size += deflater.deflate(deflated, size, deflated.length - size);
+        }
+        return ByteUtils.copy(deflated, 0, size);
+    }
+
+    public byte[] inflate(byte[] data) throws IOException {
+        if(data.length == 0)
+            throw new IOException("Missing dictionary version.");
+        int version = data[0] & 0xFF;
+        if(version == UNCOMPRESSED)
+            return ByteUtils.copy(data, 1, data.length);
+        byte[] dictionary = dictionaries[version];
+        if(dictionary == null)
+            throw new IOException("Unknown compression dictionary version " + version + ".");
+
+        Inflater inflater = this.inflater.get();
+        inflater.reset();
+        inflater.setDictionary(dictionary);
+        inflater.setInput(data, 1, data.length - 1);
+        byte[] inflated = new byte[Math.max(64, 4 * data.length)];
+        int size = 0;
+        boolean paddingAdded = false;
+        try {
+            while(!inflater.finished()) {
+                if(size == inflated.length) {
+                    byte[] larger = new byte[2 * inflated.length];
+                    System.arraycopy(inflated, 0, larger, 0, size);
+                    inflated = larger;
+                }
+                int read = inflater.inflate(inflated, size, inflated.length - size);
+                size += read;
+                if(read == 0 && inflater.needsInput()) {
+                    // without the zlib wrapper the inflater may need an extra
+                    // byte past the end of the data to finish
+                    if(paddingAdded)
+                        throw new IOException("Truncated compressed data.");
+                    inflater.setInput(new byte[1]);
+                    paddingAdded = true;
+                }
+            }
+        } catch(DataFormatException e) {
+            throw new IOException("Invalid compressed data: " + e.getMessage());
+        }
+        return ByteUtils.copy(inflated, 0, size);
+    }
+
+    /**
+     * Parse the dictionaries in the options of a compression element
+     * 
+     * @param options A comma separated list of version:base64-dictionary
+     *        pairs, and optionally a current=version entry
+     * @return The dictionaries by version
+     */
+    public static SortedMap<Integer, byte[]> parseDictionaries(String options) {
+        if(options == null)
+            throw new IllegalArgumentException("The " + TYPE_NAME
+                                               + " compression requires dictionaries as options.");
+        SortedMap<Integer, byte[]> dictionaries = new TreeMap<Integer, byte[]>();
+        for(String pair: options.split(",")) {
+            pair = pair.trim();
+            if(pair.length() == 0 || pair.startsWith(CURRENT + "="))
+                continue;
+            int separator = pair.indexOf(':');
+            if(separator < 0)
+                throw new IllegalArgumentException("Invalid dictionary " + pair
+                                                   + ", expected version:base64-dictionary.");
+            int version;
+            try {
+                version = Integer.parseInt(pair.substring(0, separator).trim());
+            } catch(NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid dictionary version in " + pair + ".");
+            }
+            checkVersion(version);
+            byte[] dictionary = Base64.decodeBase64(pair.substring(separator + 1)
+                                                        .replaceAll("\\s", "")
+                                                        .getBytes());
+            if(dictionary.length == 0)
+                throw new IllegalArgumentException("Dictionary " + version + " is empty.");
+            dictionaries.put(version, dictionary);
+        }
+        return dictionaries;
+    }
+
+    /**
+     * Parse the version of the dictionary to compress with from the options of
+     * a compression element
+     * 
+     * @param options The options of the compression element
+     * @return The version given by the current=version entry, or the newest
+     *         version if there is none
+     */
+    public static int parseCurrentVersion(String options) {
+        SortedMap<Integer, byte[]> dictionaries = parseDictionaries(options);
+        for(String pair: options.split(",")) {
+            pair = pair.trim();
+            if(!pair.startsWith(CURRENT + "="))
+                continue;
+            try {
+                return Integer.parseInt(pair.substring(CURRENT.length() + 1).trim());
+            } catch(NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid current dictionary version in " + pair
+                                                   + ".");
+            }
+        }
+        return dictionaries.isEmpty() ? UNCOMPRESSED : dictionaries.lastKey();
+    }
+
+    /**
+     * Format dictionaries as the options of a compression element, with the
+     * newest one as the current dictionary
+     */
+    public static String formatDictionaries(SortedMap<Integer, byte[]> dictionaries) {
+        return formatDictionaries(dictionaries, dictionaries.isEmpty() ? UNCOMPRESSED
+                                                                       : dictionaries.lastKey());
+    }
+
+    /**
+     * Format dictionaries as the options of a compression element
+     * 
+     * @param dictionaries The dictionaries by version
+     * @param currentVersion The version of the dictionary to compress with,
+     *        only written out if it is not the newest
+     */
+    public static String formatDictionaries(SortedMap<Integer, byte[]> dictionaries,
+                                            int currentVersion) {
+        StringBuilder builder = new StringBuilder();
+        if(!dictionaries.isEmpty() && currentVersion != dictionaries.lastKey())
+            builder.append(CURRENT).append('=').append(currentVersion);
+        for(Map.Entry<Integer, byte[]> entry: dictionaries.entrySet()) {
+            if(builder.length() > 0)
+                builder.append(',');
+            builder.append(entry.getKey());
+            builder.append(':');
+            builder.append(new String(Base64.encodeBase64(entry.getValue())));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Add a new version of the dictionary to the given options. If there are
+     * older versions the current one stays current, so the new dictionary can
+     * be distributed before any value is compressed with it (see
+     * {@link #setCurrentVersion(String, int)}).
+     * 
+     * @param options The current options, or null if there are none
+     * @param dictionary The new dictionary
+     * @return The options with the new dictionary as the newest version
+     */
+    public static String addDictionary(String options, byte[] dictionary) {
+        SortedMap<Integer, byte[]> dictionaries = options == null ? new TreeMap<Integer, byte[]>()
+                                                                 : parseDictionaries(options);
+        int version = dictionaries.isEmpty() ? 1 : dictionaries.lastKey() + 1;
+        checkVersion(version);
+        int currentVersion = options == null ? version : parseCurrentVersion(options);
+        dictionaries.put(version, dictionary);
+        return formatDictionaries(dictionaries, currentVersion);
+    }
+
+    /**
+     * Make the given version the dictionary values are compressed with
+     * 
+     * @param options The current options
+     * @param version The version of one of the dictionaries in the options
+     * @return The options with the given version as the current one
+     */
+    public static String setCurrentVersion(String options, int version) {
+        SortedMap<Integer, byte[]> dictionaries = parseDictionaries(options);
+        if(!dictionaries.containsKey(version))
+            throw new IllegalArgumentException("No dictionary version " + version + " in "
+                                               + dictionaries.keySet() + ".");
+        return formatDictionaries(dictionaries, version);
+    }
+
+    private static void checkVersion(int version) {
+        if(version <= UNCOMPRESSED || version > MAX_VERSION)
+            throw new IllegalArgumentException("Dictionary versions must be between 1 and "
+                                               + MAX_VERSION + ", found " + version + ".");
+    }
+
+}
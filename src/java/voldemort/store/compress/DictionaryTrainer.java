@@ -0,0 +1,167 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import voldemort.utils.ByteArray;
+import voldemort.utils.ByteUtils;
+
+/**
+ * Builds a compression dictionary for {@link DictionaryCompressionStrategy}
+ * from a sample of the values of a store.
+ * 
+ * Every 8 byte string of the samples is counted once per sample it occurs in.
+ * The maximal runs of a sample made of strings that occur in more than one
+ * sample are the candidate segments of the dictionary, scored by the total
+ * number of samples their strings occur in. The best segments are packed into
+ * the dictionary until it is full, skipping those whose strings are all in it
+ * already. The best segments go last, since deflate encodes the matches
+ * closest to the data in the fewest bits.
+ * 
+ * 
+ */
+public class DictionaryTrainer {
+
+    /*
+     * The size of the window of deflate, dictionaries are never any larger
+     */
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int GRAM_SIZE = ByteUtils.SIZE_OF_LONG;
+
+    private final int maxSize;
+    private final Map<Long, Integer> counts;
+    private final List<byte[]> samples;
+
+    /**
+     * @param maxSize The maximum size of the dictionary, at most
+     *        MAX_DICTIONARY_SIZE
+     */
+    public DictionaryTrainer(int maxSize) {
+        if(maxSize < 1 || maxSize > MAX_DICTIONARY_SIZE)
+            throw new IllegalArgumentException("The dictionary size must be between 1 and "
+                                               + MAX_DICTIONARY_SIZE + ".");
+        this.maxSize = maxSize;
+        this.counts = new HashMap<Long, Integer>();
+        this.samples = new ArrayList<byte[]>();
+    }
+
+    /**
+     * Add a sample value
+     */
+    public void add(byte[] sample) {
+        if(sample.length < GRAM_SIZE)
+            return;
+        Set<Long> grams = new HashSet<Long>();
+        for(int i = 0; i + GRAM_SIZE <= sample.length; i++)
+            grams.add(ByteUtils.readLong(sample, i));
+        for(Long gram: grams) {
+            Integer count = counts.get(gram);
+            counts.put(gram, count == null ? 1 : count + 1);
+        }
+        samples.add(sample);
+    }
+
+    public int getNumSamples() {
+        return samples.size();
+    }
+
+    /**
+     * Build the dictionary from the samples added so far
+     * 
+     * @return The dictionary, which is empty if the samples have nothing in
+     *         common
+     */
+    public byte[] train() {
+        Map<ByteArray, Segment> segments = new HashMap<ByteArray, Segment>();
+        for(byte[] sample: samples) {
+            int start = -1;
+            long score = 0;
+            for(int i = 0; i + GRAM_SIZE <= sample.length + 1; i++) {
+                int count = i + GRAM_SIZE <= sample.length ? counts.get(ByteUtils.readLong(sample,
+                                                                                           i))
+                                                          : 0;
+                if(count > 1) {
+                    if(start < 0)
+                        start = i;
+                    score += count;
+                } else if(start >= 0) {
+                    byte[] bytes = ByteUtils.copy(sample,
+                                                  start,
+                                                  Math.min(start + maxSize,
+                                                           i - 1 + GRAM_SIZE));
+                    ByteArray key = new ByteArray(bytes);
+                    if(!segments.containsKey(key))
+                        segments.put(key, new Segment(bytes, score));
+                    start = -1;
+                    score = 0;
+                }
+            }
+        }
+
+        List<Segment> ranked = new ArrayList<Segment>(segments.values());
+        Collections.sort(ranked, new Comparator<Segment>() {
+
+            public int compare(Segment s1, Segment s2) {
+                if(s1.score != s2.score)
+                    return s1.score > s2.score ? -1 : 1;
+                return s1.bytes.length - s2.bytes.length;
+            }
+        });
+        List<Segment> chosen = new ArrayList<Segment>();
+        Set<Long> covered = new HashSet<Long>();
+        int size = 0;
+        for(Segment segment: ranked) {
+            if(size + segment.bytes.length > maxSize)
+                continue;
+            // skip segments that would add no new strings to the dictionary
+            boolean isNew = false;
+            for(int i = 0; i + GRAM_SIZE <= segment.bytes.length; i++)
+                isNew |= covered.add(ByteUtils.readLong(segment.bytes, i));
+            if(isNew) {
+                chosen.add(segment);
+                size += segment.bytes.length;
+            }
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for(int i = chosen.size() - 1; i >= 0; i--)
+            dictionary.write(chosen.get(i).bytes, 0, chosen.get(i).bytes.length);
+        return dictionary.toByteArray();
+    }
+
+    private static class Segment {
+
+        private final byte[] bytes;
+        private final long score;
+
+        private Segment(byte[] bytes, long score) {
+            this.bytes = bytes;
+            this.score = score;
+        }
+    }
+
+}
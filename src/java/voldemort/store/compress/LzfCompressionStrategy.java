@@ -7,7 +7,8 @@ import voldemort.store.compress.lzf.LZFEncoder;
 
 /**
  * Implementation of CompressionStrategy for the LZF format. LZF is optimized
- * for speed.
+ * for speed. Each thread reuses its encoder, so compressing or uncompressing a
+ * value only allocates the result.
  */
 public class LzfCompressionStrategy implements CompressionStrategy {
 
@@ -46,20 +46,51 @@ public class ChunkEncoder {
 
     private final int _hashModulo;
 
+    private final int _largestChunkLen;
+
+    /**
+     * Create an encoder for chunks of any length. It can be reused for any
+     * number of inputs.
+     */
+    public ChunkEncoder() {
+        this(LZFChunk.MAX_CHUNK_LEN);
+    }
+
     /**
      * @param totalLength Total encoded length; used for calculating size of
-     *        hash table to use
+     *        hash table to use. The encoder can then encode any input whose
+     *        chunks are no longer than that.
      */
     public ChunkEncoder(int totalLength) {
-        int largestChunkLen = Math.max(totalLength, LZFChunk.MAX_CHUNK_LEN);
+        // no chunk is longer than the input, or than the maximum chunk length
+        _largestChunkLen = Math.max(1, Math.min(totalLength, LZFChunk.MAX_CHUNK_LEN));
 
-        int hashLen = calcHashLen(largestChunkLen);
+        int hashLen = calcHashLen(_largestChunkLen);
         _hashTable = new int[hashLen];
         _hashModulo = hashLen - 1;
-        // Ok, then, what's the worst case output buffer length?
+        _encodeBuffer = new byte[maxEncodedLength(_largestChunkLen)];
+    }
+
+    /**
+     * @return The length of the longest chunk this encoder can encode
+     */
+    public int getLargestChunkLength() {
+        return _largestChunkLen;
+    }
+
+    /**
+     * The worst case length of a chunk when encoded, including its header
+     */
+    public static int maxEncodedLength(int chunkLen) {
         // length indicator for each 32 literals, so:
-        int bufferLen = largestChunkLen + ((largestChunkLen + 31) >> 5);
-        _encodeBuffer = new byte[bufferLen];
+        return LZFChunk.MAX_HEADER_LEN + chunkLen + ((chunkLen + 31) >> 5) + 1;
+    }
+
+    /**
+     * Buffer large enough to hold any chunk this encoder can encode
+     */
+    byte[] getEncodeBuffer() {
+        return _encodeBuffer;
     }
 
     /**
@@ -80,6 +111,41 @@ public class ChunkEncoder {
         return LZFChunk.createNonCompressed(data, offset, len);
     }
 
+    /**
+     * Method for compressing (or not) individual chunks into the given
+     * buffer, which must have room for at least
+     * {@link #maxEncodedLength(int)} bytes from outPos. Nothing is allocated.
+     * 
+     * @return The position in the buffer after the chunk
+     */
+    public int encodeChunk(byte[] data, int offset, int len, byte[] out, int outPos) {
+        if(len > _largestChunkLen)
+            throw new IllegalArgumentException("Chunk of " + len + " bytes is longer than "
+                                               + _largestChunkLen);
+        if(len >= MIN_BLOCK_TO_COMPRESS) {
+            int compLen = tryCompress(data, offset, offset + len, out, outPos
+                                                                        + LZFChunk.MAX_HEADER_LEN)
+                          - outPos - LZFChunk.MAX_HEADER_LEN;
+            if(compLen < (len - 2)) {
+                out[outPos] = LZFChunk.BYTE_Z;
+                out[outPos + 1] = LZFChunk.BYTE_V;
+                out[outPos + 2] = LZFChunk.BLOCK_TYPE_COMPRESSED;
+                out[outPos + 3] = (byte) (compLen >> 8);
+                out[outPos + 4] = (byte) compLen;
+                out[outPos + 5] = (byte) (len >> 8);
+                out[outPos + 6] = (byte) len;
+                return outPos + LZFChunk.MAX_HEADER_LEN + compLen;
+            }
+        }
+        out[outPos] = LZFChunk.BYTE_Z;
+        out[outPos + 1] = LZFChunk.BYTE_V;
+        out[outPos + 2] = LZFChunk.BLOCK_TYPE_NON_COMPRESSED;
+        out[outPos + 3] = (byte) (len >> 8);
+        out[outPos + 4] = (byte) len;
+        System.arraycopy(data, offset, out, outPos + 5, len);
+        return outPos + 5 + len;
+    }
+
     private static int calcHashLen(int chunkSize) {
         // in general try get hash table size of 2x input size
         chunkSize += chunkSize;
@@ -114,7 +180,7 @@ public class ChunkEncoder {
     private int tryCompress(byte[] in, int inPos, int inEnd, byte[] out, int outPos) {
         int literals = 0;
         outPos++;
-        int hash = first(in, 0);
+        int hash = first(in, inPos);
         inEnd -= 4;
         final int firstPos = inPos; // so that we won't have back references
                                     // across block boundary
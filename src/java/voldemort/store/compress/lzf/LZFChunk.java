@@ -32,6 +32,11 @@ public class LZFChunk {
     public final static byte BYTE_Z = 'Z';
     public final static byte BYTE_V = 'V';
 
+    /**
+     * Length of the header of a compressed chunk, the longest header
+     */
+    public static final int MAX_HEADER_LEN = 7;
+
     public final static int BLOCK_TYPE_NON_COMPRESSED = 0;
     public final static int BLOCK_TYPE_COMPRESSED = 1;
 
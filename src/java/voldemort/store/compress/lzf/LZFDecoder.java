@@ -44,42 +44,75 @@ public class LZFDecoder {
          * know header structure is not corrupt (to the degree that lengths etc
          * seem valid)
          */
-        byte[] result = new byte[calculateUncompressedSize(data)];
-        int inPtr = 0;
-        int outPtr = 0;
+        byte[] result = new byte[getUncompressedSize(data, 0, data.length)];
+        decodeChunks(data, 0, data.length, result, 0);
+        return result;
+    }
+
+    /**
+     * Method for decompressing part of the given input data into the given
+     * buffer, without allocating anything
+     * 
+     * @param out The buffer, which must have room for
+     *        {@link #getUncompressedSize(byte[], int, int)} bytes from outPos
+     * @return The position in the buffer after the decoded data
+     */
+    public static int decode(byte[] data, int offset, int length, byte[] out, int outPos)
+            throws IOException {
+        int uncompressedSize = getUncompressedSize(data, offset, length);
+        if(out.length - outPos < uncompressedSize)
+            throw new IllegalArgumentException("Output buffer of " + (out.length - outPos)
+                                               + " bytes is too small for " + uncompressedSize
+                                               + " bytes.");
+        return decodeChunks(data, offset, length, out, outPos);
+    }
 
-        while(inPtr < (data.length - 1)) { // -1 to offset possible end marker
+    private static int decodeChunks(byte[] data, int offset, int length, byte[] out, int outPos)
+            throws IOException {
+        int inPtr = offset;
+        int end = offset + length;
+        int outPtr = outPos;
+
+        while(inPtr < (end - 1)) { // -1 to offset possible end marker
             inPtr += 2; // skip 'ZV' marker
             int type = data[inPtr++];
             int len = uint16(data, inPtr);
             inPtr += 2;
             if(type == LZFChunk.BLOCK_TYPE_NON_COMPRESSED) { // uncompressed
-                System.arraycopy(data, inPtr, result, outPtr, len);
+                System.arraycopy(data, inPtr, out, outPtr, len);
                 outPtr += len;
             } else { // compressed
                 int uncompLen = uint16(data, inPtr);
                 inPtr += 2;
-                decompressChunk(data, inPtr, result, outPtr, outPtr + uncompLen);
+                decompressChunk(data, inPtr, out, outPtr, outPtr + uncompLen);
                 outPtr += uncompLen;
             }
             inPtr += len;
         }
-        return result;
+        return outPtr;
     }
 
-    private static int calculateUncompressedSize(byte[] data) throws IOException {
+    /**
+     * Calculate the size of the given encoded data once decoded, checking
+     * that the chunk headers are valid along the way
+     */
+    public static int getUncompressedSize(byte[] data, int offset, int length)
+            throws IOException {
         int uncompressedSize = 0;
-        int ptr = 0;
+        int ptr = offset;
+        int end = offset + length;
         int blockNr = 0;
 
-        while(ptr < data.length) {
+        while(ptr < end) {
             // can use optional end marker
-            if(ptr == (data.length + 1) && data[ptr] == BYTE_NULL) {
+            if(ptr == (end - 1) && data[ptr] == BYTE_NULL) {
                 ++ptr; // so that we'll be at end
                 break;
             }
             // simpler to handle bounds checks by catching exception here...
             try {
+                if(ptr + 4 >= end)
+                    throw new ArrayIndexOutOfBoundsException();
                 if(data[ptr] != LZFChunk.BYTE_Z || data[ptr + 1] != LZFChunk.BYTE_V) {
                     throw new IOException("Corrupt input data, block #" + blockNr + " (at offset "
                                           + ptr + "): did not start with 'ZV' signature bytes");
@@ -90,6 +123,8 @@ public class LZFDecoder {
                     ptr += 5;
                     uncompressedSize += blockLen;
                 } else if(type == LZFChunk.BLOCK_TYPE_COMPRESSED) { // compressed
+                    if(ptr + 6 >= end)
+                        throw new ArrayIndexOutOfBoundsException();
                     uncompressedSize += uint16(data, ptr + 5);
                     ptr += 7;
                 } else { // unknown... CRC-32 would be 2, but that's not
@@ -105,9 +140,9 @@ public class LZFDecoder {
             ++blockNr;
         }
         // one more sanity check:
-        if(ptr != data.length) {
+        if(ptr != end) {
             throw new IOException("Corrupt input data: block #" + blockNr + " extends "
-                                  + (data.length - ptr) + " beyond end of input");
+                                  + (ptr - end) + " beyond end of input");
         }
         return uncompressedSize;
     }
@@ -27,6 +27,12 @@ package voldemort.store.compress.lzf;
  */
 public class LZFEncoder {
 
+    /*
+     * Encoders are reused by each thread, and replaced by larger ones when
+     * needed
+     */
+    private static final ThreadLocal<ChunkEncoder> encoders = new ThreadLocal<ChunkEncoder>();
+
     // Static methods only, no point in instantiating
     private LZFEncoder() {}
 
@@ -36,35 +42,77 @@ public class LZFEncoder {
      * a sequence of chunks.
      */
     public static byte[] encode(byte[] data) {
-        int left = data.length;
-        ChunkEncoder enc = new ChunkEncoder(left);
-        int chunkLen = Math.min(LZFChunk.MAX_CHUNK_LEN, left);
-        LZFChunk first = enc.encodeChunk(data, 0, chunkLen);
-        left -= chunkLen;
-        // shortcut: if it all fit in, no need to coalesce:
-        if(left < 1) {
-            return first.getData();
+        return encode(data, 0, data.length);
+    }
+
+    /**
+     * Method for compressing part of the given input data. The encoder of the
+     * calling thread is reused, so the result is the only allocation.
+     */
+    public static byte[] encode(byte[] data, int offset, int length) {
+        ChunkEncoder encoder = getEncoder(length);
+        byte[] buffer;
+        int end;
+        if(length <= LZFChunk.MAX_CHUNK_LEN) {
+            buffer = encoder.getEncodeBuffer();
+            end = encoder.encodeChunk(data, offset, length, buffer, 0);
+        } else {
+            buffer = new byte[maxEncodedLength(length)];
+            end = encode(encoder, data, offset, length, buffer, 0);
         }
-        // otherwise need to get other chunks:
-        int resultBytes = first.length();
-        int inputOffset = chunkLen;
-        LZFChunk last = first;
+        byte[] result = new byte[end];
+        System.arraycopy(buffer, 0, result, 0, end);
+        return result;
+    }
 
+    /**
+     * Method for compressing part of the given input data into the given
+     * buffer, without allocating anything
+     * 
+     * @param encoder The encoder to use, which must be able to encode chunks
+     *        of min(length, LZFChunk.MAX_CHUNK_LEN) bytes
+     * @param out The buffer, which must have room for
+     *        {@link #maxEncodedLength(int)} bytes from outPos
+     * @return The position in the buffer after the encoded data
+     */
+    public static int encode(ChunkEncoder encoder,
+                             byte[] data,
+                             int offset,
+                             int length,
+                             byte[] out,
+                             int outPos) {
+        if(out.length - outPos < maxEncodedLength(length))
+            throw new IllegalArgumentException("Output buffer of " + (out.length - outPos)
+                                               + " bytes may be too small for "
+                                               + maxEncodedLength(length) + " bytes.");
+        int end = offset + length;
         do {
-            chunkLen = Math.min(left, LZFChunk.MAX_CHUNK_LEN);
-            LZFChunk chunk = enc.encodeChunk(data, inputOffset, chunkLen);
-            inputOffset += chunkLen;
-            left -= chunkLen;
-            resultBytes += chunk.length();
-            last.setNext(chunk);
-            last = chunk;
-        } while(left > 0);
-        // and then coalesce returns into single contiguous byte array
-        byte[] result = new byte[resultBytes];
-        int ptr = 0;
-        for(; first != null; first = first.next()) {
-            ptr = first.copyTo(result, ptr);
+            int chunkLen = Math.min(end - offset, LZFChunk.MAX_CHUNK_LEN);
+            outPos = encoder.encodeChunk(data, offset, chunkLen, out, outPos);
+            offset += chunkLen;
+        } while(offset < end);
+        return outPos;
+    }
+
+    /**
+     * The worst case length of the given number of bytes when encoded
+     */
+    public static int maxEncodedLength(int length) {
+        int chunks = Math.max(1, (length + LZFChunk.MAX_CHUNK_LEN - 1) / LZFChunk.MAX_CHUNK_LEN);
+        return length + chunks * ChunkEncoder.maxEncodedLength(0) + ((length + 31) >> 5) + chunks;
+    }
+
+    /**
+     * Get the encoder of the calling thread, making sure it can encode inputs
+     * of the given length
+     */
+    public static ChunkEncoder getEncoder(int length) {
+        ChunkEncoder encoder = encoders.get();
+        if(encoder == null
+           || encoder.getLargestChunkLength() < Math.min(length, LZFChunk.MAX_CHUNK_LEN)) {
+            encoder = new ChunkEncoder(length);
+            encoders.set(encoder);
         }
-        return result;
+        return encoder;
     }
 }
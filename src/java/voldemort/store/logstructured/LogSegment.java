@@ -0,0 +1,334 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.logstructured;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import voldemort.utils.ByteUtils;
+
+/**
+ * One file of a {@link LogStructuredStorageEngine}. Records are only ever
+ * appended to a segment, and each record is
+ * 
+ * <pre>
+ * [crc: int][key size: int][value size: int][key][value]
+ * </pre>
+ * 
+ * where the crc covers everything after it, and a value size of -1 marks a
+ * tombstone, the deletion of the key.
+ * 
+ * Appends must be made by one thread at a time, reads can be made
+ * concurrently with each other and with appends.
+ * 
+ * 
+ */
+class LogSegment {
+
+    public static final String SUFFIX = ".log";
+
+    public static final int HEADER_SIZE = 3 * ByteUtils.SIZE_OF_INT;
+    public static final int TOMBSTONE = -1;
+
+    private final int id;
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final AtomicLong deadBytes;
+    private volatile long size;
+    private volatile long syncedSize;
+
+    public LogSegment(File directory, int id) throws IOException {
+        this.id = id;
+        this.file = new File(directory, id + SUFFIX);
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+        this.deadBytes = new AtomicLong(0);
+        this.size = channel.size();
+        this.syncedSize = size;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return The size of the segment as of its last sync
+     */
+    public long getSyncedSize() {
+        return syncedSize;
+    }
+
+    /**
+     * @return The number of bytes taken by records that have been superseded
+     */
+    public long getDeadBytes() {
+        return deadBytes.get();
+    }
+
+    public void addDeadBytes(long bytes) {
+        deadBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Append a record to the end of the segment
+     * 
+     * @param record The encoded record
+     * @return The offset of the record in the segment
+     */
+    public long append(byte[] record) throws IOException {
+        long offset = size;
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while(buffer.hasRemaining())
+            channel.write(buffer, offset + buffer.position());
+        size = offset + record.length;
+        return offset;
+    }
+
+    /**
+     * Read the record at the given offset
+     * 
+     * @param offset The offset of the record
+     * @param readAhead The number of bytes to read at once, a record that is
+     *        at most this long is read with a single read
+     * @return The record
+     */
+    public LogRecord read(long offset, int readAhead) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(readAhead, size - offset));
+        readFully(buffer, offset);
+        if(buffer.capacity() < HEADER_SIZE)
+            throw new IOException("Truncated record at " + offset + " in " + file);
+        int recordSize = LogRecord.getSize(buffer.array());
+        if(recordSize > buffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(recordSize);
+            larger.put(buffer.array());
+            readFully(larger, offset + buffer.capacity());
+            buffer = larger;
+        }
+        return LogRecord.decode(buffer.array(), recordSize);
+    }
+
+    /**
+     * Read the size of the record at the given offset, without reading the
+     * record
+     * 
+     * @param offset The offset of the record
+     * @return The size of the record, header included
+     */
+    public int readSize(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, offset);
+        int recordSize = LogRecord.getSize(header.array());
+        if(recordSize < 0)
+            throw new IOException("Invalid record at " + offset + " in " + file);
+        return recordSize;
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        int start = buffer.position();
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, offset + buffer.position() - start) < 0)
+                throw new EOFException("Unexpected end of " + file);
+        }
+    }
+
+    public void truncate(long newSize) throws IOException {
+        channel.truncate(newSize);
+        size = newSize;
+        syncedSize = Math.min(syncedSize, newSize);
+    }
+
+    public void sync() throws IOException {
+        long synced = size;
+        channel.force(false);
+        syncedSize = synced;
+    }
+
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    /**
+     * Open a stream over the records of the segment, from the start
+     */
+    public RecordReader openReader() throws IOException {
+        return new RecordReader(this);
+    }
+
+    /**
+     * Reads the records of a segment in order. Stops at the first record that
+     * is incomplete or doesn't match its checksum.
+     */
+    public static class RecordReader {
+
+        private final DataInputStream input;
+        private final long size;
+        private long offset;
+
+        private RecordReader(LogSegment segment) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.getFile()),
+                                                                     64 * 1024));
+            this.size = segment.getSize();
+            this.offset = 0;
+        }
+
+        /**
+         * @return The offset of the next record
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return The next record, or null at the end of the valid records
+         */
+        public LogRecord next() throws IOException {
+            if(size - offset < HEADER_SIZE)
+                return null;
+            byte[] header = new byte[HEADER_SIZE];
+            input.readFully(header);
+            int recordSize = LogRecord.getSize(header);
+            if(recordSize < HEADER_SIZE || recordSize > size - offset)
+                return null;
+            byte[] bytes = new byte[recordSize];
+            System.arraycopy(header, 0, bytes, 0, HEADER_SIZE);
+            input.readFully(bytes, HEADER_SIZE, recordSize - HEADER_SIZE);
+            if(!LogRecord.isValid(bytes))
+                return null;
+            offset += recordSize;
+            return LogRecord.decode(bytes, recordSize);
+        }
+
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /**
+     * A decoded record, that keeps its encoded bytes so that it can be copied
+     * to another segment as is.
+     */
+    public static class LogRecord {
+
+        private final byte[] bytes;
+        private final byte[] key;
+        private final byte[] value;
+
+        private LogRecord(byte[] bytes, byte[] key, byte[] value) {
+            this.bytes = bytes;
+            this.key = key;
+            this.value = value;
+        }
+
+        public static byte[] encode(byte[] key, byte[] value) {
+            int valueSize = value == null ? 0 : value.length;
+            byte[] bytes = new byte[HEADER_SIZE + key.length + valueSize];
+            ByteUtils.writeInt(bytes, key.length, 4);
+            ByteUtils.writeInt(bytes, value == null ? TOMBSTONE : value.length, 8);
+            System.arraycopy(key, 0, bytes, HEADER_SIZE, key.length);
+            if(value != null)
+                System.arraycopy(value, 0, bytes, HEADER_SIZE + key.length, value.length);
+            ByteUtils.writeInt(bytes, checksum(bytes, bytes.length), 0);
+            return bytes;
+        }
+
+        /*
+         * The size of the record starting with the given header, or -1 if the
+         * header is invalid
+         */
+        static int getSize(byte[] header) {
+            int keySize = ByteUtils.readInt(header, 4);
+            int valueSize = ByteUtils.readInt(header, 8);
+            if(keySize < 0 || valueSize < TOMBSTONE)
+                return -1;
+            long size = (long) HEADER_SIZE + keySize + Math.max(0, valueSize);
+            return size > Integer.MAX_VALUE ? -1 : (int) size;
+        }
+
+        static boolean isValid(byte[] bytes) {
+            return ByteUtils.readInt(bytes, 0) == checksum(bytes, bytes.length);
+        }
+
+        static LogRecord decode(byte[] bytes, int size) throws IOException {
+            if(size < HEADER_SIZE || size > bytes.length)
+                throw new IOException("Invalid record header");
+            int keySize = ByteUtils.readInt(bytes, 4);
+            int valueSize = ByteUtils.readInt(bytes, 8);
+            byte[] encoded = bytes;
+            if(bytes.length != size) {
+                encoded = ByteUtils.copy(bytes, 0, size);
+            }
+            if(!isValid(encoded))
+                throw new IOException("Record checksum mismatch");
+            byte[] key = ByteUtils.copy(encoded, HEADER_SIZE, HEADER_SIZE + keySize);
+            byte[] value = null;
+            if(valueSize != TOMBSTONE)
+                value = ByteUtils.copy(encoded, HEADER_SIZE + keySize, size);
+            return new LogRecord(encoded, key, value);
+        }
+
+        private static int checksum(byte[] bytes, int length) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 4, length - 4);
+            return (int) crc.getValue();
+        }
+
+        /**
+         * @return The encoded record
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public int getSize() {
+            return bytes.length;
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+
+        /**
+         * @return The value, or null if the record is a tombstone
+         */
+        public byte[] getValue() {
+            return value;
+        }
+
+        public boolean isTombstone() {
+            return value == null;
+        }
+    }
+
+}
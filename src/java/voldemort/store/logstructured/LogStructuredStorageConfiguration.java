@@ -0,0 +1,144 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.logstructured;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import voldemort.server.VoldemortConfig;
+import voldemort.store.StorageConfiguration;
+import voldemort.store.StorageEngine;
+import voldemort.utils.ByteArray;
+import voldemort.utils.DaemonThreadFactory;
+import voldemort.utils.JmxUtils;
+
+import com.google.common.collect.Maps;
+
+/**
+ * The configuration of {@link LogStructuredStorageEngine}s. Each store keeps
+ * its segment files in its own directory, and a single background thread
+ * compacts the segments of all stores.
+ * 
+ * 
+ */
+public class LogStructuredStorageConfiguration implements StorageConfiguration {
+
+    public static final String TYPE_NAME = "log-structured";
+
+    private static final long COMPACTOR_SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private static final Logger logger = Logger.getLogger(LogStructuredStorageConfiguration.class);
+
+    private final Object lock = new Object();
+    private final Map<String, LogStructuredStorageEngine> stores = Maps.newHashMap();
+    private final Set<ObjectName> registeredBeans;
+    private final int nodeId;
+    private final File dataDirectory;
+    private final long maxSegmentSize;
+    private final boolean syncWrites;
+    private final int compactionMinUtilization;
+    private final ScheduledExecutorService compactor;
+
+    public LogStructuredStorageConfiguration(VoldemortConfig config) {
+        this.dataDirectory = new File(config.getLogStructuredDataDirectory());
+        this.maxSegmentSize = config.getLogStructuredMaxSegmentSize();
+        this.syncWrites = config.isLogStructuredSyncWritesEnabled();
+        this.compactionMinUtilization = config.getLogStructuredCompactionMinUtilization();
+        this.registeredBeans = Collections.synchronizedSet(new HashSet<ObjectName>());
+        this.nodeId = config.getNodeId();
+        this.compactor = new ScheduledThreadPoolExecutor(1,
+                                                         new DaemonThreadFactory("voldemort-log-compactor"));
+        long intervalMs = config.getLogStructuredCompactionIntervalMs();
+        compactor.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                compact();
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public StorageEngine<ByteArray, byte[]> getStore(String name) {
+        synchronized(lock) {
+            LogStructuredStorageEngine store = stores.get(name);
+            if(store == null) {
+                store = new LogStructuredStorageEngine(name,
+                                                       new File(dataDirectory, name),
+                                                       maxSegmentSize,
+                                                       syncWrites);
+                stores.put(name, store);
+                ObjectName objName = JmxUtils.createObjectName(JmxUtils.getPackageName(store.getClass()),
+                                                               name + nodeId);
+                JmxUtils.registerMbean(ManagementFactory.getPlatformMBeanServer(),
+                                       JmxUtils.createModelMBean(store),
+                                       objName);
+                registeredBeans.add(objName);
+            }
+            return store;
+        }
+    }
+
+    private void compact() {
+        LogStructuredStorageEngine[] engines;
+        synchronized(lock) {
+            engines = stores.values().toArray(new LogStructuredStorageEngine[stores.size()]);
+        }
+        for(LogStructuredStorageEngine engine: engines) {
+            try {
+                engine.compact(compactionMinUtilization);
+            } catch(Exception e) {
+                logger.error("Error compacting store " + engine.getName(), e);
+            }
+        }
+    }
+
+    public String getType() {
+        return TYPE_NAME;
+    }
+
+    public void close() {
+        // close the stores first so that a running compaction stops at its
+        // next record, rather than interrupting it inside a write, which would
+        // close the channel of the active segment before its final sync
+        synchronized(lock) {
+            for(LogStructuredStorageEngine store: stores.values())
+                store.close();
+        }
+        compactor.shutdown();
+        try {
+            if(!compactor.awaitTermination(COMPACTOR_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                logger.warn("Timed out waiting for the compaction to stop.");
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for(ObjectName name: registeredBeans)
+            JmxUtils.unregisterMbean(server, name);
+    }
+
+}
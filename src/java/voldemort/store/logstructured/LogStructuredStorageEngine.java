@@ -0,0 +1,658 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.logstructured;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+
+import voldemort.VoldemortException;
+import voldemort.annotations.jmx.JmxGetter;
+import voldemort.annotations.jmx.JmxOperation;
+import voldemort.serialization.IdentitySerializer;
+import voldemort.serialization.VersionedSerializer;
+import voldemort.store.NoSuchCapabilityException;
+import voldemort.store.PersistenceFailureException;
+import voldemort.store.StorageEngine;
+import voldemort.store.StorageInitializationException;
+import voldemort.store.StoreCapabilityType;
+import voldemort.store.StoreUtils;
+import voldemort.store.logstructured.LogSegment.LogRecord;
+import voldemort.store.logstructured.LogSegment.RecordReader;
+import voldemort.utils.ByteArray;
+import voldemort.utils.ByteUtils;
+import voldemort.utils.ClosableIterator;
+import voldemort.utils.Pair;
+import voldemort.utils.Utils;
+import voldemort.versioning.ObsoleteVersionException;
+import voldemort.versioning.Occured;
+import voldemort.versioning.Version;
+import voldemort.versioning.Versioned;
+
+/**
+ * A storage engine that appends every change to a log of segment files, and
+ * keeps an in-memory index from each key to its latest record. A get is a
+ * single read at a known position, and a put is a single sequential write.
+ * 
+ * Each record holds all the versions of a key, so that a put or delete of one
+ * version writes a new record with the remaining versions. Superseded records
+ * are left in place until their segment is compacted, which copies the live
+ * records of a mostly dead segment to the end of the log and deletes the
+ * segment.
+ * 
+ * On startup the index is rebuilt by reading all segments in order, and an
+ * incomplete record at the end of the last segment is truncated.
+ * 
+ * 
+ */
+public class LogStructuredStorageEngine implements StorageEngine<ByteArray, byte[]> {
+
+    private static final Logger logger = Logger.getLogger(LogStructuredStorageEngine.class);
+
+    /*
+     * Positions in the index are the segment id in the high bits and the
+     * offset in the segment in the low bits
+     */
+    private static final int OFFSET_BITS = 40;
+    public static final long MAX_SEGMENT_SIZE = 1L << OFFSET_BITS;
+
+    private static final int READ_AHEAD_BYTES = 4096;
+    private static final int NUM_LOCKS = 1024;
+
+    private final String name;
+    private final File directory;
+    private final long maxSegmentSize;
+    private final boolean syncWrites;
+    private final ConcurrentMap<ByteArray, Long> index;
+    private final Object[] keyLocks;
+    private final VersionedSerializer<byte[]> versionedSerializer;
+    private final AtomicBoolean isOpen;
+
+    /*
+     * Guards the set of segments. Held for reading while reading a segment, so
+     * that compaction doesn't close a segment under a reader.
+     */
+    private final ReadWriteLock segmentLock;
+    private final SortedMap<Integer, LogSegment> segments;
+
+    /*
+     * Guards the active segment and appends to it
+     */
+    private final Object appendLock;
+    private LogSegment activeSegment;
+
+    /**
+     * Open a store, reading the segments in the given directory if there are
+     * any
+     * 
+     * @param name The name of the store
+     * @param directory The directory of the segment files
+     * @param maxSegmentSize The size after which a new segment is started
+     * @param syncWrites Whether to sync each write to disk before returning
+     */
+    public LogStructuredStorageEngine(String name,
+                                      File directory,
+                                      long maxSegmentSize,
+                                      boolean syncWrites) {
+        if(maxSegmentSize <= 0 || maxSegmentSize >= MAX_SEGMENT_SIZE)
+            throw new IllegalArgumentException("maxSegmentSize must be between 0 and "
+                                               + MAX_SEGMENT_SIZE + ".");
+        this.name = Utils.notNull(name);
+        this.directory = Utils.notNull(directory);
+        this.maxSegmentSize = maxSegmentSize;
+        this.syncWrites = syncWrites;
+        this.index = new ConcurrentHashMap<ByteArray, Long>();
+        this.keyLocks = new Object[NUM_LOCKS];
+        for(int i = 0; i < NUM_LOCKS; i++)
+            keyLocks[i] = new Object();
+        this.versionedSerializer = new VersionedSerializer<byte[]>(new IdentitySerializer());
+        this.segmentLock = new ReentrantReadWriteLock();
+        this.segments = new TreeMap<Integer, LogSegment>();
+        this.appendLock = new Object();
+        this.isOpen = new AtomicBoolean(true);
+        open();
+    }
+
+    private void open() {
+        if(!directory.exists() && !directory.mkdirs())
+            throw new StorageInitializationException("Could not create directory "
+                                                     + directory.getAbsolutePath());
+        File[] files = directory.listFiles();
+        if(files == null)
+            throw new StorageInitializationException(directory.getAbsolutePath()
+                                                     + " is not a readable directory.");
+        List<Integer> ids = new ArrayList<Integer>();
+        for(File file: files) {
+            String fileName = file.getName();
+            if(!fileName.endsWith(LogSegment.SUFFIX))
+                continue;
+            String id = fileName.substring(0, fileName.length() - LogSegment.SUFFIX.length());
+            if(id.matches("\\d+"))
+                ids.add(Integer.parseInt(id));
+        }
+        Collections.sort(ids);
+
+        try {
+            for(int i = 0; i < ids.size(); i++)
+                recover(new LogSegment(directory, ids.get(i)), i == ids.size() - 1);
+            if(segments.isEmpty())
+                addSegment(new LogSegment(directory, 0));
+            activeSegment = segments.get(segments.lastKey());
+        } catch(IOException e) {
+            throw new StorageInitializationException("Error reading store " + name + " from "
+                                                     + directory.getAbsolutePath(), e);
+        }
+        logger.info("Opened store " + name + " with " + index.size() + " keys in "
+                    + segments.size() + " segments.");
+    }
+
+    /*
+     * Add the records of a segment to the index
+     */
+    private void recover(LogSegment segment, boolean isLast) throws IOException {
+        RecordReader reader = segment.openReader();
+        try {
+            for(LogRecord record = reader.next(); record != null; record = reader.next()) {
+                long position = toPosition(segment.getId(), reader.getOffset()
+                                                             - record.getSize());
+                ByteArray key = new ByteArray(record.getKey());
+                Long previous;
+                if(record.isTombstone()) {
+                    previous = index.remove(key);
+                    segment.addDeadBytes(record.getSize());
+                } else {
+                    previous = index.put(key, position);
+                }
+                if(previous != null)
+                    markDead(previous, segments, segment);
+            }
+        } finally {
+            reader.close();
+        }
+
+        if(reader.getOffset() < segment.getSize()) {
+            if(!isLast)
+                throw new StorageInitializationException("Corrupt record at offset "
+                                                         + reader.getOffset() + " of "
+                                                         + segment.getFile());
+            logger.warn("Truncating incomplete record at offset " + reader.getOffset() + " of "
+                        + segment.getFile());
+            segment.truncate(reader.getOffset());
+        }
+        segments.put(segment.getId(), segment);
+    }
+
+    /*
+     * Count the record at the given position as dead, reading its size from
+     * the segment
+     */
+    private void markDead(long position, Map<Integer, LogSegment> segments, LogSegment current)
+            throws IOException {
+        int segmentId = toSegmentId(position);
+        LogSegment segment = segmentId == current.getId() ? current : segments.get(segmentId);
+        if(segment != null)
+            segment.addDeadBytes(segment.readSize(toOffset(position)));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Versioned<byte[]>> get(ByteArray key) throws VoldemortException {
+        StoreUtils.assertValidKey(key);
+        while(true) {
+            Long position = index.get(key);
+            if(position == null)
+                return new ArrayList<Versioned<byte[]>>(0);
+            LogRecord record = read(position);
+            // null if the record was moved by a compaction, so look it up
+            // again
+            if(record != null)
+                return toVersions(record.getValue());
+        }
+    }
+
+    public Map<ByteArray, List<Versioned<byte[]>>> getAll(Iterable<ByteArray> keys)
+            throws VoldemortException {
+        StoreUtils.assertValidKeys(keys);
+        return StoreUtils.getAll(this, keys);
+    }
+
+    public List<Version> getVersions(ByteArray key) {
+        return StoreUtils.getVersions(get(key));
+    }
+
+    public void put(ByteArray key, Versioned<byte[]> value) throws VoldemortException {
+        StoreUtils.assertValidKey(key);
+        synchronized(getLock(key)) {
+            Long position = index.get(key);
+            LogRecord current = position == null ? null : read(position);
+            List<Versioned<byte[]>> versions = new ArrayList<Versioned<byte[]>>();
+            if(current != null) {
+                for(Versioned<byte[]> versioned: toVersions(current.getValue())) {
+                    Occured occured = value.getVersion().compare(versioned.getVersion());
+                    if(occured == Occured.BEFORE)
+                        throw new ObsoleteVersionException("Obsolete version for key '" + key
+                                                           + "': " + value.getVersion());
+                    else if(occured != Occured.AFTER)
+                        versions.add(versioned);
+                }
+            }
+            versions.add(value);
+
+            long newPosition = append(LogRecord.encode(key.get(), toBytes(versions)));
+            index.put(key, newPosition);
+            if(current != null)
+                addDeadBytes(position, current.getSize());
+        }
+    }
+
+    public boolean delete(ByteArray key, Version version) throws VoldemortException {
+        StoreUtils.assertValidKey(key);
+        synchronized(getLock(key)) {
+            Long position = index.get(key);
+            if(position == null)
+                return false;
+            LogRecord current = read(position);
+
+            List<Versioned<byte[]>> versions = toVersions(current.getValue());
+            List<Versioned<byte[]>> remaining = new ArrayList<Versioned<byte[]>>(versions.size());
+            for(Versioned<byte[]> versioned: versions) {
+                if(version != null && versioned.getVersion().compare(version) != Occured.BEFORE)
+                    remaining.add(versioned);
+            }
+            if(remaining.size() == versions.size())
+                return false;
+
+            if(remaining.isEmpty()) {
+                byte[] tombstone = LogRecord.encode(key.get(), null);
+                long tombstonePosition = append(tombstone);
+                index.remove(key);
+                addDeadBytes(tombstonePosition, tombstone.length);
+            } else {
+                index.put(key, append(LogRecord.encode(key.get(), toBytes(remaining))));
+            }
+            addDeadBytes(position, current.getSize());
+            return true;
+        }
+    }
+
+    public ClosableIterator<Pair<ByteArray, Versioned<byte[]>>> entries() {
+        return new EntriesIterator(index.keySet().iterator());
+    }
+
+    public ClosableIterator<ByteArray> keys() {
+        return StoreUtils.keys(entries());
+    }
+
+    public void truncate() {
+        synchronized(appendLock) {
+            segmentLock.writeLock().lock();
+            try {
+                int nextId = activeSegment.getId() + 1;
+                for(LogSegment segment: segments.values())
+                    closeAndDelete(segment);
+                segments.clear();
+                index.clear();
+                addSegment(new LogSegment(directory, nextId));
+                activeSegment = segments.get(nextId);
+            } catch(IOException e) {
+                throw new VoldemortException("Failed to truncate store " + name, e);
+            } finally {
+                segmentLock.writeLock().unlock();
+            }
+        }
+    }
+
+    public Object getCapability(StoreCapabilityType capability) {
+        throw new NoSuchCapabilityException(capability, getName());
+    }
+
+    public void close() throws VoldemortException {
+        if(!isOpen.compareAndSet(true, false))
+            return;
+        synchronized(appendLock) {
+            segmentLock.writeLock().lock();
+            try {
+                for(LogSegment segment: segments.values()) {
+                    segment.sync();
+                    segment.close();
+                }
+            } catch(IOException e) {
+                throw new PersistenceFailureException("Shutdown failed.", e);
+            } finally {
+                segmentLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Compact all segments but the active one in which at most the given
+     * percentage of the bytes are still live
+     * 
+     * @param minUtilization The percentage of live bytes below which a segment
+     *        is compacted
+     * @return The number of segments that were compacted
+     */
+    public int compact(int minUtilization) {
+        List<LogSegment> candidates = new ArrayList<LogSegment>();
+        synchronized(appendLock) {
+            segmentLock.readLock().lock();
+            try {
+                for(LogSegment segment: segments.values()) {
+                    long liveBytes = segment.getSize() - segment.getDeadBytes();
+                    if(segment != activeSegment
+                       && liveBytes * 100 < (long) minUtilization * segment.getSize())
+                        candidates.add(segment);
+                }
+            } finally {
+                segmentLock.readLock().unlock();
+            }
+        }
+
+        int compacted = 0;
+        for(LogSegment segment: candidates) {
+            try {
+                if(!compact(segment))
+                    break;
+                compacted++;
+            } catch(IOException e) {
+                throw new PersistenceFailureException("Failed to compact " + segment.getFile(), e);
+            } catch(PersistenceFailureException e) {
+                // the store was closed under the compaction
+                if(isOpen.get())
+                    throw e;
+                break;
+            }
+        }
+        return compacted;
+    }
+
+    /*
+     * Copy the live records of the segment to the end of the log, then remove
+     * it. Stops between records and keeps the segment if the store is closed.
+     */
+    private boolean compact(LogSegment segment) throws IOException {
+        long start = System.currentTimeMillis();
+        long copied = 0;
+        RecordReader reader = segment.openReader();
+        try {
+            for(LogRecord record = reader.next(); record != null; record = reader.next()) {
+                if(!isOpen.get())
+                    return false;
+                long position = toPosition(segment.getId(), reader.getOffset()
+                                                             - record.getSize());
+                ByteArray key = new ByteArray(record.getKey());
+                synchronized(getLock(key)) {
+                    Long current = index.get(key);
+                    if(!record.isTombstone()) {
+                        if(current != null && current.longValue() == position) {
+                            index.put(key, append(record.getBytes()));
+                            copied += record.getSize();
+                        }
+                    } else if(current == null && hasOlderSegment(segment)) {
+                        // the tombstone still hides a record in an older
+                        // segment
+                        addDeadBytes(append(record.getBytes()), record.getSize());
+                        copied += record.getSize();
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        // the segment was synced when the log rolled past it, so the copies
+        // of its records must be on disk before it is deleted
+        synchronized(appendLock) {
+            if(!isOpen.get())
+                return false;
+            activeSegment.sync();
+        }
+
+        segmentLock.writeLock().lock();
+        try {
+            segments.remove(segment.getId());
+            closeAndDelete(segment);
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+        logger.info("Compacted segment " + segment.getFile() + " of store " + name + ", copied "
+                    + copied + " of " + segment.getSize() + " bytes in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        return true;
+    }
+
+    private boolean hasOlderSegment(LogSegment segment) {
+        segmentLock.readLock().lock();
+        try {
+            return segments.firstKey() < segment.getId();
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    @JmxGetter(name = "numberOfKeys", description = "The number of keys in the store.")
+    public int getNumberOfKeys() {
+        return index.size();
+    }
+
+    @JmxGetter(name = "numberOfSegments", description = "The number of segment files of the store.")
+    public int getNumberOfSegments() {
+        segmentLock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    @JmxGetter(name = "utilization", description = "The percentage of bytes on disk that are live.")
+    public double getUtilization() {
+        long size = 0;
+        long deadBytes = 0;
+        segmentLock.readLock().lock();
+        try {
+            for(LogSegment segment: segments.values()) {
+                size += segment.getSize();
+                deadBytes += segment.getDeadBytes();
+            }
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+        return size == 0 ? 100 : 100.0 * (size - deadBytes) / size;
+    }
+
+    @JmxOperation(description = "Compact the segments with less than the given percentage of live bytes.")
+    public int compactSegments(int minUtilization) {
+        return compact(minUtilization);
+    }
+
+    private Object getLock(ByteArray key) {
+        return keyLocks[(key.hashCode() & Integer.MAX_VALUE) % NUM_LOCKS];
+    }
+
+    /*
+     * Append a record to the active segment, starting a new segment if it is
+     * full
+     */
+    private long append(byte[] record) {
+        synchronized(appendLock) {
+            if(!isOpen.get())
+                throw new PersistenceFailureException("Store " + name + " is closed.");
+            try {
+                if(activeSegment.getSize() > 0
+                   && activeSegment.getSize() + record.length > maxSegmentSize) {
+                    activeSegment.sync();
+                    addSegment(new LogSegment(directory, activeSegment.getId() + 1));
+                    activeSegment = segments.get(activeSegment.getId() + 1);
+                }
+                long offset = activeSegment.append(record);
+                if(syncWrites)
+                    activeSegment.sync();
+                return toPosition(activeSegment.getId(), offset);
+            } catch(IOException e) {
+                throw new PersistenceFailureException("Write to store " + name + " failed.", e);
+            }
+        }
+    }
+
+    private void addSegment(LogSegment segment) {
+        segmentLock.writeLock().lock();
+        try {
+            segments.put(segment.getId(), segment);
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+    }
+
+    private void addDeadBytes(long position, long bytes) {
+        segmentLock.readLock().lock();
+        try {
+            LogSegment segment = segments.get(toSegmentId(position));
+            if(segment != null)
+                segment.addDeadBytes(bytes);
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Read the record at the given position, or return null if its segment
+     * has been removed by a compaction
+     */
+    private LogRecord read(long position) {
+        segmentLock.readLock().lock();
+        try {
+            LogSegment segment = segments.get(toSegmentId(position));
+            if(segment == null)
+                return null;
+            return segment.read(toOffset(position), READ_AHEAD_BYTES);
+        } catch(IOException e) {
+            throw new PersistenceFailureException("Read from store " + name + " failed.", e);
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    LogSegment getActiveSegment() {
+        synchronized(appendLock) {
+            return activeSegment;
+        }
+    }
+
+    void closeAndDelete(LogSegment segment) throws IOException {
+        segment.close();
+        if(!segment.getFile().delete())
+            logger.warn("Could not delete " + segment.getFile());
+    }
+
+    private byte[] toBytes(List<Versioned<byte[]>> versions) {
+        List<byte[]> serialized = new ArrayList<byte[]>(versions.size());
+        int size = ByteUtils.SIZE_OF_INT;
+        for(Versioned<byte[]> versioned: versions) {
+            byte[] bytes = versionedSerializer.toBytes(versioned);
+            serialized.add(bytes);
+            size += ByteUtils.SIZE_OF_INT + bytes.length;
+        }
+        byte[] value = new byte[size];
+        ByteUtils.writeInt(value, versions.size(), 0);
+        int offset = ByteUtils.SIZE_OF_INT;
+        for(byte[] bytes: serialized) {
+            ByteUtils.writeInt(value, bytes.length, offset);
+            System.arraycopy(bytes, 0, value, offset + ByteUtils.SIZE_OF_INT, bytes.length);
+            offset += ByteUtils.SIZE_OF_INT + bytes.length;
+        }
+        return value;
+    }
+
+    private List<Versioned<byte[]>> toVersions(byte[] value) {
+        int numVersions = ByteUtils.readInt(value, 0);
+        List<Versioned<byte[]>> versions = new ArrayList<Versioned<byte[]>>(numVersions);
+        int offset = ByteUtils.SIZE_OF_INT;
+        for(int i = 0; i < numVersions; i++) {
+            int size = ByteUtils.readInt(value, offset);
+            offset += ByteUtils.SIZE_OF_INT;
+            versions.add(versionedSerializer.toObject(ByteUtils.copy(value, offset, offset + size)));
+            offset += size;
+        }
+        return versions;
+    }
+
+    private static long toPosition(int segmentId, long offset) {
+        return ((long) segmentId << OFFSET_BITS) | offset;
+    }
+
+    private static int toSegmentId(long position) {
+        return (int) (position >>> OFFSET_BITS);
+    }
+
+    private static long toOffset(long position) {
+        return position & (MAX_SEGMENT_SIZE - 1);
+    }
+
+    /*
+     * Iterates over the keys in the index, reading the versions of each
+     */
+    private class EntriesIterator implements ClosableIterator<Pair<ByteArray, Versioned<byte[]>>> {
+
+        private final Iterator<ByteArray> keys;
+        private ByteArray currentKey;
+        private Iterator<Versioned<byte[]>> currentVersions;
+
+        public EntriesIterator(Iterator<ByteArray> keys) {
+            this.keys = keys;
+        }
+
+        public boolean hasNext() {
+            while(currentVersions == null || !currentVersions.hasNext()) {
+                if(!keys.hasNext())
+                    return false;
+                currentKey = keys.next();
+                currentVersions = get(currentKey).iterator();
+            }
+            return true;
+        }
+
+        public Pair<ByteArray, Versioned<byte[]>> next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            return Pair.create(currentKey, currentVersions.next());
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("No removal y'all.");
+        }
+
+        public void close() {}
+    }
+
+}
@@ -42,6 +42,7 @@ import voldemort.store.StoreCapabilityType;
 import voldemort.store.StoreDefinition;
 import voldemort.store.StoreUtils;
 import voldemort.store.configuration.ConfigurationStorageEngine;
+import voldemort.store.slop.Slop;
 import voldemort.utils.ByteArray;
 import voldemort.utils.ByteUtils;
 import voldemort.utils.ClosableIterator;
@@ -393,6 +394,9 @@ public class MetadataStore implements StorageEngine<ByteArray, byte[]> {
         // add metadata Store route to ALL routing strategy.
         map.put(METADATA_STORE_NAME, new RouteToAllStrategy(getCluster().getNodes()));
 
+        // any node may hold the slop of any key
+        map.put(Slop.SLOP_STORE_NAME, new RouteToAllStrategy(getCluster().getNodes()));
+
         return map;
     }
 
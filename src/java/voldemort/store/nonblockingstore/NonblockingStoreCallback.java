@@ -0,0 +1,39 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.nonblockingstore;
+
+/**
+ * A NonblockingStoreCallback is invoked once a request submitted to a
+ * {@link NonblockingStore} has completed.
+ * <p/>
+ * Callbacks are typically invoked on the thread that performs the I/O for
+ * many other requests, so implementations must not block.
+ * 
+ * 
+ */
+public interface NonblockingStoreCallback {
+
+    /**
+     * Called when the request has completed, successfully or not
+     * 
+     * @param result The result of the request, or the Exception that caused it
+     *        to fail
+     * @param requestTime The time the request took, in milliseconds
+     */
+    public void requestComplete(Object result, long requestTime);
+
+}
@@ -12,18 +12,22 @@ import voldemort.utils.ByteUtils;
  */
 public class BinarySearchStrategy implements SearchStrategy {
 
-    public int indexOf(ByteBuffer index, byte[] key, int indexFileSize) {
+    public long indexOf(ByteBuffer index,
+                        byte[] key,
+                        int indexFileSize,
+                        ReadOnlyStorageFormat format) {
         byte[] keyBuffer = new byte[ReadOnlyUtils.KEY_HASH_SIZE];
+        int entrySize = format.getIndexEntrySize();
         int low = 0;
-        int high = indexFileSize / ReadOnlyUtils.INDEX_ENTRY_SIZE - 1;
+        int high = indexFileSize / entrySize - 1;
         while(low <= high) {
             int mid = (low + high) / 2;
-            ReadOnlyUtils.readKey(index, mid * ReadOnlyUtils.INDEX_ENTRY_SIZE, keyBuffer);
+            ReadOnlyUtils.readKey(index, mid * entrySize, keyBuffer);
             int cmp = ByteUtils.compare(keyBuffer, key);
             if(cmp == 0) {
                 // they are equal, return the location stored here
-                index.position(mid * ReadOnlyUtils.INDEX_ENTRY_SIZE + ReadOnlyUtils.KEY_HASH_SIZE);
-                return index.getInt();
+                index.position(mid * entrySize + ReadOnlyUtils.KEY_HASH_SIZE);
+                return format.readPosition(index);
             } else if(cmp > 0) {
                 // midVal is bigger
                 high = mid - 1;
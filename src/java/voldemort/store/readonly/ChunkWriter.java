@@ -0,0 +1,111 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.readonly;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import voldemort.VoldemortException;
+import voldemort.annotations.concurrency.NotThreadsafe;
+import voldemort.utils.ByteUtils;
+
+/**
+ * Writes the index and data files of a single chunk of a read-only store. The
+ * entries must be written in increasing order of their key md5.
+ * 
+ * 
+ */
+@NotThreadsafe
+public class ChunkWriter {
+
+    private final int chunk;
+    private final ReadOnlyStorageFormat format;
+    private final DataOutputStream index;
+    private final DataOutputStream data;
+    private final byte[] lastKeyMd5;
+    private long position;
+    private long numEntries;
+
+    /**
+     * Create the files "chunk.index" and "chunk.data" in the given directory
+     * 
+     * @param dir The store version directory
+     * @param chunk The chunk id
+     * @param format The format to write the index in
+     * @param ioBufferSize The size of the buffer for each file
+     */
+    public ChunkWriter(File dir, int chunk, ReadOnlyStorageFormat format, int ioBufferSize)
+            throws IOException {
+        this.chunk = chunk;
+        this.format = format;
+        File indexFile = new File(dir, chunk + ".index");
+        File dataFile = new File(dir, chunk + ".data");
+        this.index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile),
+                                                                   ioBufferSize));
+        this.data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile),
+                                                                  ioBufferSize));
+        this.lastKeyMd5 = new byte[ReadOnlyUtils.KEY_HASH_SIZE];
+        this.position = 0;
+        this.numEntries = 0;
+    }
+
+    /**
+     * Append an entry to the chunk
+     * 
+     * @param keyMd5 The md5 of the key, greater than that of the last entry
+     * @param value The value, or null to record the key as deleted
+     */
+    public void write(byte[] keyMd5, byte[] value) throws IOException {
+        if(numEntries > 0 && ByteUtils.compare(keyMd5, lastKeyMd5) <= 0)
+            throw new VoldemortException("Keys written out of order to chunk " + chunk + ".");
+        System.arraycopy(keyMd5, 0, lastKeyMd5, 0, ReadOnlyUtils.KEY_HASH_SIZE);
+
+        index.write(keyMd5);
+        if(format == ReadOnlyStorageFormat.READONLY_V0)
+            index.writeInt((int) position);
+        else
+            index.writeLong(position);
+        if(value == null) {
+            data.writeInt(ReadOnlyUtils.DELETED_VALUE_SIZE);
+            position += 4;
+        } else {
+            data.writeInt(value.length);
+            data.write(value);
+            position += 4 + value.length;
+        }
+        if(position > format.getMaxDataFileSize())
+            throw new VoldemortException("Chunk overflow: chunk " + chunk + " has exceeded "
+                                         + format.getMaxDataFileSize() + " bytes.");
+        numEntries++;
+    }
+
+    public long getNumEntries() {
+        return numEntries;
+    }
+
+    public void close() throws IOException {
+        try {
+            index.close();
+        } finally {
+            data.close();
+        }
+    }
+
+}
@@ -3,12 +3,16 @@ package voldemort.store.readonly;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -18,28 +22,61 @@ import voldemort.utils.Utils;
 /**
  * A set of chunked data and index files for a read-only store
  * 
+ * The files are unmapped as soon as they are closed, rather than whenever the
+ * mapped buffers are garbage collected, so that deleting them frees their
+ * space and page cache right away. This relies on no reader using the files
+ * once they're closed, which the owner count ensures.
+ * 
  * 
  */
 public class ChunkedFileSet {
 
     private static Logger logger = Logger.getLogger(ChunkedFileSet.class);
 
+    private static final AtomicBoolean warnedUnmapUnsupported = new AtomicBoolean(false);
+
     private final int numChunks;
-    private final File baseDir;
+    private volatile File baseDir;
     private final List<Integer> indexFileSizes;
-    private final List<Integer> dataFileSizes;
+    private final List<Long> dataFileSizes;
     private final List<MappedByteBuffer> indexFiles;
     private final List<FileChannel> dataFiles;
+    private final List<MappedByteBuffer> mappedDataFiles;
+    private final List<IndexFence> indexFences;
+    private final ReadOnlyStorageFormat format;
+    private final AtomicInteger owners;
+    private final AtomicBoolean closed;
+    private volatile boolean unmapped;
 
     public ChunkedFileSet(File directory) {
+        this(directory, false, false);
+    }
+
+    /**
+     * Open the chunks in the given directory
+     * 
+     * @param directory The directory containing the .index and .data files
+     * @param mmapData If true the data files are memory mapped as well as the
+     *        index files, so values can be read directly out of the mapping
+     *        rather than through a positional read on the file channel. Data
+     *        files over 2GB are always read through the channel.
+     * @param indexFences If true, sample an in-heap IndexFence for each index
+     *        file so lookups only search the page that can hold the key
+     */
+    public ChunkedFileSet(File directory, boolean mmapData, boolean indexFences) {
         this.baseDir = directory;
         if(!Utils.isReadableDir(directory))
             throw new VoldemortException(directory.getAbsolutePath()
                                          + " is not a readable directory.");
+        this.format = ReadOnlyUtils.readFormat(directory);
         this.indexFileSizes = new ArrayList<Integer>();
-        this.dataFileSizes = new ArrayList<Integer>();
+        this.dataFileSizes = new ArrayList<Long>();
         this.indexFiles = new ArrayList<MappedByteBuffer>();
         this.dataFiles = new ArrayList<FileChannel>();
+        this.mappedDataFiles = new ArrayList<MappedByteBuffer>();
+        this.indexFences = new ArrayList<IndexFence>();
+        this.owners = new AtomicInteger(0);
+        this.closed = new AtomicBoolean(false);
 
         // if the directory is empty create empty files
         if(baseDir.list() != null && baseDir.list().length == 0) {
@@ -68,11 +105,24 @@ public class ChunkedFileSet {
             long dataLength = data.length();
             validateFileSizes(indexLength, dataLength);
             indexFileSizes.add((int) indexLength);
-            dataFileSizes.add((int) dataLength);
+            dataFileSizes.add(dataLength);
 
             /* Add the file channel for data */
             dataFiles.add(openChannel(data));
-            indexFiles.add(mapFile(index));
+            MappedByteBuffer indexBuffer = mapFile(index);
+            indexFiles.add(indexBuffer);
+            if(indexFences)
+                this.indexFences.add(new IndexFence(indexBuffer.duplicate(),
+                                                    (int) indexLength,
+                                                    format));
+            else
+                this.indexFences.add(null);
+
+            /* A single mapping can not exceed 2GB, larger chunks use the channel */
+            if(mmapData && dataLength <= Integer.MAX_VALUE)
+                mappedDataFiles.add(mapFile(data));
+            else
+                mappedDataFiles.add(null);
             chunkId++;
         }
         if(chunkId == 0)
@@ -82,20 +132,44 @@ public class ChunkedFileSet {
 
     public void validateFileSizes(long indexLength, long dataLength) {
         /* sanity check file sizes */
-        if(indexLength > Integer.MAX_VALUE || dataLength > Integer.MAX_VALUE)
-            throw new VoldemortException("Index or data file exceeds " + Integer.MAX_VALUE
-                                         + " bytes.");
-        if(indexLength % ReadOnlyUtils.INDEX_ENTRY_SIZE != 0L)
+        if(indexLength > Integer.MAX_VALUE)
+            throw new VoldemortException("Index file exceeds " + Integer.MAX_VALUE + " bytes.");
+        if(dataLength > format.getMaxDataFileSize())
+            throw new VoldemortException("Data file exceeds " + format.getMaxDataFileSize()
+                                         + " bytes, the limit for format " + format.getCode()
+                                         + ".");
+        int entrySize = format.getIndexEntrySize();
+        if(indexLength % entrySize != 0L)
             throw new VoldemortException("Invalid index file, file length must be a multiple of "
-                                         + (ReadOnlyUtils.KEY_HASH_SIZE + ReadOnlyUtils.POSITION_SIZE)
-                                         + " but is only " + indexLength + " bytes.");
+                                         + entrySize + " but is only " + indexLength + " bytes.");
 
-        if(dataLength < 4 * indexLength / ReadOnlyUtils.INDEX_ENTRY_SIZE)
+        if(dataLength < 4 * indexLength / entrySize)
             throw new VoldemortException("Invalid data file, file length must not be less than num_index_entries * 4 bytes, but data file is only "
                                          + dataLength + " bytes.");
     }
 
+    /**
+     * Add an owner of the files, which must release them when it is done
+     */
+    public void retain() {
+        owners.incrementAndGet();
+    }
+
+    /**
+     * Remove an owner of the files, closing them once there is none left
+     */
+    public void release() {
+        if(owners.decrementAndGet() == 0)
+            close();
+    }
+
+    /**
+     * Close and unmap the files. Nothing may read from them afterwards, so
+     * this is only called directly on files that were never shared.
+     */
     public void close() {
+        if(!closed.compareAndSet(false, true))
+            return;
         for(int chunk = 0; chunk < this.numChunks; chunk++) {
             FileChannel channel = dataFileFor(chunk);
             try {
@@ -104,6 +178,58 @@ public class ChunkedFileSet {
                 logger.error("Error while closing file.", e);
             }
         }
+
+        boolean unmappedAll = true;
+        for(MappedByteBuffer buffer: indexFiles)
+            unmappedAll &= unmap(buffer);
+        for(MappedByteBuffer buffer: mappedDataFiles)
+            if(buffer != null)
+                unmappedAll &= unmap(buffer);
+        this.unmapped = unmappedAll;
+    }
+
+    /**
+     * @return true if the files have been closed and all their mappings
+     *         released
+     */
+    boolean isUnmapped() {
+        return unmapped;
+    }
+
+    /*
+     * Release the mapping of the buffer right away. There is no public API for
+     * this, so it goes through the cleaner of the buffer, or Unsafe from java
+     * 9 on. Returns false if neither is accessible, the mapping is then
+     * released when the buffer is garbage collected.
+     */
+    private static boolean unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch(NoSuchMethodException e) {
+                invokeCleaner = null;
+            }
+            if(invokeCleaner != null) {
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } else {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                // mappings of empty files have no cleaner
+                if(cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+            return true;
+        } catch(Exception e) {
+            if(warnedUnmapUnsupported.compareAndSet(false, true))
+                logger.warn("Could not unmap read-only files, they stay mapped until garbage collected.",
+                            e);
+            return false;
+        }
     }
 
     private FileChannel openChannel(File file) {
@@ -137,16 +263,112 @@ public class ChunkedFileSet {
         return indexFiles.get(chunk).duplicate();
     }
 
+    /**
+     * Get the part of the index file for the given chunk that can contain the
+     * key. This is the whole index unless index fences are enabled.
+     * 
+     * @param chunk The chunk id
+     * @param keyMd5 The md5 of the key being looked up
+     * @return A buffer over the index entries to search, from position 0 to
+     *         its limit
+     */
+    public ByteBuffer indexFileFor(int chunk, byte[] keyMd5) {
+        IndexFence fence = indexFences.get(chunk);
+        if(fence == null)
+            return indexFileFor(chunk);
+        else
+            return fence.narrow(indexFileFor(chunk), keyMd5);
+    }
+
     public FileChannel dataFileFor(int chunk) {
         return dataFiles.get(chunk);
     }
 
+    /**
+     * Get a view of the memory mapped data file for the given chunk. Only
+     * available if the file set was opened with data mapping enabled.
+     * 
+     * @param chunk The chunk id
+     * @return A duplicate of the mapped data buffer, with its own position
+     */
+    public ByteBuffer dataBufferFor(int chunk) {
+        if(!isDataMapped(chunk))
+            throw new IllegalStateException("Data file for chunk " + chunk + " in " + baseDir
+                                            + " is not memory mapped.");
+        return mappedDataFiles.get(chunk).duplicate();
+    }
+
+    public boolean isDataMapped(int chunk) {
+        return mappedDataFiles.get(chunk) != null;
+    }
+
+    /**
+     * Read the value stored at the given position of a data file
+     * 
+     * @param chunk The chunk id
+     * @param valueLocation The position of the value in the data file
+     * @return The value, or null if the position records a key deleted by a
+     *         delta
+     */
+    public byte[] readValue(int chunk, long valueLocation) {
+        if(isDataMapped(chunk))
+            return readMappedValue(chunk, valueLocation);
+
+        FileChannel dataFile = dataFileFor(chunk);
+        try {
+            ByteBuffer sizeBuffer = ByteBuffer.allocate(4);
+            dataFile.read(sizeBuffer, valueLocation);
+            int size = sizeBuffer.getInt(0);
+            if(size == ReadOnlyUtils.DELETED_VALUE_SIZE)
+                return null;
+            ByteBuffer valueBuffer = ByteBuffer.allocate(size);
+            dataFile.read(valueBuffer, valueLocation + 4);
+            return valueBuffer.array();
+        } catch(IOException e) {
+            throw new VoldemortException(e);
+        }
+    }
+
+    /*
+     * Read the value directly from the mapped data file, this avoids the read
+     * syscalls and the intermediate size buffer of the channel path
+     */
+    private byte[] readMappedValue(int chunk, long valueLocation) {
+        ByteBuffer dataBuffer = dataBufferFor(chunk);
+        int position = (int) valueLocation;
+        int size = dataBuffer.getInt(position);
+        if(size == ReadOnlyUtils.DELETED_VALUE_SIZE)
+            return null;
+        byte[] value = new byte[size];
+        dataBuffer.position(position + 4);
+        dataBuffer.get(value);
+        return value;
+    }
+
+    public File getBaseDir() {
+        return this.baseDir;
+    }
+
+    /**
+     * Record that the directory of the files has been renamed. The files stay
+     * open across the rename, so reads go on as before.
+     * 
+     * @param directory The new name of the directory
+     */
+    void setBaseDir(File directory) {
+        this.baseDir = directory;
+    }
+
+    public ReadOnlyStorageFormat getFormat() {
+        return this.format;
+    }
+
     public int getIndexFileSize(int chunk) {
         return this.indexFileSizes.get(chunk);
     }
 
-    public int getDataFileSize(int chunk) {
-        return this.indexFileSizes.get(chunk);
+    public long getDataFileSize(int chunk) {
+        return this.dataFileSizes.get(chunk);
     }
 
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.readonly;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import voldemort.VoldemortException;
+import voldemort.utils.ByteUtils;
+
+/**
+ * Folds deltas into the version they were pushed over, writing a new full
+ * version with the same number of chunks and format as the base.
+ * 
+ * The index entries of the deltas are held in memory, about 80 bytes per
+ * added, changed or deleted key, the base is streamed one chunk at a time.
+ * 
+ * 
+ */
+public class DeltaMerger {
+
+    private static final Logger logger = Logger.getLogger(DeltaMerger.class);
+
+    private final ChunkedFileSet base;
+    private final List<ChunkedFileSet> deltas;
+    private final int ioBufferSize;
+
+    /**
+     * @param base The full version the deltas were pushed over
+     * @param deltas The deltas, newest first
+     * @param ioBufferSize The size of the buffers of the output files
+     */
+    public DeltaMerger(ChunkedFileSet base, List<ChunkedFileSet> deltas, int ioBufferSize) {
+        this.base = base;
+        this.deltas = deltas;
+        this.ioBufferSize = ioBufferSize;
+    }
+
+    /**
+     * Write the merged version
+     * 
+     * @param outputDir The directory to write the merged version to, it is
+     *        created if it does not exist
+     */
+    public void merge(File outputDir) throws IOException {
+        outputDir.mkdirs();
+        int numChunks = base.getNumChunks();
+        List<List<DeltaEntry>> changes = readDeltas(numChunks);
+        ReadOnlyUtils.writeFormat(outputDir, base.getFormat());
+
+        long total = 0;
+        for(int chunk = 0; chunk < numChunks; chunk++) {
+            ChunkWriter writer = new ChunkWriter(outputDir, chunk, base.getFormat(), ioBufferSize);
+            try {
+                mergeChunk(chunk, changes.get(chunk), writer);
+            } finally {
+                writer.close();
+            }
+            total += writer.getNumEntries();
+            changes.set(chunk, null);
+        }
+        logger.info("Merged " + deltas.size() + " deltas into " + base.getBaseDir() + ", wrote "
+                    + total + " entries to " + outputDir);
+    }
+
+    /*
+     * Read the entries of all the deltas, grouped by the chunk of the base
+     * they fall into and sorted by key md5. Only the newest entry for a key is
+     * kept.
+     */
+    private List<List<DeltaEntry>> readDeltas(int numChunks) {
+        List<List<DeltaEntry>> changes = new ArrayList<List<DeltaEntry>>(numChunks);
+        for(int chunk = 0; chunk < numChunks; chunk++)
+            changes.add(new ArrayList<DeltaEntry>());
+
+        for(int age = 0; age < deltas.size(); age++) {
+            ChunkedFileSet delta = deltas.get(age);
+            ReadOnlyStorageFormat format = delta.getFormat();
+            for(int chunk = 0; chunk < delta.getNumChunks(); chunk++) {
+                ByteBuffer index = delta.indexFileFor(chunk);
+                int numEntries = delta.getIndexFileSize(chunk) / format.getIndexEntrySize();
+                for(int i = 0; i < numEntries; i++) {
+                    byte[] keyMd5 = new byte[ReadOnlyUtils.KEY_HASH_SIZE];
+                    index.get(keyMd5);
+                    long position = format.readPosition(index);
+                    changes.get(ReadOnlyUtils.chunk(keyMd5, numChunks))
+                           .add(new DeltaEntry(keyMd5, age, chunk, position));
+                }
+            }
+        }
+
+        for(int chunk = 0; chunk < numChunks; chunk++) {
+            List<DeltaEntry> entries = changes.get(chunk);
+            Collections.sort(entries, new DeltaEntryComparator());
+            List<DeltaEntry> newest = new ArrayList<DeltaEntry>(entries.size());
+            for(DeltaEntry entry: entries) {
+                if(newest.isEmpty()
+                   || ByteUtils.compare(newest.get(newest.size() - 1).keyMd5, entry.keyMd5) != 0)
+                    newest.add(entry);
+            }
+            changes.set(chunk, newest);
+        }
+        return changes;
+    }
+
+    private void mergeChunk(int chunk, List<DeltaEntry> changes, ChunkWriter writer)
+            throws IOException {
+        ReadOnlyStorageFormat format = base.getFormat();
+        ByteBuffer index = base.indexFileFor(chunk);
+        int numEntries = base.getIndexFileSize(chunk) / format.getIndexEntrySize();
+        byte[] keyMd5 = new byte[ReadOnlyUtils.KEY_HASH_SIZE];
+        int next = 0;
+        for(int i = 0; i < numEntries; i++) {
+            index.get(keyMd5);
+            long position = format.readPosition(index);
+
+            // write the changes that sort before this key
+            int cmp = -1;
+            while(next < changes.size()
+                  && (cmp = ByteUtils.compare(changes.get(next).keyMd5, keyMd5)) < 0)
+                write(changes.get(next++), writer);
+
+            if(next < changes.size() && cmp == 0)
+                write(changes.get(next++), writer);
+            else
+                writer.write(keyMd5, base.readValue(chunk, position));
+        }
+        while(next < changes.size())
+            write(changes.get(next++), writer);
+    }
+
+    private void write(DeltaEntry entry, ChunkWriter writer) throws IOException {
+        byte[] value = deltas.get(entry.age).readValue(entry.chunk, entry.position);
+        // a deleted key is dropped from the merged version
+        if(value != null)
+            writer.write(entry.keyMd5, value);
+    }
+
+    private static class DeltaEntry {
+
+        private final byte[] keyMd5;
+        private final int age;
+        private final int chunk;
+        private final long position;
+
+        public DeltaEntry(byte[] keyMd5, int age, int chunk, long position) {
+            if(position < 0)
+                throw new VoldemortException("Invalid position " + position + " in delta.");
+            this.keyMd5 = keyMd5;
+            this.age = age;
+            this.chunk = chunk;
+            this.position = position;
+        }
+    }
+
+    /*
+     * Orders entries by key md5, newest delta first
+     */
+    private static class DeltaEntryComparator implements Comparator<DeltaEntry> {
+
+        public int compare(DeltaEntry e1, DeltaEntry e2) {
+            int cmp = ByteUtils.compare(e1.keyMd5, e2.keyMd5);
+            if(cmp != 0)
+                return cmp;
+            return e1.age - e2.age;
+        }
+    }
+
+}
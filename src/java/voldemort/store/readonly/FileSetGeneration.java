@@ -0,0 +1,113 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.readonly;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import voldemort.annotations.concurrency.Threadsafe;
+
+/**
+ * The files a read-only store serves from between two swaps: a base version
+ * and the deltas layered over it, newest first.
+ * 
+ * A generation is reference counted. The store holds one reference while the
+ * generation is current and every read holds one while it runs. A swap
+ * publishes the next generation and then releases the store's reference, so
+ * new reads see the new files at once while reads already running finish on
+ * the old ones, which are closed only when the last of them is done.
+ * 
+ * 
+ */
+@Threadsafe
+public class FileSetGeneration {
+
+    private final long epoch;
+    private final ChunkedFileSet base;
+    private final List<ChunkedFileSet> deltas;
+    private final AtomicInteger references;
+
+    /**
+     * Create a generation holding the store's reference. Each file set is
+     * retained, so file sets can be shared with the previous generation.
+     * 
+     * @param epoch The number of the generation, increasing with every swap
+     * @param base The base version
+     * @param deltas The deltas layered over the base, newest first
+     */
+    public FileSetGeneration(long epoch, ChunkedFileSet base, List<ChunkedFileSet> deltas) {
+        this.epoch = epoch;
+        this.base = base;
+        this.deltas = Collections.unmodifiableList(new ArrayList<ChunkedFileSet>(deltas));
+        this.references = new AtomicInteger(1);
+        base.retain();
+        for(ChunkedFileSet delta: deltas)
+            delta.retain();
+    }
+
+    /**
+     * Take a reference to the generation
+     * 
+     * @return false if the generation has already been released for good, in
+     *         which case a newer one has been published
+     */
+    public boolean acquire() {
+        while(true) {
+            int current = references.get();
+            if(current == 0)
+                return false;
+            if(references.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Give back a reference, releasing the file sets with the last one
+     */
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if(remaining == 0) {
+            base.release();
+            for(ChunkedFileSet delta: deltas)
+                delta.release();
+        } else if(remaining < 0) {
+            throw new IllegalStateException("Generation " + epoch + " released too many times.");
+        }
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public ChunkedFileSet getBase() {
+        return base;
+    }
+
+    public List<ChunkedFileSet> getDeltas() {
+        return deltas;
+    }
+
+    /**
+     * @return The number of references held, including the store's own
+     */
+    public int getReferenceCount() {
+        return references.get();
+    }
+
+}
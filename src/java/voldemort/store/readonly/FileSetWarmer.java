@@ -0,0 +1,242 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.readonly;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+
+import voldemort.annotations.concurrency.Threadsafe;
+import voldemort.utils.EventThrottler;
+
+/**
+ * Loads newly opened store files into the page cache before a swap exposes
+ * them, so the first requests to a new version don't all fault in index pages
+ * at once.
+ * 
+ * Every page of the index files is touched. Then the values of the hot keys
+ * are read: a sample of the keys read from the version currently served,
+ * which is the best guess at what will be read from the new one. Data pages
+ * are not all touched, as a data file is usually far larger than the part of
+ * it that is hot. Warming is throttled to the given rate so it doesn't starve
+ * the reads still being served from the current version.
+ * 
+ * 
+ */
+@Threadsafe
+public class FileSetWarmer {
+
+    private static final Logger logger = Logger.getLogger(FileSetWarmer.class);
+
+    public static final int PAGE_SIZE = 4096;
+
+    /*
+     * One in this many reads is sampled as a hot key
+     */
+    private static final int SAMPLE_RATE = 16;
+
+    private final long bytesPerSec;
+    private final AtomicReferenceArray<byte[]> hotKeys;
+    private final AtomicLong indexBytesWarmed;
+    private final AtomicLong hotKeysWarmed;
+    private final AtomicLong hotBytesWarmed;
+    private volatile long indexBytes;
+    private volatile String warming;
+    private volatile String lastWarmed;
+    private volatile long lastWarmupMs;
+    private int reads;
+
+    /**
+     * @param bytesPerSec The maximum rate at which to read the files, or 0
+     *        for no limit
+     * @param numHotKeys The number of recently read keys to warm the values
+     *        of, or 0 to only warm the index files
+     */
+    public FileSetWarmer(long bytesPerSec, int numHotKeys) {
+        if(bytesPerSec < 0)
+            throw new IllegalArgumentException("bytesPerSec cannot be negative.");
+        if(numHotKeys < 0)
+            throw new IllegalArgumentException("numHotKeys cannot be negative.");
+        this.bytesPerSec = bytesPerSec;
+        this.hotKeys = new AtomicReferenceArray<byte[]>(numHotKeys);
+        this.indexBytesWarmed = new AtomicLong(0);
+        this.hotKeysWarmed = new AtomicLong(0);
+        this.hotBytesWarmed = new AtomicLong(0);
+        this.indexBytes = 0;
+        this.warming = null;
+        this.lastWarmed = null;
+        this.lastWarmupMs = 0;
+        this.reads = 0;
+    }
+
+    /**
+     * Record a read of the given key. The read counter is not synchronized, as
+     * a lost update only shifts which reads get sampled.
+     * 
+     * @param keyMd5 The md5 of the key read
+     */
+    public void sample(byte[] keyMd5) {
+        if(hotKeys.length() == 0)
+            return;
+        int read = reads++;
+        if(read % SAMPLE_RATE == 0)
+            hotKeys.set(Math.abs(read / SAMPLE_RATE % hotKeys.length()), keyMd5);
+    }
+
+    /**
+     * Load the given files into the page cache. Failures are logged rather
+     * than thrown, as the files can be served cold.
+     * 
+     * @param fileSets The newly opened files
+     * @param searchStrategy The strategy used to look up the hot keys
+     */
+    public synchronized void warm(List<ChunkedFileSet> fileSets, SearchStrategy searchStrategy) {
+        if(fileSets.isEmpty())
+            return;
+        long start = System.currentTimeMillis();
+        String name = fileSets.get(0).getBaseDir().getAbsolutePath();
+        EventThrottler throttler = bytesPerSec > 0 ? new EventThrottler(bytesPerSec) : null;
+        long total = 0;
+        for(ChunkedFileSet fileSet: fileSets)
+            for(int chunk = 0; chunk < fileSet.getNumChunks(); chunk++)
+                total += fileSet.getIndexFileSize(chunk);
+        indexBytes = total;
+        indexBytesWarmed.set(0);
+        hotKeysWarmed.set(0);
+        hotBytesWarmed.set(0);
+        warming = name;
+        logger.info("Warming " + total + " bytes of index files in " + name);
+        try {
+            long sum = 0;
+            for(ChunkedFileSet fileSet: fileSets)
+                for(int chunk = 0; chunk < fileSet.getNumChunks(); chunk++)
+                    sum += touchIndex(fileSet, chunk, throttler);
+            for(ChunkedFileSet fileSet: fileSets)
+                sum += readHotKeys(fileSet, searchStrategy, throttler);
+            lastWarmupMs = System.currentTimeMillis() - start;
+            lastWarmed = name;
+            logger.info("Warmed " + total + " index bytes and " + hotKeysWarmed.get()
+                        + " hot keys in " + name + " in " + lastWarmupMs + " ms (checksum "
+                        + sum + ").");
+        } catch(RuntimeException e) {
+            logger.warn("Warming " + name + " failed, its files will be served cold.", e);
+        } finally {
+            warming = null;
+        }
+    }
+
+    /*
+     * Read a byte from each page of the index, returning their sum so the
+     * reads can't be optimized away
+     */
+    private long touchIndex(ChunkedFileSet fileSet, int chunk, EventThrottler throttler) {
+        ByteBuffer index = fileSet.indexFileFor(chunk);
+        int size = fileSet.getIndexFileSize(chunk);
+        long sum = 0;
+        for(int position = 0; position < size; position += PAGE_SIZE) {
+            sum += index.get(position);
+            int bytes = Math.min(PAGE_SIZE, size - position);
+            indexBytesWarmed.addAndGet(bytes);
+            if(throttler != null)
+                throttler.maybeThrottle(bytes);
+        }
+        return sum;
+    }
+
+    private long readHotKeys(ChunkedFileSet fileSet,
+                             SearchStrategy searchStrategy,
+                             EventThrottler throttler) {
+        long sum = 0;
+        for(int i = 0; i < hotKeys.length(); i++) {
+            byte[] keyMd5 = hotKeys.get(i);
+            if(keyMd5 == null)
+                continue;
+            int chunk = fileSet.getChunkForKey(keyMd5);
+            ByteBuffer index = fileSet.indexFileFor(chunk, keyMd5);
+            long location = searchStrategy.indexOf(index,
+                                                   keyMd5,
+                                                   index.limit(),
+                                                   fileSet.getFormat());
+            if(location < 0)
+                continue;
+            byte[] value = fileSet.readValue(chunk, location);
+            int bytes = 4 + (value == null ? 0 : value.length);
+            sum += bytes;
+            hotBytesWarmed.addAndGet(bytes);
+            hotKeysWarmed.incrementAndGet();
+            if(throttler != null)
+                throttler.maybeThrottle(bytes);
+        }
+        return sum;
+    }
+
+    public long getBytesPerSec() {
+        return bytesPerSec;
+    }
+
+    public int getNumHotKeys() {
+        return hotKeys.length();
+    }
+
+    /**
+     * @return The size of the index files of the running or last warmup
+     */
+    public long getIndexBytes() {
+        return indexBytes;
+    }
+
+    public long getIndexBytesWarmed() {
+        return indexBytesWarmed.get();
+    }
+
+    public long getHotKeysWarmed() {
+        return hotKeysWarmed.get();
+    }
+
+    public long getHotBytesWarmed() {
+        return hotBytesWarmed.get();
+    }
+
+    public boolean isWarming() {
+        return warming != null;
+    }
+
+    public long getLastWarmupMs() {
+        return lastWarmupMs;
+    }
+
+    /**
+     * @return A one line description of the running or last warmup
+     */
+    public String getStatus() {
+        String throttle = bytesPerSec > 0 ? bytesPerSec + " bytes/sec" : "unthrottled";
+        String current = warming;
+        if(current != null)
+            return "Warming " + current + ": " + indexBytesWarmed.get() + " of " + indexBytes
+                   + " index bytes, " + hotKeysWarmed.get() + " hot keys (" + throttle + ")";
+        String last = lastWarmed;
+        if(last != null)
+            return "Warmed " + last + ": " + indexBytesWarmed.get() + " index bytes, "
+                   + hotKeysWarmed.get() + " hot keys in " + lastWarmupMs + " ms (" + throttle
+                   + ")";
+        return "Idle (" + throttle + ")";
+    }
+
+}
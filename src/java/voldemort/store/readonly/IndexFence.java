@@ -0,0 +1,93 @@
+package voldemort.store.readonly;
+
+import java.nio.ByteBuffer;
+
+import voldemort.utils.ByteUtils;
+
+/**
+ * An in-heap table of fence pointers over a sorted index file. The first 8
+ * bytes of every n-th key hash are sampled, with n chosen so that the entries
+ * between two fences fill about one page. A lookup binary searches the fences
+ * on the heap and hands the search strategy only the slice of the mapped index
+ * that can contain the key, so a search touches at most one or two index pages
+ * instead of the ~log2(N) pages a search over the whole file can fault in.
+ * 
+ * 
+ */
+public class IndexFence {
+
+    public static final int PAGE_SIZE = 4096;
+
+    private final long[] fences;
+    private final int entrySize;
+    private final int entriesPerFence;
+    private final int numEntries;
+
+    /**
+     * Sample the fences from the given index
+     * 
+     * @param index The index buffer
+     * @param indexSize The size of the index in bytes
+     * @param format The format of the index entries
+     */
+    public IndexFence(ByteBuffer index, int indexSize, ReadOnlyStorageFormat format) {
+        this.entrySize = format.getIndexEntrySize();
+        this.entriesPerFence = Math.max(1, PAGE_SIZE / entrySize);
+        this.numEntries = indexSize / entrySize;
+        this.fences = new long[(numEntries + entriesPerFence - 1) / entriesPerFence];
+        for(int i = 0; i < fences.length; i++)
+            fences[i] = unsigned(index.getLong(i * entriesPerFence * entrySize));
+    }
+
+    /**
+     * Narrow the index down to the entries that may contain the given key
+     * 
+     * @param index The full index buffer, its position and limit are modified
+     * @param key The key hash to look for
+     * @return A slice of the index, starting at position 0, that contains the
+     *         key if the index does
+     */
+    public ByteBuffer narrow(ByteBuffer index, byte[] key) {
+        long prefix = unsigned(ByteUtils.readLong(key, 0));
+        // the key may be in any block whose fence has a prefix <= the key's
+        // prefix, starting from the last block whose fence prefix is smaller
+        int end = countFencesBelow(prefix, true);
+        int start = Math.max(0, countFencesBelow(prefix, false) - 1);
+        if(end == 0) {
+            index.position(0);
+            index.limit(0);
+        } else {
+            index.position(start * entriesPerFence * entrySize);
+            index.limit(Math.min(end * entriesPerFence, numEntries) * entrySize);
+        }
+        return index.slice();
+    }
+
+    public int getNumFences() {
+        return fences.length;
+    }
+
+    public int getEntriesPerFence() {
+        return entriesPerFence;
+    }
+
+    /* The number of fences less than (or equal to) the given prefix */
+    private int countFencesBelow(long prefix, boolean inclusive) {
+        int low = 0;
+        int high = fences.length;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(fences[mid] < prefix || (inclusive && fences[mid] == prefix))
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /* Shift the value so that signed comparison gives unsigned byte order */
+    private static long unsigned(long value) {
+        return value ^ Long.MIN_VALUE;
+    }
+
+}
@@ -26,10 +26,14 @@ public class InterpolationSearchStrategy implements SearchStrategy {
         }
     }
 
-    public int indexOf(ByteBuffer index, byte[] key, int indexSize) {
+    public long indexOf(ByteBuffer index,
+                        byte[] key,
+                        int indexSize,
+                        ReadOnlyStorageFormat format) {
         int guess;
+        int entrySize = format.getIndexEntrySize();
         int lowIdx = 0;
-        int highIdx = indexSize / ReadOnlyUtils.INDEX_ENTRY_SIZE - 1;
+        int highIdx = indexSize / entrySize - 1;
         long lastIdx = highIdx;
         long lowValue = 0;
         long highValue = 0xFFFFFFFFL;
@@ -47,13 +51,13 @@ public class InterpolationSearchStrategy implements SearchStrategy {
                 guess = lowIdx + (int) offset;
             }
 
-            index.position(guess * ReadOnlyUtils.INDEX_ENTRY_SIZE);
+            index.position(guess * entrySize);
             index.get(found);
             int compare = ByteUtils.compare(key, found);
 
             // did we find it?
             if(compare == 0)
-                return index.getInt();
+                return format.readPosition(index);
 
             // okay we didn't find it this time, update the min and max
             long foundInt = ByteUtils.readUnsignedInt(found, 0);
@@ -16,18 +16,31 @@
 
 package voldemort.store.readonly;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -50,6 +63,7 @@ import voldemort.store.compress.CompressionStrategy;
 import voldemort.store.compress.CompressionStrategyFactory;
 import voldemort.utils.ByteUtils;
 import voldemort.utils.CmdUtils;
+import voldemort.utils.DaemonThreadFactory;
 import voldemort.utils.Utils;
 import voldemort.xml.ClusterMapper;
 import voldemort.xml.StoreDefinitionsMapper;
@@ -60,6 +74,12 @@ import com.google.common.collect.AbstractIterator;
 /**
  * Build a read-only store from given input.
  * 
+ * Since the chunk of a key is decided by its md5, there is no need to sort all
+ * the input together. The input is read once and each item is appended to the
+ * spill file of its chunk, then the chunks are sorted and written out for
+ * every node in parallel, numThreads at a time. A chunk with more than
+ * internalSortSize items is sorted with an ExternalSorter.
+ * 
  * 
  */
 public class JsonStoreBuilder {
@@ -76,6 +96,7 @@ public class JsonStoreBuilder {
     private final int numThreads;
     private final int numChunks;
     private final int ioBufferSize;
+    private final ReadOnlyStorageFormat format;
 
     public JsonStoreBuilder(JsonReader reader,
                             Cluster cluster,
@@ -87,6 +108,30 @@ public class JsonStoreBuilder {
                             int numThreads,
                             int numChunks,
                             int ioBufferSize) {
+        this(reader,
+             cluster,
+             storeDefinition,
+             routingStrategy,
+             outputDir,
+             tempDir,
+             internalSortSize,
+             numThreads,
+             numChunks,
+             ioBufferSize,
+             ReadOnlyStorageFormat.READONLY_V0);
+    }
+
+    public JsonStoreBuilder(JsonReader reader,
+                            Cluster cluster,
+                            StoreDefinition storeDefinition,
+                            RoutingStrategy routingStrategy,
+                            File outputDir,
+                            File tempDir,
+                            int internalSortSize,
+                            int numThreads,
+                            int numChunks,
+                            int ioBufferSize,
+                            ReadOnlyStorageFormat format) {
         if(cluster.getNumberOfNodes() < storeDefinition.getReplicationFactor())
             throw new IllegalStateException("Number of nodes is " + cluster.getNumberOfNodes()
                                             + " but the replication factor is "
@@ -104,6 +149,7 @@ public class JsonStoreBuilder {
         this.numThreads = numThreads;
         this.numChunks = numChunks;
         this.ioBufferSize = ioBufferSize;
+        this.format = Utils.notNull(format);
     }
 
     /**
@@ -122,7 +168,7 @@ public class JsonStoreBuilder {
               .withRequiredArg()
               .describedAs("stores.xml");
         parser.accepts("name", "[REQUIRED] store name").withRequiredArg().describedAs("store name");
-        parser.accepts("buffer", "[REQUIRED] number of key/value pairs to buffer in memory")
+        parser.accepts("buffer", "[REQUIRED] number of key/value pairs per chunk to sort in memory")
               .withRequiredArg()
               .ofType(Integer.class);
         parser.accepts("input", "[REQUIRED] input file to read from")
@@ -131,16 +177,21 @@ public class JsonStoreBuilder {
         parser.accepts("output", "[REQUIRED] directory to output stores to")
               .withRequiredArg()
               .describedAs("output directory");
-        parser.accepts("threads", "number of threads").withRequiredArg().ofType(Integer.class);
+        parser.accepts("threads", "number of chunks to build in parallel")
+              .withRequiredArg()
+              .ofType(Integer.class);
         parser.accepts("chunks", "number of store chunks per store")
               .withRequiredArg()
               .ofType(Integer.class);
         parser.accepts("io-buffer-size", "size of i/o buffers in bytes")
               .withRequiredArg()
               .ofType(Integer.class);
-        parser.accepts("temp-dir", "temporary directory for sorted file pieces")
+        parser.accepts("temp-dir", "temporary directory for chunk spill files and sorted pieces")
               .withRequiredArg()
               .describedAs("temp dir");
+        parser.accepts("format", "index format, ro0 (default) or ro1 for 64-bit positions")
+              .withRequiredArg()
+              .describedAs("format code");
         OptionSet options = parser.parse(args);
 
         if(options.has("help")) {
@@ -173,6 +224,10 @@ public class JsonStoreBuilder {
         File tempDir = new File(CmdUtils.valueOf(options,
                                                  "temp-dir",
                                                  System.getProperty("java.io.tmpdir")));
+        String formatCode = CmdUtils.valueOf(options,
+                                             "format",
+                                             ReadOnlyStorageFormat.READONLY_V0.getCode());
+        ReadOnlyStorageFormat format = ReadOnlyStorageFormat.fromCode(formatCode);
 
         try {
             JsonReader reader = new JsonReader(new BufferedReader(new FileReader(inputFile),
@@ -203,7 +258,8 @@ public class JsonStoreBuilder {
                                  sortBufferSize,
                                  numThreads,
                                  numChunks,
-                                 ioBufferSize).build();
+                                 ioBufferSize,
+                                 format).build();
         } catch(FileNotFoundException e) {
             Utils.croak(e.getMessage());
         }
@@ -211,99 +267,234 @@ public class JsonStoreBuilder {
 
     public void build() throws IOException {
         logger.info("Building store " + storeDefinition.getName() + " for "
-                    + cluster.getNumberOfNodes() + " with " + numChunks + " chunks per node.");
+                    + cluster.getNumberOfNodes() + " with " + numChunks
+                    + " chunks per node in format " + format.getCode() + ".");
         // initialize nodes
-        int numNodes = cluster.getNumberOfNodes();
-        DataOutputStream[][] indexes = new DataOutputStream[numNodes][numChunks];
-        DataOutputStream[][] datas = new DataOutputStream[numNodes][numChunks];
-        int[][] positions = new int[numNodes][numChunks];
         for(Node node: cluster.getNodes()) {
-            int nodeId = node.getId();
-            File nodeDir = new File(outputDir, "node-" + Integer.toString(nodeId));
+            File nodeDir = nodeDir(node.getId());
             nodeDir.mkdirs();
-            for(int chunk = 0; chunk < numChunks; chunk++) {
-                File indexFile = new File(nodeDir, chunk + ".index");
-                File dataFile = new File(nodeDir, chunk + ".data");
-                positions[nodeId][chunk] = 0;
-                indexes[nodeId][chunk] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile),
-                                                                                       ioBufferSize));
-                datas[nodeId][chunk] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile),
-                                                                                     ioBufferSize));
-            }
+            ReadOnlyUtils.writeFormat(nodeDir, format);
         }
 
+        File spillDir = File.createTempFile("json-store-builder-", "", tempDir);
+        if(!spillDir.delete() || !spillDir.mkdir())
+            throw new IOException("Could not create temp directory " + spillDir);
+        try {
+            long[] counts = scatter(spillDir);
+            buildChunks(spillDir, counts);
+        } finally {
+            Utils.rm(spillDir);
+        }
+    }
+
+    private File nodeDir(int nodeId) {
+        return new File(outputDir, "node-" + Integer.toString(nodeId));
+    }
+
+    private File spillFile(File spillDir, int chunk) {
+        return new File(spillDir, chunk + ".spill");
+    }
+
+    /*
+     * Read the input once, appending each item with the nodes it is routed to
+     * to the spill file of its chunk. Returns the number of items per chunk.
+     */
+    private long[] scatter(File spillDir) throws IOException {
         logger.info("Reading items...");
-        int count = 0;
-        ExternalSorter<KeyValuePair> sorter = new ExternalSorter<KeyValuePair>(new KeyValuePairSerializer(),
-                                                                               new KeyMd5Comparator(),
-                                                                               internalSortSize,
-                                                                               tempDir.getAbsolutePath(),
-                                                                               ioBufferSize,
-                                                                               numThreads);
-        JsonObjectIterator iter = new JsonObjectIterator(reader, storeDefinition);
-        for(KeyValuePair pair: sorter.sorted(iter)) {
-            List<Node> nodes = this.routingStrategy.routeRequest(pair.getKey());
-            byte[] keyMd5 = pair.getKeyMd5();
-            for(int i = 0; i < this.storeDefinition.getReplicationFactor(); i++) {
-                int nodeId = nodes.get(i).getId();
-                int chunk = ReadOnlyUtils.chunk(keyMd5, numChunks);
-                int numBytes = pair.getValue().length;
-                datas[nodeId][chunk].writeInt(numBytes);
-                datas[nodeId][chunk].write(pair.getValue());
-                indexes[nodeId][chunk].write(keyMd5);
-                indexes[nodeId][chunk].writeInt(positions[nodeId][chunk]);
-                positions[nodeId][chunk] += numBytes + 4;
-                checkOverFlow(chunk, positions[nodeId][chunk]);
+        int replicationFactor = storeDefinition.getReplicationFactor();
+        DataOutputStream[] spills = new DataOutputStream[numChunks];
+        long[] counts = new long[numChunks];
+        try {
+            for(int chunk = 0; chunk < numChunks; chunk++)
+                spills[chunk] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile(spillDir,
+                                                                                                             chunk)),
+                                                                              ioBufferSize));
+            long count = 0;
+            JsonObjectIterator iter = new JsonObjectIterator(reader, storeDefinition);
+            while(iter.hasNext()) {
+                KeyValuePair pair = iter.next();
+                List<Node> nodes = this.routingStrategy.routeRequest(pair.getKey());
+                int[] nodeIds = new int[replicationFactor];
+                for(int i = 0; i < replicationFactor; i++)
+                    nodeIds[i] = nodes.get(i).getId();
+                int chunk = ReadOnlyUtils.chunk(pair.getKeyMd5(), numChunks);
+                writeRecord(spills[chunk], new ChunkRecord(pair.getKeyMd5(),
+                                                           nodeIds,
+                                                           pair.getValue()));
+                counts[chunk]++;
+                count++;
             }
-            count++;
+            logger.info(count + " items read.");
+        } finally {
+            for(DataOutputStream spill: spills)
+                if(spill != null)
+                    spill.close();
         }
+        return counts;
+    }
 
-        logger.info(count + " items read.");
-
-        // sort and write out
-        logger.info("Closing all store files.");
-        for(int node = 0; node < numNodes; node++) {
-            for(int chunk = 0; chunk < numChunks; chunk++) {
-                indexes[node][chunk].close();
-                datas[node][chunk].close();
+    /*
+     * Sort and write out the chunks, numThreads at a time
+     */
+    private void buildChunks(File spillDir, long[] counts) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+                                                                new DaemonThreadFactory("json-store-builder-"));
+        try {
+            List<Future<Long>> results = new ArrayList<Future<Long>>(numChunks);
+            for(int chunk = 0; chunk < numChunks; chunk++)
+                results.add(executor.submit(new ChunkBuilder(spillDir, chunk, counts[chunk])));
+            for(Future<Long> result: results) {
+                try {
+                    result.get();
+                } catch(InterruptedException e) {
+                    throw new IOException("Interrupted while building chunks.");
+                } catch(ExecutionException e) {
+                    if(e.getCause() instanceof IOException)
+                        throw (IOException) e.getCause();
+                    else if(e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException) e.getCause();
+                    else
+                        throw new VoldemortException(e.getCause());
+                }
             }
+        } finally {
+            executor.shutdownNow();
         }
+        logger.info("All chunks written.");
     }
 
-    /* Check if the position has exceeded Integer.MAX_VALUE */
-    private void checkOverFlow(int chunk, int position) {
-        if(position < 0)
-            throw new VoldemortException("Chunk overflow: chunk " + chunk + " has exceeded "
-                                         + Integer.MAX_VALUE + " bytes.");
+    /**
+     * Sorts the spill file of one chunk by key md5 and writes the chunk for
+     * every node. The chunk is sorted in memory if it has no more than
+     * internalSortSize items, otherwise with an ExternalSorter.
+     */
+    private class ChunkBuilder implements Callable<Long> {
+
+        private final File spillDir;
+        private final int chunk;
+        private final long count;
+
+        public ChunkBuilder(File spillDir, int chunk, long count) {
+            this.spillDir = spillDir;
+            this.chunk = chunk;
+            this.count = count;
+        }
+
+        public Long call() throws IOException {
+            long start = System.currentTimeMillis();
+            File spillFile = spillFile(spillDir, chunk);
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile),
+                                                                                      ioBufferSize));
+            Iterator<ChunkRecord> sorted;
+            try {
+                if(count <= internalSortSize) {
+                    ChunkRecord[] records = new ChunkRecord[(int) count];
+                    for(int i = 0; i < records.length; i++)
+                        records[i] = readRecord(input);
+                    Arrays.sort(records, new ChunkRecordComparator());
+                    sorted = Arrays.asList(records).iterator();
+                } else {
+                    ExternalSorter<ChunkRecord> sorter = new ExternalSorter<ChunkRecord>(new ChunkRecordSerializer(),
+                                                                                         new ChunkRecordComparator(),
+                                                                                         internalSortSize,
+                                                                                         spillDir.getAbsolutePath(),
+                                                                                         ioBufferSize,
+                                                                                         1);
+                    sorted = sorter.sorted(new AbstractIterator<ChunkRecord>() {
+
+                        private long read = 0;
+
+                        @Override
+                        protected ChunkRecord computeNext() {
+                            if(read == count)
+                                return endOfData();
+                            read++;
+                            try {
+                                return readRecord(input);
+                            } catch(IOException e) {
+                                throw new VoldemortException(e);
+                            }
+                        }
+                    }).iterator();
+                }
+            } finally {
+                input.close();
+            }
+            // the records are in memory or in sorted segments now
+            spillFile.delete();
+
+            ChunkWriter[] writers = new ChunkWriter[cluster.getNumberOfNodes()];
+            long duplicates = 0;
+            try {
+                for(Node node: cluster.getNodes())
+                    writers[node.getId()] = new ChunkWriter(nodeDir(node.getId()),
+                                                            chunk,
+                                                            format,
+                                                            ioBufferSize);
+                byte[] lastKeyMd5 = null;
+                while(sorted.hasNext()) {
+                    ChunkRecord record = sorted.next();
+                    if(lastKeyMd5 != null && ByteUtils.compare(lastKeyMd5, record.getKeyMd5()) == 0) {
+                        duplicates++;
+                        continue;
+                    }
+                    lastKeyMd5 = record.getKeyMd5();
+                    for(int nodeId: record.getNodeIds())
+                        writers[nodeId].write(record.getKeyMd5(), record.getValue());
+                }
+            } finally {
+                for(ChunkWriter writer: writers)
+                    if(writer != null)
+                        writer.close();
+            }
+            if(duplicates > 0)
+                logger.warn("Chunk " + chunk + ": dropped " + duplicates
+                            + " items with a duplicate key, one value is kept for each key.");
+            logger.info("Chunk " + chunk + ": wrote " + (count - duplicates) + " items in "
+                        + (System.currentTimeMillis() - start) + " ms.");
+            return count - duplicates;
+        }
     }
 
-    private static class KeyValuePairSerializer implements Serializer<KeyValuePair> {
+    private void writeRecord(DataOutputStream output, ChunkRecord record) throws IOException {
+        output.write(record.getKeyMd5());
+        for(int nodeId: record.getNodeIds())
+            output.writeInt(nodeId);
+        output.writeInt(record.getValue().length);
+        output.write(record.getValue());
+    }
 
-        private final MessageDigest digest = ByteUtils.getDigest("MD5");
+    private ChunkRecord readRecord(DataInputStream input) throws IOException {
+        byte[] keyMd5 = new byte[ReadOnlyUtils.KEY_HASH_SIZE];
+        input.readFully(keyMd5);
+        int[] nodeIds = new int[storeDefinition.getReplicationFactor()];
+        for(int i = 0; i < nodeIds.length; i++)
+            nodeIds[i] = input.readInt();
+        byte[] value = new byte[input.readInt()];
+        input.readFully(value);
+        return new ChunkRecord(keyMd5, nodeIds, value);
+    }
 
-        public byte[] toBytes(KeyValuePair pair) {
-            byte[] key = pair.getKey();
-            byte[] value = pair.getValue();
-            byte[] bytes = new byte[key.length + value.length + 8];
-            ByteUtils.writeInt(bytes, key.length, 0);
-            ByteUtils.writeInt(bytes, value.length, 4);
-            System.arraycopy(key, 0, bytes, 8, key.length);
-            System.arraycopy(value, 0, bytes, 8 + key.length, value.length);
+    private class ChunkRecordSerializer implements Serializer<ChunkRecord> {
 
-            return bytes;
+        public byte[] toBytes(ChunkRecord record) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(ReadOnlyUtils.KEY_HASH_SIZE + 4
+                                                                    * record.getNodeIds().length
+                                                                    + 4 + record.getValue().length);
+            try {
+                writeRecord(new DataOutputStream(bytes), record);
+            } catch(IOException e) {
+                throw new VoldemortException(e);
+            }
+            return bytes.toByteArray();
         }
 
-        public KeyValuePair toObject(byte[] bytes) {
-            int keySize = ByteUtils.readInt(bytes, 0);
-            int valueSize = ByteUtils.readInt(bytes, 4);
-            byte[] key = new byte[keySize];
-            byte[] value = new byte[valueSize];
-            System.arraycopy(bytes, 8, key, 0, keySize);
-            System.arraycopy(bytes, 8 + keySize, value, 0, valueSize);
-            byte[] md5 = digest.digest(key);
-            digest.reset();
-
-            return new KeyValuePair(key, md5, value);
+        public ChunkRecord toObject(byte[] bytes) {
+            try {
+                return readRecord(new DataInputStream(new ByteArrayInputStream(bytes)));
+            } catch(IOException e) {
+                throw new VoldemortException(e);
+            }
         }
 
     }
@@ -377,6 +568,42 @@ public class JsonStoreBuilder {
 
     }
 
+    private static class ChunkRecordComparator implements Comparator<ChunkRecord> {
+
+        public int compare(ChunkRecord r1, ChunkRecord r2) {
+            return ByteUtils.compare(r1.getKeyMd5(), r2.getKeyMd5());
+        }
+
+    }
+
+    /*
+     * An item of a chunk, with the ids of the nodes it is written to
+     */
+    private static class ChunkRecord {
+
+        private final byte[] keyMd5;
+        private final int[] nodeIds;
+        private final byte[] value;
+
+        public ChunkRecord(byte[] keyMd5, int[] nodeIds, byte[] value) {
+            this.keyMd5 = keyMd5;
+            this.nodeIds = nodeIds;
+            this.value = value;
+        }
+
+        public byte[] getKeyMd5() {
+            return keyMd5;
+        }
+
+        public int[] getNodeIds() {
+            return nodeIds;
+        }
+
+        public byte[] getValue() {
+            return value;
+        }
+    }
+
     private static class KeyValuePair {
 
         private final byte[] key;
@@ -41,6 +41,12 @@ public class ReadOnlyStorageConfiguration implements StorageConfiguration {
     private final Set<ObjectName> registeredBeans;
     private final SearchStrategy searcher;
     private final int nodeId;
+    private final boolean mmapData;
+    private final boolean indexFences;
+    private final int maxDeltas;
+    private final boolean warmup;
+    private final long warmupBytesPerSec;
+    private final int warmupHotKeys;
 
     public ReadOnlyStorageConfiguration(VoldemortConfig config) {
         this.storageDir = new File(config.getReadOnlyDataStorageDirectory());
@@ -49,6 +55,12 @@ public class ReadOnlyStorageConfiguration implements StorageConfiguration {
         this.searcher = (SearchStrategy) ReflectUtils.callConstructor(ReflectUtils.loadClass(config.getReadOnlySearchStrategy()
                                                                                                    .trim()));
         this.nodeId = config.getNodeId();
+        this.mmapData = config.isReadOnlyDataMmapEnabled();
+        this.indexFences = config.isReadOnlyIndexFencesEnabled();
+        this.maxDeltas = config.getReadOnlyMaxDeltas();
+        this.warmup = config.isReadOnlyWarmupEnabled();
+        this.warmupBytesPerSec = config.getReadOnlyWarmupBytesPerSec();
+        this.warmupHotKeys = config.getReadOnlyWarmupHotKeys();
     }
 
     public void close() {
@@ -61,7 +73,13 @@ public class ReadOnlyStorageConfiguration implements StorageConfiguration {
         ReadOnlyStorageEngine store = new ReadOnlyStorageEngine(name,
                                                                 this.searcher,
                                                                 new File(storageDir, name),
-                                                                numBackups);
+                                                                numBackups,
+                                                                mmapData,
+                                                                indexFences,
+                                                                maxDeltas,
+                                                                warmup ? new FileSetWarmer(warmupBytesPerSec,
+                                                                                           warmupHotKeys)
+                                                                       : null);
         ObjectName objName = JmxUtils.createObjectName(JmxUtils.getPackageName(store.getClass()),
                                                        name + nodeId);
         JmxUtils.registerMbean(ManagementFactory.getPlatformMBeanServer(),
@@ -19,15 +19,16 @@ package voldemort.store.readonly;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Logger;
 
@@ -51,6 +52,21 @@ import com.google.common.collect.Lists;
 /**
  * A read-only store that fronts a big file
  * 
+ * A swapped in directory marked as a delta (see ReadOnlyUtils.DELTA_FILE) is
+ * not a full version: it holds the keys added, changed or deleted since the
+ * current version and is layered over it as version-0/delta-N. Lookups check
+ * the deltas newest first, then the base. Once maxDeltas deltas are layered
+ * they are merged into a new full version in the background, which is then
+ * swapped in like any other version.
+ * 
+ * Reads never wait for a swap. The files served are held in a reference
+ * counted FileSetGeneration: each read takes a reference to the current
+ * generation, a swap publishes the next one, and the files of the previous one
+ * are closed only once the last read using them is done.
+ * 
+ * Given a FileSetWarmer, newly swapped in files are loaded into the page cache
+ * before they are published, so swaps don't cause a burst of page faults.
+ * 
  * 
  */
 public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
@@ -66,10 +82,15 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
     private final String name;
     private final int numBackups;
     private final File storeDir;
-    private final ReadWriteLock fileModificationLock;
+    private final Lock fileModificationLock;
     private final SearchStrategy searchStrategy;
-    private volatile ChunkedFileSet fileSet;
-    private volatile boolean isOpen;
+    private final boolean mmapData;
+    private final boolean indexFences;
+    private final int maxDeltas;
+    private final AtomicBoolean merging;
+    private final FileSetWarmer warmer;
+    private volatile FileSetGeneration generation;
+    private long nextEpoch;
 
     /**
      * Create an instance of the store
@@ -90,17 +111,95 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
                                  SearchStrategy searchStrategy,
                                  File storeDir,
                                  int numBackups) {
+        this(name, searchStrategy, storeDir, numBackups, false, false);
+    }
+
+    /**
+     * Create an instance of the store
+     * 
+     * @param name The name of the store
+     * @param searchStrategy The strategy used to search the index files
+     * @param storeDir The directory in which the version directories reside
+     * @param numBackups The number of backups of these files to retain
+     * @param mmapData If true, memory map the data files and copy values
+     *        straight out of the mapping instead of reading them through the
+     *        file channel
+     * @param indexFences If true, keep in-heap fence pointers over each index
+     *        file so a lookup only searches the page that can hold the key
+     */
+    public ReadOnlyStorageEngine(String name,
+                                 SearchStrategy searchStrategy,
+                                 File storeDir,
+                                 int numBackups,
+                                 boolean mmapData,
+                                 boolean indexFences) {
+        this(name, searchStrategy, storeDir, numBackups, mmapData, indexFences, 0);
+    }
+
+    /**
+     * Create an instance of the store
+     * 
+     * @param name The name of the store
+     * @param searchStrategy The strategy used to search the index files
+     * @param storeDir The directory in which the version directories reside
+     * @param numBackups The number of backups of these files to retain
+     * @param mmapData If true, memory map the data files
+     * @param indexFences If true, keep in-heap fence pointers over each index
+     *        file
+     * @param maxDeltas The number of deltas to layer over a version before
+     *        merging them into a new version, or 0 to only merge them when
+     *        asked to
+     */
+    public ReadOnlyStorageEngine(String name,
+                                 SearchStrategy searchStrategy,
+                                 File storeDir,
+                                 int numBackups,
+                                 boolean mmapData,
+                                 boolean indexFences,
+                                 int maxDeltas) {
+        this(name, searchStrategy, storeDir, numBackups, mmapData, indexFences, maxDeltas, null);
+    }
+
+    /**
+     * Create an instance of the store
+     * 
+     * @param name The name of the store
+     * @param searchStrategy The strategy used to search the index files
+     * @param storeDir The directory in which the version directories reside
+     * @param numBackups The number of backups of these files to retain
+     * @param mmapData If true, memory map the data files
+     * @param indexFences If true, keep in-heap fence pointers over each index
+     *        file
+     * @param maxDeltas The number of deltas to layer over a version before
+     *        merging them into a new version, or 0 to only merge them when
+     *        asked to
+     * @param warmer The warmer to load swapped in files into the page cache
+     *        with, or null to serve them cold
+     */
+    public ReadOnlyStorageEngine(String name,
+                                 SearchStrategy searchStrategy,
+                                 File storeDir,
+                                 int numBackups,
+                                 boolean mmapData,
+                                 boolean indexFences,
+                                 int maxDeltas,
+                                 FileSetWarmer warmer) {
         this.storeDir = storeDir;
+        this.mmapData = mmapData;
+        this.indexFences = indexFences;
         this.numBackups = numBackups;
         this.name = Utils.notNull(name);
         this.searchStrategy = searchStrategy;
-        this.fileSet = null;
+        this.maxDeltas = maxDeltas;
+        this.merging = new AtomicBoolean(false);
+        this.warmer = warmer;
+        this.generation = null;
+        this.nextEpoch = 0;
         /*
-         * A lock that blocks reads during swap(), open(), and close()
-         * operations
+         * A lock that serializes swap(), rollback(), open(), and close()
+         * operations, reads do not take it
          */
-        this.fileModificationLock = new ReentrantReadWriteLock();
-        this.isOpen = false;
+        this.fileModificationLock = new ReentrantLock();
         open();
     }
 
@@ -109,18 +208,96 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
      */
     public void open() {
         /* acquire modification lock */
-        fileModificationLock.writeLock().lock();
+        fileModificationLock.lock();
         try {
             /* check that the store is currently closed */
-            if(isOpen)
+            if(generation != null)
                 throw new IllegalStateException("Attempt to open already open store.");
-
-            File version0 = new File(storeDir, "version-0");
-            version0.mkdirs();
-            this.fileSet = new ChunkedFileSet(version0);
-            isOpen = true;
+            publish(openVersion0());
         } finally {
-            fileModificationLock.writeLock().unlock();
+            fileModificationLock.unlock();
+        }
+    }
+
+    /*
+     * Open the files of version-0 and its deltas as a new generation
+     */
+    private FileSetGeneration openVersion0() {
+        File version0 = new File(storeDir, "version-0");
+        version0.mkdirs();
+        List<ChunkedFileSet> fileSets = openFileSets(version0);
+        return new FileSetGeneration(nextEpoch++,
+                                     fileSets.get(0),
+                                     fileSets.subList(1, fileSets.size()));
+    }
+
+    /*
+     * Open the files of the given version directory followed by those of its
+     * deltas, newest first
+     */
+    private List<ChunkedFileSet> openFileSets(File versionDir) {
+        List<ChunkedFileSet> fileSets = new ArrayList<ChunkedFileSet>();
+        try {
+            fileSets.add(new ChunkedFileSet(versionDir, mmapData, indexFences));
+            for(int delta = getLastDelta(versionDir); delta > 0; delta--) {
+                File deltaDir = new File(versionDir, "delta-" + delta);
+                if(deltaDir.exists())
+                    fileSets.add(new ChunkedFileSet(deltaDir, mmapData, indexFences));
+            }
+        } catch(RuntimeException e) {
+            close(fileSets);
+            throw e;
+        }
+        return fileSets;
+    }
+
+    /*
+     * Open and warm the files of the given version directory. This is done
+     * before the modification lock is taken, so a slow warmup doesn't hold up
+     * other swaps, rollbacks or close.
+     */
+    private List<ChunkedFileSet> openAndWarm(File versionDir) {
+        List<ChunkedFileSet> fileSets = openFileSets(versionDir);
+        if(warmer != null) {
+            try {
+                warmer.warm(fileSets, searchStrategy);
+            } catch(RuntimeException e) {
+                close(fileSets);
+                throw e;
+            }
+        }
+        return fileSets;
+    }
+
+    private void close(List<ChunkedFileSet> fileSets) {
+        for(ChunkedFileSet fileSet: fileSets)
+            fileSet.close();
+    }
+
+    /*
+     * Make the given generation the one new reads use, the files of the
+     * previous one are closed once the reads still using them are done
+     */
+    private void publish(FileSetGeneration next) {
+        FileSetGeneration previous = generation;
+        generation = next;
+        if(previous != null)
+            previous.release();
+        logger.debug("Store '" + getName() + "' now serving generation " + next.getEpoch());
+    }
+
+    /*
+     * Take a reference to the current generation, which the caller must
+     * release. A swap may release the generation between the read and the
+     * acquire, in which case the acquire fails and we look again.
+     */
+    private FileSetGeneration acquire() {
+        while(true) {
+            FileSetGeneration current = generation;
+            if(current == null)
+                throw new VoldemortException("Store '" + getName() + "' is closed.");
+            if(current.acquire())
+                return current;
         }
     }
 
@@ -129,17 +306,18 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
      */
     public void close() throws VoldemortException {
         logger.debug("Close called for read-only store.");
-        this.fileModificationLock.writeLock().lock();
+        this.fileModificationLock.lock();
 
         try {
-            if(isOpen) {
-                this.isOpen = false;
-                fileSet.close();
+            FileSetGeneration current = generation;
+            if(current != null) {
+                this.generation = null;
+                current.release();
             } else {
                 logger.debug("Attempt to close already closed store " + getName());
             }
         } finally {
-            this.fileModificationLock.writeLock().unlock();
+            this.fileModificationLock.unlock();
         }
     }
 
@@ -157,32 +335,48 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
         if(!newDataDir.exists())
             throw new VoldemortException("File " + newDataDir.getAbsolutePath()
                                          + " does not exist.");
+        if(ReadOnlyUtils.isDelta(newDataDir)) {
+            swapDelta(newDataDir);
+            return;
+        }
+
+        swapVersion(newDataDir, openAndWarm(newDataDir));
+    }
 
-        logger.info("Acquiring write lock on '" + getName() + "':");
-        fileModificationLock.writeLock().lock();
+    /*
+     * Make the given directory version-0, serving from its already open files
+     */
+    private void swapVersion(File newDataDir, List<ChunkedFileSet> fileSets) {
+        logger.info("Acquiring modification lock on '" + getName() + "':");
+        fileModificationLock.lock();
         boolean success = false;
         try {
-            close();
             logger.info("Renaming data and index files for '" + getName() + "':");
             shiftBackupsRight();
             // copy in new files
-            logger.info("Setting primary files for store '" + getName() + "' to "
-                        + newStoreDirectory);
+            logger.info("Setting primary files for store '" + getName() + "' to " + newDataDir);
             File destDir = new File(storeDir, "version-0");
             if(!newDataDir.renameTo(destDir))
                 throw new VoldemortException("Renaming " + newDataDir.getAbsolutePath() + " to "
                              + destDir.getAbsolutePath() + " failed!");
-
-            // open the new store
-            open();
+            fileSets.get(0).setBaseDir(destDir);
+            for(ChunkedFileSet delta: fileSets.subList(1, fileSets.size()))
+                delta.setBaseDir(new File(destDir, delta.getBaseDir().getName()));
+
+            // reads move over to the new files as they start
+            publish(new FileSetGeneration(nextEpoch++,
+                                          fileSets.get(0),
+                                          fileSets.subList(1, fileSets.size())));
             success = true;
         } finally {
             try {
                 // we failed to do the swap, attempt a rollback
-                if(!success)
-                    rollback();
+                if(!success) {
+                    close(fileSets);
+                    rollbackVersion();
+                }
             } finally {
-                fileModificationLock.writeLock().unlock();
+                fileModificationLock.unlock();
                 if(success)
                     logger.info("Swap operation completed successfully on store " + getName()
                                 + ", releasing lock.");
@@ -197,6 +391,156 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
             deleteAsync(extraBackup);
     }
 
+    /*
+     * Layer the given delta over the current version
+     */
+    private void swapDelta(File newDeltaDir) {
+        // opened and warmed before the lock is taken, like a full version
+        ChunkedFileSet delta = new ChunkedFileSet(newDeltaDir, mmapData, indexFences);
+        if(warmer != null) {
+            try {
+                warmer.warm(Collections.singletonList(delta), searchStrategy);
+            } catch(RuntimeException e) {
+                delta.close();
+                throw e;
+            }
+        }
+
+        fileModificationLock.lock();
+        int numDeltas;
+        boolean success = false;
+        try {
+            FileSetGeneration current = generation;
+            if(current == null)
+                throw new VoldemortException("Can't swap a delta into closed store " + getName());
+            File version0 = new File(storeDir, "version-0");
+            File destDir = new File(version0, "delta-" + (getLastDelta(version0) + 1));
+            if(!newDeltaDir.renameTo(destDir))
+                throw new VoldemortException("Renaming " + newDeltaDir.getAbsolutePath() + " to "
+                                             + destDir.getAbsolutePath() + " failed!");
+            delta.setBaseDir(destDir);
+            List<ChunkedFileSet> newDeltas = new ArrayList<ChunkedFileSet>(current.getDeltas()
+                                                                                  .size() + 1);
+            newDeltas.add(delta);
+            newDeltas.addAll(current.getDeltas());
+            publish(new FileSetGeneration(nextEpoch++, current.getBase(), newDeltas));
+            success = true;
+            numDeltas = newDeltas.size();
+            logger.info("Swapped in delta " + destDir + " for store '" + getName() + "', "
+                        + numDeltas + " deltas are layered over the current version.");
+        } finally {
+            if(!success)
+                delta.close();
+            fileModificationLock.unlock();
+        }
+        if(maxDeltas > 0 && numDeltas >= maxDeltas)
+            mergeDeltasAsync();
+    }
+
+    /*
+     * The number of the newest delta in the given version directory, or 0 if
+     * there are none
+     */
+    private int getLastDelta(File versionDir) {
+        int last = 0;
+        String[] names = versionDir.list();
+        if(names != null) {
+            for(String name: names) {
+                if(name.matches("delta-\\d+"))
+                    last = Math.max(last, Integer.parseInt(name.substring("delta-".length())));
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Merge the deltas layered over the current version into a new full
+     * version and swap it in. The previous version, with its deltas, becomes
+     * the first backup. Reads and swaps go on while the merge runs, the merge
+     * is discarded if the deltas changed in the meantime.
+     */
+    @JmxOperation(description = "Merge the deltas into a new version of the store.")
+    public void mergeDeltas() {
+        FileSetGeneration merged = generation;
+        if(merged == null || merged.getDeltas().isEmpty() || !merged.acquire())
+            return;
+        File mergeDir = new File(storeDir, "merge-" + System.currentTimeMillis());
+        // the merge directory is removed unless it was swapped in, whatever
+        // went wrong
+        boolean swapped = false;
+        try {
+            try {
+                logger.info("Merging " + merged.getDeltas().size() + " deltas of store '"
+                            + getName() + "' into " + mergeDir);
+                new DeltaMerger(merged.getBase(), merged.getDeltas(), 64 * 1024).merge(mergeDir);
+            } catch(IOException e) {
+                throw new VoldemortException("Error merging deltas of store " + getName(), e);
+            } finally {
+                merged.release();
+            }
+
+            List<ChunkedFileSet> fileSets = openAndWarm(mergeDir);
+            fileModificationLock.lock();
+            try {
+                if(generation != merged) {
+                    // the deltas changed since we read them, try again later
+                    logger.info("Deltas of store '" + getName()
+                                + "' changed during the merge, discarding it.");
+                    close(fileSets);
+                    return;
+                }
+                swapVersion(mergeDir, fileSets);
+                swapped = true;
+            } finally {
+                fileModificationLock.unlock();
+            }
+        } finally {
+            if(!swapped)
+                Utils.rm(mergeDir);
+        }
+    }
+
+    /**
+     * Merge the deltas in a seperate thread, unless a merge is already running
+     */
+    public void mergeDeltasAsync() {
+        if(!merging.compareAndSet(false, true))
+            return;
+        new Thread(new Runnable() {
+
+            public void run() {
+                try {
+                    mergeDeltas();
+                } catch(Exception e) {
+                    logger.error("Merging deltas of store '" + getName() + "' failed.", e);
+                } finally {
+                    merging.set(false);
+                }
+            }
+        }, "read-only-delta-merge").start();
+    }
+
+    @JmxGetter(name = "numDeltas", description = "The number of deltas layered over the current version.")
+    public int getNumDeltas() {
+        FileSetGeneration current = generation;
+        return current == null ? 0 : current.getDeltas().size();
+    }
+
+    @JmxGetter(name = "warmupStatus", description = "The progress of the running or last warmup of swapped in files.")
+    public String getWarmupStatus() {
+        return warmer == null ? "Disabled" : warmer.getStatus();
+    }
+
+    public FileSetWarmer getWarmer() {
+        return warmer;
+    }
+
+    @JmxGetter(name = "epoch", description = "The number of the generation of files being served, which increases with every swap.")
+    public long getEpoch() {
+        FileSetGeneration current = generation;
+        return current == null ? -1 : current.getEpoch();
+    }
+
     /**
      * Delete the given file in a seperate thread
      * 
@@ -219,29 +563,67 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
 
     @JmxOperation(description = "Rollback to the most recent backup of the current store.")
     public void rollback() {
-        logger.info("Rolling back store '" + getName() + "' to version 1.");
-        fileModificationLock.writeLock().lock();
+        fileModificationLock.lock();
         try {
-            if(isOpen)
-                close();
-            File backup = new File(storeDir, "version-1");
-            if(!backup.exists())
-                throw new VoldemortException("Version 1 does not exists, nothing to roll back to.");
-            shiftBackupsLeft();
-            open();
+            FileSetGeneration current = generation;
+            if(current != null && !current.getDeltas().isEmpty())
+                rollbackDelta(current);
+            else
+                rollbackVersion();
         } finally {
-            fileModificationLock.writeLock().unlock();
+            fileModificationLock.unlock();
             logger.info("Rollback operation completed on '" + getName() + "', releasing lock.");
         }
     }
 
+    /*
+     * Replace version-0 with version-1. The files being served stay open
+     * when they are moved aside, so reads go on using them until the backup
+     * is open and published.
+     */
+    private void rollbackVersion() {
+        logger.info("Rolling back store '" + getName() + "' to version 1.");
+        File backup = new File(storeDir, "version-1");
+        if(!backup.exists())
+            throw new VoldemortException("Version 1 does not exists, nothing to roll back to.");
+        shiftBackupsLeft();
+
+        FileSetGeneration next;
+        try {
+            next = openVersion0();
+        } catch(RuntimeException e) {
+            // the store is left closed rather than serving files that are no
+            // longer version-0
+            FileSetGeneration previous = generation;
+            generation = null;
+            if(previous != null)
+                previous.release();
+            throw e;
+        }
+        publish(next);
+    }
+
+    /*
+     * Remove the newest delta, keeping it as a .bak like a rolled back version
+     */
+    private void rollbackDelta(FileSetGeneration current) {
+        List<ChunkedFileSet> deltas = current.getDeltas();
+        ChunkedFileSet newest = deltas.get(0);
+        logger.info("Rolling back store '" + getName() + "' to before delta "
+                    + newest.getBaseDir());
+        publish(new FileSetGeneration(nextEpoch++,
+                                      current.getBase(),
+                                      deltas.subList(1, deltas.size())));
+        DateFormat df = new SimpleDateFormat("MM-dd-yyyy");
+        Utils.move(newest.getBaseDir(), new File(newest.getBaseDir().getParentFile(),
+                                                 newest.getBaseDir().getName() + "."
+                                                         + df.format(new Date()) + ".bak"));
+    }
+
     /**
      * Shift all store versions so that 1 becomes 0, 2 becomes 1, etc.
      */
     private void shiftBackupsLeft() {
-        if(isOpen)
-            throw new VoldemortException("Can't move backup files while store is open.");
-
         // Turn the current data into a .bak so we can take a look at it
         // manually if we want
         File primary = new File(storeDir, "version-0");
@@ -271,15 +653,10 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
      * Shift all store versions so that 0 becomes 1, 1 becomes 2, etc.
      */
     private void shiftBackupsRight() {
-        if(isOpen)
-            throw new VoldemortException("Can't move backup files while store is open.");
         shiftBackupsRight(0);
     }
 
     private void shiftBackupsRight(int beginShift) {
-        if(isOpen)
-            throw new VoldemortException("Can't move backup files while store is open.");
-
         File source = new File(storeDir, "version-" + Integer.toString(beginShift));
 
         // if the source file doesn't exist there is nothing to shift
@@ -313,57 +690,80 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
     public List<Versioned<byte[]>> get(ByteArray key) throws VoldemortException {
         StoreUtils.assertValidKey(key);
         byte[] keyMd5 = ByteUtils.md5(key.get());
-        int chunk = fileSet.getChunkForKey(keyMd5);
-        int location = searchStrategy.indexOf(fileSet.indexFileFor(chunk),
-                                              keyMd5,
-                                              fileSet.getIndexFileSize(chunk));
-        if(location >= 0) {
-            byte[] value = readValue(chunk, location);
-            return Collections.singletonList(Versioned.value(value));
-        } else {
-            return Collections.emptyList();
+        if(warmer != null)
+            warmer.sample(keyMd5);
+        FileSetGeneration files = acquire();
+        try {
+            for(ChunkedFileSet delta: files.getDeltas()) {
+                int chunk = delta.getChunkForKey(keyMd5);
+                long location = indexOf(delta, chunk, keyMd5);
+                if(location >= 0)
+                    return toList(delta.readValue(chunk, location));
+            }
+            ChunkedFileSet fileSet = files.getBase();
+            int chunk = fileSet.getChunkForKey(keyMd5);
+            long location = indexOf(fileSet, chunk, keyMd5);
+            if(location >= 0) {
+                byte[] value = fileSet.readValue(chunk, location);
+                return Collections.singletonList(Versioned.value(value));
+            } else {
+                return Collections.emptyList();
+            }
+        } finally {
+            files.release();
         }
     }
 
+    private long indexOf(ChunkedFileSet files, int chunk, byte[] keyMd5) {
+        ByteBuffer index = files.indexFileFor(chunk, keyMd5);
+        return searchStrategy.indexOf(index, keyMd5, index.limit(), files.getFormat());
+    }
+
+    /* A value read from a delta is null if the delta deleted the key */
+    private List<Versioned<byte[]>> toList(byte[] value) {
+        if(value == null)
+            return Collections.emptyList();
+        else
+            return Collections.singletonList(Versioned.value(value));
+    }
+
     public Map<ByteArray, List<Versioned<byte[]>>> getAll(Iterable<ByteArray> keys)
             throws VoldemortException {
         StoreUtils.assertValidKeys(keys);
         Map<ByteArray, List<Versioned<byte[]>>> results = StoreUtils.newEmptyHashMap(keys);
+        FileSetGeneration files = acquire();
         try {
-            fileModificationLock.readLock().lock();
+            ChunkedFileSet fileSet = files.getBase();
             List<KeyValueLocation> keysAndValueLocations = Lists.newArrayList();
-            for(ByteArray key: keys) {
+            nextKey: for(ByteArray key: keys) {
                 byte[] keyMd5 = ByteUtils.md5(key.get());
+                if(warmer != null)
+                    warmer.sample(keyMd5);
+                // the deltas are small, read their values right away
+                for(ChunkedFileSet delta: files.getDeltas()) {
+                    int chunk = delta.getChunkForKey(keyMd5);
+                    long location = indexOf(delta, chunk, keyMd5);
+                    if(location >= 0) {
+                        List<Versioned<byte[]>> values = toList(delta.readValue(chunk, location));
+                        if(!values.isEmpty())
+                            results.put(key, values);
+                        continue nextKey;
+                    }
+                }
                 int chunk = fileSet.getChunkForKey(keyMd5);
-                int valueLocation = searchStrategy.indexOf(fileSet.indexFileFor(chunk),
-                                                           keyMd5,
-                                                           fileSet.getIndexFileSize(chunk));
+                long valueLocation = indexOf(fileSet, chunk, keyMd5);
                 if(valueLocation >= 0)
                     keysAndValueLocations.add(new KeyValueLocation(chunk, key, valueLocation));
             }
             Collections.sort(keysAndValueLocations);
 
             for(KeyValueLocation keyVal: keysAndValueLocations) {
-                byte[] value = readValue(keyVal.getChunk(), keyVal.getValueLocation());
+                byte[] value = fileSet.readValue(keyVal.getChunk(), keyVal.getValueLocation());
                 results.put(keyVal.getKey(), Collections.singletonList(Versioned.value(value)));
             }
             return results;
         } finally {
-            fileModificationLock.readLock().unlock();
-        }
-    }
-
-    private byte[] readValue(int chunk, int valueLocation) {
-        FileChannel dataFile = fileSet.dataFileFor(chunk);
-        try {
-            ByteBuffer sizeBuffer = ByteBuffer.allocate(4);
-            dataFile.read(sizeBuffer, valueLocation);
-            int size = sizeBuffer.getInt(0);
-            ByteBuffer valueBuffer = ByteBuffer.allocate(size);
-            dataFile.read(valueBuffer, valueLocation + 4);
-            return valueBuffer.array();
-        } catch(IOException e) {
-            throw new VoldemortException(e);
+            files.release();
         }
     }
 
@@ -394,9 +794,9 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
 
         private final int chunk;
         private final ByteArray key;
-        private final int valueLocation;
+        private final long valueLocation;
 
-        private KeyValueLocation(int chunk, ByteArray key, int valueLocation) {
+        private KeyValueLocation(int chunk, ByteArray key, long valueLocation) {
             super();
             this.chunk = chunk;
             this.key = key;
@@ -411,7 +811,7 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
             return key;
         }
 
-        public int getValueLocation() {
+        public long getValueLocation() {
             return valueLocation;
         }
 
@@ -420,7 +820,7 @@ public class ReadOnlyStorageEngine implements StorageEngine<ByteArray, byte[]> {
                 if(valueLocation == kvl.getValueLocation())
                     return ByteUtils.compare(getKey().get(), kvl.getKey().get());
                 else
-                    return Integer.signum(valueLocation - kvl.getValueLocation());
+                    return valueLocation < kvl.getValueLocation() ? -1 : 1;
             } else {
                 return getChunk() - kvl.getChunk();
             }
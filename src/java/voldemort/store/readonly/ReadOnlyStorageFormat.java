@@ -0,0 +1,86 @@
+/*
+ * Copyright 2008-2009 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.readonly;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An enumeration of the on-disk formats of the read-only index files.
+ * 
+ * READONLY_V0 stores a 4 byte position after each key hash, which limits each
+ * data file to 2GB. READONLY_V1 stores an 8 byte position, so the size of a
+ * chunk is only limited by the file system.
+ * 
+ * 
+ */
+public enum ReadOnlyStorageFormat {
+    READONLY_V0("ro0", 4),
+    READONLY_V1("ro1", 8);
+
+    private final String code;
+    private final int positionSize;
+
+    private ReadOnlyStorageFormat(String code, int positionSize) {
+        this.code = code;
+        this.positionSize = positionSize;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * @return The number of bytes used to store a data file position in the
+     *         index
+     */
+    public int getPositionSize() {
+        return positionSize;
+    }
+
+    /**
+     * @return The size of a single key hash and position entry in the index
+     */
+    public int getIndexEntrySize() {
+        return ReadOnlyUtils.KEY_HASH_SIZE + positionSize;
+    }
+
+    /**
+     * @return The largest data file that can be addressed by this format
+     */
+    public long getMaxDataFileSize() {
+        return positionSize == 4 ? Integer.MAX_VALUE : Long.MAX_VALUE;
+    }
+
+    /**
+     * Read the position stored at the current location in the index buffer
+     *
+     * @param index The index buffer, positioned just after a key hash
+     * @return The position in the data file
+     */
+    public long readPosition(ByteBuffer index) {
+        return positionSize == 4 ? index.getInt() : index.getLong();
+    }
+
+    public static ReadOnlyStorageFormat fromCode(String code) {
+        for(ReadOnlyStorageFormat format: ReadOnlyStorageFormat.values())
+            if(format.getCode().equals(code))
+                return format;
+        throw new IllegalArgumentException("No read-only storage format '" + code
+                                           + "' was found");
+    }
+
+}
@@ -1,7 +1,12 @@
 package voldemort.store.readonly;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
+import org.apache.commons.io.FileUtils;
+
+import voldemort.VoldemortException;
 import voldemort.utils.ByteUtils;
 
 public class ReadOnlyUtils {
@@ -10,6 +15,26 @@ public class ReadOnlyUtils {
     public static final int POSITION_SIZE = 4;
     public static final int INDEX_ENTRY_SIZE = KEY_HASH_SIZE + POSITION_SIZE;
 
+    /*
+     * The name of the file in a store version directory that records the
+     * ReadOnlyStorageFormat of its index files. Directories without it are
+     * READONLY_V0.
+     */
+    public static final String FORMAT_FILE = "format";
+
+    /*
+     * The name of the file that marks a store version directory as a delta,
+     * holding only the keys added, changed or deleted since the current
+     * version
+     */
+    public static final String DELTA_FILE = "delta";
+
+    /*
+     * The size written in the data file in place of a value for a key deleted
+     * by a delta
+     */
+    public static final int DELETED_VALUE_SIZE = -1;
+
     public static int chunk(byte[] key, int numChunks) {
         // max handles abs(Integer.MIN_VALUE)
         return Math.max(0, Math.abs(ByteUtils.readInt(key, 0))) % numChunks;
@@ -21,4 +46,64 @@ public class ReadOnlyUtils {
         return foundKey;
     }
 
+    /**
+     * Read the storage format of the store files in the given directory
+     * 
+     * @param dir The store version directory
+     * @return The format recorded in the format file, or READONLY_V0 if there
+     *         is none
+     */
+    public static ReadOnlyStorageFormat readFormat(File dir) {
+        File formatFile = new File(dir, FORMAT_FILE);
+        if(!formatFile.exists())
+            return ReadOnlyStorageFormat.READONLY_V0;
+        try {
+            String code = FileUtils.readFileToString(formatFile, "UTF-8").trim();
+            return ReadOnlyStorageFormat.fromCode(code);
+        } catch(IOException e) {
+            throw new VoldemortException("Error reading " + formatFile.getAbsolutePath(), e);
+        } catch(IllegalArgumentException e) {
+            throw new VoldemortException("Invalid format file " + formatFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Record the storage format of the store files in the given directory
+     * 
+     * @param dir The store version directory
+     * @param format The format the index files were written in
+     */
+    public static void writeFormat(File dir, ReadOnlyStorageFormat format) {
+        File formatFile = new File(dir, FORMAT_FILE);
+        try {
+            FileUtils.writeStringToFile(formatFile, format.getCode(), "UTF-8");
+        } catch(IOException e) {
+            throw new VoldemortException("Error writing " + formatFile.getAbsolutePath(), e);
+        }
+    }
+
+
+    /**
+     * @param dir A store version directory
+     * @return true if the directory holds a delta rather than a full version
+     */
+    public static boolean isDelta(File dir) {
+        return new File(dir, DELTA_FILE).exists();
+    }
+
+    /**
+     * Mark the given store version directory as a delta
+     * 
+     * @param dir The store version directory
+     */
+    public static void markDelta(File dir) {
+        File deltaFile = new File(dir, DELTA_FILE);
+        try {
+            if(!deltaFile.exists() && !deltaFile.createNewFile())
+                throw new VoldemortException("Could not create " + deltaFile.getAbsolutePath());
+        } catch(IOException e) {
+            throw new VoldemortException("Error writing " + deltaFile.getAbsolutePath(), e);
+        }
+    }
+
 }
@@ -3,8 +3,8 @@ package voldemort.store.readonly;
 import java.nio.ByteBuffer;
 
 /**
- * A way to search for a key in a file of sorted 16 byte keys and 4 byte
- * position offsets
+ * A way to search for a key in a file of sorted 16 byte keys and 4 or 8 byte
+ * position offsets, depending on the ReadOnlyStorageFormat
  * 
  * 
  */
@@ -16,9 +16,10 @@ public interface SearchStrategy {
      * @param index The index buffer
      * @param key The key to search for
      * @param indexSize The size of the index
-     * @return The integer offset of the position offset, if the key is found,
+     * @param format The format of the index entries
+     * @return The position offset stored for the key, if the key is found,
      *         else -1
      */
-    public int indexOf(ByteBuffer index, byte[] key, int indexSize);
+    public long indexOf(ByteBuffer index, byte[] key, int indexSize, ReadOnlyStorageFormat format);
 
 }
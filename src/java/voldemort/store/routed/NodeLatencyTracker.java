@@ -0,0 +1,140 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.routed;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import voldemort.annotations.concurrency.Threadsafe;
+
+/**
+ * Keeps the most recent latencies of the requests to each node, so that a
+ * caller can tell when a node is taking unusually long to answer. Only a
+ * fixed window of samples is kept per node, so the percentiles follow the
+ * node's recent behaviour.
+ * 
+ * 
+ */
+@Threadsafe
+public class NodeLatencyTracker {
+
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+
+    /*
+     * The number of samples needed before a percentile is given for a node
+     */
+    public static final int MIN_SAMPLES = 10;
+
+    private final double percentile;
+    private final int windowSize;
+    private final ConcurrentMap<Integer, Window> windows;
+
+    /**
+     * Create a tracker
+     * 
+     * @param percentile The percentile of the recent latencies to report, more
+     *        than 0 and at most 100
+     * @param windowSize The number of recent samples to keep for each node
+     */
+    public NodeLatencyTracker(double percentile, int windowSize) {
+        if(percentile <= 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile must be in (0, 100].");
+        if(windowSize < MIN_SAMPLES)
+            throw new IllegalArgumentException("windowSize must be at least " + MIN_SAMPLES + ".");
+        this.percentile = percentile;
+        this.windowSize = windowSize;
+        this.windows = new ConcurrentHashMap<Integer, Window>();
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void recordLatency(int nodeId, long latencyNs) {
+        Window window = windows.get(nodeId);
+        if(window == null) {
+            windows.putIfAbsent(nodeId, new Window(percentile, windowSize));
+            window = windows.get(nodeId);
+        }
+        window.add(latencyNs);
+    }
+
+    /**
+     * Get the configured percentile of the recent latencies of a node
+     * 
+     * @param nodeId The id of the node
+     * @return The latency in ns, or -1 if too few requests to the node have
+     *         completed to tell. It is recomputed as samples are recorded
+     *         rather than on every call, so it may lag the most recent few.
+     */
+    public long getPercentileNs(int nodeId) {
+        Window window = windows.get(nodeId);
+        if(window == null)
+            return -1;
+        return window.getPercentile();
+    }
+
+    /*
+     * The percentile of a window is recomputed every time this fraction of
+     * its samples has been replaced, rather than on every read
+     */
+    private static final int RECOMPUTES_PER_WINDOW = 10;
+
+    private static class Window {
+
+        private final double percentile;
+        private final long[] samples;
+        private final long[] sorted;
+        private final int recomputeInterval;
+        private int count;
+        private int next;
+        private int sinceRecompute;
+        private volatile long cachedPercentile;
+
+        private Window(double percentile, int size) {
+            this.percentile = percentile;
+            this.samples = new long[size];
+            this.sorted = new long[size];
+            this.recomputeInterval = Math.max(1, size / RECOMPUTES_PER_WINDOW);
+            this.cachedPercentile = -1;
+        }
+
+        private synchronized void add(long sample) {
+            samples[next] = sample;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            sinceRecompute++;
+            if(count == MIN_SAMPLES || (count > MIN_SAMPLES && sinceRecompute >= recomputeInterval)) {
+                System.arraycopy(samples, 0, sorted, 0, count);
+                Arrays.sort(sorted, 0, count);
+                int index = (int) Math.ceil(percentile / 100 * count) - 1;
+                cachedPercentile = sorted[Math.max(0, index)];
+                sinceRecompute = 0;
+            }
+        }
+
+        private long getPercentile() {
+            return cachedPercentile;
+        }
+    }
+
+}
@@ -19,15 +19,21 @@ package voldemort.store.routed;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -41,6 +47,7 @@ import voldemort.VoldemortException;
 import voldemort.cluster.Cluster;
 import voldemort.cluster.Node;
 import voldemort.cluster.failuredetector.FailureDetector;
+import voldemort.routing.RouteToAllStrategy;
 import voldemort.routing.RoutingStrategy;
 import voldemort.routing.RoutingStrategyFactory;
 import voldemort.store.InsufficientOperationalNodesException;
@@ -50,11 +57,14 @@ import voldemort.store.StoreCapabilityType;
 import voldemort.store.StoreDefinition;
 import voldemort.store.StoreUtils;
 import voldemort.store.UnreachableStoreException;
+import voldemort.store.slop.Slop;
+import voldemort.store.slop.SloppyStore;
 import voldemort.utils.ByteArray;
 import voldemort.utils.ByteUtils;
 import voldemort.utils.SystemTime;
 import voldemort.utils.Time;
 import voldemort.utils.Utils;
+import voldemort.versioning.ClockPruningPolicy;
 import voldemort.versioning.ObsoleteVersionException;
 import voldemort.versioning.VectorClock;
 import voldemort.versioning.Version;
@@ -63,6 +73,7 @@ import voldemort.versioning.Versioned;
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 /**
  * A Store which multiplexes requests to different internal Stores
@@ -73,6 +84,8 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
 
     private static final Logger logger = Logger.getLogger(RoutedStore.class.getName());
 
+    public static final int DEFAULT_GET_ALL_BATCH_SIZE = 100;
+
     private final static StoreOp<Versioned<byte[]>> VERSIONED_OP = new StoreOp<Versioned<byte[]>>() {
 
         public List<Versioned<byte[]>> execute(Store<ByteArray, byte[]> store, ByteArray key) {
@@ -96,6 +109,11 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
     private final Time time;
     private final StoreDefinition storeDef;
     private final FailureDetector failureDetector;
+    private final int getAllBatchSize;
+    private final NodeLatencyTracker hedgeTracker;
+    private final NodeLatencyTracker getAllHedgeTracker;
+    private final ClockPruningPolicy clockPruningPolicy;
+    private final Map<Integer, Store<ByteArray, Slop>> slopStores;
 
     private volatile RoutingStrategy routingStrategy;
 
@@ -151,6 +169,133 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
                        long timeoutMs,
                        FailureDetector failureDetector,
                        Time time) {
+        this(name,
+             innerStores,
+             cluster,
+             storeDef,
+             repairReads,
+             threadPool,
+             timeoutMs,
+             failureDetector,
+             time,
+             DEFAULT_GET_ALL_BATCH_SIZE);
+    }
+
+    /**
+     * Create a RoutedStoreClient
+     * 
+     * @param name The name of the store
+     * @param innerStores The mapping of node to client
+     * @param routingStrategy The strategy for choosing a node given a key
+     * @param requiredReads The minimum number of reads that must complete
+     *        before the operation will return
+     * @param requiredWrites The minimum number of writes that must complete
+     *        before the operation will return
+     * @param threadPool The threadpool to use
+     * @param getAllBatchSize The maximum number of keys sent to a node in a
+     *        single request by getAll
+     */
+    public RoutedStore(String name,
+                       Map<Integer, Store<ByteArray, byte[]>> innerStores,
+                       Cluster cluster,
+                       StoreDefinition storeDef,
+                       boolean repairReads,
+                       ExecutorService threadPool,
+                       long timeoutMs,
+                       FailureDetector failureDetector,
+                       Time time,
+                       int getAllBatchSize) {
+        this(name,
+             innerStores,
+             cluster,
+             storeDef,
+             repairReads,
+             threadPool,
+             timeoutMs,
+             failureDetector,
+             time,
+             getAllBatchSize,
+             null);
+    }
+
+    /**
+     * Create a RoutedStoreClient
+     * 
+     * @param name The name of the store
+     * @param innerStores The mapping of node to client
+     * @param routingStrategy The strategy for choosing a node given a key
+     * @param requiredReads The minimum number of reads that must complete
+     *        before the operation will return
+     * @param requiredWrites The minimum number of writes that must complete
+     *        before the operation will return
+     * @param threadPool The threadpool to use
+     * @param getAllBatchSize The maximum number of keys sent to a node in a
+     *        single request by getAll
+     * @param hedgeTracker The latencies of recent reads by node, used to hedge
+     *        reads to a node that is slower than its given percentile by
+     *        sending the same read to the next node; null to not hedge. The
+     *        getAll batches are hedged at the same percentile of their own
+     *        latencies.
+     */
+    public RoutedStore(String name,
+                       Map<Integer, Store<ByteArray, byte[]>> innerStores,
+                       Cluster cluster,
+                       StoreDefinition storeDef,
+                       boolean repairReads,
+                       ExecutorService threadPool,
+                       long timeoutMs,
+                       FailureDetector failureDetector,
+                       Time time,
+                       int getAllBatchSize,
+                       NodeLatencyTracker hedgeTracker) {
+        this(name,
+             innerStores,
+             cluster,
+             storeDef,
+             repairReads,
+             threadPool,
+             timeoutMs,
+             failureDetector,
+             time,
+             getAllBatchSize,
+             hedgeTracker,
+             null);
+    }
+
+    /**
+     * Create a RoutedStoreClient
+     * 
+     * @param name The name of the store
+     * @param innerStores The mapping of node to client
+     * @param routingStrategy The strategy for choosing a node given a key
+     * @param requiredReads The minimum number of reads that must complete
+     *        before the operation will return
+     * @param requiredWrites The minimum number of writes that must complete
+     *        before the operation will return
+     * @param threadPool The threadpool to use
+     * @param getAllBatchSize The maximum number of keys sent to a node in a
+     *        single request by getAll
+     * @param hedgeTracker The latencies of recent reads by node, used to hedge
+     *        reads to a node that is slower than its given percentile by
+     *        sending the same read to the next node; null to not hedge. The
+     *        getAll batches are hedged at the same percentile of their own
+     *        latencies.
+     * @param slopStores The mapping of node to its slop store, where the
+     *        deletes that follow a put with a pruned clock are recorded for
+     *        the nodes that cannot be reached; null to not record them
+     */
+    public RoutedStore(String name,
+                       Map<Integer, Store<ByteArray, byte[]>> innerStores,
+                       Cluster cluster,
+                       StoreDefinition storeDef,
+                       boolean repairReads,
+                       ExecutorService threadPool,
+                       long timeoutMs,
+                       FailureDetector failureDetector,
+                       Time time,
+                       int getAllBatchSize,
+                       NodeLatencyTracker hedgeTracker,
+                       Map<Integer, ? extends Store<ByteArray, Slop>> slopStores) {
         if(storeDef.getRequiredReads() < 1)
             throw new IllegalArgumentException("Cannot have a storeDef.getRequiredReads() number less than 1.");
         if(storeDef.getRequiredWrites() < 1)
@@ -163,6 +308,8 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
             throw new IllegalArgumentException("storeDef.getPreferredReads() is larger than the total number of nodes!");
         if(storeDef.getPreferredWrites() > innerStores.size())
             throw new IllegalArgumentException("storeDef.getPreferredWrites() is larger than the total number of nodes!");
+        if(getAllBatchSize < 1)
+            throw new IllegalArgumentException("getAllBatchSize must be at least 1.");
 
         this.name = name;
         this.innerStores = new ConcurrentHashMap<Integer, Store<ByteArray, byte[]>>(innerStores);
@@ -173,6 +320,17 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
         this.time = Utils.notNull(time);
         this.storeDef = storeDef;
         this.failureDetector = failureDetector;
+        this.getAllBatchSize = getAllBatchSize;
+        this.hedgeTracker = hedgeTracker;
+        this.getAllHedgeTracker = hedgeTracker == null ? null
+                                                      : new NodeLatencyTracker(hedgeTracker.getPercentile(),
+                                                                               hedgeTracker.getWindowSize());
+        this.clockPruningPolicy = new ClockPruningPolicy(storeDef.getVectorClockMaxEntries(),
+                                                         storeDef.getVectorClockMaxAgeMs());
+        if(slopStores == null)
+            this.slopStores = Collections.emptyMap();
+        else
+            this.slopStores = new HashMap<Integer, Store<ByteArray, Slop>>(slopStores);
         this.routingStrategy = new RoutingStrategyFactory().updateRoutingStrategy(storeDef, cluster);
     }
 
@@ -267,102 +425,182 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
             return deletedSomething.get();
     }
 
+    /*
+     * 1. Route each key, and assign it to its first preferredReads live nodes.
+     * 2. Sort the keys of each node by partition and cut them into batches of
+     * at most getAllBatchSize keys, then submit the batches of all the nodes
+     * at once. 3. Merge the batches as they complete. When a batch fails, the
+     * keys in it that can no longer reach preferredReads are batched up for
+     * the next nodes in their preference lists, so those nodes only see the
+     * keys that are still missing. 4. Once every key has preferredReads
+     * answers, or no batches are outstanding (or we time out), do read repair
+     * and check that each key met requiredReads.
+     * 
+     * With hedging, a batch that is still outstanding after the hedging
+     * percentile of its node's recent getAll latencies (or after timeoutMs,
+     * until enough batches have completed to tell) is treated like a failed
+     * one in step 3, except that it is left to run: whichever node answers a
+     * key first is taken.
+     */
     public Map<ByteArray, List<Versioned<byte[]>>> getAll(Iterable<ByteArray> keys)
             throws VoldemortException {
         StoreUtils.assertValidKeys(keys);
 
         Map<ByteArray, List<Versioned<byte[]>>> result = StoreUtils.newEmptyHashMap(keys);
 
+        // The nodes of each key that have not been asked for it yet, in
+        // preference order
+        Map<ByteArray, LinkedList<Node>> keyToExtraNodesMap = Maps.newHashMap();
+        Map<ByteArray, Integer> keyToPartitionMap = Maps.newHashMap();
+        Map<ByteArray, MutableInt> keyToSuccessCount = Maps.newHashMap();
+        Map<ByteArray, MutableInt> keyToPendingCount = Maps.newHashMap();
+
         // Keys for each node needed to satisfy storeDef.getPreferredReads() if
         // no failures.
         Map<Node, List<ByteArray>> nodeToKeysMap = Maps.newHashMap();
-
-        // Keep track of nodes per key that might be needed if there are
-        // failures during getAll
-        Map<ByteArray, List<Node>> keyToExtraNodesMap = Maps.newHashMap();
-
+        RoutingStrategy strategy = routingStrategy;
+        // route-to-all stores are not partitioned, so their keys stay unsorted
+        boolean partitioned = !(strategy instanceof RouteToAllStrategy);
         for(ByteArray key: keys) {
-            List<Node> availableNodes = availableNodes(routingStrategy.routeRequest(key.get()));
+            if(keyToExtraNodesMap.containsKey(key))
+                continue;
+            List<Node> routed = strategy.routeRequest(key.get());
+            LinkedList<Node> availableNodes = Lists.newLinkedList(availableNodes(routed));
 
             // quickly fail if there aren't enough nodes to meet the requirement
             checkRequiredReads(availableNodes);
-            int preferredReads = storeDef.getPreferredReads();
-            List<Node> preferredNodes = Lists.newArrayListWithCapacity(preferredReads);
-            List<Node> extraNodes = Lists.newArrayListWithCapacity(3);
-
-            for(Node node: availableNodes) {
-                if(preferredNodes.size() < preferredReads)
-                    preferredNodes.add(node);
-                else
-                    extraNodes.add(node);
-            }
-
-            for(Node node: preferredNodes) {
-                List<ByteArray> nodeKeys = nodeToKeysMap.get(node);
-                if(nodeKeys == null) {
-                    nodeKeys = Lists.newArrayList();
-                    nodeToKeysMap.put(node, nodeKeys);
-                }
-                nodeKeys.add(key);
-            }
-            if(!extraNodes.isEmpty()) {
-                List<Node> nodes = keyToExtraNodesMap.get(key);
-                if(nodes == null)
-                    keyToExtraNodesMap.put(key, extraNodes);
-                else
-                    nodes.addAll(extraNodes);
-            }
-        }
 
-        List<Callable<GetAllResult>> callables = Lists.newArrayList();
-        for(Map.Entry<Node, List<ByteArray>> entry: nodeToKeysMap.entrySet()) {
-            final Node node = entry.getKey();
-            final Collection<ByteArray> nodeKeys = entry.getValue();
-            if(failureDetector.isAvailable(node))
-                callables.add(new GetAllCallable(node, nodeKeys));
+            keyToExtraNodesMap.put(key, availableNodes);
+            if(partitioned)
+                keyToPartitionMap.put(key, strategy.getPartitionList(key.get()).get(0));
+            keyToSuccessCount.put(key, new MutableInt(0));
+            keyToPendingCount.put(key, new MutableInt(0));
+            assignToNextNodes(key,
+                              storeDef.getPreferredReads(),
+                              availableNodes,
+                              keyToPendingCount,
+                              nodeToKeysMap);
         }
 
         // A list of thrown exceptions, indicating the number of failures
         List<Throwable> failures = Lists.newArrayList();
         List<NodeValue<ByteArray, byte[]>> nodeValues = Lists.newArrayList();
 
-        Map<ByteArray, MutableInt> keyToSuccessCount = Maps.newHashMap();
-        for(ByteArray key: keys)
-            keyToSuccessCount.put(key, new MutableInt(0));
-
-        List<Future<GetAllResult>> futures;
+        // TODO What to do about timeouts? They should be longer as getAll is
+        // likely to take longer. At the moment, it's just timeoutMs * 3, but
+        // should this be based on the number of the keys?
+        long deadlineNs = System.nanoTime() + timeoutMs * 3 * Time.NS_PER_MS;
+        CompletionService<GetAllResult> completionService = new ExecutorCompletionService<GetAllResult>(executor);
+        // The outstanding batches, and when to hedge each of them;
+        // Long.MAX_VALUE if it is not to be hedged (again)
+        Map<Future<GetAllResult>, GetAllCallable> outstanding = Maps.newHashMap();
+        Map<Future<GetAllResult>, Long> hedgeTimes = Maps.newHashMap();
+        // The batches whose keys have been handed to the next nodes
+        Set<GetAllCallable> hedged = Sets.newHashSet();
+        int unanswered = keyToSuccessCount.size();
         try {
-            // TODO What to do about timeouts? They should be longer as getAll
-            // is likely to
-            // take longer. At the moment, it's just timeoutMs * 3, but should
-            // this be based on the number of the keys?
-            futures = executor.invokeAll(callables, timeoutMs * 3, TimeUnit.MILLISECONDS);
-        } catch(InterruptedException e) {
-            throw new InsufficientOperationalNodesException("getAll operation interrupted.", e);
-        }
-        for(Future<GetAllResult> f: futures) {
-            if(f.isCancelled()) {
-                logger.warn("Get operation timed out after " + timeoutMs + " ms.");
-                continue;
-            }
-            try {
-                GetAllResult getResult = f.get();
+            submitGetAll(completionService,
+                         nodeToKeysMap,
+                         keyToPartitionMap,
+                         outstanding,
+                         hedgeTimes);
+            while(!outstanding.isEmpty() && unanswered > 0) {
+                long nowNs = System.nanoTime();
+                Future<GetAllResult> toHedge = null;
+                long waitUntilNs = deadlineNs;
+                for(Map.Entry<Future<GetAllResult>, Long> entry: hedgeTimes.entrySet()) {
+                    if(entry.getValue() < waitUntilNs) {
+                        toHedge = entry.getKey();
+                        waitUntilNs = entry.getValue();
+                    }
+                }
+
+                Future<GetAllResult> f;
+                try {
+                    f = completionService.poll(Math.max(waitUntilNs - nowNs, 0),
+                                               TimeUnit.NANOSECONDS);
+                } catch(InterruptedException e) {
+                    throw new InsufficientOperationalNodesException("getAll operation interrupted.",
+                                                                    e);
+                }
+                if(f == null) {
+                    if(toHedge == null) {
+                        logger.warn("Get operation timed out after " + timeoutMs * 3 + " ms with "
+                                    + outstanding.size() + " batches outstanding.");
+                        break;
+                    }
+
+                    // hand the keys of the slow batch to their next nodes too
+                    GetAllCallable slow = outstanding.get(toHedge);
+                    hedgeTimes.put(toHedge, Long.MAX_VALUE);
+                    hedged.add(slow);
+                    submitGetAll(completionService,
+                                 reassign(slow.nodeKeys,
+                                          keyToExtraNodesMap,
+                                          keyToSuccessCount,
+                                          keyToPendingCount),
+                                 keyToPartitionMap,
+                                 outstanding,
+                                 hedgeTimes);
+                    continue;
+                }
+                outstanding.remove(f);
+                hedgeTimes.remove(f);
+
+                GetAllResult getResult;
+                try {
+                    getResult = f.get();
+                } catch(InterruptedException e) {
+                    throw new InsufficientOperationalNodesException("getAll operation interrupted.",
+                                                                    e);
+                } catch(ExecutionException e) {
+                    // We catch all Throwables apart from Error in the
+                    // callable, so the else part should never happen
+                    if(e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    logger.error(e.getMessage(), e);
+                    continue;
+                }
+
+                // the keys of a hedged batch are no longer counted as pending,
+                // and have already gone to the next nodes
+                boolean wasHedged = hedged.remove(getResult.callable);
                 if(getResult.exception != null) {
-                    if(getResult.exception instanceof VoldemortApplicationException) {
+                    if(getResult.exception instanceof VoldemortApplicationException)
                         throw (VoldemortException) getResult.exception;
-                    }
                     failures.add(getResult.exception);
+
+                    // hand the keys that are still short over to their next
+                    // nodes
+                    if(!wasHedged)
+                        submitGetAll(completionService,
+                                     reassign(getResult.callable.nodeKeys,
+                                              keyToExtraNodesMap,
+                                              keyToSuccessCount,
+                                              keyToPendingCount),
+                                     keyToPartitionMap,
+                                     outstanding,
+                                     hedgeTimes);
                     continue;
                 }
+
                 for(ByteArray key: getResult.callable.nodeKeys) {
-                    List<Versioned<byte[]>> retrieved = getResult.retrieved.get(key);
+                    if(!wasHedged)
+                        keyToPendingCount.get(key).decrement();
+
+                    // the first preferredReads answers for a key win
                     MutableInt successCount = keyToSuccessCount.get(key);
+                    if(successCount.intValue() >= storeDef.getPreferredReads())
+                        continue;
                     successCount.increment();
+                    if(successCount.intValue() == storeDef.getPreferredReads())
+                        unanswered--;
 
                     /*
                      * retrieved can be null if there are no values for the key
                      * provided
                      */
+                    List<Versioned<byte[]>> retrieved = getResult.retrieved.get(key);
                     if(retrieved != null) {
                         List<Versioned<byte[]>> existing = result.get(key);
                         if(existing == null)
@@ -372,54 +610,14 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
                     }
                 }
                 nodeValues.addAll(getResult.nodeValues);
-
-            } catch(InterruptedException e) {
-                throw new InsufficientOperationalNodesException("getAll operation interrupted.", e);
-            } catch(ExecutionException e) {
-                // We catch all Throwables apart from Error in the callable, so
-                // the else part
-                // should never happen
-                if(e.getCause() instanceof Error)
-                    throw (Error) e.getCause();
-                else
-                    logger.error(e.getMessage(), e);
-            }
-        }
-
-        for(ByteArray key: keys) {
-            MutableInt successCountWrapper = keyToSuccessCount.get(key);
-            int successCount = successCountWrapper.intValue();
-            if(successCount < storeDef.getPreferredReads()) {
-                List<Node> extraNodes = keyToExtraNodesMap.get(key);
-                if(extraNodes != null) {
-                    for(Node node: extraNodes) {
-                        long startNs = System.nanoTime();
-                        try {
-                            List<Versioned<byte[]>> values = innerStores.get(node.getId()).get(key);
-                            fillRepairReadsValues(nodeValues, key, node, values);
-                            List<Versioned<byte[]>> versioneds = result.get(key);
-                            if(versioneds == null)
-                                result.put(key, Lists.newArrayList(values));
-                            else
-                                versioneds.addAll(values);
-                            recordSuccess(node, startNs);
-                            if(++successCount >= storeDef.getPreferredReads())
-                                break;
-
-                        } catch(UnreachableStoreException e) {
-                            failures.add(e);
-                            recordException(node, startNs, e);
-                        } catch(VoldemortApplicationException e) {
-                            throw e;
-                        } catch(Exception e) {
-                            logger.warn("Error in GET_ALL on node " + node.getId() + "("
-                                        + node.getHost() + ")", e);
-                            failures.add(e);
-                        }
-                    }
-                }
             }
-            successCountWrapper.setValue(successCount);
+        } finally {
+            // don't leave batches that we no longer wait for in the pool. If
+            // every key has been answered the ones left only lost the race to
+            // a hedge, so let them finish rather than have their node marked
+            // as failing.
+            for(Future<GetAllResult> f: outstanding.keySet())
+                f.cancel(unanswered > 0);
         }
 
         repairReads(nodeValues);
@@ -437,6 +635,88 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
         return result;
     }
 
+    /*
+     * The keys of a batch that failed or was hedged no longer count on its
+     * node. Assign each key that is now short of preferredReads to its next
+     * nodes, and return the keys for each of those nodes.
+     */
+    private Map<Node, List<ByteArray>> reassign(Collection<ByteArray> keys,
+                                                Map<ByteArray, LinkedList<Node>> keyToExtraNodesMap,
+                                                Map<ByteArray, MutableInt> keyToSuccessCount,
+                                                Map<ByteArray, MutableInt> keyToPendingCount) {
+        Map<Node, List<ByteArray>> retries = Maps.newHashMap();
+        for(ByteArray key: keys) {
+            MutableInt pending = keyToPendingCount.get(key);
+            pending.decrement();
+            int missing = storeDef.getPreferredReads() - keyToSuccessCount.get(key).intValue()
+                          - pending.intValue();
+            assignToNextNodes(key, missing, keyToExtraNodesMap.get(key), keyToPendingCount, retries);
+        }
+        return retries;
+    }
+
+    /*
+     * Take up to count of the remaining nodes of the key that are still
+     * available, and add the key to their list of keys
+     */
+    private void assignToNextNodes(ByteArray key,
+                                   int count,
+                                   LinkedList<Node> extraNodes,
+                                   Map<ByteArray, MutableInt> keyToPendingCount,
+                                   Map<Node, List<ByteArray>> nodeToKeysMap) {
+        for(int assigned = 0; assigned < count && !extraNodes.isEmpty();) {
+            Node node = extraNodes.removeFirst();
+            if(!failureDetector.isAvailable(node))
+                continue;
+            List<ByteArray> nodeKeys = nodeToKeysMap.get(node);
+            if(nodeKeys == null) {
+                nodeKeys = Lists.newArrayList();
+                nodeToKeysMap.put(node, nodeKeys);
+            }
+            nodeKeys.add(key);
+            keyToPendingCount.get(key).increment();
+            assigned++;
+        }
+    }
+
+    /*
+     * Submit the keys of each node in partition order, in batches of at most
+     * getAllBatchSize keys, and note when to hedge each batch.
+     */
+    private void submitGetAll(CompletionService<GetAllResult> completionService,
+                              Map<Node, List<ByteArray>> nodeToKeysMap,
+                              final Map<ByteArray, Integer> keyToPartitionMap,
+                              Map<Future<GetAllResult>, GetAllCallable> outstanding,
+                              Map<Future<GetAllResult>, Long> hedgeTimes) {
+        Comparator<ByteArray> partitionOrder = new Comparator<ByteArray>() {
+
+            public int compare(ByteArray key1, ByteArray key2) {
+                return keyToPartitionMap.get(key1).compareTo(keyToPartitionMap.get(key2));
+            }
+        };
+
+        for(Map.Entry<Node, List<ByteArray>> entry: nodeToKeysMap.entrySet()) {
+            Node node = entry.getKey();
+            List<ByteArray> nodeKeys = entry.getValue();
+            if(!keyToPartitionMap.isEmpty())
+                Collections.sort(nodeKeys, partitionOrder);
+
+            long hedgeTimeNs = Long.MAX_VALUE;
+            if(getAllHedgeTracker != null) {
+                long hedgeDelayNs = getAllHedgeTracker.getPercentileNs(node.getId());
+                hedgeTimeNs = System.nanoTime()
+                              + (hedgeDelayNs < 0 ? timeoutMs * Time.NS_PER_MS : hedgeDelayNs);
+            }
+
+            for(List<ByteArray> batch: Lists.partition(nodeKeys, getAllBatchSize)) {
+                GetAllCallable callable = new GetAllCallable(node, batch);
+                Future<GetAllResult> future = completionService.submit(callable);
+                outstanding.put(future, callable);
+                hedgeTimes.put(future, hedgeTimeNs);
+            }
+        }
+    }
+
     public List<Versioned<byte[]>> get(ByteArray key) {
         Function<List<GetResult<Versioned<byte[]>>>, Void> readRepairFunction = new Function<List<GetResult<Versioned<byte[]>>>, Void>() {
 
@@ -460,6 +740,9 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
      * serially attempting to read from each node until we get preferredReads or
      * run out of nodes. 4. If we have multiple results do a read repair 5. If
      * we have at least requiredReads return. Otherwise throw an exception.
+     * 
+     * With hedging, step 1 also sends the read on to the next node whenever a
+     * node is slower than usual, see hedgedGet.
      */
     private <R> List<R> get(final ByteArray key,
                             StoreOp<R> fetcher,
@@ -478,48 +761,53 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
         // A list of thrown exceptions, indicating the number of failures
         final List<Throwable> failures = Lists.newArrayListWithCapacity(3);
 
-        // Do the preferred number of reads in parallel
-        int attempts = Math.min(this.storeDef.getPreferredReads(), nodes.size());
         int nodeIndex = 0;
-        List<Callable<GetResult<R>>> callables = Lists.newArrayListWithCapacity(attempts);
-        for(; nodeIndex < attempts; nodeIndex++) {
-            final Node node = nodes.get(nodeIndex);
-            callables.add(new GetCallable<R>(node, key, fetcher));
-        }
-
-        List<Future<GetResult<R>>> futures;
-        try {
-            futures = executor.invokeAll(callables, timeoutMs, TimeUnit.MILLISECONDS);
-        } catch(InterruptedException e) {
-            throw new InsufficientOperationalNodesException("Get operation interrupted!", e);
-        }
-
-        for(Future<GetResult<R>> f: futures) {
-            if(f.isCancelled()) {
-                logger.warn("Get operation timed out after " + timeoutMs + " ms.");
-                continue;
+        if(hedgeTracker != null) {
+            nodeIndex = hedgedGet(key, fetcher, nodes, retrieved, failures);
+            successes = retrieved.size();
+        } else {
+            // Do the preferred number of reads in parallel
+            int attempts = Math.min(this.storeDef.getPreferredReads(), nodes.size());
+            List<Callable<GetResult<R>>> callables = Lists.newArrayListWithCapacity(attempts);
+            for(; nodeIndex < attempts; nodeIndex++) {
+                final Node node = nodes.get(nodeIndex);
+                callables.add(new GetCallable<R>(node, key, fetcher));
             }
+
+            List<Future<GetResult<R>>> futures;
             try {
-                GetResult<R> getResult = f.get();
-                if(getResult.exception != null) {
-                    if(getResult.exception instanceof VoldemortApplicationException) {
-                        throw (VoldemortException) getResult.exception;
-                    }
-                    failures.add(getResult.exception);
-                    continue;
-                }
-                ++successes;
-                retrieved.add(getResult);
+                futures = executor.invokeAll(callables, timeoutMs, TimeUnit.MILLISECONDS);
             } catch(InterruptedException e) {
                 throw new InsufficientOperationalNodesException("Get operation interrupted!", e);
-            } catch(ExecutionException e) {
-                // We catch all Throwable subclasses apart from Error in the
-                // callable, so the else
-                // part should never happen.
-                if(e.getCause() instanceof Error)
-                    throw (Error) e.getCause();
-                else
-                    logger.error(e.getMessage(), e);
+            }
+
+            for(Future<GetResult<R>> f: futures) {
+                if(f.isCancelled()) {
+                    logger.warn("Get operation timed out after " + timeoutMs + " ms.");
+                    continue;
+                }
+                try {
+                    GetResult<R> getResult = f.get();
+                    if(getResult.exception != null) {
+                        if(getResult.exception instanceof VoldemortApplicationException) {
+                            throw (VoldemortException) getResult.exception;
+                        }
+                        failures.add(getResult.exception);
+                        continue;
+                    }
+                    ++successes;
+                    retrieved.add(getResult);
+                } catch(InterruptedException e) {
+                    throw new InsufficientOperationalNodesException("Get operation interrupted!", e);
+                } catch(ExecutionException e) {
+                    // We catch all Throwable subclasses apart from Error in the
+                    // callable, so the else
+                    // part should never happen.
+                    if(e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    else
+                        logger.error(e.getMessage(), e);
+                }
             }
         }
 
@@ -564,6 +852,118 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
                                                             + " succeeded.", failures);
     }
 
+    /*
+     * Send the read to the first preferredReads nodes, and wait for their
+     * answers. Whenever a node has been outstanding for longer than the
+     * hedging percentile of its recent latencies, or fails, send the read to
+     * the next node in the preference list too. The first preferredReads good
+     * answers win; the reads still outstanding are abandoned, but run to
+     * completion so that their latencies are recorded. Returns the index of
+     * the next node that was not tried.
+     */
+    private <R> int hedgedGet(ByteArray key,
+                              StoreOp<R> fetcher,
+                              List<Node> nodes,
+                              List<GetResult<R>> retrieved,
+                              List<Throwable> failures) {
+        CompletionService<GetResult<R>> completionService = new ExecutorCompletionService<GetResult<R>>(executor);
+        // When to hedge each outstanding read, Long.MAX_VALUE once it has been
+        Map<Future<GetResult<R>>, Long> hedgeTimes = Maps.newHashMap();
+        int preferredReads = this.storeDef.getPreferredReads();
+        long deadlineNs = System.nanoTime() + timeoutMs * Time.NS_PER_MS;
+
+        int nodeIndex = 0;
+        for(; nodeIndex < Math.min(preferredReads, nodes.size()); nodeIndex++)
+            submitHedgedGet(completionService, hedgeTimes, nodes.get(nodeIndex), key, fetcher);
+
+        try {
+            while(retrieved.size() < preferredReads && !hedgeTimes.isEmpty()) {
+                long nowNs = System.nanoTime();
+                if(nowNs >= deadlineNs) {
+                    logger.warn("Get operation timed out after " + timeoutMs + " ms.");
+                    break;
+                }
+
+                // Find the next read to hedge, if there are nodes left to try
+                Future<GetResult<R>> toHedge = null;
+                long waitUntilNs = deadlineNs;
+                if(nodeIndex < nodes.size()) {
+                    for(Map.Entry<Future<GetResult<R>>, Long> entry: hedgeTimes.entrySet()) {
+                        if(entry.getValue() < waitUntilNs) {
+                            toHedge = entry.getKey();
+                            waitUntilNs = entry.getValue();
+                        }
+                    }
+                }
+
+                Future<GetResult<R>> future = completionService.poll(Math.max(0, waitUntilNs
+                                                                                  - nowNs),
+                                                                      TimeUnit.NANOSECONDS);
+                if(future == null) {
+                    if(toHedge != null) {
+                        hedgeTimes.put(toHedge, Long.MAX_VALUE);
+                        submitHedgedGet(completionService,
+                                        hedgeTimes,
+                                        nodes.get(nodeIndex++),
+                                        key,
+                                        fetcher);
+                    }
+                    continue;
+                }
+
+                hedgeTimes.remove(future);
+                GetResult<R> getResult;
+                try {
+                    getResult = future.get();
+                } catch(ExecutionException e) {
+                    // We catch all Throwable subclasses apart from Error in the
+                    // callable, so the else part should never happen.
+                    if(e.getCause() instanceof Error)
+                        throw (Error) e.getCause();
+                    logger.error(e.getMessage(), e);
+                    continue;
+                }
+
+                if(getResult.exception != null) {
+                    if(getResult.exception instanceof VoldemortApplicationException)
+                        throw (VoldemortException) getResult.exception;
+                    failures.add(getResult.exception);
+
+                    // Replace the failed read right away
+                    if(nodeIndex < nodes.size())
+                        submitHedgedGet(completionService,
+                                        hedgeTimes,
+                                        nodes.get(nodeIndex++),
+                                        key,
+                                        fetcher);
+                } else {
+                    retrieved.add(getResult);
+                }
+            }
+        } catch(InterruptedException e) {
+            throw new InsufficientOperationalNodesException("Get operation interrupted!", e);
+        } finally {
+            // Don't interrupt the reads in progress, a node shouldn't be marked
+            // as failing because it lost the race
+            for(Future<GetResult<R>> future: hedgeTimes.keySet())
+                future.cancel(false);
+        }
+
+        return nodeIndex;
+    }
+
+    private <R> void submitHedgedGet(CompletionService<GetResult<R>> completionService,
+                                     Map<Future<GetResult<R>>, Long> hedgeTimes,
+                                     Node node,
+                                     ByteArray key,
+                                     StoreOp<R> fetcher) {
+        long hedgeDelayNs = hedgeTracker.getPercentileNs(node.getId());
+        // Don't hedge reads to a node we know too little about
+        long hedgeTimeNs = hedgeDelayNs < 0 ? Long.MAX_VALUE : System.nanoTime() + hedgeDelayNs;
+        hedgeTimes.put(completionService.submit(new GetCallable<R>(node, key, fetcher)),
+                       hedgeTimeNs);
+    }
+
     private void fillRepairReadsValues(final List<NodeValue<ByteArray, byte[]>> nodeValues,
                                        final ByteArray key,
                                        Node node,
@@ -656,6 +1056,7 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
     public void put(final ByteArray key, final Versioned<byte[]> versioned)
             throws VoldemortException {
         long startNs = System.nanoTime();
+        long writeTime = time.getMilliseconds();
         StoreUtils.assertValidKey(key);
         final List<Node> nodes = availableNodes(routingStrategy.routeRequest(key.get()));
 
@@ -683,7 +1084,7 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
             Node current = nodes.get(currentNode);
             long startNsLocal = System.nanoTime();
             try {
-                versionedCopy = incremented(versioned, current.getId());
+                versionedCopy = incremented(versioned, current.getId(), writeTime);
                 innerStores.get(current.getId()).put(key, versionedCopy);
                 successes.getAndIncrement();
                 recordSuccess(current, startNsLocal);
@@ -781,7 +1182,61 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
 
         // Okay looks like it worked, increment the version for the caller
         VectorClock versionedClock = (VectorClock) versioned.getVersion();
-        versionedClock.incrementVersion(master.getId(), time.getMilliseconds());
+        VectorClock base = clockPruningPolicy.isEnabled() ? versionedClock.clone() : null;
+        if(clockPruningPolicy.increment(versionedClock, master.getId(), writeTime))
+            deleteSuperseded(key, base);
+    }
+
+    /*
+     * A pruned clock may look concurrent to the versions the write replaced
+     * instead of after them, so those are removed with a delete of the clock
+     * the write was based on. The delete runs in the background so the put
+     * does not wait for it, and a node that cannot be reached gets it through
+     * the slop stores of the other nodes.
+     */
+    private void deleteSuperseded(final ByteArray key, final VectorClock base) {
+        final List<Node> nodes = routingStrategy.routeRequest(key.get());
+        for(final Node node: nodes) {
+            Runnable cleanup = new Runnable() {
+
+                public void run() {
+                    Store<ByteArray, byte[]> store = innerStores.get(node.getId());
+                    if(!slopStores.isEmpty())
+                        store = new SloppyStore(node.getId(), store, getSlopStores(node, nodes));
+                    try {
+                        store.delete(key, base);
+                    } catch(VoldemortException e) {
+                        logger.warn("Failed to delete the versions of key " + key + " on node "
+                                    + node.getId() + " replaced by a write with a pruned clock", e);
+                    }
+                }
+            };
+            try {
+                this.executor.execute(cleanup);
+            } catch(RejectedExecutionException e) {
+                cleanup.run();
+            }
+        }
+    }
+
+    /*
+     * The slop stores of the nodes following the given one in the preference
+     * list come first, so the slop for each node lands on a different node
+     */
+    private List<Store<ByteArray, Slop>> getSlopStores(Node node, List<Node> preferenceList) {
+        List<Integer> order = new ArrayList<Integer>(slopStores.size());
+        int index = preferenceList.indexOf(node);
+        for(int i = 1; i < preferenceList.size(); i++)
+            order.add(preferenceList.get((index + i) % preferenceList.size()).getId());
+        for(Integer nodeId: slopStores.keySet())
+            if(nodeId != node.getId() && !order.contains(nodeId))
+                order.add(nodeId);
+
+        List<Store<ByteArray, Slop>> stores = new ArrayList<Store<ByteArray, Slop>>(order.size());
+        for(Integer nodeId: order)
+            if(slopStores.containsKey(nodeId))
+                stores.add(slopStores.get(nodeId));
+        return stores;
     }
 
     /**
@@ -813,10 +1268,10 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
         return true;
     }
 
-    private Versioned<byte[]> incremented(Versioned<byte[]> versioned, int nodeId) {
+    private Versioned<byte[]> incremented(Versioned<byte[]> versioned, int nodeId, long writeTime) {
+        VectorClock clock = (VectorClock) versioned.getVersion();
         return new Versioned<byte[]>(versioned.getValue(),
-                                     ((VectorClock) versioned.getVersion()).incremented(nodeId,
-                                                                                        time.getMilliseconds()));
+                                     clockPruningPolicy.incremented(clock, nodeId, writeTime));
     }
 
     private List<Node> availableNodes(List<Node> list) {
@@ -899,6 +1354,8 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
                                  + ByteUtils.toHexString(key.get()) + "'.");
                 fetched = fetcher.execute(innerStores.get(node.getId()), key);
                 recordSuccess(node, startNs);
+                if(hedgeTracker != null)
+                    hedgeTracker.recordLatency(node.getId(), System.nanoTime() - startNs);
             } catch(UnreachableStoreException e) {
                 exception = e;
                 recordException(node, startNs, e);
@@ -945,6 +1402,8 @@ public class RoutedStore implements Store<ByteArray, byte[]> {
             long startNs = System.nanoTime();
             try {
                 retrieved = innerStores.get(node.getId()).getAll(nodeKeys);
+                if(getAllHedgeTracker != null)
+                    getAllHedgeTracker.recordLatency(node.getId(), System.nanoTime() - startNs);
                 if(repairReads) {
                     for(Map.Entry<ByteArray, List<Versioned<byte[]>>> entry: retrieved.entrySet())
                         fillRepairReadsValues(nodeValues, entry.getKey(), node, entry.getValue());
@@ -32,6 +32,8 @@ import com.google.common.base.Objects;
  */
 public class Slop {
 
+    public static final String SLOP_STORE_NAME = "slop";
+
     private static final byte[] spacer = new byte[] { (byte) 0 };
 
     public enum Operation {
@@ -107,7 +109,16 @@ public class Slop {
     public ByteArray makeKey() {
         byte[] storeName = ByteUtils.getBytes(getStoreName(), "UTF-8");
         byte[] opCode = new byte[] { operation.getOpCode() };
-        return new ByteArray(ByteUtils.cat(opCode, spacer, storeName, spacer, key.get()));
+        // the slop for the same key on different nodes must not collide
+        byte[] nodeId = new byte[ByteUtils.SIZE_OF_INT];
+        ByteUtils.writeInt(nodeId, getNodeId(), 0);
+        return new ByteArray(ByteUtils.cat(opCode,
+                                           spacer,
+                                           storeName,
+                                           spacer,
+                                           nodeId,
+                                           spacer,
+                                           key.get()));
     }
 
     @Override
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package voldemort.store.socket;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import voldemort.VoldemortException;
+import voldemort.client.protocol.RequestFormat;
+import voldemort.client.protocol.RequestFormatFactory;
+import voldemort.server.RequestRoutingType;
+import voldemort.store.NoSuchCapabilityException;
+import voldemort.store.Store;
+import voldemort.store.StoreCapabilityType;
+import voldemort.store.StoreUtils;
+import voldemort.store.UnreachableStoreException;
+import voldemort.store.nonblockingstore.NonblockingStore;
+import voldemort.store.nonblockingstore.NonblockingStoreCallback;
+import voldemort.store.socket.clientrequest.ClientRequest;
+import voldemort.store.socket.clientrequest.ClientRequestExecutorPool;
+import voldemort.store.socket.clientrequest.DeleteClientRequest;
+import voldemort.store.socket.clientrequest.GetAllClientRequest;
+import voldemort.store.socket.clientrequest.GetClientRequest;
+import voldemort.store.socket.clientrequest.GetVersionsClientRequest;
+import voldemort.store.socket.clientrequest.PutClientRequest;
+import voldemort.utils.ByteArray;
+import voldemort.utils.Utils;
+import voldemort.versioning.Version;
+import voldemort.versioning.Versioned;
+
+/**
+ * A socket store that talks to the server over the non-blocking
+ * {@link ClientRequestExecutorPool} transport. Requests submitted through the
+ * {@link NonblockingStore} methods don't tie up the calling thread while they
+ * wait for a connection or are on the wire; the blocking {@link Store} methods
+ * are implemented on top of them and simply wait for the callback.
+ * 
+ * 
+ */
+public class NonblockingSocketStore implements Store<ByteArray, byte[]>, NonblockingStore {
+
+    private final RequestFormatFactory requestFormatFactory = new RequestFormatFactory();
+
+    private final String name;
+    private final ClientRequestExecutorPool pool;
+    private final SocketDestination destination;
+    private final RequestFormat requestFormat;
+    private final RequestRoutingType requestType;
+
+    public NonblockingSocketStore(String name,
+                                  SocketDestination dest,
+                                  ClientRequestExecutorPool pool,
+                                  boolean reroute) {
+        this(name, dest, pool, RequestRoutingType.getRequestRoutingType(reroute, false));
+    }
+
+    public NonblockingSocketStore(String name,
+                                  SocketDestination dest,
+                                  ClientRequestExecutorPool pool,
+                                  RequestRoutingType requestType) {
+        this.name = Utils.notNull(name);
+        this.pool = Utils.notNull(pool);
+        this.destination = dest;
+        this.requestFormat = requestFormatFactory.getRequestFormat(dest.getRequestFormatType());
+        this.requestType = requestType;
+    }
+
+    public void submitGetRequest(ByteArray key, NonblockingStoreCallback callback) {
+        StoreUtils.assertValidKey(key);
+        submit(new GetClientRequest(name, requestFormat, requestType, key), callback);
+    }
+
+    public void submitGetAllRequest(Iterable<ByteArray> keys, NonblockingStoreCallback callback) {
+        StoreUtils.assertValidKeys(keys);
+        submit(new GetAllClientRequest(name, requestFormat, requestType, keys), callback);
+    }
+
+    public void submitGetVersionsRequest(ByteArray key, NonblockingStoreCallback callback) {
+        StoreUtils.assertValidKey(key);
+        submit(new GetVersionsClientRequest(name, requestFormat, requestType, key), callback);
+    }
+
+    public void submitPutRequest(ByteArray key,
+                                 Versioned<byte[]> versioned,
+                                 NonblockingStoreCallback callback) {
+        StoreUtils.assertValidKey(key);
+        submit(new PutClientRequest(name, requestFormat, requestType, key, versioned), callback);
+    }
+
+    public void submitDeleteRequest(ByteArray key,
+                                    Version version,
+                                    NonblockingStoreCallback callback) {
+        StoreUtils.assertValidKey(key);
+        submit(new DeleteClientRequest(name, requestFormat, requestType, key, version), callback);
+    }
+
+    public List<Versioned<byte[]>> get(ByteArray key) throws VoldemortException {
+        StoreUtils.assertValidKey(key);
+        return request(new GetClientRequest(name, requestFormat, requestType, key));
+    }
+
+    public Map<ByteArray, List<Versioned<byte[]>>> getAll(Iterable<ByteArray> keys)
+            throws VoldemortException {
+        StoreUtils.assertValidKeys(keys);
+        return request(new GetAllClientRequest(name, requestFormat, requestType, keys));
+    }
+
+    public List<Version> getVersions(ByteArray key) {
+        StoreUtils.assertValidKey(key);
+        return request(new GetVersionsClientRequest(name, requestFormat, requestType, key));
+    }
+
+    public void put(ByteArray key, Versioned<byte[]> versioned) throws VoldemortException {
+        StoreUtils.assertValidKey(key);
+        request(new PutClientRequest(name, requestFormat, requestType, key, versioned));
+    }
+
+    public boolean delete(ByteArray key, Version version) throws VoldemortException {
+        StoreUtils.assertValidKey(key);
+        return request(new DeleteClientRequest(name, requestFormat, requestType, key, version));
+    }
+
+    public Object getCapability(StoreCapabilityType capability) {
+        throw new NoSuchCapabilityException(capability, getName());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void close() throws VoldemortException {
+    // don't close the pool, it is shared
+    }
+
+    /*
+     * Hand the request to the pool, which sends it on the first connection
+     * that is free rather than waiting for one.
+     */
+    private void submit(ClientRequest<?> clientRequest, NonblockingStoreCallback callback) {
+        pool.submit(destination, clientRequest, callback);
+    }
+
+    /*
+     * Submit the request and wait for its callback. The transport times the
+     * request out, the wait is bounded as well in case the callback is lost.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T request(ClientRequest<T> clientRequest) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Object[] holder = new Object[1];
+        submit(clientRequest, new NonblockingStoreCallback() {
+
+            public void requestComplete(Object result, long requestTime) {
+                holder[0] = result;
+                latch.countDown();
+            }
+        });
+
+        long timeoutMs = pool.getRequestTimeoutMs();
+        try {
+            if(!latch.await(timeoutMs, TimeUnit.MILLISECONDS))
+                throw new UnreachableStoreException("No response from " + destination + " within "
+                                                    + timeoutMs + " ms.");
+        } catch(InterruptedException e) {
+            throw new UnreachableStoreException("Interrupted while waiting for " + destination,
+                                                e);
+        }
+
+        Object result = holder[0];
+        if(result instanceof VoldemortException)
+            throw (VoldemortException) result;
+        else if(result instanceof Exception)
+            throw new VoldemortException((Exception) result);
+        return (T) result;
+    }
+
+}
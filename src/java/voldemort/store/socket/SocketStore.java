@@ -60,6 +60,10 @@ public class SocketStore implements Store<ByteArray, byte[]> {
         this.name = Utils.notNull(name);
         this.pool = Utils.notNull(socketPool);
         this.destination = dest;
+        if(dest.getRequestFormatType().isPipelined())
+            throw new IllegalArgumentException("The pipelined request format "
+                                               + dest.getRequestFormatType().getCode()
+                                               + " requires the non-blocking transport.");
         this.requestFormat = requestFormatFactory.getRequestFormat(dest.getRequestFormatType());
         this.requestType = RequestRoutingType.getRequestRoutingType(reroute, false);
     }
@@ -71,6 +75,10 @@ public class SocketStore implements Store<ByteArray, byte[]> {
         this.name = Utils.notNull(name);
         this.pool = Utils.notNull(socketPool);
         this.destination = dest;
+        if(dest.getRequestFormatType().isPipelined())
+            throw new IllegalArgumentException("The pipelined request format "
+                                               + dest.getRequestFormatType().getCode()
+                                               + " requires the non-blocking transport.");
         this.requestFormat = requestFormatFactory.getRequestFormat(dest.getRequestFormatType());
         this.requestType = requestType;
     }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package voldemort.store.socket.clientrequest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import voldemort.VoldemortException;
+import voldemort.client.protocol.RequestFormat;
+import voldemort.server.RequestRoutingType;
+
+/**
+ * The base class of the requests of a single store operation. It keeps the
+ * result, or the error the server responded with, for getResult.
+ * 
+ * @param <T> The type of the result of the request
+ * 
+ * 
+ */
+public abstract class AbstractClientRequest<T> implements ClientRequest<T> {
+
+    protected final String storeName;
+    protected final RequestFormat requestFormat;
+    protected final RequestRoutingType requestRoutingType;
+
+    private T result;
+    private VoldemortException error;
+    private boolean isParsed;
+
+    protected AbstractClientRequest(String storeName,
+                                    RequestFormat requestFormat,
+                                    RequestRoutingType requestRoutingType) {
+        this.storeName = storeName;
+        this.requestFormat = requestFormat;
+        this.requestRoutingType = requestRoutingType;
+    }
+
+    protected abstract void formatRequestInternal(DataOutputStream outputStream)
+            throws IOException;
+
+    protected abstract T parseResponseInternal(DataInputStream inputStream) throws IOException;
+
+    public void formatRequest(DataOutputStream outputStream) throws IOException {
+        formatRequestInternal(outputStream);
+    }
+
+    public void parseResponse(DataInputStream inputStream) throws IOException {
+        try {
+            result = parseResponseInternal(inputStream);
+        } catch(VoldemortException e) {
+            error = e;
+        }
+        isParsed = true;
+    }
+
+    public T getResult() throws VoldemortException {
+        if(!isParsed)
+            throw new IllegalStateException("No response has been parsed for this request.");
+        if(error != null)
+            throw error;
+        return result;
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package voldemort.store.socket.clientrequest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import voldemort.VoldemortException;
+
+/**
+ * ClientRequest represents a single request/response round trip between the
+ * client and the server. The request is written to a buffer up front, and the
+ * response is parsed once enough of it has arrived.
+ * 
+ * @param <T> The type of the result of the request
+ * 
+ * 
+ */
+public interface ClientRequest<T> {
+
+    /**
+     * Write the request to the given stream
+     * 
+     * @param outputStream The stream to write to
+     */
+    public void formatRequest(DataOutputStream outputStream) throws IOException;
+
+    /**
+     * Parse the response from the server. This may be called several times as
+     * the response arrives; an {@link java.io.EOFException} signals that the
+     * response is still incomplete, in which case the caller calls again once
+     * more data has been read.
+     * 
+     * @param inputStream The stream holding the response read so far
+     */
+    public void parseResponse(DataInputStream inputStream) throws IOException;
+
+    /**
+     * @return The result of the request
+     * @throws VoldemortException The error that the server responded with
+     */
+    public T getResult() throws VoldemortException;
+
+}
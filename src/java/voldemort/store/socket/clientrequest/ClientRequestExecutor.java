@@ -0,0 +1,508 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package voldemort.store.socket.clientrequest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import voldemort.client.protocol.RequestFormatType;
+import voldemort.store.UnreachableStoreException;
+import voldemort.store.nonblockingstore.NonblockingStoreCallback;
+import voldemort.store.socket.SocketDestination;
+import voldemort.utils.ByteBufferBackedInputStream;
+import voldemort.utils.ByteBufferBackedOutputStream;
+import voldemort.utils.ByteUtils;
+import voldemort.utils.Time;
+
+/**
+ * ClientRequestExecutor is the client side counterpart of the server's
+ * AsyncRequestHandler. It owns one non-blocking connection to a server: a
+ * request is formatted into the output buffer by the submitting thread, and
+ * the {@link ClientRequestSelectorManager} thread then writes it and reads the
+ * response, so no thread waits on the socket. Callbacks are handed to a
+ * separate executor, so a slow callback holds up neither the selector thread
+ * nor the other requests on this connection.
+ * <p/>
+ * For most protocols the connection carries at most one {@link ClientRequest}
+ * at a time. If the protocol is pipelined (see
+ * {@link RequestFormatType#isPipelined()}) each request is framed with an id
+ * and any number of them may be outstanding at once; responses are matched
+ * back to their requests by id, in whatever order they arrive.
+ * <p/>
+ * Every change to the interest set of the SelectionKey happens on the
+ * selector thread, so submitting a request never contends for the selector.
+ * 
+ * 
+ */
+public class ClientRequestExecutor implements Runnable {
+
+    /*
+     * The size of the request id and length that precede the body of a
+     * request or response in a pipelined protocol
+     */
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    private final ClientRequestSelectorManager selectorManager;
+
+    private final SocketChannel socketChannel;
+
+    private final SocketDestination destination;
+
+    private final boolean isPipelined;
+
+    private final int socketBufferSize;
+
+    private final int resizeThreshold;
+
+    private final long timeoutMs;
+
+    private final long createTimestamp;
+
+    private final ByteBufferBackedInputStream inputStream;
+
+    private final ByteBufferBackedOutputStream outputStream;
+
+    private final Executor callbackExecutor;
+
+    /*
+     * The requests that are waiting for a response, in the order they were
+     * sent, keyed by request id
+     */
+    private final Map<Integer, InFlightRequest> inFlightRequests;
+
+    private SelectionKey selectionKey;
+
+    private int nextRequestId;
+
+    private volatile boolean isValid;
+
+    private final Logger logger = Logger.getLogger(getClass());
+
+    public ClientRequestExecutor(ClientRequestSelectorManager selectorManager,
+                                 SocketChannel socketChannel,
+                                 SocketDestination destination,
+                                 int socketBufferSize,
+                                 long timeoutMs,
+                                 Executor callbackExecutor) {
+        this.selectorManager = selectorManager;
+        this.socketChannel = socketChannel;
+        this.destination = destination;
+        this.isPipelined = destination.getRequestFormatType().isPipelined();
+        this.socketBufferSize = socketBufferSize;
+        this.resizeThreshold = socketBufferSize * 2; // This is arbitrary...
+        this.timeoutMs = timeoutMs;
+        this.createTimestamp = System.nanoTime();
+        this.inputStream = new ByteBufferBackedInputStream(ByteBuffer.allocate(socketBufferSize));
+        this.outputStream = new ByteBufferBackedOutputStream(ByteBuffer.allocate(socketBufferSize));
+        this.inFlightRequests = new LinkedHashMap<Integer, InFlightRequest>();
+        this.callbackExecutor = callbackExecutor;
+        this.isValid = true;
+
+        // The output buffer is kept flipped, ready to be written to the socket
+        this.outputStream.getBuffer().limit(0);
+    }
+
+    public SocketDestination getDestination() {
+        return destination;
+    }
+
+    public long getCreateTimestamp() {
+        return createTimestamp;
+    }
+
+    public boolean isValid() {
+        return isValid && socketChannel.isOpen();
+    }
+
+    /**
+     * @return True if this connection can carry more than one request at a
+     *         time
+     */
+    public boolean isPipelined() {
+        return isPipelined;
+    }
+
+    /**
+     * @return The number of requests that have been submitted but not yet
+     *         completed
+     */
+    public synchronized int getNumInFlightRequests() {
+        return inFlightRequests.size();
+    }
+
+    /**
+     * Submit a request on this connection. The request is written and its
+     * response read by the selector thread, and the callback is then invoked
+     * on the callback executor.
+     * 
+     * @param clientRequest The request to send
+     * @param callback The callback to invoke once the request completes
+     */
+    public synchronized void addClientRequest(ClientRequest<?> clientRequest,
+                                              NonblockingStoreCallback callback) {
+        if(!isPipelined && !inFlightRequests.isEmpty())
+            throw new IllegalStateException("A request is already in progress on " + destination);
+
+        long startNs = System.nanoTime();
+        InFlightRequest request = new InFlightRequest(clientRequest,
+                                                      callback,
+                                                      startNs,
+                                                      startNs + timeoutMs * Time.NS_PER_MS);
+
+        if(!isValid()) {
+            complete(request, new UnreachableStoreException("Connection to " + destination
+                                                            + " is closed."));
+            return;
+        }
+
+        int requestId = nextRequestId++;
+        try {
+            formatRequest(requestId, clientRequest);
+        } catch(IOException e) {
+            complete(request, new UnreachableStoreException("Failure formatting request for "
+                                                            + destination + ": " + e.getMessage(),
+                                                            e));
+            return;
+        }
+
+        inFlightRequests.put(requestId, request);
+        selectorManager.prepareForWrite(this);
+    }
+
+    /*
+     * Called on the selector thread to register our interest in writing the
+     * requests that were just added.
+     */
+    synchronized void registerForWrite(Selector selector) {
+        if(inFlightRequests.isEmpty())
+            return;
+
+        try {
+            if(selectionKey == null)
+                selectionKey = socketChannel.register(selector, getInterestOps(), this);
+            else
+                selectionKey.interestOps(getInterestOps());
+        } catch(ClosedChannelException e) {
+            fail(new UnreachableStoreException("Connection to " + destination + " is closed.", e));
+        } catch(CancelledKeyException e) {
+            fail(new UnreachableStoreException("Connection to " + destination + " is closed.", e));
+        }
+    }
+
+    public synchronized void run() {
+        if(selectionKey == null)
+            return;
+
+        try {
+            int readyOps = selectionKey.readyOps();
+
+            if((readyOps & SelectionKey.OP_READ) != 0)
+                read();
+            if((readyOps & SelectionKey.OP_WRITE) != 0 && isValid())
+                write();
+
+            if(isValid())
+                selectionKey.interestOps(getInterestOps());
+        } catch(Exception e) {
+            if(logger.isDebugEnabled())
+                logger.debug("Failure in request to " + destination, e);
+
+            fail(new UnreachableStoreException("Failure in request to " + destination + ": "
+                                               + e.getMessage(), e));
+        }
+    }
+
+    /*
+     * Called periodically on the selector thread to fail requests that have
+     * taken too long. Unless the protocol tags responses with request ids the
+     * connection is closed, as a late response could otherwise be taken for
+     * the answer to the next request.
+     */
+    synchronized void checkTimeout() {
+        long nowNs = System.nanoTime();
+        List<InFlightRequest> expired = new ArrayList<InFlightRequest>();
+        for(Iterator<InFlightRequest> i = inFlightRequests.values().iterator(); i.hasNext();) {
+            InFlightRequest request = i.next();
+            if(nowNs >= request.expirationNs) {
+                expired.add(request);
+                i.remove();
+            }
+        }
+
+        if(!expired.isEmpty() && !isPipelined)
+            closeChannel();
+
+        for(InFlightRequest request: expired)
+            complete(request, new UnreachableStoreException("Request to " + destination
+                                                            + " timed out after " + timeoutMs
+                                                            + " ms."));
+    }
+
+    /*
+     * Close the connection, and fail the requests in progress (if any) with
+     * the given error.
+     */
+    synchronized void fail(Exception error) {
+        closeChannel();
+
+        List<InFlightRequest> requests = new ArrayList<InFlightRequest>(inFlightRequests.values());
+        inFlightRequests.clear();
+        for(InFlightRequest request: requests)
+            complete(request, error);
+    }
+
+    public void close() {
+        fail(new UnreachableStoreException("Connection to " + destination + " is closed."));
+    }
+
+    private void closeChannel() {
+        isValid = false;
+
+        try {
+            socketChannel.socket().close();
+        } catch(IOException e) {
+            if(logger.isEnabledFor(Level.WARN))
+                logger.warn(e.getMessage(), e);
+        }
+
+        try {
+            socketChannel.close();
+        } catch(IOException e) {
+            if(logger.isEnabledFor(Level.WARN))
+                logger.warn(e.getMessage(), e);
+        }
+    }
+
+    private int getInterestOps() {
+        int ops = inFlightRequests.isEmpty() ? 0 : SelectionKey.OP_READ;
+        if(outputStream.getBuffer().hasRemaining())
+            ops |= SelectionKey.OP_WRITE;
+        return ops;
+    }
+
+    /*
+     * Append the request to the data still waiting to be written. In a
+     * pipelined protocol the body is preceded by the request id and its
+     * length, which is filled in once the body has been formatted.
+     */
+    private void formatRequest(int requestId, ClientRequest<?> clientRequest) throws IOException {
+        ByteBuffer buffer = outputStream.getBuffer();
+        if(!buffer.hasRemaining() && buffer.capacity() >= resizeThreshold)
+            outputStream.setBuffer(ByteBuffer.allocate(socketBufferSize));
+        else
+            buffer.compact();
+
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        int start = outputStream.getBuffer().position();
+        try {
+            if(isPipelined) {
+                dataOutputStream.writeInt(requestId);
+                dataOutputStream.writeInt(0);
+            }
+
+            clientRequest.formatRequest(dataOutputStream);
+            dataOutputStream.flush();
+
+            if(isPipelined)
+                outputStream.getBuffer().putInt(start + 4,
+                                                outputStream.getBuffer().position() - start
+                                                        - FRAME_HEADER_SIZE);
+        } catch(IOException e) {
+            // Drop whatever part of the request was formatted
+            outputStream.getBuffer().position(start);
+            throw e;
+        } finally {
+            outputStream.getBuffer().flip();
+        }
+    }
+
+    private void write() throws IOException {
+        // If there's more to write, we'll be called again once the socket is
+        // writable
+        socketChannel.write(outputStream.getBuffer());
+    }
+
+    private void read() throws IOException {
+        ByteBuffer buffer = inputStream.getBuffer();
+        if(socketChannel.read(buffer) == -1)
+            throw new IOException("EOF from " + destination);
+
+        buffer.flip();
+
+        if(isPipelined)
+            readFrames();
+        else
+            readResponse();
+
+        // Keep whatever hasn't been parsed yet for the next read
+        buffer = inputStream.getBuffer();
+        if(buffer.position() == 0) {
+            buffer.position(buffer.limit());
+            buffer.limit(buffer.capacity());
+        } else {
+            buffer.compact();
+        }
+
+        if(!buffer.hasRemaining()) {
+            // We need more room for the rest of the response, so expand the
+            // buffer. Note: doubling the current buffer size is arbitrary.
+            inputStream.setBuffer(ByteUtils.expand(buffer, buffer.capacity() * 2));
+        } else if(buffer.position() == 0 && buffer.capacity() >= resizeThreshold) {
+            inputStream.setBuffer(ByteBuffer.allocate(socketBufferSize));
+        }
+    }
+
+    /*
+     * Parse the response to the one request in flight, if all of it has
+     * arrived.
+     */
+    private void readResponse() throws IOException {
+        if(inFlightRequests.isEmpty())
+            throw new IOException("Unexpected response from " + destination);
+
+        Map.Entry<Integer, InFlightRequest> entry = inFlightRequests.entrySet().iterator().next();
+        try {
+            entry.getValue().clientRequest.parseResponse(new DataInputStream(inputStream));
+        } catch(IOException e) {
+            // The response is incomplete. This is usually an EOFException, but
+            // the protocol buffers parser has its own exception for a truncated
+            // message. A response that never completes is failed by
+            // checkTimeout.
+            inputStream.getBuffer().position(0);
+            return;
+        }
+
+        inFlightRequests.remove(entry.getKey());
+        complete(entry.getValue(), null);
+    }
+
+    /*
+     * Parse every complete response frame in the buffer and hand each one to
+     * the request with the matching id. Responses to requests that are no
+     * longer in flight (because they timed out) are skipped.
+     */
+    private void readFrames() throws IOException {
+        ByteBuffer buffer = inputStream.getBuffer();
+
+        while(buffer.remaining() >= FRAME_HEADER_SIZE) {
+            int start = buffer.position();
+            int requestId = buffer.getInt(start);
+            int length = buffer.getInt(start + 4);
+            if(length < 0)
+                throw new IOException("Invalid response length " + length + " from "
+                                      + destination);
+
+            int end = start + FRAME_HEADER_SIZE + length;
+            if(end > buffer.limit())
+                break;
+
+            InFlightRequest request = inFlightRequests.remove(requestId);
+            Exception error = null;
+            int limit = buffer.limit();
+            buffer.position(start + FRAME_HEADER_SIZE);
+            buffer.limit(end);
+            try {
+                if(request != null)
+                    request.clientRequest.parseResponse(new DataInputStream(inputStream));
+            } catch(IOException e) {
+                error = new UnreachableStoreException("Failure parsing response from "
+                                                      + destination + ": " + e.getMessage(), e);
+            } finally {
+                buffer.limit(limit);
+                buffer.position(end);
+            }
+
+            if(request != null)
+                complete(request, error);
+        }
+    }
+
+    /*
+     * Hand the result (or the given error) to the callback. The request must
+     * already be out of the in-flight map so that the callback can reuse this
+     * connection. The callback runs on the callback executor, so it never
+     * holds this connection's monitor or the selector thread; only if the
+     * executor has been shut down is it run right here.
+     */
+    private void complete(InFlightRequest request, Exception error) {
+        final long requestTime = (System.nanoTime() - request.startNs) / Time.NS_PER_MS;
+
+        Object result = error;
+        if(result == null) {
+            try {
+                result = request.clientRequest.getResult();
+            } catch(Exception e) {
+                result = e;
+            }
+        }
+
+        final NonblockingStoreCallback callback = request.callback;
+        final Object callbackResult = result;
+        Runnable task = new Runnable() {
+
+            public void run() {
+                try {
+                    callback.requestComplete(callbackResult, requestTime);
+                } catch(Exception e) {
+                    if(logger.isEnabledFor(Level.WARN))
+                        logger.warn("Callback for request to " + destination + " failed", e);
+                }
+            }
+        };
+
+        try {
+            callbackExecutor.execute(task);
+        } catch(RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    private static class InFlightRequest {
+
+        private final ClientRequest<?> clientRequest;
+        private final NonblockingStoreCallback callback;
+        private final long startNs;
+        private final long expirationNs;
+
+        private InFlightRequest(ClientRequest<?> clientRequest,
+                                NonblockingStoreCallback callback,
+                                long startNs,
+                                long expirationNs) {
+            this.clientRequest = clientRequest;
+            this.callback = callback;
+            this.startNs = startNs;
+            this.expirationNs = expirationNs;
+        }
+    }
+
+}
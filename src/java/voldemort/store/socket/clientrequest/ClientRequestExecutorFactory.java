@@ -0,0 +1,201 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package voldemort.store.socket.clientrequest;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import voldemort.VoldemortException;
+import voldemort.client.protocol.RequestFormatType;
+import voldemort.store.socket.SocketDestination;
+import voldemort.utils.ByteUtils;
+import voldemort.utils.DaemonThreadFactory;
+import voldemort.utils.pool.ResourceFactory;
+
+/**
+ * A Factory for creating non-blocking connections. Connections are opened and
+ * the protocol negotiated in blocking mode, after which the channel is
+ * switched to non-blocking mode and handed to one of a fixed number of
+ * {@link ClientRequestSelectorManager} threads, in round-robin order.
+ * 
+ * 
+ */
+public class ClientRequestExecutorFactory implements
+        ResourceFactory<SocketDestination, ClientRequestExecutor> {
+
+    private static final Logger logger = Logger.getLogger(ClientRequestExecutorFactory.class);
+
+    private final int connectTimeoutMs;
+    private final int soTimeoutMs;
+    private final int socketBufferSize;
+    private final boolean socketKeepAlive;
+    private final Executor callbackExecutor;
+    private final ClientRequestSelectorManager[] selectorManagers;
+    private final ExecutorService selectorManagerThreadPool;
+    private final AtomicInteger counter;
+    private final AtomicInteger created;
+    private final AtomicInteger destroyed;
+
+    public ClientRequestExecutorFactory(int selectors,
+                                        int connectTimeoutMs,
+                                        int soTimeoutMs,
+                                        int socketBufferSize,
+                                        boolean socketKeepAlive,
+                                        Executor callbackExecutor) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.soTimeoutMs = soTimeoutMs;
+        this.socketBufferSize = socketBufferSize;
+        this.socketKeepAlive = socketKeepAlive;
+        this.callbackExecutor = callbackExecutor;
+        this.counter = new AtomicInteger(0);
+        this.created = new AtomicInteger(0);
+        this.destroyed = new AtomicInteger(0);
+
+        this.selectorManagers = new ClientRequestSelectorManager[selectors];
+        this.selectorManagerThreadPool = Executors.newFixedThreadPool(selectors,
+                                                                      new DaemonThreadFactory("voldemort-client-selector-"));
+        try {
+            for(int i = 0; i < selectorManagers.length; i++) {
+                selectorManagers[i] = new ClientRequestSelectorManager();
+                selectorManagerThreadPool.execute(selectorManagers[i]);
+            }
+        } catch(IOException e) {
+            close();
+            throw new VoldemortException(e);
+        }
+    }
+
+    /**
+     * Close the connection
+     */
+    public void destroy(SocketDestination dest, ClientRequestExecutor executor) throws Exception {
+        executor.close();
+        int numDestroyed = destroyed.incrementAndGet();
+        if(logger.isDebugEnabled())
+            logger.debug("Destroyed connection " + numDestroyed + " to " + dest.getHost() + ":"
+                         + dest.getPort());
+    }
+
+    /**
+     * Create a connection to the given host/port
+     */
+    public ClientRequestExecutor create(SocketDestination dest) throws Exception {
+        SocketChannel socketChannel = SocketChannel.open();
+        try {
+            Socket socket = socketChannel.socket();
+            socket.setReceiveBufferSize(this.socketBufferSize);
+            socket.setSendBufferSize(this.socketBufferSize);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(soTimeoutMs);
+            socket.setKeepAlive(this.socketKeepAlive);
+            socket.connect(new InetSocketAddress(dest.getHost(), dest.getPort()),
+                           connectTimeoutMs);
+
+            negotiateProtocol(socket, dest.getRequestFormatType());
+            socketChannel.configureBlocking(false);
+        } catch(Exception e) {
+            socketChannel.close();
+            throw e;
+        }
+
+        int numCreated = created.incrementAndGet();
+        if(logger.isDebugEnabled())
+            logger.debug("Created connection " + numCreated + " to " + dest.getHost() + ":"
+                         + dest.getPort() + " using protocol "
+                         + dest.getRequestFormatType().getCode());
+
+        int index = Math.abs(counter.getAndIncrement() % selectorManagers.length);
+        return new ClientRequestExecutor(selectorManagers[index],
+                                         socketChannel,
+                                         dest,
+                                         socketBufferSize,
+                                         soTimeoutMs,
+                                         callbackExecutor);
+    }
+
+    private void negotiateProtocol(Socket socket, RequestFormatType type) throws IOException {
+        // The streams of the socket can only be used while the channel is
+        // still in blocking mode
+        OutputStream outputStream = socket.getOutputStream();
+        byte[] proposal = ByteUtils.getBytes(type.getCode(), "UTF-8");
+        outputStream.write(proposal);
+        outputStream.flush();
+        DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+        byte[] responseBytes = new byte[2];
+        inputStream.readFully(responseBytes);
+        String response = ByteUtils.getString(responseBytes, "UTF-8");
+        if(response.equals("ok"))
+            return;
+        else if(response.equals("no"))
+            throw new VoldemortException(type.getDisplayName()
+                                         + " is not an acceptable protcol for the server.");
+        else
+            throw new VoldemortException("Unknown server response: " + response);
+    }
+
+    public boolean validate(SocketDestination dest, ClientRequestExecutor executor) {
+        // See SocketResourceFactory.validate, connections created before the
+        // destination was closed are invalid
+        if(executor.getCreateTimestamp() <= dest.getLastClosedTimestamp())
+            return false;
+
+        boolean isValid = executor.isValid();
+        if(!isValid && logger.isDebugEnabled())
+            logger.debug("Connection to " + dest + " is no longer valid, closing.");
+        return isValid;
+    }
+
+    public int getTimeout() {
+        return this.soTimeoutMs;
+    }
+
+    public int getNumberCreated() {
+        return this.created.get();
+    }
+
+    public int getNumberDestroyed() {
+        return this.destroyed.get();
+    }
+
+    /**
+     * Stop the selector threads, failing any requests still in flight
+     */
+    public void close() {
+        for(ClientRequestSelectorManager selectorManager: selectorManagers)
+            if(selectorManager != null)
+                selectorManager.close();
+
+        selectorManagerThreadPool.shutdown();
+        try {
+            if(!selectorManagerThreadPool.awaitTermination(5, TimeUnit.SECONDS))
+                selectorManagerThreadPool.shutdownNow();
+        } catch(InterruptedException e) {
+            selectorManagerThreadPool.shutdownNow();
+        }
+    }
+
+}
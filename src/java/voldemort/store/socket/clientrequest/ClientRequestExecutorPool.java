@@ -0,0 +1,363 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package voldemort.store.socket.clientrequest;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import voldemort.VoldemortException;
+import voldemort.annotations.jmx.JmxGetter;
+import voldemort.annotations.jmx.JmxManaged;
+import voldemort.store.UnreachableStoreException;
+import voldemort.store.nonblockingstore.NonblockingStoreCallback;
+import voldemort.store.socket.SocketDestination;
+import voldemort.utils.DaemonThreadFactory;
+import voldemort.utils.Time;
+import voldemort.utils.pool.KeyedResourcePool;
+import voldemort.utils.pool.ResourcePoolConfig;
+
+/**
+ * A pool of {@link ClientRequestExecutor} connections keyed off the socket
+ * destination. It plays the role of SocketPool for the non-blocking
+ * transport, except that requests are submitted to the pool rather than to a
+ * connection checked out by the caller.
+ * <p/>
+ * A submitted request goes onto a queue for its destination, and is handed to
+ * the first connection that is free. If every connection is busy the caller
+ * doesn't wait; the request stays queued until one is checked back in. A
+ * connection with a pipelined protocol is only checked out for as long as it
+ * takes to add the request to it, so it carries any number of requests at
+ * once. Other protocols can only have one request outstanding on a
+ * connection, so their connections are checked back in when the response
+ * arrives.
+ * <p/>
+ * The queue of each destination is bounded; a request submitted to a full
+ * queue is failed straight away.
+ * <p/>
+ * The callbacks are invoked on a thread pool of their own rather than on the
+ * selector threads.
+ * 
+ * 
+ */
+@JmxManaged(description = "Voldemort non-blocking connection pool.")
+public class ClientRequestExecutorPool {
+
+    private static final Logger logger = Logger.getLogger(ClientRequestExecutorPool.class);
+
+    public static final int DEFAULT_MAX_QUEUED_REQUESTS = 1000;
+
+    private final KeyedResourcePool<SocketDestination, ClientRequestExecutor> pool;
+    private final ClientRequestExecutorFactory factory;
+    private final ExecutorService callbackThreadPool;
+    private final ConcurrentMap<SocketDestination, Queue<PendingRequest>> pendingRequests;
+    private final long queueTimeoutNs;
+    private final long requestTimeoutMs;
+    private final int maxQueuedRequests;
+
+    public ClientRequestExecutorPool(int selectors,
+                                     int maxConnectionsPerNode,
+                                     int connectionTimeoutMs,
+                                     int soTimeoutMs,
+                                     int socketBufferSize,
+                                     boolean socketKeepAlive) {
+        this(selectors,
+             maxConnectionsPerNode,
+             connectionTimeoutMs,
+             soTimeoutMs,
+             socketBufferSize,
+             socketKeepAlive,
+             DEFAULT_MAX_QUEUED_REQUESTS);
+    }
+
+    public ClientRequestExecutorPool(int selectors,
+                                     int maxConnectionsPerNode,
+                                     int connectionTimeoutMs,
+                                     int soTimeoutMs,
+                                     int socketBufferSize,
+                                     boolean socketKeepAlive,
+                                     int maxQueuedRequests) {
+        if(maxQueuedRequests < 1)
+            throw new IllegalArgumentException("maxQueuedRequests must be at least 1.");
+        ResourcePoolConfig config = new ResourcePoolConfig().setIsFair(true)
+                                                            .setMaxPoolSize(maxConnectionsPerNode)
+                                                            .setMaxInvalidAttempts(maxConnectionsPerNode)
+                                                            .setTimeout(connectionTimeoutMs,
+                                                                        TimeUnit.MILLISECONDS);
+        this.callbackThreadPool = Executors.newCachedThreadPool(new DaemonThreadFactory("voldemort-client-callback-"));
+        this.factory = new ClientRequestExecutorFactory(selectors,
+                                                        connectionTimeoutMs,
+                                                        soTimeoutMs,
+                                                        socketBufferSize,
+                                                        socketKeepAlive,
+                                                        callbackThreadPool);
+        this.pool = new KeyedResourcePool<SocketDestination, ClientRequestExecutor>(factory,
+                                                                                    config);
+        this.pendingRequests = new ConcurrentHashMap<SocketDestination, Queue<PendingRequest>>();
+        this.queueTimeoutNs = soTimeoutMs * Time.NS_PER_MS;
+        // queued, then connecting, then on the wire
+        this.requestTimeoutMs = 2L * soTimeoutMs + connectionTimeoutMs;
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    /**
+     * Submit a request to the given destination. This doesn't wait for a
+     * connection: if none is free the request is queued until one is. The
+     * callback is invoked once the request completes, fails, or has waited in
+     * the queue for longer than the socket timeout. If the queue of the
+     * destination is full the callback is invoked with an
+     * {@link UnreachableStoreException} right away.
+     * 
+     * @param destination The socket destination to send the request to
+     * @param clientRequest The request
+     * @param callback The callback to invoke with the result
+     */
+    public void submit(SocketDestination destination,
+                       ClientRequest<?> clientRequest,
+                       NonblockingStoreCallback callback) {
+        PendingRequest pending = new PendingRequest(clientRequest, callback, System.nanoTime());
+        if(!getPendingRequests(destination).offer(pending)) {
+            pending.fail(new UnreachableStoreException(maxQueuedRequests
+                                                       + " requests are already queued for "
+                                                       + destination + "."));
+            return;
+        }
+        // The request is queued before looking for a connection, and
+        // connections are checked in before looking at the queue, so whichever
+        // happens last sends it
+        sendPendingRequests(destination);
+    }
+
+    /**
+     * Checkout a connection from the pool, waiting for one to be checked in
+     * if they are all in use
+     * 
+     * @param destination The socket destination you want to connect to
+     * @return The connection
+     */
+    public ClientRequestExecutor checkout(SocketDestination destination) {
+        try {
+            return pool.checkout(destination);
+        } catch(Exception e) {
+            throw new UnreachableStoreException("Failure while checking out connection for "
+                                                + destination + ": ", e);
+        }
+    }
+
+    /**
+     * Check the connection back into the pool.
+     * 
+     * @param destination The socket destination of the connection
+     * @param executor The connection to check back in
+     */
+    public void checkin(SocketDestination destination, ClientRequestExecutor executor) {
+        try {
+            pool.checkin(destination, executor);
+        } catch(Exception e) {
+            throw new VoldemortException("Failure while checking in connection for "
+                                         + destination + ": ", e);
+        }
+    }
+
+    /**
+     * @return The longest a request can take before the pool fails it: the
+     *         time it may wait in the queue plus the connection and socket
+     *         timeouts
+     */
+    public long getRequestTimeoutMs() {
+        return requestTimeoutMs;
+    }
+
+    public void close(SocketDestination destination) {
+        destination.setLastClosedTimestamp();
+        pool.close(destination);
+    }
+
+    /**
+     * Close the pool, and stop the selector threads. Requests that are still
+     * queued are failed.
+     */
+    public void close() {
+        pool.close();
+        factory.close();
+
+        for(Queue<PendingRequest> queue: pendingRequests.values()) {
+            PendingRequest pending = null;
+            while((pending = queue.poll()) != null)
+                pending.fail(new UnreachableStoreException("Client is closed."));
+        }
+
+        callbackThreadPool.shutdown();
+    }
+
+    @JmxGetter(name = "socketsCreated", description = "The total number of sockets created by this pool.")
+    public int getNumberSocketsCreated() {
+        return this.factory.getNumberCreated();
+    }
+
+    @JmxGetter(name = "socketsDestroyed", description = "The total number of sockets destroyed by this pool.")
+    public int getNumberSocketsDestroyed() {
+        return this.factory.getNumberDestroyed();
+    }
+
+    @JmxGetter(name = "numberOfConnections", description = "The number of active connections.")
+    public int getNumberOfActiveConnections() {
+        return this.pool.getTotalResourceCount();
+    }
+
+    @JmxGetter(name = "numberOfIdleConnections", description = "The number of idle connections.")
+    public int getNumberOfCheckedInConnections() {
+        return this.pool.getCheckedInResourceCount();
+    }
+
+    @JmxGetter(name = "numberOfQueuedRequests", description = "The number of requests waiting for a connection.")
+    public int getNumberOfQueuedRequests() {
+        int queued = 0;
+        for(Queue<PendingRequest> queue: pendingRequests.values())
+            queued += queue.size();
+        return queued;
+    }
+
+    private Queue<PendingRequest> getPendingRequests(SocketDestination destination) {
+        Queue<PendingRequest> queue = pendingRequests.get(destination);
+        if(queue == null) {
+            pendingRequests.putIfAbsent(destination,
+                                        new LinkedBlockingQueue<PendingRequest>(maxQueuedRequests));
+            queue = pendingRequests.get(destination);
+        }
+        return queue;
+    }
+
+    /*
+     * Hand queued requests to free connections until either runs out. A
+     * request that can't get a connection because it can't be created is
+     * failed, as is one that has waited too long.
+     */
+    private void sendPendingRequests(final SocketDestination destination) {
+        Queue<PendingRequest> queue = getPendingRequests(destination);
+
+        while(!queue.isEmpty()) {
+            ClientRequestExecutor executor = null;
+            try {
+                executor = pool.checkoutIfAvailable(destination);
+            } catch(Exception e) {
+                PendingRequest pending = queue.poll();
+                if(pending != null)
+                    pending.fail(new UnreachableStoreException("Failure while checking out connection for "
+                                                                       + destination
+                                                                       + ": "
+                                                                       + e.getMessage(),
+                                                               e));
+                continue;
+            }
+
+            // Every connection is in use, the next one to be checked in will
+            // pick up the queue from here
+            if(executor == null)
+                return;
+
+            PendingRequest pending = nextPendingRequest(queue);
+            if(pending == null) {
+                checkin(destination, executor);
+                continue;
+            }
+
+            send(destination, executor, pending);
+        }
+    }
+
+    private PendingRequest nextPendingRequest(Queue<PendingRequest> queue) {
+        long nowNs = System.nanoTime();
+        PendingRequest pending = null;
+        while((pending = queue.poll()) != null) {
+            if(nowNs - pending.queuedNs < queueTimeoutNs)
+                return pending;
+
+            pending.fail(new UnreachableStoreException("Request timed out after waiting "
+                                                       + (queueTimeoutNs / Time.NS_PER_MS)
+                                                       + " ms for a connection."));
+        }
+        return null;
+    }
+
+    /*
+     * Add the request to the connection. If that fails (say because the
+     * selector has been closed) the request is failed rather than the error
+     * being thrown at whichever caller happens to be sending the queue.
+     */
+    private void send(final SocketDestination destination,
+                      final ClientRequestExecutor executor,
+                      PendingRequest pending) {
+        if(executor.isPipelined()) {
+            try {
+                executor.addClientRequest(pending.clientRequest, pending.callback);
+            } catch(RuntimeException e) {
+                pending.fail(e);
+            } finally {
+                checkin(destination, executor);
+            }
+            return;
+        }
+
+        final NonblockingStoreCallback callback = pending.callback;
+        try {
+            executor.addClientRequest(pending.clientRequest, new NonblockingStoreCallback() {
+
+                public void requestComplete(Object result, long requestTime) {
+                    try {
+                        checkin(destination, executor);
+                        sendPendingRequests(destination);
+                    } catch(Exception e) {
+                        if(logger.isEnabledFor(Level.WARN))
+                            logger.warn(e.getMessage(), e);
+                    } finally {
+                        callback.requestComplete(result, requestTime);
+                    }
+                }
+            });
+        } catch(RuntimeException e) {
+            checkin(destination, executor);
+            pending.fail(e);
+        }
+    }
+
+    private static class PendingRequest {
+
+        private final ClientRequest<?> clientRequest;
+        private final NonblockingStoreCallback callback;
+        private final long queuedNs;
+
+        private PendingRequest(ClientRequest<?> clientRequest,
+                               NonblockingStoreCallback callback,
+                               long queuedNs) {
+            this.clientRequest = clientRequest;
+            this.callback = callback;
+            this.queuedNs = queuedNs;
+        }
+
+        private void fail(Exception error) {
+            callback.requestComplete(error, 0);
+        }
+    }
+
+}
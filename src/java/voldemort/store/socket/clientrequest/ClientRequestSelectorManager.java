@@ -0,0 +1,176 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package voldemort.store.socket.clientrequest;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import voldemort.store.UnreachableStoreException;
+
+/**
+ * ClientRequestSelectorManager runs the selector loop for a set of
+ * {@link ClientRequestExecutor} connections. Like the server's
+ * SelectorManager, all I/O for the connections registered with it happens
+ * serially on its one thread, and callers only ever hand work to it through a
+ * queue.
+ * <p/>
+ * Besides the I/O, the loop also checks the in-flight requests for timeouts
+ * every {@link #SELECTOR_POLL_MS} ms.
+ * 
+ * 
+ */
+public class ClientRequestSelectorManager implements Runnable {
+
+    public static final long SELECTOR_POLL_MS = 500;
+
+    private final Selector selector;
+
+    private final Queue<ClientRequestExecutor> writeQueue;
+
+    private final AtomicBoolean isClosed;
+
+    private final Logger logger = Logger.getLogger(getClass());
+
+    public ClientRequestSelectorManager() throws IOException {
+        this.selector = Selector.open();
+        this.writeQueue = new ConcurrentLinkedQueue<ClientRequestExecutor>();
+        this.isClosed = new AtomicBoolean(false);
+    }
+
+    /**
+     * Ask the selector thread to start writing the request that was just added
+     * to the given executor
+     * 
+     * @param executor The executor with a new request
+     */
+    public void prepareForWrite(ClientRequestExecutor executor) {
+        if(isClosed.get())
+            throw new IllegalStateException("Cannot submit more requests, selector manager closed");
+
+        writeQueue.add(executor);
+        selector.wakeup();
+    }
+
+    public void close() {
+        // Attempt to close, but if already closed, then we've been beaten to
+        // the punch...
+        if(!isClosed.compareAndSet(false, true))
+            return;
+
+        try {
+            // Fail the requests that are still in progress, whether or not
+            // their connection got as far as being registered
+            ClientRequestExecutor executor = null;
+            while((executor = writeQueue.poll()) != null)
+                executor.fail(new UnreachableStoreException("Client is closed."));
+
+            for(SelectionKey sk: selector.keys()) {
+                executor = (ClientRequestExecutor) sk.attachment();
+                if(executor != null)
+                    executor.fail(new UnreachableStoreException("Client is closed."));
+                sk.cancel();
+            }
+        } catch(Exception e) {
+            if(logger.isEnabledFor(Level.WARN))
+                logger.warn(e.getMessage(), e);
+        }
+
+        try {
+            selector.close();
+        } catch(Exception e) {
+            if(logger.isEnabledFor(Level.WARN))
+                logger.warn(e.getMessage(), e);
+        }
+    }
+
+    public void run() {
+        long lastTimeoutCheckMs = System.currentTimeMillis();
+
+        try {
+            while(!isClosed.get()) {
+                processWriteQueue();
+
+                try {
+                    int selected = selector.select(SELECTOR_POLL_MS);
+
+                    if(isClosed.get())
+                        break;
+
+                    if(selected > 0) {
+                        Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+
+                        while(i.hasNext()) {
+                            SelectionKey selectionKey = i.next();
+                            i.remove();
+
+                            if(selectionKey.isValid()
+                               && (selectionKey.isReadable() || selectionKey.isWritable())) {
+                                Runnable worker = (Runnable) selectionKey.attachment();
+                                worker.run();
+                            }
+                        }
+                    }
+
+                    long nowMs = System.currentTimeMillis();
+                    if(nowMs - lastTimeoutCheckMs >= SELECTOR_POLL_MS) {
+                        checkTimeouts();
+                        lastTimeoutCheckMs = nowMs;
+                    }
+                } catch(ClosedSelectorException e) {
+                    if(logger.isDebugEnabled())
+                        logger.debug("Selector is closed, exiting");
+
+                    break;
+                } catch(Throwable t) {
+                    if(logger.isEnabledFor(Level.ERROR))
+                        logger.error(t.getMessage(), t);
+                }
+            }
+        } finally {
+            try {
+                close();
+            } catch(Exception e) {
+                if(logger.isEnabledFor(Level.ERROR))
+                    logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void processWriteQueue() {
+        ClientRequestExecutor executor = null;
+
+        while((executor = writeQueue.poll()) != null)
+            executor.registerForWrite(selector);
+    }
+
+    private void checkTimeouts() {
+        for(SelectionKey sk: selector.keys()) {
+            ClientRequestExecutor executor = (ClientRequestExecutor) sk.attachment();
+            if(executor != null)
+                executor.checkTimeout();
+        }
+    }
+
+}
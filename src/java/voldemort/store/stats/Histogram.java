@@ -0,0 +1,160 @@
+package voldemort.store.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import voldemort.annotations.concurrency.Threadsafe;
+
+/**
+ * A histogram of non-negative long values with a fixed relative error, in the
+ * style of HdrHistogram. Each power of two is split into 16 linear buckets, so
+ * a value is reported with an error of at most 1/16th, and values from 0 to
+ * 2^40 (about 18 minutes in ns) fit in fewer than 600 buckets.
+ * 
+ * Recording a value never allocates or retries: the counts are spread over a
+ * few stripes of atomic counters, chosen by thread, so concurrent writers
+ * rarely touch the same cache line. Reads sum over the stripes, and may miss
+ * values recorded concurrently.
+ * 
+ * 
+ */
+@Threadsafe
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /*
+     * Larger values are recorded as this one
+     */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    private static final int NUM_BUCKETS = bucketIndex(MAX_VALUE) + 1;
+
+    /*
+     * The count and sum of the values are kept after the buckets of a stripe
+     */
+    private static final int COUNT = NUM_BUCKETS;
+    private static final int SUM = NUM_BUCKETS + 1;
+
+    private final AtomicLongArray[] stripes;
+
+    public Histogram() {
+        this(Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param numStripes The number of sets of counters to spread concurrent
+     *        writers over
+     */
+    public Histogram(int numStripes) {
+        if(numStripes < 1)
+            throw new IllegalArgumentException("numStripes must be at least 1.");
+        this.stripes = new AtomicLongArray[numStripes];
+        for(int i = 0; i < numStripes; i++)
+            stripes[i] = new AtomicLongArray(NUM_BUCKETS + 2);
+    }
+
+    public void record(long value) {
+        if(value < 0)
+            throw new IllegalArgumentException("Negative value " + value);
+        long clamped = Math.min(value, MAX_VALUE);
+        AtomicLongArray stripe = stripes[(int) (Thread.currentThread().getId() % stripes.length)];
+        stripe.incrementAndGet(bucketIndex(clamped));
+        stripe.incrementAndGet(COUNT);
+        stripe.addAndGet(SUM, clamped);
+    }
+
+    public long getCount() {
+        return sum(COUNT);
+    }
+
+    public long getSum() {
+        return sum(SUM);
+    }
+
+    /**
+     * @return The mean of the recorded values, or 0 if there are none
+     */
+    public double getMean() {
+        long count = getCount();
+        return count > 0 ? getSum() / (double) count : 0;
+    }
+
+    /**
+     * Get the value below which the given fraction of the recorded values
+     * fall
+     * 
+     * @param quantile The fraction of the values, between 0 and 1
+     * @return The highest value in the bucket holding the quantile, or 0 if no
+     *         values were recorded
+     */
+    public long getQuantile(double quantile) {
+        if(quantile < 0 || quantile > 1)
+            throw new IllegalArgumentException("quantile must be between 0 and 1.");
+        long[] counts = new long[NUM_BUCKETS];
+        long count = 0;
+        for(AtomicLongArray stripe: stripes) {
+            for(int i = 0; i < NUM_BUCKETS; i++) {
+                long bucketCount = stripe.get(i);
+                counts[i] += bucketCount;
+                count += bucketCount;
+            }
+        }
+        if(count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for(int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= rank)
+                return bucketUpperBound(i);
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * Forget all recorded values. Values recorded while the reset is in
+     * progress may be kept in or dropped from the buckets, but each one is
+     * counted exactly once, either in the returned count or in the count after
+     * the reset.
+     * 
+     * @return The number of values the reset removed
+     */
+    public long reset() {
+        long count = 0;
+        for(AtomicLongArray stripe: stripes) {
+            for(int i = 0; i < stripe.length(); i++) {
+                if(i == COUNT)
+                    count += stripe.getAndSet(i, 0);
+                else
+                    stripe.set(i, 0);
+            }
+        }
+        return count;
+    }
+
+    private long sum(int index) {
+        long sum = 0;
+        for(AtomicLongArray stripe: stripes)
+            sum += stripe.get(index);
+        return sum;
+    }
+
+    static int bucketIndex(long value) {
+        if(value < SUB_BUCKETS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if(index < SUB_BUCKETS)
+            return index;
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = SUB_BUCKETS + (index & (SUB_BUCKETS - 1));
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+}
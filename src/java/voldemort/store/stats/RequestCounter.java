@@ -1,18 +1,24 @@
 package voldemort.store.stats;
 
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
 
 import voldemort.utils.Time;
 
 /**
- * A thread-safe request counter that calculates throughput for a specified
- * duration of time.
+ * A thread-safe request counter that calculates throughput and the
+ * distribution of request times for a specified duration of time.
+ * 
+ * Requests are recorded in a {@link Histogram}, so adding a request does not
+ * allocate and never drops the request under contention. When the duration
+ * has passed, the histogram is cleared and a new duration starts.
  * 
  * 
  */
 public class RequestCounter {
 
-    private final AtomicReference<Accumulator> values;
+    private final Histogram histogram;
+    private final AtomicLong startTimeMS;
+    private final AtomicLong previousTotal;
     private final int durationMS;
 
     /**
@@ -20,24 +26,28 @@ public class RequestCounter {
      *        counter (in milliseconds).
      */
     public RequestCounter(int durationMS) {
-        this.values = new AtomicReference<Accumulator>(new Accumulator());
+        this.histogram = new Histogram();
+        this.startTimeMS = new AtomicLong(System.currentTimeMillis());
+        this.previousTotal = new AtomicLong(0);
         this.durationMS = durationMS;
     }
 
     public long getCount() {
-        return getValidAccumulator().count;
+        checkDuration();
+        return histogram.getCount();
     }
 
     public long getTotalCount() {
-        return getValidAccumulator().total;
+        checkDuration();
+        return previousTotal.get() + histogram.getCount();
     }
 
     public float getThroughput() {
-        Accumulator oldv = getValidAccumulator();
-        double elapsed = (System.currentTimeMillis() - oldv.startTimeMS)
+        checkDuration();
+        double elapsed = (System.currentTimeMillis() - startTimeMS.get())
                          / (double) Time.MS_PER_SECOND;
         if(elapsed > 0f) {
-            return (float) (oldv.count / elapsed);
+            return (float) (histogram.getCount() / elapsed);
         } else {
             return -1f;
         }
@@ -48,91 +58,55 @@ public class RequestCounter {
     }
 
     public double getAverageTimeInMs() {
-        return getValidAccumulator().getAverageTimeNS() / Time.NS_PER_MS;
+        checkDuration();
+        return histogram.getMean() / Time.NS_PER_MS;
     }
 
     public String getDisplayAverageTimeInMs() {
         return String.format("%.4f", getAverageTimeInMs());
     }
 
+    /**
+     * Get the time within which the given fraction of the requests completed
+     * 
+     * @param quantile The fraction of the requests, for example 0.99 for the
+     *        99th percentile
+     * @return The time in ms, accurate to 1/16th, or 0 if there were no
+     *         requests
+     */
+    public double getQuantileTimeInMs(double quantile) {
+        checkDuration();
+        return histogram.getQuantile(quantile) / (double) Time.NS_PER_MS;
+    }
+
+    public String getDisplayQuantileTimeInMs(double quantile) {
+        return String.format("%.4f", getQuantileTimeInMs(quantile));
+    }
+
     public int getDuration() {
         return durationMS;
     }
 
-    private Accumulator getValidAccumulator() {
-
-        Accumulator accum = values.get();
+    /*
+     * Start a new duration if the current one has passed. Only the thread that
+     * moves the start time clears the histogram, and the requests it clears
+     * move to the total, including any recorded while it was clearing.
+     */
+    private void checkDuration() {
+        long start = startTimeMS.get();
         long now = System.currentTimeMillis();
-
-        /*
-         * if still in the window, just return it
-         */
-        if(now - accum.startTimeMS <= durationMS) {
-            return accum;
-        }
-
-        /*
-         * try to set. if we fail, then someone else set it, so just return that
-         * new one
-         */
-
-        Accumulator newWithTotal = accum.newWithTotal();
-
-        if(values.compareAndSet(accum, newWithTotal)) {
-            return newWithTotal;
-        }
-
-        return values.get();
+        if(now - start > durationMS && startTimeMS.compareAndSet(start, now))
+            previousTotal.addAndGet(histogram.reset());
     }
 
-    /*
-     * Updates the stats accumulator with another operation. We need to make
-     * sure that the request is only added to a non-expired pair. If so, start a
-     * new counter pair with recent time. We'll only try to do this 3 times - if
-     * other threads keep modifying while we're doing our own work, just bail.
+    /**
+     * Add a request to the counter
      * 
      * @param timeNS time of operation, in nanoseconds
      */
     public void addRequest(long timeNS) {
-
-        for(int i = 0; i < 3; i++) {
-            Accumulator oldv = getValidAccumulator();
-
-            long startTimeMS = oldv.startTimeMS;
-            long count = oldv.count + 1;
-            long totalTimeNS = oldv.totalTimeNS + timeNS;
-            long total = oldv.total + 1;
-
-            if(values.compareAndSet(oldv, new Accumulator(startTimeMS, count, totalTimeNS, total))) {
-                return;
-            }
-        }
+        checkDuration();
+        histogram.record(Math.max(0, timeNS));
     }
 
-    private static class Accumulator {
-
-        final long startTimeMS;
-        final long count;
-        final long totalTimeNS;
-        final long total;
-
-        public Accumulator() {
-            this(System.currentTimeMillis(), 0, 0, 0);
-        }
-
-        public Accumulator newWithTotal() {
-            return new Accumulator(System.currentTimeMillis(), 0, 0, total);
-        }
-
-        public Accumulator(long startTimeMS, long count, long totalTimeNS, long total) {
-            this.startTimeMS = startTimeMS;
-            this.count = count;
-            this.totalTimeNS = totalTimeNS;
-            this.total = total;
-        }
-
-        public double getAverageTimeNS() {
-            return count > 0 ? 1f * totalTimeNS / count : -0f;
-        }
-    }
 }
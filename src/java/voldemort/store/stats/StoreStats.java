@@ -43,6 +43,16 @@ public class StoreStats {
         return counters.get(op).getAverageTimeInMs();
     }
 
+    /**
+     * @param op The operation
+     * @param quantile The fraction of the requests, between 0 and 1
+     * @return The time in ms within which the given fraction of the requests
+     *         completed
+     */
+    public double getQuantileTimeInMs(Tracked op, double quantile) {
+        return counters.get(op).getQuantileTimeInMs(quantile);
+    }
+
     public void recordTime(Tracked op, long timeNS) {
         counters.get(op).addRequest(timeNS);
         if(parent != null)
@@ -34,6 +34,26 @@ public class StoreStatsJmx {
         return stats.getThroughput(Tracked.GET_ALL);
     }
 
+    @JmxGetter(name = "p50GetAllCompletionTimeInMs", description = "The time in ms within which the 50th percentile of GET_ALL calls completed.")
+    public double getP50GetAllCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET_ALL, 0.5);
+    }
+
+    @JmxGetter(name = "p95GetAllCompletionTimeInMs", description = "The time in ms within which the 95th percentile of GET_ALL calls completed.")
+    public double getP95GetAllCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET_ALL, 0.95);
+    }
+
+    @JmxGetter(name = "p99GetAllCompletionTimeInMs", description = "The time in ms within which the 99th percentile of GET_ALL calls completed.")
+    public double getP99GetAllCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET_ALL, 0.99);
+    }
+
+    @JmxGetter(name = "p999GetAllCompletionTimeInMs", description = "The time in ms within which the 99.9th percentile of GET_ALL calls completed.")
+    public double getP999GetAllCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET_ALL, 0.999);
+    }
+
     @JmxGetter(name = "numberOfCallsToGet", description = "The number of calls to GET since the last reset.")
     public long getNumberOfCallsToGet() {
         return stats.getCount(Tracked.GET);
@@ -49,6 +69,26 @@ public class StoreStatsJmx {
         return stats.getThroughput(Tracked.GET);
     }
 
+    @JmxGetter(name = "p50GetCompletionTimeInMs", description = "The time in ms within which the 50th percentile of GET calls completed.")
+    public double getP50GetCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET, 0.5);
+    }
+
+    @JmxGetter(name = "p95GetCompletionTimeInMs", description = "The time in ms within which the 95th percentile of GET calls completed.")
+    public double getP95GetCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET, 0.95);
+    }
+
+    @JmxGetter(name = "p99GetCompletionTimeInMs", description = "The time in ms within which the 99th percentile of GET calls completed.")
+    public double getP99GetCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET, 0.99);
+    }
+
+    @JmxGetter(name = "p999GetCompletionTimeInMs", description = "The time in ms within which the 99.9th percentile of GET calls completed.")
+    public double getP999GetCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.GET, 0.999);
+    }
+
     @JmxGetter(name = "numberOfCallsToPut", description = "The number of calls to PUT since the last reset.")
     public long getNumberOfCallsToPut() {
         return stats.getCount(Tracked.PUT);
@@ -64,6 +104,26 @@ public class StoreStatsJmx {
         return stats.getThroughput(Tracked.PUT);
     }
 
+    @JmxGetter(name = "p50PutCompletionTimeInMs", description = "The time in ms within which the 50th percentile of PUT calls completed.")
+    public double getP50PutCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.PUT, 0.5);
+    }
+
+    @JmxGetter(name = "p95PutCompletionTimeInMs", description = "The time in ms within which the 95th percentile of PUT calls completed.")
+    public double getP95PutCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.PUT, 0.95);
+    }
+
+    @JmxGetter(name = "p99PutCompletionTimeInMs", description = "The time in ms within which the 99th percentile of PUT calls completed.")
+    public double getP99PutCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.PUT, 0.99);
+    }
+
+    @JmxGetter(name = "p999PutCompletionTimeInMs", description = "The time in ms within which the 99.9th percentile of PUT calls completed.")
+    public double getP999PutCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.PUT, 0.999);
+    }
+
     @JmxGetter(name = "numberOfCallsToDelete", description = "The number of calls to DELETE since the last reset.")
     public long getNumberOfCallsToDelete() {
         return stats.getCount(Tracked.DELETE);
@@ -79,6 +139,26 @@ public class StoreStatsJmx {
         return stats.getThroughput(Tracked.DELETE);
     }
 
+    @JmxGetter(name = "p50DeleteCompletionTimeInMs", description = "The time in ms within which the 50th percentile of DELETE calls completed.")
+    public double getP50DeleteCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.DELETE, 0.5);
+    }
+
+    @JmxGetter(name = "p95DeleteCompletionTimeInMs", description = "The time in ms within which the 95th percentile of DELETE calls completed.")
+    public double getP95DeleteCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.DELETE, 0.95);
+    }
+
+    @JmxGetter(name = "p99DeleteCompletionTimeInMs", description = "The time in ms within which the 99th percentile of DELETE calls completed.")
+    public double getP99DeleteCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.DELETE, 0.99);
+    }
+
+    @JmxGetter(name = "p999DeleteCompletionTimeInMs", description = "The time in ms within which the 99.9th percentile of DELETE calls completed.")
+    public double getP999DeleteCompletionTimeInMs() {
+        return stats.getQuantileTimeInMs(Tracked.DELETE, 0.999);
+    }
+
     @JmxGetter(name = "numberOfObsoleteVersions", description = "Number of ObsoleteVersionExceptions since the last reset.")
     public long getNumberOfObsoleteVersions() {
         return stats.getCount(Tracked.OBSOLETE);
@@ -21,6 +21,7 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 
 import voldemort.annotations.concurrency.NotThreadsafe;
+import voldemort.utils.pool.ByteBufferPool;
 
 /**
  * ByteBufferBackedOutputStream serves two purposes:
@@ -36,6 +37,9 @@ import voldemort.annotations.concurrency.NotThreadsafe;
  * buffer as the object reference passed into the constructor is changed upon
  * expansion. Additionally, some callers might wish to "un-expand" the buffer
  * back to a more reasonable size after use.
+ * <p/>
+ * If the stream is given a {@link ByteBufferPool}, expanded buffers are taken
+ * from it and the buffer being replaced is released to it.
  * 
  */
 
@@ -46,8 +50,20 @@ public class ByteBufferBackedOutputStream extends OutputStream {
 
     private boolean wasExpanded;
 
+    private final ByteBufferPool bufferPool;
+
     public ByteBufferBackedOutputStream(ByteBuffer buffer) {
+        this(buffer, null);
+    }
+
+    /**
+     * @param buffer The initial buffer
+     * @param bufferPool The pool to grow the buffer through, or null to
+     *        allocate expanded buffers on the heap
+     */
+    public ByteBufferBackedOutputStream(ByteBuffer buffer, ByteBufferPool bufferPool) {
         this.buffer = buffer;
+        this.bufferPool = bufferPool;
         wasExpanded = false;
     }
 
@@ -78,8 +94,18 @@ public class ByteBufferBackedOutputStream extends OutputStream {
         if(need <= 0)
             return;
 
-        int newCapacity = buffer.capacity() + need;
-        buffer = ByteUtils.expand(buffer, newCapacity * 2);
+        int newCapacity = (buffer.capacity() + need) * 2;
+        if(bufferPool == null) {
+            buffer = ByteUtils.expand(buffer, newCapacity);
+        } else {
+            ByteBuffer newBuffer = bufferPool.allocate(newCapacity);
+            int position = buffer.position();
+            buffer.rewind();
+            newBuffer.put(buffer);
+            newBuffer.position(position);
+            bufferPool.release(buffer);
+            buffer = newBuffer;
+        }
         wasExpanded = true;
     }
 
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.utils.pool;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import voldemort.annotations.concurrency.Threadsafe;
+
+/**
+ * A pool of direct ByteBuffers in a fixed set of size classes, shared by the
+ * connections of a server. The size classes double from the minimum buffer
+ * size, so a buffer that has to grow moves to the next class and a buffer of
+ * any class can be handed to any connection.
+ * <p/>
+ * Direct buffers spare the channel a copy into a temporary direct buffer on
+ * every read and write, but they are expensive to create and are only freed
+ * by the garbage collector, which is why they are pooled. The pool holds at
+ * most the given number of bytes in idle buffers; released buffers beyond
+ * that are dropped. Requests larger than the largest size class get an
+ * unpooled heap buffer.
+ * 
+ * 
+ */
+@Threadsafe
+public class ByteBufferPool {
+
+    private final int minBufferSize;
+
+    private final long maxPooledBytes;
+
+    private final List<Queue<ByteBuffer>> sizeClasses;
+
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create a pool
+     * 
+     * @param minBufferSize The capacity of the buffers in the smallest size
+     *        class
+     * @param numSizeClasses The number of size classes, each of which holds
+     *        buffers twice as large as the one before
+     * @param maxPooledBytes The most memory to hold in idle buffers
+     */
+    public ByteBufferPool(int minBufferSize, int numSizeClasses, long maxPooledBytes) {
+        if(minBufferSize <= 0)
+            throw new IllegalArgumentException("Buffer size must be a positive number.");
+        if(numSizeClasses <= 0 || numSizeClasses >= 31
+           || ((long) minBufferSize << (numSizeClasses - 1)) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Invalid number of size classes: " + numSizeClasses);
+        if(maxPooledBytes < 0)
+            throw new IllegalArgumentException("Pool size cannot be negative.");
+
+        this.minBufferSize = minBufferSize;
+        this.maxPooledBytes = maxPooledBytes;
+        this.sizeClasses = new ArrayList<Queue<ByteBuffer>>(numSizeClasses);
+        for(int i = 0; i < numSizeClasses; i++)
+            sizeClasses.add(new ConcurrentLinkedQueue<ByteBuffer>());
+    }
+
+    /**
+     * Get a cleared buffer with at least the given capacity
+     * 
+     * @param capacity The capacity needed
+     * @return A direct buffer of the smallest size class that fits, or a heap
+     *         buffer of exactly the given capacity if no size class does
+     */
+    public ByteBuffer allocate(int capacity) {
+        int sizeClass = getSizeClass(capacity);
+        if(sizeClass < 0) {
+            misses.incrementAndGet();
+            return ByteBuffer.allocate(capacity);
+        }
+
+        ByteBuffer buffer = sizeClasses.get(sizeClass).poll();
+        if(buffer != null) {
+            hits.incrementAndGet();
+            pooledBytes.addAndGet(-buffer.capacity());
+            buffer.clear();
+            return buffer;
+        }
+
+        misses.incrementAndGet();
+        int size = getSize(sizeClass);
+        allocatedBytes.addAndGet(size);
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers that didn't come from the pool are
+     * ignored. The caller must not touch the buffer afterwards.
+     * 
+     * @param buffer The buffer to return
+     */
+    public void release(ByteBuffer buffer) {
+        if(buffer == null || !buffer.isDirect())
+            return;
+
+        int sizeClass = getSizeClass(buffer.capacity());
+        if(sizeClass < 0 || getSize(sizeClass) != buffer.capacity())
+            return;
+
+        if(pooledBytes.addAndGet(buffer.capacity()) > maxPooledBytes) {
+            // The pool is full, let the garbage collector have this one
+            pooledBytes.addAndGet(-buffer.capacity());
+            allocatedBytes.addAndGet(-buffer.capacity());
+            return;
+        }
+
+        sizeClasses.get(sizeClass).offer(buffer);
+    }
+
+    /**
+     * @return The capacity of the largest buffer the pool hands out
+     */
+    public int getMaxBufferSize() {
+        return getSize(sizeClasses.size() - 1);
+    }
+
+    /**
+     * @return The number of bytes held in idle buffers
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * @return The number of bytes of the direct buffers created by the pool
+     *         that haven't been dropped, whether in use or idle
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The fraction of allocations served from an idle buffer
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0.0 : hits / (double) total;
+    }
+
+    /* The smallest size class that fits the capacity, or -1 if none does */
+    private int getSizeClass(int capacity) {
+        for(int i = 0; i < sizeClasses.size(); i++)
+            if(getSize(i) >= capacity)
+                return i;
+        return -1;
+    }
+
+    private int getSize(int sizeClass) {
+        return minBufferSize << sizeClass;
+    }
+
+}
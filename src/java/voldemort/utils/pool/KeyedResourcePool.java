@@ -116,6 +116,38 @@ public class KeyedResourcePool<K, V> {
         }
     }
 
+    /**
+     * Checkout a resource if one is free, creating one if there is room in the
+     * pool. Unlike {@link #checkout(Object)} this never waits for a resource
+     * to be checked back in.
+     * 
+     * @param key The key to checkout the resource for
+     * @return The resource, or null if they are all checked out
+     */
+    public V checkoutIfAvailable(K key) throws Exception {
+        checkNotClosed();
+
+        Pool<V> resources = getResourcePoolForKey(key);
+        int attempts = 0;
+        for(; attempts < this.maxCreateAttempts; attempts++) {
+            checkNotClosed();
+            V resource = resources.nonBlockingGet();
+            if(resource == null) {
+                if(resources.size.get() < this.poolMaxSize)
+                    attemptGrow(key, resources);
+                resource = resources.nonBlockingGet();
+                if(resource == null)
+                    return null;
+            }
+
+            if(objectFactory.validate(key, resource))
+                return resource;
+            else
+                destroyResource(key, resources, resource);
+        }
+        throw new ExcessiveInvalidResourcesException(attempts);
+    }
+
     /*
      * Get a free resource if one exists. If not create one if there is space.
      * If no space, block and see if a resource is returned in the given
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.versioning;
+
+import java.io.Serializable;
+
+/**
+ * Bounds the size of the vector clocks of new versions of a store.
+ * 
+ * A clock gets an entry for every node that ever coordinated a write of its
+ * key, so without pruning the clocks of long-lived keys grow with every
+ * topology change. When a clock is incremented for a write, this policy drops
+ * the entries with the lowest versions once the clock has more than the
+ * maximum number of entries, and drops every entry but the one of the writing
+ * node if the key wasn't written for longer than the maximum age.
+ * 
+ * The entry of the writing node is never dropped and has just been
+ * incremented, so a pruned clock is never BEFORE the clock it was built from.
+ * Pruning can only make the new version look CONCURRENT to the versions it
+ * replaces, never obsolete, so no write is lost. Since such versions are no
+ * longer removed by the put, the writer should delete them explicitly with a
+ * versioned delete of the clock the write was based on.
+ * 
+ * 
+ */
+public class ClockPruningPolicy implements Serializable {
+
+    private static final long serialVersionUID = 1;
+
+    /*
+     * A policy that never prunes
+     */
+    public static final ClockPruningPolicy NONE = new ClockPruningPolicy(null, null);
+
+    private final Integer maxEntries;
+    private final Long maxAgeMs;
+
+    /**
+     * @param maxEntries The largest number of entries of a clock, or null for
+     *        no limit
+     * @param maxAgeMs The time since the last write after which only the
+     *        entry of the writing node is kept, or null for no limit
+     */
+    public ClockPruningPolicy(Integer maxEntries, Long maxAgeMs) {
+        if(maxEntries != null && maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be at least 1.");
+        if(maxAgeMs != null && maxAgeMs < 0)
+            throw new IllegalArgumentException("maxAgeMs cannot be negative.");
+        this.maxEntries = maxEntries;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries != null || maxAgeMs != null;
+    }
+
+    /**
+     * Increment the clock for a write and prune it
+     * 
+     * @param clock The clock to increment, which is modified
+     * @param nodeId The node coordinating the write
+     * @param time The time of the write
+     * @return true if any entries were pruned
+     */
+    public boolean increment(VectorClock clock, int nodeId, long time) {
+        long previousWrite = clock.getTimestamp();
+        clock.incrementVersion(nodeId, time);
+        boolean pruned = false;
+        if(maxAgeMs != null && time - previousWrite > maxAgeMs)
+            pruned = clock.pruneEntries(nodeId, 1);
+        if(maxEntries != null)
+            pruned |= clock.pruneEntries(nodeId, maxEntries);
+        return pruned;
+    }
+
+    /**
+     * Get a copy of the clock, incremented for a write and pruned
+     * 
+     * @param clock The clock to copy
+     * @param nodeId The node coordinating the write
+     * @param time The time of the write
+     * @return The new clock
+     */
+    public VectorClock incremented(VectorClock clock, int nodeId, long time) {
+        VectorClock copy = clock.clone();
+        increment(copy, nodeId, time);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "ClockPruningPolicy(max-entries = " + maxEntries + ", max-age-ms = " + maxAgeMs
+               + ")";
+    }
+
+}
@@ -23,25 +23,42 @@ import java.util.List;
 import voldemort.annotations.concurrency.NotThreadsafe;
 import voldemort.utils.ByteUtils;
 
-import com.google.common.collect.Lists;
-
 /**
  * A vector of the number of writes mastered by each node. The vector is stored
  * sparely, since, in general, writes will be mastered by only one node. This
  * means implicitly all the versions are at zero, but we only actually store
  * those greater than zero.
  * 
+ * The entries are kept in parallel arrays of node ids and versions rather than
+ * as ClockEntry objects, so comparing and merging clocks allocates nothing but
+ * the result. A clock can also be compared directly against the serialized
+ * bytes of another clock, and the serialized form of a clock is cached until
+ * the clock changes.
+ * 
  * 
  */
 @NotThreadsafe
 public class VectorClock implements Version, Serializable {
 
-    private static final long serialVersionUID = 1;
+    private static final long serialVersionUID = 2;
 
     private static final int MAX_NUMBER_OF_VERSIONS = Short.MAX_VALUE;
 
-    /* A sorted list of live versions ordered from least to greatest */
-    private final List<ClockEntry> versions;
+    /* The header holds the number of entries and the size of each version */
+    private static final int HEADER_SIZE = ByteUtils.SIZE_OF_SHORT + 1;
+
+    /* The results of comparing the entries of two clocks */
+    private static final int FIRST_BIGGER = 1;
+    private static final int SECOND_BIGGER = 2;
+
+    /* The node ids of the live versions ordered from least to greatest */
+    private short[] nodeIds;
+
+    /* The version of the node at the same index of nodeIds */
+    private long[] versions;
+
+    /* The number of live versions */
+    private int size;
 
     /*
      * The time of the last update on the server on which the update was
@@ -49,15 +66,18 @@ public class VectorClock implements Version, Serializable {
      */
     private volatile long timestamp;
 
+    /* The serialized form of the clock, cleared when the clock changes */
+    private transient byte[] serialized;
+
     /**
      * Construct an empty VectorClock
      */
     public VectorClock() {
-        this(new ArrayList<ClockEntry>(0), System.currentTimeMillis());
+        this(System.currentTimeMillis());
     }
 
     public VectorClock(long timestamp) {
-        this(new ArrayList<ClockEntry>(0), timestamp);
+        this(new short[0], new long[0], 0, timestamp);
     }
 
     /**
@@ -67,7 +87,18 @@ public class VectorClock implements Version, Serializable {
      * @param timestamp The timestamp to prepopulate
      */
     public VectorClock(List<ClockEntry> versions, long timestamp) {
+        this(new short[versions.size()], new long[versions.size()], versions.size(), timestamp);
+        for(int i = 0; i < size; i++) {
+            ClockEntry entry = versions.get(i);
+            this.nodeIds[i] = entry.getNodeId();
+            this.versions[i] = entry.getVersion();
+        }
+    }
+
+    private VectorClock(short[] nodeIds, long[] versions, int size, long timestamp) {
+        this.nodeIds = nodeIds;
         this.versions = versions;
+        this.size = size;
         this.timestamp = timestamp;
     }
 
@@ -90,54 +121,73 @@ public class VectorClock implements Version, Serializable {
      * @param offset The offset to start reading from
      */
     public VectorClock(byte[] bytes, int offset) {
-        if(bytes == null || bytes.length <= offset)
-            throw new IllegalArgumentException("Invalid byte array for serialization--no bytes to read.");
+        checkSize(bytes, offset);
         int numEntries = ByteUtils.readShort(bytes, offset);
         int versionSize = bytes[offset + 2];
         int entrySize = ByteUtils.SIZE_OF_SHORT + versionSize;
-        int minimumBytes = offset + ByteUtils.SIZE_OF_SHORT + 1 + numEntries * entrySize
-                           + ByteUtils.SIZE_OF_LONG;
-        if(bytes.length < minimumBytes)
-            throw new IllegalArgumentException("Too few bytes: expected at least " + minimumBytes
-                                               + " but found only " + bytes.length + ".");
 
-        this.versions = new ArrayList<ClockEntry>(numEntries);
-        int index = 3 + offset;
+        this.nodeIds = new short[numEntries];
+        this.versions = new long[numEntries];
+        this.size = numEntries;
+        int index = HEADER_SIZE + offset;
         for(int i = 0; i < numEntries; i++) {
-            short nodeId = ByteUtils.readShort(bytes, index);
-            long version = ByteUtils.readBytes(bytes, index + ByteUtils.SIZE_OF_SHORT, versionSize);
-            this.versions.add(new ClockEntry(nodeId, version));
+            nodeIds[i] = ByteUtils.readShort(bytes, index);
+            versions[i] = ByteUtils.readBytes(bytes, index + ByteUtils.SIZE_OF_SHORT, versionSize);
+            if(nodeIds[i] < 0 || versions[i] < 1)
+                throw new IllegalArgumentException("Invalid clock entry " + nodeIds[i] + ":"
+                                                   + versions[i] + ".");
             index += entrySize;
         }
         this.timestamp = ByteUtils.readLong(bytes, index);
     }
 
+    /* Check that the bytes hold a whole serialized clock at the offset */
+    private static void checkSize(byte[] bytes, int offset) {
+        if(bytes == null || bytes.length <= offset)
+            throw new IllegalArgumentException("Invalid byte array for serialization--no bytes to read.");
+        int numEntries = ByteUtils.readShort(bytes, offset);
+        int versionSize = bytes[offset + 2];
+        int entrySize = ByteUtils.SIZE_OF_SHORT + versionSize;
+        int minimumBytes = offset + HEADER_SIZE + numEntries * entrySize + ByteUtils.SIZE_OF_LONG;
+        if(bytes.length < minimumBytes)
+            throw new IllegalArgumentException("Too few bytes: expected at least " + minimumBytes
+                                               + " but found only " + bytes.length + ".");
+    }
+
+    /**
+     * Get the serialized form of the clock. The bytes are cached until the
+     * clock changes, so they must not be modified.
+     * 
+     * @return The serialized clock
+     */
     public byte[] toBytes() {
-        byte[] serialized = new byte[sizeInBytes()];
+        byte[] bytes = this.serialized;
+        if(bytes != null)
+            return bytes;
+
+        bytes = new byte[sizeInBytes()];
         // write the number of versions
-        ByteUtils.writeShort(serialized, (short) versions.size(), 0);
+        ByteUtils.writeShort(bytes, (short) size, 0);
         // write the size of each version in bytes
         byte versionSize = ByteUtils.numberOfBytesRequired(getMaxVersion());
-        serialized[2] = versionSize;
+        bytes[2] = versionSize;
 
         int clockEntrySize = ByteUtils.SIZE_OF_SHORT + versionSize;
-        int start = 3;
-        for(ClockEntry v: versions) {
-            ByteUtils.writeShort(serialized, v.getNodeId(), start);
-            ByteUtils.writeBytes(serialized,
-                                 v.getVersion(),
-                                 start + ByteUtils.SIZE_OF_SHORT,
-                                 versionSize);
+        int start = HEADER_SIZE;
+        for(int i = 0; i < size; i++) {
+            ByteUtils.writeShort(bytes, nodeIds[i], start);
+            ByteUtils.writeBytes(bytes, versions[i], start + ByteUtils.SIZE_OF_SHORT, versionSize);
             start += clockEntrySize;
         }
-        ByteUtils.writeLong(serialized, this.timestamp, start);
-        return serialized;
+        ByteUtils.writeLong(bytes, this.timestamp, start);
+        this.serialized = bytes;
+        return bytes;
     }
 
     public int sizeInBytes() {
         byte versionSize = ByteUtils.numberOfBytesRequired(getMaxVersion());
-        return ByteUtils.SIZE_OF_SHORT + 1 + this.versions.size()
-               * (ByteUtils.SIZE_OF_SHORT + versionSize) + ByteUtils.SIZE_OF_LONG;
+        return HEADER_SIZE + size * (ByteUtils.SIZE_OF_SHORT + versionSize)
+               + ByteUtils.SIZE_OF_LONG;
     }
 
     /**
@@ -151,31 +201,79 @@ public class VectorClock implements Version, Serializable {
                                                + " is outside the acceptable range of node ids.");
 
         this.timestamp = time;
+        this.serialized = null;
 
         // stop on the index greater or equal to the node
-        boolean found = false;
         int index = 0;
-        for(; index < versions.size(); index++) {
-            if(versions.get(index).getNodeId() == node) {
-                found = true;
-                break;
-            } else if(versions.get(index).getNodeId() > node) {
-                found = false;
-                break;
-            }
-        }
+        while(index < size && nodeIds[index] < node)
+            index++;
 
-        if(found) {
-            versions.set(index, versions.get(index).incremented());
-        } else if(index < versions.size() - 1) {
-            versions.add(index, new ClockEntry((short) node, 1));
+        if(index < size && nodeIds[index] == node) {
+            versions[index]++;
         } else {
             // we don't already have a version for this, so add it
-            if(versions.size() > MAX_NUMBER_OF_VERSIONS)
+            if(size > MAX_NUMBER_OF_VERSIONS)
                 throw new IllegalStateException("Vector clock is full!");
-            versions.add(index, new ClockEntry((short) node, 1));
+            if(size == nodeIds.length) {
+                int capacity = Math.max(4, size * 2);
+                short[] newNodeIds = new short[capacity];
+                long[] newVersions = new long[capacity];
+                System.arraycopy(nodeIds, 0, newNodeIds, 0, size);
+                System.arraycopy(versions, 0, newVersions, 0, size);
+                nodeIds = newNodeIds;
+                versions = newVersions;
+            }
+            System.arraycopy(nodeIds, index, nodeIds, index + 1, size - index);
+            System.arraycopy(versions, index, versions, index + 1, size - index);
+            nodeIds[index] = (short) node;
+            versions[index] = 1;
+            size++;
+        }
+    }
+
+    /**
+     * Remove entries until at most the given number remain. The entry of the
+     * given node is always kept, and the other entries are kept in order of
+     * decreasing version.
+     * 
+     * @param nodeId The node whose entry is kept
+     * @param maxEntries The largest number of entries to keep, at least 1
+     * @return true if any entries were removed
+     */
+    public boolean pruneEntries(int nodeId, int maxEntries) {
+        if(maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be at least 1.");
+        if(size <= maxEntries)
+            return false;
+
+        boolean[] keep = new boolean[size];
+        int kept = 0;
+        for(int i = 0; i < size; i++) {
+            if(nodeIds[i] == nodeId) {
+                keep[i] = true;
+                kept++;
+            }
+        }
+        while(kept < maxEntries) {
+            int highest = -1;
+            for(int i = 0; i < size; i++) {
+                if(!keep[i] && (highest < 0 || versions[i] > versions[highest]))
+                    highest = i;
+            }
+            keep[highest] = true;
+            kept++;
         }
 
+        int n = 0;
+        for(int i = 0; i < size; i++) {
+            if(keep[i]) {
+                nodeIds[n] = nodeIds[i];
+                versions[n++] = versions[i];
+            }
+        }
+        size = n;
+        serialized = null;
+        return true;
     }
 
     /**
@@ -193,7 +291,11 @@ public class VectorClock implements Version, Serializable {
 
     @Override
     public VectorClock clone() {
-        return new VectorClock(Lists.newArrayList(versions), this.timestamp);
+        short[] newNodeIds = new short[size];
+        long[] newVersions = new long[size];
+        System.arraycopy(nodeIds, 0, newNodeIds, 0, size);
+        System.arraycopy(versions, 0, newVersions, 0, size);
+        return new VectorClock(newNodeIds, newVersions, size, this.timestamp);
     }
 
     @Override
@@ -205,24 +307,33 @@ public class VectorClock implements Version, Serializable {
         if(!object.getClass().equals(VectorClock.class))
             return false;
         VectorClock clock = (VectorClock) object;
-        return versions.equals(clock.versions);
+        if(size != clock.size)
+            return false;
+        for(int i = 0; i < size; i++) {
+            if(nodeIds[i] != clock.nodeIds[i] || versions[i] != clock.versions[i])
+                return false;
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return versions.hashCode();
+        int hashCode = 1;
+        for(int i = 0; i < size; i++)
+            hashCode = 31 * hashCode + nodeIds[i] + (((int) versions[i]) << 16);
+        return hashCode;
     }
 
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
         builder.append("version(");
-        if(this.versions.size() > 0) {
-            for(int i = 0; i < this.versions.size() - 1; i++) {
-                builder.append(this.versions.get(i));
+        for(int i = 0; i < size; i++) {
+            if(i > 0)
                 builder.append(", ");
-            }
-            builder.append(this.versions.get(this.versions.size() - 1));
+            builder.append(nodeIds[i]);
+            builder.append(":");
+            builder.append(versions[i]);
         }
         builder.append(")");
         return builder.toString();
@@ -230,39 +341,41 @@ public class VectorClock implements Version, Serializable {
 
     public long getMaxVersion() {
         long max = -1;
-        for(ClockEntry entry: versions)
-            max = Math.max(entry.getVersion(), max);
+        for(int i = 0; i < size; i++)
+            max = Math.max(versions[i], max);
         return max;
     }
 
     public VectorClock merge(VectorClock clock) {
-        VectorClock newClock = new VectorClock();
+        short[] newNodeIds = new short[this.size + clock.size];
+        long[] newVersions = new long[this.size + clock.size];
+        int n = 0;
         int i = 0;
         int j = 0;
-        while(i < this.versions.size() && j < clock.versions.size()) {
-            ClockEntry v1 = this.versions.get(i);
-            ClockEntry v2 = clock.versions.get(j);
-            if(v1.getNodeId() == v2.getNodeId()) {
-                newClock.versions.add(new ClockEntry(v1.getNodeId(), Math.max(v1.getVersion(),
-                                                                              v2.getVersion())));
-                i++;
-                j++;
-            } else if(v1.getNodeId() < v2.getNodeId()) {
-                newClock.versions.add(v1.clone());
-                i++;
+        while(i < this.size && j < clock.size) {
+            if(this.nodeIds[i] == clock.nodeIds[j]) {
+                newNodeIds[n] = this.nodeIds[i];
+                newVersions[n++] = Math.max(this.versions[i++], clock.versions[j++]);
+            } else if(this.nodeIds[i] < clock.nodeIds[j]) {
+                newNodeIds[n] = this.nodeIds[i];
+                newVersions[n++] = this.versions[i++];
             } else {
-                newClock.versions.add(v2.clone());
-                j++;
+                newNodeIds[n] = clock.nodeIds[j];
+                newVersions[n++] = clock.versions[j++];
             }
         }
 
         // Okay now there may be leftovers on one or the other list remaining
-        for(int k = i; k < this.versions.size(); k++)
-            newClock.versions.add(this.versions.get(k).clone());
-        for(int k = j; k < clock.versions.size(); k++)
-            newClock.versions.add(clock.versions.get(k).clone());
+        for(; i < this.size; i++) {
+            newNodeIds[n] = this.nodeIds[i];
+            newVersions[n++] = this.versions[i];
+        }
+        for(; j < clock.size; j++) {
+            newNodeIds[n] = clock.nodeIds[j];
+            newVersions[n++] = clock.versions[j];
+        }
 
-        return newClock;
+        return new VectorClock(newNodeIds, newVersions, n, System.currentTimeMillis());
     }
 
     public Occured compare(Version v) {
@@ -272,6 +385,78 @@ public class VectorClock implements Version, Serializable {
         return compare(this, (VectorClock) v);
     }
 
+    /**
+     * Compare this clock to a serialized clock without deserializing it
+     * 
+     * @param bytes The bytes holding the other clock
+     * @param offset The offset of the other clock in the bytes
+     * @return The order of this clock relative to the other one, as given by
+     *         {@link #compare(VectorClock, VectorClock)}
+     */
+    public Occured compare(byte[] bytes, int offset) {
+        int bigger = compareToBytes(bytes, offset);
+        return toOccured((bigger & FIRST_BIGGER) != 0, (bigger & SECOND_BIGGER) != 0);
+    }
+
+    /**
+     * Compare a serialized clock to a clock without deserializing it
+     * 
+     * @param bytes The bytes holding the first clock
+     * @param offset The offset of the first clock in the bytes
+     * @param v The second clock
+     * @return The order of the serialized clock relative to the second one, as
+     *         given by {@link #compare(VectorClock, VectorClock)}
+     */
+    public static Occured compare(byte[] bytes, int offset, Version v) {
+        if(!(v instanceof VectorClock))
+            throw new IllegalArgumentException("Cannot compare Versions of different types.");
+        int bigger = ((VectorClock) v).compareToBytes(bytes, offset);
+        return toOccured((bigger & SECOND_BIGGER) != 0, (bigger & FIRST_BIGGER) != 0);
+    }
+
+    /*
+     * Walk this clock and the serialized one together, returning FIRST_BIGGER
+     * if this clock has a greater entry and SECOND_BIGGER if the serialized
+     * clock has
+     */
+    private int compareToBytes(byte[] bytes, int offset) {
+        checkSize(bytes, offset);
+        int numEntries = ByteUtils.readShort(bytes, offset);
+        int versionSize = bytes[offset + 2];
+        int entrySize = ByteUtils.SIZE_OF_SHORT + versionSize;
+        int bigger = 0;
+        int p1 = 0;
+        int p2 = 0;
+        int index = offset + HEADER_SIZE;
+        while(p1 < size && p2 < numEntries) {
+            short nodeId = ByteUtils.readShort(bytes, index);
+            if(nodeIds[p1] == nodeId) {
+                long version = ByteUtils.readBytes(bytes,
+                                                   index + ByteUtils.SIZE_OF_SHORT,
+                                                   versionSize);
+                if(versions[p1] > version)
+                    bigger |= FIRST_BIGGER;
+                else if(version > versions[p1])
+                    bigger |= SECOND_BIGGER;
+                p1++;
+                p2++;
+                index += entrySize;
+            } else if(nodeIds[p1] > nodeId) {
+                bigger |= SECOND_BIGGER;
+                p2++;
+                index += entrySize;
+            } else {
+                bigger |= FIRST_BIGGER;
+                p1++;
+            }
+        }
+        if(p1 < size)
+            bigger |= FIRST_BIGGER;
+        else if(p2 < numEntries)
+            bigger |= SECOND_BIGGER;
+        return bigger;
+    }
+
     /**
      * Is this Reflexive, AntiSymetic, and Transitive? Compare two VectorClocks,
      * the outcomes will be one of the following: -- Clock 1 is BEFORE clock 2
@@ -292,17 +477,15 @@ public class VectorClock implements Version, Serializable {
         int p1 = 0;
         int p2 = 0;
 
-        while(p1 < v1.versions.size() && p2 < v2.versions.size()) {
-            ClockEntry ver1 = v1.versions.get(p1);
-            ClockEntry ver2 = v2.versions.get(p2);
-            if(ver1.getNodeId() == ver2.getNodeId()) {
-                if(ver1.getVersion() > ver2.getVersion())
+        while(p1 < v1.size && p2 < v2.size) {
+            if(v1.nodeIds[p1] == v2.nodeIds[p2]) {
+                if(v1.versions[p1] > v2.versions[p2])
                     v1Bigger = true;
-                else if(ver2.getVersion() > ver1.getVersion())
+                else if(v2.versions[p2] > v1.versions[p1])
                     v2Bigger = true;
                 p1++;
                 p2++;
-            } else if(ver1.getNodeId() > ver2.getNodeId()) {
+            } else if(v1.nodeIds[p1] > v2.nodeIds[p2]) {
                 // since ver1 is bigger that means it is missing a version that
                 // ver2 has
                 v2Bigger = true;
@@ -316,11 +499,15 @@ public class VectorClock implements Version, Serializable {
         }
 
         /* Okay, now check for left overs */
-        if(p1 < v1.versions.size())
+        if(p1 < v1.size)
             v1Bigger = true;
-        else if(p2 < v2.versions.size())
+        else if(p2 < v2.size)
             v2Bigger = true;
 
+        return toOccured(v1Bigger, v2Bigger);
+    }
+
+    private static Occured toOccured(boolean v1Bigger, boolean v2Bigger) {
         /* This is the case where they are equal, return BEFORE arbitrarily */
         if(!v1Bigger && !v2Bigger)
             return Occured.BEFORE;
@@ -339,8 +526,15 @@ public class VectorClock implements Version, Serializable {
         return this.timestamp;
     }
 
+    /**
+     * @return A copy of the live versions ordered from least to greatest node
+     *         id
+     */
     public List<ClockEntry> getEntries() {
-        return this.versions;
+        List<ClockEntry> entries = new ArrayList<ClockEntry>(size);
+        for(int i = 0; i < size; i++)
+            entries.add(new ClockEntry(nodeIds[i], versions[i]));
+        return entries;
     }
 
 }
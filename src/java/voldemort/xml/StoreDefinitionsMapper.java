@@ -79,6 +79,8 @@ public class StoreDefinitionsMapper {
     public final static String STORE_RETENTION_POLICY_ELMT = "retention-days";
     public final static String STORE_RETENTION_SCAN_THROTTLE_RATE_ELMT = "retention-scan-throttle-rate";
     public final static String STORE_ROUTING_STRATEGY = "routing-strategy";
+    public final static String STORE_VECTOR_CLOCK_MAX_ENTRIES_ELMT = "vector-clock-max-entries";
+    public final static String STORE_VECTOR_CLOCK_MAX_AGE_MS_ELMT = "vector-clock-max-age-ms";
     public final static String VIEW_ELMT = "view";
     public final static String VIEW_TARGET_ELMT = "view-of";
     public final static String VIEW_TRANS_ELMT = "view-class";
@@ -179,6 +181,15 @@ public class StoreDefinitionsMapper {
                 retentionThrottleRate = Integer.parseInt(throttleRate.getText());
         }
 
+        String clockMaxEntriesStr = store.getChildText(STORE_VECTOR_CLOCK_MAX_ENTRIES_ELMT);
+        Integer clockMaxEntries = null;
+        if(clockMaxEntriesStr != null)
+            clockMaxEntries = Integer.parseInt(clockMaxEntriesStr);
+        String clockMaxAgeStr = store.getChildText(STORE_VECTOR_CLOCK_MAX_AGE_MS_ELMT);
+        Long clockMaxAgeMs = null;
+        if(clockMaxAgeStr != null)
+            clockMaxAgeMs = Long.parseLong(clockMaxAgeStr);
+
         return new StoreDefinitionBuilder().setName(name)
                                            .setType(storeType)
                                            .setKeySerializer(keySerializer)
@@ -192,6 +203,8 @@ public class StoreDefinitionsMapper {
                                            .setRequiredWrites(requiredWrites)
                                            .setRetentionPeriodDays(retentionPolicyDays)
                                            .setRetentionScanThrottleRate(retentionThrottleRate)
+                                           .setVectorClockMaxEntries(clockMaxEntries)
+                                           .setVectorClockMaxAgeMs(clockMaxAgeMs)
                                            .build();
     }
 
@@ -241,6 +254,8 @@ public class StoreDefinitionsMapper {
                                            .setPreferredWrites(preferredWrites)
                                            .setRequiredWrites(requiredWrites)
                                            .setView(valTrans)
+                                           .setVectorClockMaxEntries(target.getVectorClockMaxEntries())
+                                           .setVectorClockMaxAgeMs(target.getVectorClockMaxAgeMs())
                                            .build();
     }
 
@@ -332,6 +347,12 @@ public class StoreDefinitionsMapper {
         if(storeDefinition.hasRetentionScanThrottleRate())
             store.addContent(new Element(STORE_RETENTION_SCAN_THROTTLE_RATE_ELMT).setText(Integer.toString(storeDefinition.getRetentionScanThrottleRate())));
 
+        if(storeDefinition.hasVectorClockMaxEntries())
+            store.addContent(new Element(STORE_VECTOR_CLOCK_MAX_ENTRIES_ELMT).setText(Integer.toString(storeDefinition.getVectorClockMaxEntries())));
+
+        if(storeDefinition.hasVectorClockMaxAgeMs())
+            store.addContent(new Element(STORE_VECTOR_CLOCK_MAX_AGE_MS_ELMT).setText(Long.toString(storeDefinition.getVectorClockMaxAgeMs())));
+
         return store;
     }
 
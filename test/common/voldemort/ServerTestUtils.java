@@ -136,6 +136,9 @@ public class ServerTestUtils {
                                                  port,
                                                  bufferSize,
                                                  coreConnections,
+                                                 maxConnections,
+                                                 1000,
+                                                 10 * 1024 * 1024,
                                                  "client-request-service",
                                                  false);
         } else {
@@ -0,0 +1,104 @@
+package voldemort.performance;
+
+import java.util.Random;
+
+import voldemort.store.compress.lzf.ChunkEncoder;
+import voldemort.store.compress.lzf.LZFChunk;
+import voldemort.store.compress.lzf.LZFDecoder;
+import voldemort.store.compress.lzf.LZFEncoder;
+import voldemort.utils.Time;
+import voldemort.utils.Utils;
+
+/**
+ * Compares the LZF encoder reused by each thread, and encoding into a buffer,
+ * with creating an encoder and a list of chunks for every value as the
+ * encoder used to. Each variant is run for a few warmup rounds before being
+ * measured.
+ * 
+ * 
+ */
+public class LzfPerformanceTest {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 5;
+
+    private interface Codec {
+
+        int run(byte[] data) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 2)
+            Utils.croak("USAGE: java " + LzfPerformanceTest.class.getName()
+                        + " value-size num-values");
+        int valueSize = Integer.parseInt(args[0]);
+        int numValues = Integer.parseInt(args[1]);
+
+        Random random = new Random(1234);
+        String[] words = { "\"member_id\":", "\"name\":\"", "\"headline\":\"", "engineer", "," };
+        byte[][] values = new byte[1000][];
+        for(int i = 0; i < values.length; i++) {
+            StringBuilder builder = new StringBuilder();
+            while(builder.length() < valueSize)
+                builder.append(words[random.nextInt(words.length)]).append(random.nextInt(1000));
+            values[i] = builder.substring(0, valueSize).getBytes();
+        }
+
+        final ChunkEncoder encoder = new ChunkEncoder();
+        final byte[] buffer = new byte[LZFEncoder.maxEncodedLength(valueSize)];
+        final byte[] decoded = new byte[valueSize];
+        final byte[] encoded = LZFEncoder.encode(values[0]);
+
+        measure("encode, new encoder per value", values, numValues, new Codec() {
+
+            public int run(byte[] data) {
+                // what LZFEncoder.encode() used to do
+                ChunkEncoder encoder = new ChunkEncoder(LZFChunk.MAX_CHUNK_LEN);
+                return encoder.encodeChunk(data, 0, data.length).getData().length;
+            }
+        });
+        measure("encode, thread local encoder", values, numValues, new Codec() {
+
+            public int run(byte[] data) {
+                return LZFEncoder.encode(data).length;
+            }
+        });
+        measure("encode into buffer", values, numValues, new Codec() {
+
+            public int run(byte[] data) {
+                return LZFEncoder.encode(encoder, data, 0, data.length, buffer, 0);
+            }
+        });
+        measure("decode", values, numValues, new Codec() {
+
+            public int run(byte[] data) throws Exception {
+                return LZFDecoder.decode(encoded).length;
+            }
+        });
+        measure("decode into buffer", values, numValues, new Codec() {
+
+            public int run(byte[] data) throws Exception {
+                return LZFDecoder.decode(encoded, 0, encoded.length, decoded, 0);
+            }
+        });
+    }
+
+    private static void measure(String name, byte[][] values, int numValues, Codec codec)
+            throws Exception {
+        long checksum = 0;
+        for(int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for(int i = 0; i < numValues; i++)
+                checksum += codec.run(values[i % values.length]);
+            long elapsed = System.nanoTime() - start;
+            if(round >= WARMUP_ROUNDS)
+                System.out.println(name + ": " + (elapsed / numValues) + " ns/value, "
+                                   + (numValues * (double) values[0].length * Time.NS_PER_SECOND
+                                      / elapsed / (1024 * 1024)) + " MB/s");
+        }
+        // keep the work from being optimized away
+        if(checksum == 42)
+            System.out.println();
+    }
+
+}
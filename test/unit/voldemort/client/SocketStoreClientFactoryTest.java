@@ -44,13 +44,16 @@ public class SocketStoreClientFactoryTest extends AbstractStoreClientFactoryTest
 
     private final boolean useNio;
 
-    public SocketStoreClientFactoryTest(boolean useNio) {
+    private final boolean nonblockingTransport;
+
+    public SocketStoreClientFactoryTest(boolean useNio, boolean nonblockingTransport) {
         this.useNio = useNio;
+        this.nonblockingTransport = nonblockingTransport;
     }
 
     @Parameters
     public static Collection<Object[]> configs() {
-        return Arrays.asList(new Object[][] { { true }, { false } });
+        return Arrays.asList(new Object[][] { { true, false }, { false, false }, { true, true } });
     }
 
     @Override
@@ -74,14 +77,16 @@ public class SocketStoreClientFactoryTest extends AbstractStoreClientFactoryTest
 
     @Override
     protected StoreClientFactory getFactory(String... bootstrapUrls) {
-        return new SocketStoreClientFactory(new ClientConfig().setBootstrapUrls(bootstrapUrls));
+        return new SocketStoreClientFactory(new ClientConfig().setBootstrapUrls(bootstrapUrls)
+                                                              .setEnableNonblockingTransport(nonblockingTransport));
     }
 
     @Override
     protected StoreClientFactory getFactoryWithSerializer(SerializerFactory factory,
                                                           String... bootstrapUrls) {
         return new SocketStoreClientFactory(new ClientConfig().setBootstrapUrls(bootstrapUrls)
-                                                              .setSerializerFactory(factory));
+                                                              .setSerializerFactory(factory)
+                                                              .setEnableNonblockingTransport(nonblockingTransport));
     }
 
     @Override
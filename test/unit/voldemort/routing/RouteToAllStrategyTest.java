@@ -0,0 +1,39 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.routing;
+
+import junit.framework.TestCase;
+import voldemort.ServerTestUtils;
+import voldemort.TestUtils;
+import voldemort.cluster.Cluster;
+
+public class RouteToAllStrategyTest extends TestCase {
+
+    public void testRoutesToAllNodes() {
+        Cluster cluster = ServerTestUtils.getLocalCluster(3);
+        RouteToAllStrategy strategy = new RouteToAllStrategy(cluster.getNodes());
+        assertEquals(3, strategy.routeRequest(TestUtils.randomBytes(10)).size());
+        assertEquals(3, strategy.getNodes().size());
+    }
+
+    public void testAllKeysShareTheLowestPartition() {
+        Cluster cluster = ServerTestUtils.getLocalCluster(2, new int[][] { { 4, 5 }, { 3, 1 } });
+        RouteToAllStrategy strategy = new RouteToAllStrategy(cluster.getNodes());
+        for(int i = 0; i < 10; i++)
+            assertEquals(1, strategy.getMasterPartition(TestUtils.randomBytes(10)));
+    }
+}
@@ -18,17 +18,23 @@ package voldemort.scheduled;
 
 import static voldemort.TestUtils.bytesEqual;
 
+import java.io.IOException;
 import java.util.Date;
+import java.util.Properties;
 
 import junit.framework.TestCase;
+import voldemort.ServerTestUtils;
 import voldemort.TestUtils;
+import voldemort.cluster.Cluster;
 import voldemort.server.StoreRepository;
+import voldemort.server.VoldemortServer;
 import voldemort.server.scheduler.SlopPusherJob;
 import voldemort.store.FailingStore;
 import voldemort.store.memory.InMemoryStorageEngine;
 import voldemort.store.slop.Slop;
 import voldemort.store.slop.Slop.Operation;
 import voldemort.utils.ByteArray;
+import voldemort.versioning.VectorClock;
 import voldemort.versioning.Versioned;
 
 public class SlopPusherTest extends TestCase {
@@ -83,7 +89,7 @@ public class SlopPusherTest extends TestCase {
             Slop slop = vs.getValue();
             assertEquals("Slop remains.", 0, repo.getSlopStore().get(slop.makeKey()).size());
             assertTrue(bytesEqual(slop.getValue(), repo.getNodeStore(STORE_NAME, slop.getNodeId())
-                                                       .get(slop.makeKey())
+                                                       .get(slop.getKey())
                                                        .get(0)
                                                        .getValue()));
         }
@@ -114,4 +120,188 @@ public class SlopPusherTest extends TestCase {
         pushSlop(good1, bad, good2);
         checkPush(new Versioned[] { good1, good2 }, new Versioned[] { bad });
     }
+
+    @SuppressWarnings("unchecked")
+    public void testPushManyBatches() {
+        pusher = new SlopPusherJob(repo, null, 7, 2, 10 * 1000 * 1000);
+        Versioned<Slop>[] values = new Versioned[100];
+        for(int i = 0; i < values.length; i++)
+            values[i] = randomSlop(STORE_NAME, i % 2);
+        pushSlop(values);
+        checkPush(values, new Versioned[] {});
+        assertEquals(100, pusher.getAttemptedPushes());
+        assertEquals(100, pusher.getSlopsPushed());
+        assertEquals(0, pusher.getFailedPushes());
+        assertEquals(16, pusher.getBatchesPushed());
+        assertEquals(100 * 20, pusher.getBytesPushed());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testFailingNodeIsSkipped() {
+        pusher = new SlopPusherJob(repo, null, 1, 1, 10 * 1000 * 1000);
+        Versioned<Slop>[] good = new Versioned[10];
+        Versioned<Slop>[] bad = new Versioned[10];
+        Versioned<Slop>[] all = new Versioned[20];
+        for(int i = 0; i < good.length; i++) {
+            good[i] = randomSlop(STORE_NAME, 0);
+            bad[i] = randomSlop(STORE_NAME, failingNodeId);
+            all[2 * i] = good[i];
+            all[2 * i + 1] = bad[i];
+        }
+        pushSlop(all);
+        checkPush(good, bad);
+        assertEquals(20, pusher.getAttemptedPushes());
+        assertEquals(10, pusher.getSlopsPushed());
+        assertEquals(10, pusher.getFailedPushes());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testPushDelete() {
+        ByteArray key = new ByteArray(TestUtils.randomBytes(10));
+        VectorClock clock = new VectorClock().incremented(0, System.currentTimeMillis());
+        repo.getNodeStore(STORE_NAME, 0).put(key,
+                                             new Versioned<byte[]>(TestUtils.randomBytes(10), clock));
+        Versioned<Slop> delete = new Versioned<Slop>(new Slop(STORE_NAME,
+                                                              Operation.DELETE,
+                                                              key,
+                                                              null,
+                                                              0,
+                                                              new Date()),
+                                                     clock.incremented(0,
+                                                                       System.currentTimeMillis()));
+        Versioned<Slop> put = randomSlop(STORE_NAME, 0);
+        pushSlop(delete, put);
+        checkPush(new Versioned[] { put }, new Versioned[] {});
+        assertEquals(0, repo.getSlopStore().get(delete.getValue().makeKey()).size());
+        assertEquals(0, repo.getNodeStore(STORE_NAME, 0).get(key).size());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testPushThroughAdminClient() throws IOException {
+        String storeName = "test-replication-memory";
+        Cluster cluster = ServerTestUtils.getLocalCluster(2, new int[][] { { 0, 1, 2, 3 },
+                { 4, 5, 6, 7 } });
+        VoldemortServer server = ServerTestUtils.startVoldemortServer(ServerTestUtils.createServerConfig(false,
+                                                                                                         0,
+                                                                                                         TestUtils.createTempDir()
+                                                                                                                  .getAbsolutePath(),
+                                                                                                         null,
+                                                                                                         "test/common/voldemort/config/stores.xml",
+                                                                                                         new Properties()),
+                                                                      cluster);
+        try {
+            pusher = new SlopPusherJob(repo, server.getMetadataStore(), 10, 2, 10 * 1000 * 1000);
+            Versioned<Slop>[] values = new Versioned[25];
+            for(int i = 0; i < values.length; i++)
+                values[i] = randomSlop(storeName, 0);
+            pushSlop(values);
+
+            assertEquals(25, pusher.getSlopsPushed());
+            assertEquals(3, pusher.getBatchesPushed());
+            for(Versioned<Slop> vs: values) {
+                Slop slop = vs.getValue();
+                assertEquals("Slop remains.", 0, repo.getSlopStore().get(slop.makeKey()).size());
+                assertTrue(bytesEqual(slop.getValue(), server.getStoreRepository()
+                                                             .getStorageEngine(storeName)
+                                                             .get(slop.getKey())
+                                                             .get(0)
+                                                             .getValue()));
+            }
+        } finally {
+            ServerTestUtils.stopVoldemortServer(server);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testMixedBatchStreamsPuts() throws IOException {
+        String storeName = "test-replication-memory";
+        Cluster cluster = ServerTestUtils.getLocalCluster(2, new int[][] { { 0, 1, 2, 3 },
+                { 4, 5, 6, 7 } });
+        VoldemortServer server = ServerTestUtils.startVoldemortServer(ServerTestUtils.createServerConfig(false,
+                                                                                                         0,
+                                                                                                         TestUtils.createTempDir()
+                                                                                                                  .getAbsolutePath(),
+                                                                                                         null,
+                                                                                                         "test/common/voldemort/config/stores.xml",
+                                                                                                         new Properties()),
+                                                                      cluster);
+        try {
+            // only the delete should go through the node store
+            InMemoryStorageEngine<ByteArray, byte[]> nodeStore = new InMemoryStorageEngine<ByteArray, byte[]>(storeName);
+            repo.addNodeStore(0, nodeStore);
+            ByteArray key = new ByteArray(TestUtils.randomBytes(10));
+            VectorClock clock = new VectorClock().incremented(0, System.currentTimeMillis());
+            nodeStore.put(key, new Versioned<byte[]>(TestUtils.randomBytes(10), clock));
+
+            pusher = new SlopPusherJob(repo, server.getMetadataStore(), 10, 2, 10 * 1000 * 1000);
+            Versioned<Slop>[] values = new Versioned[9];
+            for(int i = 0; i < values.length; i++)
+                values[i] = randomSlop(storeName, 0);
+            Versioned<Slop> delete = new Versioned<Slop>(new Slop(storeName,
+                                                                  Operation.DELETE,
+                                                                  key,
+                                                                  null,
+                                                                  0,
+                                                                  new Date()),
+                                                         clock.incremented(0,
+                                                                           System.currentTimeMillis()));
+            repo.getSlopStore().put(delete.getValue().makeKey(), delete);
+            pushSlop(values);
+
+            assertEquals(10, pusher.getSlopsPushed());
+            assertEquals(1, pusher.getBatchesPushed());
+            assertEquals(0, repo.getSlopStore().get(delete.getValue().makeKey()).size());
+            assertEquals(0, nodeStore.get(key).size());
+            for(Versioned<Slop> vs: values) {
+                Slop slop = vs.getValue();
+                assertEquals("Slop remains.", 0, repo.getSlopStore().get(slop.makeKey()).size());
+                assertEquals(0, nodeStore.get(slop.getKey()).size());
+                assertTrue(bytesEqual(slop.getValue(), server.getStoreRepository()
+                                                             .getStorageEngine(storeName)
+                                                             .get(slop.getKey())
+                                                             .get(0)
+                                                             .getValue()));
+            }
+        } finally {
+            ServerTestUtils.stopVoldemortServer(server);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testServerSchedulesPusher() throws Exception {
+        String storeName = "test-replication-memory";
+        Cluster cluster = ServerTestUtils.getLocalCluster(2, new int[][] { { 0, 1, 2, 3 },
+                { 4, 5, 6, 7 } });
+        Properties props = new Properties();
+        props.put("slop.frequency.ms", "100");
+        VoldemortServer server = ServerTestUtils.startVoldemortServer(ServerTestUtils.createServerConfig(false,
+                                                                                                         0,
+                                                                                                         TestUtils.createTempDir()
+                                                                                                                  .getAbsolutePath(),
+                                                                                                         null,
+                                                                                                         "test/common/voldemort/config/stores.xml",
+                                                                                                         props),
+                                                                      cluster);
+        try {
+            StoreRepository serverRepo = server.getStoreRepository();
+            Versioned<Slop> slop = randomSlop(storeName, 0);
+            serverRepo.getSlopStore().put(slop.getValue().makeKey(), slop);
+
+            long deadline = System.currentTimeMillis() + 10 * 1000;
+            while(serverRepo.getSlopStore().get(slop.getValue().makeKey()).size() > 0
+                  && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+
+            assertEquals("Slop remains.", 0, serverRepo.getSlopStore()
+                                                       .get(slop.getValue().makeKey())
+                                                       .size());
+            assertTrue(bytesEqual(slop.getValue().getValue(),
+                                  serverRepo.getStorageEngine(storeName)
+                                            .get(slop.getValue().getKey())
+                                            .get(0)
+                                            .getValue()));
+        } finally {
+            ServerTestUtils.stopVoldemortServer(server);
+        }
+    }
 }
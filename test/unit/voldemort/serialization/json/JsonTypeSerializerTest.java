@@ -251,6 +251,70 @@ public class JsonTypeSerializerTest extends TestCase {
         }
     }
 
+    public void testReadProperty() {
+        String typeDef = "{\"name\":\"string\", \"age\":\"int32\", \"tags\":[\"string\"], "
+                         + "\"scores\":[\"float64\"], \"address\":{\"city\":\"string\", \"zip\":\"int32\"}, "
+                         + "\"updated\":\"date\"}";
+        Map<String, Object> address = Maps.newHashMap();
+        address.put("city", "Mountain View");
+        address.put("zip", 94043);
+        Map<String, Object> m = Maps.newHashMap();
+        m.put("name", "jay");
+        m.put("age", 28);
+        m.put("tags", asList("a", null, "c"));
+        m.put("scores", asList(1.0d, 2.0d));
+        m.put("address", address);
+        m.put("updated", new Date(1234L));
+
+        for(JsonTypeSerializer serializer: asList(getSerializer(typeDef),
+                                                  getSerializer(0, quote("string"), 1, typeDef))) {
+            byte[] bytes = serializer.toBytes(m);
+            for(String property: m.keySet())
+                assertEquals(m.get(property), serializer.readProperty(bytes, property));
+            assertEquals("Mountain View", serializer.readProperty(bytes, "address", "city"));
+            assertEquals(94043, serializer.readProperty(bytes, "address", "zip"));
+            assertEquals(m, serializer.readProperty(bytes));
+
+            m.put("address", null);
+            m.put("tags", null);
+            bytes = serializer.toBytes(m);
+            assertNull(serializer.readProperty(bytes, "address", "city"));
+            assertNull(serializer.readProperty(bytes, "tags"));
+            assertEquals(new Date(1234L), serializer.readProperty(bytes, "updated"));
+            m.put("address", address);
+            m.put("tags", asList("a", null, "c"));
+
+            assertReadPropertyFails(serializer, bytes, "nosuchproperty");
+            assertReadPropertyFails(serializer, bytes, "name", "first");
+            assertReadPropertyFails(serializer, new byte[] { 1, 1, 0 }, "updated");
+        }
+    }
+
+    public void testSkip() {
+        String typeDef = "{\"a\":[{\"b\":\"bytes\", \"c\":[\"int16\"]}], \"d\":\"boolean\"}";
+        JsonCodec codec = JsonCodec.compile(fromJson(typeDef).getType());
+        Map<String, Object> inner = Maps.newHashMap();
+        inner.put("b", new byte[2 * Short.MAX_VALUE]);
+        inner.put("c", asList((short) 1, (short) 2));
+        Map<String, Object> m = Maps.newHashMap();
+        m.put("a", asList(inner, null, inner));
+        m.put("d", true);
+        byte[] bytes = getSerializer(typeDef).toBytes(m);
+        assertEquals(bytes.length, codec.skip(bytes, 0));
+        assertEquals(true, getSerializer(typeDef).readProperty(bytes, "d"));
+    }
+
+    public void assertReadPropertyFails(JsonTypeSerializer serializer,
+                                        byte[] bytes,
+                                        String... path) {
+        try {
+            serializer.readProperty(bytes, path);
+            fail("Invalid property read allowed.");
+        } catch(SerializationException e) {
+            // this is good
+        }
+    }
+
     public void assertInvalidTypeDef(String typeDef) {
         try {
             fromJson(typeDef);
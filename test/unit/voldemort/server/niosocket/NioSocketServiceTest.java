@@ -0,0 +1,383 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.server.niosocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import voldemort.ServerTestUtils;
+import voldemort.TestUtils;
+import voldemort.VoldemortTestConstants;
+import voldemort.client.protocol.RequestFormatType;
+import voldemort.server.StoreRepository;
+import voldemort.server.protocol.RequestHandlerFactory;
+import voldemort.store.SleepyStore;
+import voldemort.store.Store;
+import voldemort.store.UnreachableStoreException;
+import voldemort.store.memory.InMemoryStorageEngine;
+import voldemort.store.nonblockingstore.NonblockingStoreCallback;
+import voldemort.store.socket.NonblockingSocketStore;
+import voldemort.store.socket.SocketDestination;
+import voldemort.store.socket.SocketStore;
+import voldemort.store.socket.clientrequest.ClientRequestExecutorPool;
+import voldemort.utils.ByteArray;
+import voldemort.versioning.Versioned;
+
+/**
+ * Tests that a request blocked in a slow store doesn't hold up the other
+ * connections of its selector, or the other requests pipelined on its own
+ * connection
+ * 
+ * 
+ */
+public class NioSocketServiceTest {
+
+    private static final long SLEEP_MS = 2000;
+
+    private int port;
+    private NioSocketService socketService;
+    private SocketStore slowStore;
+    private SocketStore fastStore;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        StoreRepository repository = new StoreRepository();
+        Store<ByteArray, byte[]> slow = new SleepyStore<ByteArray, byte[]>(SLEEP_MS,
+                                                                           new InMemoryStorageEngine<ByteArray, byte[]>("slow"));
+        Store<ByteArray, byte[]> fast = new InMemoryStorageEngine<ByteArray, byte[]>("fast");
+        repository.addLocalStore(slow);
+        repository.addLocalStore(fast);
+        RequestHandlerFactory factory = ServerTestUtils.getSocketRequestHandlerFactory(VoldemortTestConstants.getOneNodeClusterXml(),
+                                                                                       VoldemortTestConstants.getSimpleStoreDefinitionsXml(),
+                                                                                       repository);
+
+        port = ServerTestUtils.findFreePort();
+        // one selector, so that both connections share it
+        socketService = new NioSocketService(factory,
+                                             port,
+                                             32 * 1024,
+                                             1,
+                                             4,
+                                             10,
+                                             1024 * 1024,
+                                             "test",
+                                             false);
+        socketService.start();
+
+        slowStore = ServerTestUtils.getSocketStore("slow", port);
+        fastStore = ServerTestUtils.getSocketStore("fast", port);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        slowStore.close();
+        fastStore.close();
+        socketService.stop();
+    }
+
+    @Test
+    public void testSlowRequestDoesNotBlockSelector() throws Exception {
+        final ByteArray key = TestUtils.toByteArray("key");
+        fastStore.put(key, new Versioned<byte[]>("value".getBytes()));
+        // connect before the slow request is in progress
+        fastStore.get(key);
+
+        Future<List<Versioned<byte[]>>> slowGet = executor.submit(new Callable<List<Versioned<byte[]>>>() {
+
+            public List<Versioned<byte[]>> call() {
+                return slowStore.get(key);
+            }
+        });
+        // give the slow request time to reach the store
+        Thread.sleep(SLEEP_MS / 4);
+
+        long start = System.currentTimeMillis();
+        assertEquals(1, fastStore.get(key).size());
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Fast request took " + elapsed + " ms", elapsed < SLEEP_MS / 2);
+
+        assertEquals(0, slowGet.get().size());
+    }
+
+    @Test
+    public void testSaturatedWorkersDoNotExecuteOnSelector() throws Exception {
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        StoreRepository repository = new StoreRepository();
+        repository.addLocalStore(new SleepyStore<ByteArray, byte[]>(SLEEP_MS / 10,
+                                                                    new InMemoryStorageEngine<ByteArray, byte[]>("slow")) {
+
+            @Override
+            public List<Versioned<byte[]>> get(ByteArray key) {
+                threads.add(Thread.currentThread().getName());
+                return super.get(key);
+            }
+        });
+        RequestHandlerFactory factory = ServerTestUtils.getSocketRequestHandlerFactory(VoldemortTestConstants.getOneNodeClusterXml(),
+                                                                                       VoldemortTestConstants.getSimpleStoreDefinitionsXml(),
+                                                                                       repository);
+        int saturatedPort = ServerTestUtils.findFreePort();
+        // one worker and room for one more request in its queue
+        NioSocketService saturated = new NioSocketService(factory,
+                                                          saturatedPort,
+                                                          32 * 1024,
+                                                          1,
+                                                          1,
+                                                          1,
+                                                          1024 * 1024,
+                                                          "saturated",
+                                                          false);
+        saturated.start();
+        int numClients = 6;
+        ExecutorService clients = Executors.newFixedThreadPool(numClients);
+        List<SocketStore> stores = new ArrayList<SocketStore>();
+        try {
+            List<Future<List<Versioned<byte[]>>>> gets = new ArrayList<Future<List<Versioned<byte[]>>>>();
+            for(int i = 0; i < numClients; i++) {
+                final SocketStore store = ServerTestUtils.getSocketStore("slow", saturatedPort);
+                stores.add(store);
+                gets.add(clients.submit(new Callable<List<Versioned<byte[]>>>() {
+
+                    public List<Versioned<byte[]>> call() {
+                        return store.get(TestUtils.toByteArray("key"));
+                    }
+                }));
+            }
+            for(Future<List<Versioned<byte[]>>> get: gets)
+                assertEquals(0, get.get().size());
+
+            assertEquals("Requests executed outside the worker pool: " + threads,
+                         1,
+                         threads.size());
+            assertTrue(threads.iterator().next().startsWith("voldemort-niosocket-worker"));
+        } finally {
+            clients.shutdownNow();
+            for(SocketStore store: stores)
+                store.close();
+            saturated.stop();
+        }
+    }
+
+    @Test
+    public void testPipelinedResponsesReturnAsTheyComplete() throws Exception {
+        final ByteArray key = TestUtils.toByteArray("key");
+        fastStore.put(key, new Versioned<byte[]>("value".getBytes()));
+
+        // a single vp3 connection carries both requests
+        ClientRequestExecutorPool pool = new ClientRequestExecutorPool(1,
+                                                                       1,
+                                                                       10000,
+                                                                       10000,
+                                                                       32 * 1024,
+                                                                       false);
+        SocketDestination destination = new SocketDestination("localhost",
+                                                               port,
+                                                               RequestFormatType.VOLDEMORT_V3);
+        NonblockingSocketStore slowPipelined = new NonblockingSocketStore("slow",
+                                                                          destination,
+                                                                          pool,
+                                                                          false);
+        NonblockingSocketStore fastPipelined = new NonblockingSocketStore("fast",
+                                                                          destination,
+                                                                          pool,
+                                                                          false);
+        try {
+            final CountDownLatch slowLatch = new CountDownLatch(1);
+            final CountDownLatch fastLatch = new CountDownLatch(1);
+            final Object[] results = new Object[2];
+            slowPipelined.submitGetRequest(key, new NonblockingStoreCallback() {
+
+                public void requestComplete(Object result, long requestTime) {
+                    results[0] = result;
+                    slowLatch.countDown();
+                }
+            });
+            fastPipelined.submitGetRequest(key, new NonblockingStoreCallback() {
+
+                public void requestComplete(Object result, long requestTime) {
+                    results[1] = result;
+                    fastLatch.countDown();
+                }
+            });
+
+            assertTrue("The fast response waited for the slow one",
+                       fastLatch.await(SLEEP_MS / 2, TimeUnit.MILLISECONDS));
+            assertEquals(1, ((List<?>) results[1]).size());
+            assertEquals(1, slowLatch.getCount());
+
+            assertTrue(slowLatch.await(SLEEP_MS * 2, TimeUnit.MILLISECONDS));
+            assertEquals(0, ((List<?>) results[0]).size());
+            assertEquals(1, pool.getNumberSocketsCreated());
+        } finally {
+            slowPipelined.close();
+            fastPipelined.close();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testFullQueueFailsFast() throws Exception {
+        // one connection, busy with the first request, and room for one more
+        ClientRequestExecutorPool pool = new ClientRequestExecutorPool(1,
+                                                                       1,
+                                                                       10000,
+                                                                       10000,
+                                                                       32 * 1024,
+                                                                       false,
+                                                                       1);
+        NonblockingSocketStore store = new NonblockingSocketStore("slow",
+                                                                  new SocketDestination("localhost",
+                                                                                        port,
+                                                                                        RequestFormatType.VOLDEMORT_V1),
+                                                                  pool,
+                                                                  false);
+        try {
+            int numRequests = 3;
+            final CountDownLatch done = new CountDownLatch(numRequests);
+            final Object[] results = new Object[numRequests];
+            for(int i = 0; i < numRequests; i++) {
+                final int request = i;
+                store.submitGetRequest(TestUtils.toByteArray("key"), new NonblockingStoreCallback() {
+
+                    public void requestComplete(Object result, long requestTime) {
+                        results[request] = result;
+                        done.countDown();
+                    }
+                });
+            }
+
+            assertTrue("The request was queued",
+                       results[2] instanceof UnreachableStoreException);
+            assertTrue(done.await(SLEEP_MS * 5, TimeUnit.MILLISECONDS));
+            assertEquals(0, ((List<?>) results[0]).size());
+            assertEquals(0, ((List<?>) results[1]).size());
+        } finally {
+            store.close();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testPipelinedConnectionStopsReadingAtLimit() throws Exception {
+        final AtomicInteger started = new AtomicInteger(0);
+        StoreRepository repository = new StoreRepository();
+        repository.addLocalStore(new SleepyStore<ByteArray, byte[]>(SLEEP_MS,
+                                                                    new InMemoryStorageEngine<ByteArray, byte[]>("slow")) {
+
+            @Override
+            public List<Versioned<byte[]>> get(ByteArray key) {
+                started.incrementAndGet();
+                return super.get(key);
+            }
+        });
+        RequestHandlerFactory factory = ServerTestUtils.getSocketRequestHandlerFactory(VoldemortTestConstants.getOneNodeClusterXml(),
+                                                                                       VoldemortTestConstants.getSimpleStoreDefinitionsXml(),
+                                                                                       repository);
+        int limitedPort = ServerTestUtils.findFreePort();
+        int maxPipelinedRequests = 2;
+        NioSocketService limited = new NioSocketService(factory,
+                                                        limitedPort,
+                                                        32 * 1024,
+                                                        1,
+                                                        8,
+                                                        10,
+                                                        1024 * 1024,
+                                                        maxPipelinedRequests,
+                                                        1024 * 1024,
+                                                        "limited",
+                                                        false);
+        limited.start();
+        ClientRequestExecutorPool pool = new ClientRequestExecutorPool(1,
+                                                                       1,
+                                                                       10000,
+                                                                       10000,
+                                                                       32 * 1024,
+                                                                       false);
+        NonblockingSocketStore store = new NonblockingSocketStore("slow",
+                                                                  new SocketDestination("localhost",
+                                                                                        limitedPort,
+                                                                                        RequestFormatType.VOLDEMORT_V3),
+                                                                  pool,
+                                                                  false);
+        try {
+            int numRequests = 3 * maxPipelinedRequests;
+            final CountDownLatch done = new CountDownLatch(numRequests);
+            for(int i = 0; i < numRequests; i++) {
+                store.submitGetRequest(TestUtils.toByteArray("key" + i),
+                                       new NonblockingStoreCallback() {
+
+                                           public void requestComplete(Object result,
+                                                                       long requestTime) {
+                                               done.countDown();
+                                           }
+                                       });
+            }
+
+            // all the requests are on the wire, but the server only takes up
+            // as many as the limit until they're answered
+            Thread.sleep(SLEEP_MS / 2);
+            assertEquals(maxPipelinedRequests, started.get());
+            assertEquals(1, pool.getNumberSocketsCreated());
+
+            assertTrue(done.await(SLEEP_MS * 5, TimeUnit.MILLISECONDS));
+            assertEquals(numRequests, started.get());
+        } finally {
+            store.close();
+            pool.close();
+            limited.stop();
+        }
+    }
+
+    @Test
+    public void testLargeResponsesReusePooledBuffers() throws Exception {
+        ByteArray key = TestUtils.toByteArray("large");
+        // larger than the socket buffer size, so the buffers have to grow
+        byte[] value = TestUtils.randomBytes(100 * 1024);
+        fastStore.put(key, new Versioned<byte[]>(value));
+        assertEquals(1, fastStore.get(key).size());
+
+        long allocated = socketService.getBufferPoolAllocatedBytes();
+        for(int i = 0; i < 20; i++) {
+            List<Versioned<byte[]>> found = fastStore.get(key);
+            assertEquals(1, found.size());
+            assertEquals(value.length, found.get(0).getValue().length);
+        }
+        assertEquals("Growing a buffer allocated outside the pool",
+                     allocated,
+                     socketService.getBufferPoolAllocatedBytes());
+    }
+
+}
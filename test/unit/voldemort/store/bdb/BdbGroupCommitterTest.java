@@ -0,0 +1,127 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.bdb;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileDeleteStrategy;
+
+import voldemort.TestUtils;
+import voldemort.utils.ByteArray;
+import voldemort.versioning.Versioned;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+
+public class BdbGroupCommitterTest extends TestCase {
+
+    private File tempDir;
+    private Environment environment;
+    private Database database;
+    private BdbGroupCommitter committer;
+    private BdbStorageEngine store;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.tempDir = TestUtils.createTempDir();
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setAllowCreate(true);
+        envConfig.setTransactional(true);
+        this.environment = new Environment(tempDir, envConfig);
+        DatabaseConfig databaseConfig = new DatabaseConfig();
+        databaseConfig.setAllowCreate(true);
+        databaseConfig.setTransactional(true);
+        databaseConfig.setSortedDuplicates(true);
+        this.database = environment.openDatabase(null, "test", databaseConfig);
+        this.committer = new BdbGroupCommitter(environment, 2000, 16);
+        this.store = new BdbStorageEngine("test", environment, database, false, false, committer);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        try {
+            store.close();
+            environment.close();
+        } finally {
+            FileDeleteStrategy.FORCE.delete(tempDir);
+        }
+    }
+
+    public void testSingleWriter() {
+        ByteArray key = new ByteArray("key".getBytes());
+        store.put(key, new Versioned<byte[]>("value".getBytes()));
+        assertEquals(1, committer.getNumCommits());
+        assertEquals(1, committer.getNumSyncs());
+        assertEquals("value", new String(store.get(key).get(0).getValue()));
+    }
+
+    public void testInterruptedWriterKeepsCommit() {
+        ByteArray key = new ByteArray("key".getBytes());
+        Thread.currentThread().interrupt();
+        try {
+            store.put(key, new Versioned<byte[]>("value".getBytes()));
+            assertTrue("The interrupt status was lost.", Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(1, committer.getNumCommits());
+        assertEquals("value", new String(store.get(key).get(0).getValue()));
+    }
+
+    public void testConcurrentWritersShareSyncs() throws Exception {
+        final int numThreads = 16;
+        final int numPuts = 50;
+        final AtomicInteger failures = new AtomicInteger(0);
+        final CountDownLatch done = new CountDownLatch(numThreads);
+        for(int i = 0; i < numThreads; i++) {
+            final int thread = i;
+            new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for(int j = 0; j < numPuts; j++) {
+                            byte[] key = (thread + "-" + j).getBytes();
+                            store.put(new ByteArray(key), new Versioned<byte[]>(key));
+                        }
+                    } catch(Exception e) {
+                        e.printStackTrace();
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+
+        assertEquals(0, failures.get());
+        assertEquals(numThreads * numPuts, committer.getNumCommits());
+        assertTrue("Expected fewer syncs than commits, got " + committer.getNumSyncs(),
+                   committer.getNumSyncs() < numThreads * numPuts);
+        assertEquals(numThreads * numPuts, database.count());
+    }
+
+}
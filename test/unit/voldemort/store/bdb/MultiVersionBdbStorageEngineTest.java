@@ -0,0 +1,117 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.bdb;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileDeleteStrategy;
+
+import voldemort.TestUtils;
+import voldemort.store.AbstractStorageEngineTest;
+import voldemort.store.StorageEngine;
+import voldemort.utils.ByteArray;
+import voldemort.utils.ClosableIterator;
+import voldemort.utils.Pair;
+import voldemort.versioning.ObsoleteVersionException;
+import voldemort.versioning.Versioned;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+
+public class MultiVersionBdbStorageEngineTest extends AbstractStorageEngineTest {
+
+    private Environment environment;
+    private Database database;
+    private File tempDir;
+    private BdbStorageEngine store;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setTxnNoSync(true);
+        envConfig.setAllowCreate(true);
+        envConfig.setTransactional(true);
+        this.tempDir = TestUtils.createTempDir();
+        this.environment = new Environment(this.tempDir, envConfig);
+        DatabaseConfig databaseConfig = new DatabaseConfig();
+        databaseConfig.setAllowCreate(true);
+        databaseConfig.setTransactional(true);
+        databaseConfig.setSortedDuplicates(false);
+        this.database = environment.openDatabase(null, "test", databaseConfig);
+        this.store = new BdbStorageEngine("test", this.environment, this.database, false, true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        try {
+            store.close();
+            environment.close();
+        } finally {
+            FileDeleteStrategy.FORCE.delete(tempDir);
+        }
+    }
+
+    @Override
+    public StorageEngine<ByteArray, byte[]> getStorageEngine() {
+        return store;
+    }
+
+    public void testConcurrentVersionsShareOneRecord() throws Exception {
+        ByteArray key = new ByteArray("key".getBytes());
+        store.put(key, new Versioned<byte[]>("a".getBytes(), TestUtils.getClock(1)));
+        store.put(key, new Versioned<byte[]>("b".getBytes(), TestUtils.getClock(2)));
+        assertEquals(2, store.get(key).size());
+        assertEquals(2, store.getVersions(key).size());
+        assertEquals(1, database.count());
+
+        try {
+            store.put(key, new Versioned<byte[]>("c".getBytes(), TestUtils.getClock(1)));
+            fail("Put of an obsolete version succeeded.");
+        } catch(ObsoleteVersionException e) {
+            // this is good
+        }
+
+        int entries = 0;
+        ClosableIterator<Pair<ByteArray, Versioned<byte[]>>> iterator = store.entries();
+        try {
+            while(iterator.hasNext()) {
+                assertEquals(key, iterator.next().getFirst());
+                entries++;
+            }
+        } finally {
+            iterator.close();
+        }
+        assertEquals(2, entries);
+
+        // superseding both versions leaves a single one
+        store.put(key, new Versioned<byte[]>("d".getBytes(), TestUtils.getClock(1, 2)));
+        List<Versioned<byte[]>> found = store.get(key);
+        assertEquals(1, found.size());
+        assertEquals("d", new String(found.get(0).getValue()));
+
+        assertFalse(store.delete(key, TestUtils.getClock(1)));
+        assertTrue(store.delete(key, TestUtils.getClock(1, 2)));
+        assertEquals(0, store.get(key).size());
+        assertEquals(0, database.count());
+    }
+
+}
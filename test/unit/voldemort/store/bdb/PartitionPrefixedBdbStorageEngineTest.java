@@ -0,0 +1,241 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.bdb;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileDeleteStrategy;
+
+import voldemort.TestUtils;
+import voldemort.VoldemortTestConstants;
+import voldemort.routing.ConsistentRoutingStrategy;
+import voldemort.routing.RoutingStrategy;
+import voldemort.server.VoldemortConfig;
+import voldemort.store.AbstractStorageEngineTest;
+import voldemort.store.StorageEngine;
+import voldemort.store.StorageInitializationException;
+import voldemort.utils.ByteArray;
+import voldemort.utils.ClosableIterator;
+import voldemort.utils.Pair;
+import voldemort.utils.Props;
+import voldemort.versioning.Versioned;
+
+import com.google.common.collect.Sets;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+
+public class PartitionPrefixedBdbStorageEngineTest extends AbstractStorageEngineTest {
+
+    private Environment environment;
+    private Database database;
+    private File tempDir;
+    private RoutingStrategy routingStrategy;
+    private PartitionPrefixedBdbStorageEngine store;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setTxnNoSync(true);
+        envConfig.setAllowCreate(true);
+        envConfig.setTransactional(true);
+        this.tempDir = TestUtils.createTempDir();
+        this.environment = new Environment(this.tempDir, envConfig);
+        DatabaseConfig databaseConfig = new DatabaseConfig();
+        databaseConfig.setAllowCreate(true);
+        databaseConfig.setTransactional(true);
+        databaseConfig.setSortedDuplicates(true);
+        this.database = environment.openDatabase(null, "test", databaseConfig);
+        this.routingStrategy = new ConsistentRoutingStrategy(VoldemortTestConstants.getThreeNodeCluster()
+                                                                                   .getNodes(),
+                                                             2);
+        this.store = new PartitionPrefixedBdbStorageEngine("test",
+                                                           this.environment,
+                                                           this.database,
+                                                           routingStrategy);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        try {
+            store.close();
+            environment.close();
+        } finally {
+            FileDeleteStrategy.FORCE.delete(tempDir);
+        }
+    }
+
+    @Override
+    public StorageEngine<ByteArray, byte[]> getStorageEngine() {
+        return store;
+    }
+
+    public void testPartitionScans() {
+        List<Integer> partitions = Arrays.asList(4, 1);
+        Set<ByteArray> expected = Sets.newHashSet();
+        for(int i = 0; i < 500; i++) {
+            ByteArray key = new ByteArray(TestUtils.randomBytes(10));
+            store.put(key, Versioned.value(key.get()));
+            if(partitions.contains(routingStrategy.getMasterPartition(key.get())))
+                expected.add(key);
+        }
+        assertFalse(expected.isEmpty());
+
+        Set<ByteArray> found = Sets.newHashSet();
+        ClosableIterator<Pair<ByteArray, Versioned<byte[]>>> entries = store.entries(partitions);
+        try {
+            while(entries.hasNext()) {
+                Pair<ByteArray, Versioned<byte[]>> entry = entries.next();
+                assertTrue(Arrays.equals(entry.getFirst().get(), entry.getSecond().getValue()));
+                assertTrue("Duplicate key " + entry.getFirst(), found.add(entry.getFirst()));
+            }
+        } finally {
+            entries.close();
+        }
+        assertEquals(expected, found);
+
+        found.clear();
+        ClosableIterator<ByteArray> keys = store.keys(partitions);
+        try {
+            while(keys.hasNext())
+                found.add(keys.next());
+        } finally {
+            keys.close();
+        }
+        assertEquals(expected, found);
+    }
+
+    public void testEmptyPartitionScan() {
+        store.put(new ByteArray("abc".getBytes()), Versioned.value("abc".getBytes()));
+        int partition = routingStrategy.getMasterPartition("abc".getBytes());
+        ClosableIterator<ByteArray> keys = store.keys(Arrays.asList(partition + 1));
+        try {
+            assertFalse(keys.hasNext());
+        } finally {
+            keys.close();
+        }
+    }
+
+    public void testKeyLayoutIsCheckedOnOpen() throws Exception {
+        File bdbDir = TestUtils.createTempDir();
+        ByteArray key = TestUtils.toByteArray("key");
+        try {
+            // a store written with plain keys
+            BdbStorageConfiguration plain = getBdbStorageConfiguration(bdbDir, false);
+            StorageEngine<ByteArray, byte[]> engine = plain.getStore("plain", routingStrategy);
+            engine.put(key, Versioned.value("value".getBytes()));
+            engine.close();
+            plain.close();
+
+            BdbStorageConfiguration prefixed = getBdbStorageConfiguration(bdbDir, true);
+            try {
+                prefixed.getStore("plain", routingStrategy);
+                fail("A plain store should not be opened with prefixed keys");
+            } catch(StorageInitializationException e) {
+                // expected
+            }
+            // a new store is empty, so it takes whatever layout it is given
+            engine = prefixed.getStore("prefixed", routingStrategy);
+            engine.close();
+            prefixed.close();
+
+            plain = getBdbStorageConfiguration(bdbDir, false);
+            try {
+                plain.getStore("prefixed", routingStrategy);
+                fail("A prefixed store should not be opened with plain keys");
+            } catch(StorageInitializationException e) {
+                // expected
+            }
+            engine = plain.getStore("plain", routingStrategy);
+            assertEquals(1, engine.get(key).size());
+            engine.close();
+            plain.close();
+        } finally {
+            FileDeleteStrategy.FORCE.delete(bdbDir);
+        }
+    }
+
+    public void testRecordEncodingIsCheckedOnOpen() throws Exception {
+        File bdbDir = TestUtils.createTempDir();
+        ByteArray key = TestUtils.toByteArray("key");
+        try {
+            // a store written with a record per version
+            BdbStorageConfiguration single = getBdbStorageConfiguration(bdbDir, false, false);
+            StorageEngine<ByteArray, byte[]> engine = single.getStore("single", routingStrategy);
+            engine.put(key, Versioned.value("value".getBytes()));
+            engine.close();
+            single.close();
+
+            BdbStorageConfiguration multi = getBdbStorageConfiguration(bdbDir, false, true);
+            try {
+                multi.getStore("single", routingStrategy);
+                fail("A store with a record per version should not be opened with multi-version records");
+            } catch(StorageInitializationException e) {
+                // expected
+            }
+            engine = multi.getStore("multi", routingStrategy);
+            engine.put(key, Versioned.value("value".getBytes()));
+            engine.close();
+            multi.close();
+
+            single = getBdbStorageConfiguration(bdbDir, false, false);
+            try {
+                single.getStore("multi", routingStrategy);
+                fail("A store with multi-version records should not be opened with a record per version");
+            } catch(StorageInitializationException e) {
+                // expected
+            }
+            engine = single.getStore("single", routingStrategy);
+            assertEquals(1, engine.get(key).size());
+            engine.close();
+            single.close();
+
+            multi = getBdbStorageConfiguration(bdbDir, false, true);
+            engine = multi.getStore("multi", routingStrategy);
+            assertEquals(1, engine.get(key).size());
+            engine.close();
+            multi.close();
+        } finally {
+            FileDeleteStrategy.FORCE.delete(bdbDir);
+        }
+    }
+
+    private BdbStorageConfiguration getBdbStorageConfiguration(File bdbDir, boolean prefixed) {
+        return getBdbStorageConfiguration(bdbDir, prefixed, false);
+    }
+
+    private BdbStorageConfiguration getBdbStorageConfiguration(File bdbDir,
+                                                               boolean prefixed,
+                                                               boolean multiVersionRecords) {
+        Props props = new Props();
+        props.put("node.id", 1);
+        props.put("voldemort.home", "test/common/voldemort/config");
+        VoldemortConfig voldemortConfig = new VoldemortConfig(props);
+        voldemortConfig.setBdbCacheSize(1 * 1024 * 1024);
+        voldemortConfig.setBdbDataDirectory(bdbDir.toURI().getPath());
+        voldemortConfig.setBdbPartitionPrefixedKeys(prefixed);
+        voldemortConfig.setBdbMultiVersionRecords(multiVersionRecords);
+        return new BdbStorageConfiguration(voldemortConfig);
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.compress;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import voldemort.serialization.Compression;
+
+public class DictionaryCompressionStrategyTest extends TestCase {
+
+    private final Random random = new Random(4321);
+
+    private byte[] randomValue() {
+        return ("{\"member_id\":" + random.nextInt(1000000) + ",\"first_name\":\"name"
+                + random.nextInt(1000) + "\",\"last_name\":\"surname" + random.nextInt(1000)
+                + "\",\"headline\":\"Senior Software Engineer at company" + random.nextInt(100)
+                + "\",\"location\":{\"country\":\"us\",\"postal_code\":\""
+                + random.nextInt(99999) + "\"},\"connections\":" + random.nextInt(500) + "}").getBytes();
+    }
+
+    /* Get the options of a dictionary compression trained on random values */
+    private String train(int numSamples) {
+        DictionaryTrainer trainer = new DictionaryTrainer(4096);
+        for(int i = 0; i < numSamples; i++)
+            trainer.add(randomValue());
+        byte[] dictionary = trainer.train();
+        assertTrue(dictionary.length > 0 && dictionary.length <= 4096);
+        return DictionaryCompressionStrategy.addDictionary(null, dictionary);
+    }
+
+    private DictionaryCompressionStrategy getStrategy(String options) {
+        return (DictionaryCompressionStrategy) new CompressionStrategyFactory().get(new Compression(DictionaryCompressionStrategy.TYPE_NAME,
+                                                                                                   options));
+    }
+
+    public void testSmallValuesCompressBetterWithADictionary() throws IOException {
+        DictionaryCompressionStrategy strategy = getStrategy(train(200));
+        CompressionStrategy gzip = new GzipCompressionStrategy();
+        int original = 0, withDictionary = 0, withoutDictionary = 0;
+        for(int i = 0; i < 100; i++) {
+            byte[] value = randomValue();
+            byte[] deflated = strategy.deflate(value);
+            assertTrue(Arrays.equals(value, strategy.inflate(deflated)));
+            original += value.length;
+            withDictionary += deflated.length;
+            withoutDictionary += gzip.deflate(value).length;
+        }
+        assertTrue("Compressed to " + withDictionary + " bytes out of " + original,
+                   withDictionary < original / 2);
+        assertTrue(withDictionary < withoutDictionary);
+    }
+
+    public void testIncompressibleValues() throws IOException {
+        DictionaryCompressionStrategy strategy = getStrategy(train(50));
+        for(int size: new int[] { 0, 1, 10, 1000 }) {
+            byte[] value = new byte[size];
+            random.nextBytes(value);
+            byte[] deflated = strategy.deflate(value);
+            assertEquals(size + 1, deflated.length);
+            assertTrue(Arrays.equals(value, strategy.inflate(deflated)));
+        }
+    }
+
+    public void testLargeValues() throws IOException {
+        DictionaryCompressionStrategy strategy = getStrategy(train(50));
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < 1000; i++)
+            builder.append(new String(randomValue()));
+        byte[] value = builder.toString().getBytes();
+        assertTrue(Arrays.equals(value, strategy.inflate(strategy.deflate(value))));
+    }
+
+    public void testOlderDictionariesRemainReadable() throws IOException {
+        String options = train(100);
+        DictionaryCompressionStrategy first = getStrategy(options);
+        assertEquals(1, first.getCurrentVersion());
+        List<byte[]> values = new ArrayList<byte[]>();
+        List<byte[]> deflated = new ArrayList<byte[]>();
+        for(int i = 0; i < 10; i++) {
+            values.add(randomValue());
+            deflated.add(first.deflate(values.get(i)));
+        }
+
+        // the retrained dictionary is distributed before it is used
+        String retrainedOptions = DictionaryCompressionStrategy.addDictionary(options,
+                                                                              "retrained".getBytes());
+        DictionaryCompressionStrategy distributed = getStrategy(retrainedOptions);
+        assertEquals(1, distributed.getCurrentVersion());
+        DictionaryCompressionStrategy retrained = getStrategy(DictionaryCompressionStrategy.setCurrentVersion(retrainedOptions,
+                                                                                                              2));
+        assertEquals(2, retrained.getCurrentVersion());
+        for(int i = 0; i < values.size(); i++) {
+            assertEquals(1, distributed.deflate(values.get(i))[0]);
+            assertTrue(Arrays.equals(values.get(i), retrained.inflate(deflated.get(i))));
+            byte[] deflatedWithRetrained = retrained.deflate(values.get(i));
+            assertEquals(2, deflatedWithRetrained[0]);
+            assertTrue(Arrays.equals(values.get(i), distributed.inflate(deflatedWithRetrained)));
+        }
+
+        // retraining again keeps the version that was made current
+        String nextOptions = DictionaryCompressionStrategy.addDictionary(DictionaryCompressionStrategy.setCurrentVersion(retrainedOptions,
+                                                                                                                         2),
+                                                                         "again".getBytes());
+        assertEquals(2, DictionaryCompressionStrategy.parseCurrentVersion(nextOptions));
+        assertEquals(3, DictionaryCompressionStrategy.parseDictionaries(nextOptions).lastKey()
+                                                                                   .intValue());
+    }
+
+    public void testUnknownVersion() {
+        DictionaryCompressionStrategy strategy = getStrategy(train(10));
+        try {
+            strategy.inflate(new byte[] { 7, 1, 2, 3 });
+            fail("Inflated a value with an unknown dictionary.");
+        } catch(IOException e) {
+            // this is good
+        }
+    }
+
+    public void testInvalidOptions() {
+        for(String options: new String[] { null, "", "abc", "0:YWJj", "256:YWJj", "x:YWJj", "1:",
+                "current=2,1:YWJj", "current=x,1:YWJj" }) {
+            try {
+                new DictionaryCompressionStrategy(options);
+                fail("Invalid options allowed: " + options);
+            } catch(IllegalArgumentException e) {
+                // this is good
+            }
+        }
+    }
+
+}
@@ -19,6 +19,7 @@ import static org.junit.Assert.assertArrayEquals;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -35,6 +36,74 @@ public class TestLZF extends TestCase {
         System.out.println("OK: tested with " + count + " files.");
     }
 
+    public void testRoundTrips() throws Exception {
+        Random random = new Random(1234);
+        // alternate sizes so that the thread's encoder is reused and replaced
+        for(int size: new int[] { 0, 1, 15, 16, 17, 100, 1000, LZFChunk.MAX_CHUNK_LEN - 1, 50,
+                LZFChunk.MAX_CHUNK_LEN, LZFChunk.MAX_CHUNK_LEN + 1, 20, 3 * LZFChunk.MAX_CHUNK_LEN,
+                100 }) {
+            byte[] data = compressibleData(random, size);
+            byte[] enc = LZFEncoder.encode(data);
+            assertTrue(enc.length <= LZFEncoder.maxEncodedLength(size));
+            assertArrayEquals("Size " + size, data, LZFDecoder.decode(enc));
+
+            byte[] noise = new byte[size];
+            random.nextBytes(noise);
+            enc = LZFEncoder.encode(noise);
+            assertTrue(enc.length <= LZFEncoder.maxEncodedLength(size));
+            assertArrayEquals("Size " + size, noise, LZFDecoder.decode(enc));
+        }
+    }
+
+    public void testBuffers() throws Exception {
+        Random random = new Random(4321);
+        ChunkEncoder encoder = new ChunkEncoder();
+        for(int size: new int[] { 10, 500, 2 * LZFChunk.MAX_CHUNK_LEN + 7 }) {
+            // the input and output are in the middle of larger buffers
+            byte[] data = compressibleData(random, size + 20);
+            byte[] out = new byte[LZFEncoder.maxEncodedLength(size) + 10];
+            int end = LZFEncoder.encode(encoder, data, 10, size, out, 10);
+            byte[] enc = new byte[end - 10];
+            System.arraycopy(out, 10, enc, 0, enc.length);
+            assertArrayEquals(LZFEncoder.encode(data, 10, size), enc);
+
+            assertEquals(size, LZFDecoder.getUncompressedSize(out, 10, end - 10));
+            byte[] dec = new byte[size + 5];
+            assertEquals(size + 5, LZFDecoder.decode(out, 10, end - 10, dec, 5));
+            for(int i = 0; i < size; i++)
+                assertEquals(data[10 + i], dec[5 + i]);
+        }
+    }
+
+    public void testCorruptInput() throws Exception {
+        byte[] enc = LZFEncoder.encode(compressibleData(new Random(1), 1000));
+        for(int length: new int[] { 1, 4, 6, enc.length - 1 }) {
+            byte[] truncated = new byte[length];
+            System.arraycopy(enc, 0, truncated, 0, length);
+            try {
+                LZFDecoder.decode(truncated);
+                fail("Decoded truncated input of " + length + " bytes.");
+            } catch(IOException e) {
+                // this is good
+            }
+        }
+    }
+
+    /* Words drawn from a small vocabulary, so there is something to compress */
+    private static byte[] compressibleData(Random random, int size) {
+        byte[] data = new byte[size];
+        String[] words = { "voldemort ", "store ", "value ", "compress ", "lzf " };
+        int i = 0;
+        while(i < size) {
+            byte[] word = words[random.nextInt(words.length)].getBytes();
+            for(int j = 0; j < word.length && i < size; j++)
+                data[i++] = word[j];
+            if(i < size && random.nextInt(4) == 0)
+                data[i++] = (byte) random.nextInt();
+        }
+        return data;
+    }
+
     private int _handleFiles(File dir) throws IOException {
         System.out.println("Testing files from dir '" + dir.getAbsolutePath() + "'...");
         int count = 0;
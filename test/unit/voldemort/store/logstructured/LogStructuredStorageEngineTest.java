@@ -0,0 +1,195 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.logstructured;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileDeleteStrategy;
+
+import voldemort.TestUtils;
+import voldemort.store.AbstractStorageEngineTest;
+import voldemort.store.StorageEngine;
+import voldemort.utils.ByteArray;
+import voldemort.versioning.VectorClock;
+import voldemort.versioning.Versioned;
+
+public class LogStructuredStorageEngineTest extends AbstractStorageEngineTest {
+
+    private File tempDir;
+    private LogStructuredStorageEngine store;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        this.tempDir = TestUtils.createTempDir();
+        this.store = open(1024 * 1024);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        try {
+            store.close();
+        } finally {
+            FileDeleteStrategy.FORCE.delete(tempDir);
+        }
+    }
+
+    @Override
+    public StorageEngine<ByteArray, byte[]> getStorageEngine() {
+        return store;
+    }
+
+    private LogStructuredStorageEngine open(long maxSegmentSize) {
+        return new LogStructuredStorageEngine("test", tempDir, maxSegmentSize, false);
+    }
+
+    private void reopen(long maxSegmentSize) {
+        store.close();
+        store = open(maxSegmentSize);
+    }
+
+    private ByteArray key(int i) {
+        return new ByteArray(("key" + i).getBytes());
+    }
+
+    private void put(int key, int version, String value) {
+        store.put(key(key),
+                  new Versioned<byte[]>(value.getBytes(), TestUtils.getClock(new int[version])));
+    }
+
+    private void assertValue(String expected, int key) {
+        List<Versioned<byte[]>> found = store.get(key(key));
+        assertEquals("Wrong number of values for key " + key, 1, found.size());
+        assertEquals(expected, new String(found.get(0).getValue()));
+    }
+
+    public void testPersistence() {
+        for(int i = 0; i < 100; i++)
+            put(i, 1, "value" + i);
+        assertFalse(store.delete(key(0), new VectorClock()));
+        assertTrue(store.delete(key(1), TestUtils.getClock(0, 0)));
+        reopen(1024 * 1024);
+        assertEquals(99, store.getNumberOfKeys());
+        assertEquals(0, store.get(key(1)).size());
+        assertValue("value0", 0);
+        for(int i = 2; i < 100; i++)
+            assertValue("value" + i, i);
+    }
+
+    public void testSegmentsRoll() {
+        reopen(1024);
+        for(int i = 0; i < 100; i++)
+            put(i, 1, "value" + i);
+        assertTrue(store.getNumberOfSegments() > 1);
+        reopen(1024);
+        for(int i = 0; i < 100; i++)
+            assertValue("value" + i, i);
+    }
+
+    public void testCompaction() {
+        reopen(1024);
+        for(int round = 1; round <= 5; round++)
+            for(int i = 0; i < 50; i++)
+                put(i, round, "value" + i + "-" + round);
+        for(int i = 0; i < 10; i++)
+            store.delete(key(i), TestUtils.getClock(new int[6]));
+
+        int segmentsBefore = store.getNumberOfSegments();
+        assertTrue(store.compact(50) > 0);
+        assertTrue(store.getNumberOfSegments() < segmentsBefore);
+        assertTrue(store.getUtilization() > 50);
+        for(int i = 0; i < 10; i++)
+            assertEquals(0, store.get(key(i)).size());
+        for(int i = 10; i < 50; i++)
+            assertValue("value" + i + "-5", i);
+
+        // deleted keys must stay deleted once the log is read again
+        reopen(1024);
+        assertEquals(40, store.getNumberOfKeys());
+        for(int i = 0; i < 10; i++)
+            assertEquals(0, store.get(key(i)).size());
+        for(int i = 10; i < 50; i++)
+            assertValue("value" + i + "-5", i);
+    }
+
+    public void testCompactionSyncsCopiesBeforeDeleting() {
+        store.close();
+        final List<Long> unsyncedAtDelete = new ArrayList<Long>();
+        store = new LogStructuredStorageEngine("test", tempDir, 1024, false) {
+
+            @Override
+            void closeAndDelete(LogSegment segment) throws IOException {
+                LogSegment active = getActiveSegment();
+                unsyncedAtDelete.add(active.getSize() - active.getSyncedSize());
+                super.closeAndDelete(segment);
+            }
+        };
+        for(int round = 1; round <= 3; round++)
+            for(int i = 0; i < 50; i++)
+                put(i, round, "value" + i + "-" + round);
+
+        assertTrue(store.compact(50) > 0);
+        assertFalse(unsyncedAtDelete.isEmpty());
+        for(long unsynced: unsyncedAtDelete)
+            assertEquals("Compacted segment deleted before its copies were synced", 0, unsynced);
+        for(int i = 0; i < 50; i++)
+            assertValue("value" + i + "-3", i);
+    }
+
+    public void testCompactionStopsWhenClosed() {
+        reopen(1024);
+        for(int round = 1; round <= 3; round++)
+            for(int i = 0; i < 50; i++)
+                put(i, round, "value" + i + "-" + round);
+        int segments = store.getNumberOfSegments();
+        store.close();
+        assertEquals(0, store.compact(50));
+
+        store = open(1024);
+        assertEquals(segments, store.getNumberOfSegments());
+        for(int i = 0; i < 50; i++)
+            assertValue("value" + i + "-3", i);
+    }
+
+    public void testIncompleteRecordIsTruncated() throws Exception {
+        for(int i = 0; i < 10; i++)
+            put(i, 1, "value" + i);
+        store.close();
+        File segment = new File(tempDir, 0 + LogSegment.SUFFIX);
+        long size = segment.length();
+        FileOutputStream output = new FileOutputStream(segment, true);
+        try {
+            output.write(new byte[] { 0, 0, 0, 5, 1, 2, 3 });
+        } finally {
+            output.close();
+        }
+
+        store = open(1024 * 1024);
+        assertEquals(size, segment.length());
+        for(int i = 0; i < 10; i++)
+            assertValue("value" + i, i);
+        put(10, 1, "value10");
+        reopen(1024 * 1024);
+        assertValue("value10", 10);
+    }
+
+}
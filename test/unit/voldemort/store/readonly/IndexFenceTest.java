@@ -0,0 +1,125 @@
+package voldemort.store.readonly;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import voldemort.utils.ByteUtils;
+
+/**
+ * Tests that narrowing an index with an {@link IndexFence} never hides a key
+ * from the search strategy
+ * 
+ * 
+ */
+@RunWith(Parameterized.class)
+public class IndexFenceTest {
+
+    private final SearchStrategy strategy;
+    private final ReadOnlyStorageFormat format;
+
+    @Parameters
+    public static Collection<Object[]> configs() {
+        return Arrays.asList(new Object[][] {
+                { new BinarySearchStrategy(), ReadOnlyStorageFormat.READONLY_V0 },
+                { new InterpolationSearchStrategy(), ReadOnlyStorageFormat.READONLY_V0 },
+                { new BinarySearchStrategy(), ReadOnlyStorageFormat.READONLY_V1 },
+                { new InterpolationSearchStrategy(), ReadOnlyStorageFormat.READONLY_V1 } });
+    }
+
+    public IndexFenceTest(SearchStrategy strategy, ReadOnlyStorageFormat format) {
+        this.strategy = strategy;
+        this.format = format;
+    }
+
+    @Test
+    public void testEmptyIndex() {
+        ByteBuffer index = makeIndex(new byte[0][]);
+        IndexFence fence = new IndexFence(index.duplicate(), index.limit(), format);
+        assertEquals(0, fence.getNumFences());
+        assertEquals(0, fence.narrow(index.duplicate(), key(5, 5)).limit());
+    }
+
+    @Test
+    public void testRandomKeys() {
+        Random random = new Random(2838932);
+        for(int size: new int[] { 1, 10, 1000, 10000 }) {
+            byte[][] keys = new byte[size][];
+            for(int i = 0; i < size; i++) {
+                keys[i] = new byte[ReadOnlyUtils.KEY_HASH_SIZE];
+                random.nextBytes(keys[i]);
+            }
+            ByteBuffer index = makeIndex(keys);
+            IndexFence fence = new IndexFence(index.duplicate(), index.limit(), format);
+            int maxSlice = 2 * fence.getEntriesPerFence() * format.getIndexEntrySize();
+            for(int i = 0; i < size; i++) {
+                ByteBuffer slice = fence.narrow(index.duplicate(), keys[i]);
+                assertTrue(slice.limit() <= maxSlice);
+                assertEquals(i, strategy.indexOf(slice, keys[i], slice.limit(), format));
+            }
+            for(int i = 0; i < 100; i++) {
+                byte[] key = new byte[ReadOnlyUtils.KEY_HASH_SIZE];
+                random.nextBytes(key);
+                ByteBuffer slice = fence.narrow(index.duplicate(), key);
+                assertEquals(-1, strategy.indexOf(slice, key, slice.limit(), format));
+            }
+        }
+    }
+
+    @Test
+    public void testSharedPrefixes() {
+        // keys that only differ after the sampled 8 byte prefix
+        byte[][] keys = new byte[1000][];
+        for(int i = 0; i < keys.length; i++)
+            keys[i] = key(i < 500 ? 1 : -1, i);
+        ByteBuffer index = makeIndex(keys);
+        IndexFence fence = new IndexFence(index.duplicate(), index.limit(), format);
+        for(int i = 0; i < keys.length; i++) {
+            ByteBuffer slice = fence.narrow(index.duplicate(), keys[i]);
+            assertTrue(strategy.indexOf(slice, keys[i], slice.limit(), format) >= 0);
+        }
+        ByteBuffer slice = fence.narrow(index.duplicate(), key(0, 0));
+        assertEquals(0, slice.limit());
+    }
+
+    /*
+     * Sort the keys and build an index with each key's position in sorted
+     * order as its value
+     */
+    private ByteBuffer makeIndex(byte[][] keys) {
+        Arrays.sort(keys, new Comparator<byte[]>() {
+
+            public int compare(byte[] b1, byte[] b2) {
+                return ByteUtils.compare(b1, b2);
+            }
+        });
+        ByteBuffer buffer = ByteBuffer.allocate(format.getIndexEntrySize() * keys.length);
+        for(int i = 0; i < keys.length; i++) {
+            buffer.put(keys[i]);
+            if(format == ReadOnlyStorageFormat.READONLY_V0)
+                buffer.putInt(i);
+            else
+                buffer.putLong(i);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private byte[] key(long v1, long v2) {
+        byte[] bytes = new byte[ReadOnlyUtils.KEY_HASH_SIZE];
+        ByteUtils.writeLong(bytes, v1, 0);
+        ByteUtils.writeLong(bytes, v2, 8);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,145 @@
+package voldemort.store.readonly;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import voldemort.TestUtils;
+import voldemort.client.RoutingTier;
+import voldemort.cluster.Cluster;
+import voldemort.cluster.Node;
+import voldemort.routing.RoutingStrategy;
+import voldemort.routing.RoutingStrategyFactory;
+import voldemort.routing.RoutingStrategyType;
+import voldemort.serialization.DefaultSerializerFactory;
+import voldemort.serialization.Serializer;
+import voldemort.serialization.SerializerDefinition;
+import voldemort.serialization.json.JsonReader;
+import voldemort.store.StoreDefinition;
+import voldemort.store.StoreDefinitionBuilder;
+import voldemort.utils.ByteArray;
+import voldemort.utils.Utils;
+import voldemort.versioning.Versioned;
+
+public class JsonStoreBuilderTest extends TestCase {
+
+    private static final int NUM_NODES = 3;
+    private static final int NUM_CHUNKS = 4;
+    private static final int NUM_ITEMS = 1000;
+
+    private File baseDir;
+    private Cluster cluster;
+    private StoreDefinition storeDef;
+    private RoutingStrategy router;
+    private String input;
+
+    @Override
+    public void setUp() {
+        baseDir = TestUtils.createTempDir();
+        List<Node> nodes = new ArrayList<Node>();
+        for(int i = 0; i < NUM_NODES; i++)
+            nodes.add(new Node(i,
+                               "localhost",
+                               8080 + i,
+                               6666 + i,
+                               7000 + i,
+                               Arrays.asList(4 * i, 4 * i + 1, 4 * i + 2, 4 * i + 3)));
+        cluster = new Cluster("test", nodes);
+        SerializerDefinition serDef = new SerializerDefinition("json", "'string'");
+        storeDef = new StoreDefinitionBuilder().setName("test")
+                                               .setType(ReadOnlyStorageConfiguration.TYPE_NAME)
+                                               .setKeySerializer(serDef)
+                                               .setValueSerializer(serDef)
+                                               .setRoutingPolicy(RoutingTier.CLIENT)
+                                               .setRoutingStrategyType(RoutingStrategyType.CONSISTENT_STRATEGY)
+                                               .setReplicationFactor(2)
+                                               .setPreferredReads(1)
+                                               .setRequiredReads(1)
+                                               .setPreferredWrites(1)
+                                               .setRequiredWrites(1)
+                                               .build();
+        router = new RoutingStrategyFactory().updateRoutingStrategy(storeDef, cluster);
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < NUM_ITEMS; i++)
+            builder.append("\"key" + i + "\"\t\"value" + i + "\"\n");
+        // a duplicate key is written only once
+        builder.append("\"key0\"\t\"value0\"\n");
+        input = builder.toString();
+    }
+
+    @Override
+    public void tearDown() {
+        Utils.rm(baseDir);
+    }
+
+    private File build(int internalSortSize, int numThreads) throws Exception {
+        File outputDir = TestUtils.createTempDir(baseDir);
+        File tempDir = TestUtils.createTempDir(baseDir);
+        new JsonStoreBuilder(new JsonReader(new StringReader(input)),
+                             cluster,
+                             storeDef,
+                             router,
+                             outputDir,
+                             tempDir,
+                             internalSortSize,
+                             numThreads,
+                             NUM_CHUNKS,
+                             1000,
+                             ReadOnlyStorageFormat.READONLY_V1).build();
+        assertEquals("Spill files were left behind.", 0, tempDir.list().length);
+        return outputDir;
+    }
+
+    public void testInMemoryAndExternalSortsMatch() throws Exception {
+        File inMemory = build(NUM_ITEMS * 2, 4);
+        File external = build(50, 1);
+        for(int node = 0; node < NUM_NODES; node++) {
+            for(int chunk = 0; chunk < NUM_CHUNKS; chunk++) {
+                for(String suffix: Arrays.asList(".index", ".data")) {
+                    String name = "node-" + node + "/" + chunk + suffix;
+                    assertTrue(name + " differs", FileUtils.contentEquals(new File(inMemory, name),
+                                                                          new File(external, name)));
+                }
+            }
+        }
+    }
+
+    public void testAllItemsReadable() throws Exception {
+        File outputDir = build(100, 2);
+        int entrySize = ReadOnlyStorageFormat.READONLY_V1.getIndexEntrySize();
+        long numEntries = 0;
+        List<ReadOnlyStorageEngine> engines = new ArrayList<ReadOnlyStorageEngine>();
+        for(int node = 0; node < NUM_NODES; node++) {
+            File storeDir = TestUtils.createTempDir(baseDir);
+            Utils.move(new File(outputDir, "node-" + node), new File(storeDir, "version-0"));
+            for(int chunk = 0; chunk < NUM_CHUNKS; chunk++)
+                numEntries += new File(storeDir, "version-0/" + chunk + ".index").length()
+                              / entrySize;
+            engines.add(new ReadOnlyStorageEngine("test",
+                                                  new BinarySearchStrategy(),
+                                                  storeDir,
+                                                  1));
+        }
+        assertEquals(NUM_ITEMS * storeDef.getReplicationFactor(), numEntries);
+
+        @SuppressWarnings("unchecked")
+        Serializer<Object> serializer = (Serializer<Object>) new DefaultSerializerFactory().getSerializer(storeDef.getKeySerializer());
+        for(int i = 0; i < NUM_ITEMS; i++) {
+            byte[] key = serializer.toBytes("key" + i);
+            for(Node node: router.routeRequest(key)) {
+                List<Versioned<byte[]>> found = engines.get(node.getId()).get(new ByteArray(key));
+                assertEquals("Missing key" + i + " on node " + node.getId(), 1, found.size());
+                assertEquals("value" + i, serializer.toObject(found.get(0).getValue()));
+            }
+        }
+        for(ReadOnlyStorageEngine engine: engines)
+            engine.close();
+    }
+
+}
@@ -9,12 +9,21 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.Test;
@@ -28,6 +37,8 @@ import voldemort.cluster.Node;
 import voldemort.serialization.Compression;
 import voldemort.serialization.SerializerDefinition;
 import voldemort.store.Store;
+import voldemort.utils.ByteArray;
+import voldemort.utils.ByteUtils;
 import voldemort.utils.Utils;
 import voldemort.versioning.Versioned;
 
@@ -40,17 +51,27 @@ public class ReadOnlyStorageEngineTest {
 
     @Parameters
     public static Collection<Object[]> configs() {
-        return Arrays.asList(new Object[][] { { new BinarySearchStrategy() },
-                { new InterpolationSearchStrategy() } });
+        return Arrays.asList(new Object[][] { { new BinarySearchStrategy(), false, false },
+                { new InterpolationSearchStrategy(), false, false },
+                { new BinarySearchStrategy(), true, false },
+                { new InterpolationSearchStrategy(), true, false },
+                { new BinarySearchStrategy(), false, true },
+                { new InterpolationSearchStrategy(), false, true } });
     }
 
     private File dir;
     private SearchStrategy strategy;
+    private boolean mmapData;
+    private boolean indexFences;
     private SerializerDefinition serDef;
     private SerializerDefinition lzfSerDef;
 
-    public ReadOnlyStorageEngineTest(SearchStrategy strategy) {
+    public ReadOnlyStorageEngineTest(SearchStrategy strategy,
+                                     boolean mmapData,
+                                     boolean indexFences) {
         this.strategy = strategy;
+        this.mmapData = mmapData;
+        this.indexFences = indexFences;
         this.dir = TestUtils.createTempDir();
         this.serDef = new SerializerDefinition("json", "'string'");
         this.lzfSerDef = new SerializerDefinition("json",
@@ -76,7 +97,10 @@ public class ReadOnlyStorageEngineTest {
                                                                                               2,
                                                                                               2,
                                                                                               serDef,
-                                                                                              serDef);
+                                                                                              serDef,
+                                                                                              mmapData,
+                                                                                              indexFences,
+                                                                                              ReadOnlyStorageFormat.READONLY_V0);
         // run test multiple times to check caching
         for(int i = 0; i < 3; i++) {
             for(Map.Entry<String, String> entry: testData.getData().entrySet()) {
@@ -94,6 +118,32 @@ public class ReadOnlyStorageEngineTest {
         testData.delete();
     }
 
+    @Test
+    public void canGetGoodValuesWithLongPositions() throws Exception {
+        ReadOnlyStorageEngineTestInstance testData = ReadOnlyStorageEngineTestInstance.create(strategy,
+                                                                                              dir,
+                                                                                              TEST_SIZE,
+                                                                                              2,
+                                                                                              2,
+                                                                                              serDef,
+                                                                                              serDef,
+                                                                                              mmapData,
+                                                                                              indexFences,
+                                                                                              ReadOnlyStorageFormat.READONLY_V1);
+        for(Map.Entry<String, String> entry: testData.getData().entrySet()) {
+            for(Node node: testData.routeRequest(entry.getKey())) {
+                Store<String, String> store = testData.getNodeStores().get(node.getId());
+                List<Versioned<String>> found = store.get(entry.getKey());
+                assertEquals("Lookup failure for '" + entry.getKey() + "' for node "
+                             + node.getId() + ".", 1, found.size());
+                Versioned<String> obj = found.get(0);
+                assertEquals(entry.getValue(), obj.getValue());
+            }
+        }
+
+        testData.delete();
+    }
+
     @Test
     public void canGetGoodCompressedValues() throws Exception {
         ReadOnlyStorageEngineTestInstance testData = ReadOnlyStorageEngineTestInstance.create(strategy,
@@ -102,7 +152,10 @@ public class ReadOnlyStorageEngineTest {
                                                                                               2,
                                                                                               2,
                                                                                               serDef,
-                                                                                              lzfSerDef);
+                                                                                              lzfSerDef,
+                                                                                              mmapData,
+                                                                                              indexFences,
+                                                                                              ReadOnlyStorageFormat.READONLY_V0);
         // run test multiple times to check caching
         for(int i = 0; i < 3; i++) {
             for(Map.Entry<String, String> entry: testData.getData().entrySet()) {
@@ -128,7 +181,10 @@ public class ReadOnlyStorageEngineTest {
                                                                                               2,
                                                                                               2,
                                                                                               lzfSerDef,
-                                                                                              serDef);
+                                                                                              serDef,
+                                                                                              mmapData,
+                                                                                              indexFences,
+                                                                                              ReadOnlyStorageFormat.READONLY_V0);
         // run test multiple times to check caching
         for(int i = 0; i < 3; i++) {
             for(Map.Entry<String, String> entry: testData.getData().entrySet()) {
@@ -157,7 +213,10 @@ public class ReadOnlyStorageEngineTest {
                                                                                               2,
                                                                                               2,
                                                                                               serDef,
-                                                                                              serDef);
+                                                                                              serDef,
+                                                                                              mmapData,
+                                                                                              indexFences,
+                                                                                              ReadOnlyStorageFormat.READONLY_V0);
         // run test multiple times to check caching
         for(int i = 0; i < 3; i++) {
             for(int j = 0; j < TEST_SIZE; j++) {
@@ -181,7 +240,10 @@ public class ReadOnlyStorageEngineTest {
                                                                                               2,
                                                                                               2,
                                                                                               serDef,
-                                                                                              serDef);
+                                                                                              serDef,
+                                                                                              mmapData,
+                                                                                              indexFences,
+                                                                                              ReadOnlyStorageFormat.READONLY_V0);
         Set<String> keys = testData.getData().keySet();
         Set<String> gotten = new HashSet<String>();
         for(Map.Entry<Integer, Store<String, String>> entry: testData.getNodeStores().entrySet()) {
@@ -222,13 +284,25 @@ public class ReadOnlyStorageEngineTest {
         testOpenInvalidStoreFails(ReadOnlyUtils.INDEX_ENTRY_SIZE, 0, false);
     }
 
+    @Test
+    public void openInvalidLongPositionStoreFails() throws Exception {
+        int entrySize = ReadOnlyStorageFormat.READONLY_V1.getIndexEntrySize();
+        File versionDir = new File(dir, "version-0");
+        versionDir.mkdirs();
+        ReadOnlyUtils.writeFormat(versionDir, ReadOnlyStorageFormat.READONLY_V1);
+        // two entries with 1 byte each of data
+        testOpenInvalidStoreFails(entrySize * 2, entrySize * 2, true);
+        // an index sized for the old format is corrupt in the new one
+        testOpenInvalidStoreFails(ReadOnlyUtils.INDEX_ENTRY_SIZE * 2, entrySize * 2, false);
+    }
+
     public void testOpenInvalidStoreFails(int indexBytes, int dataBytes, boolean shouldWork)
             throws Exception {
         File versionDir = new File(dir, "version-0");
         createStoreFiles(versionDir, indexBytes, dataBytes, 2);
 
         try {
-            new ReadOnlyStorageEngine("test", strategy, dir, 1);
+            new ReadOnlyStorageEngine("test", strategy, dir, 1, mmapData, indexFences);
             if(!shouldWork)
                 fail("Able to open corrupt read-only store (index size = " + indexBytes
                      + ", data bytes = " + dataBytes + ").");
@@ -241,7 +315,12 @@ public class ReadOnlyStorageEngineTest {
     @Test
     public void testSwap() throws IOException {
         createStoreFiles(dir, ReadOnlyUtils.INDEX_ENTRY_SIZE * 5, 4 * 5 * 10, 2);
-        ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test", strategy, dir, 2);
+        ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test",
+                                                                 strategy,
+                                                                 dir,
+                                                                 2,
+                                                                 mmapData,
+                                                                 indexFences);
         assertVersionsExist(dir, 0);
 
         // swap to a new version
@@ -257,7 +336,12 @@ public class ReadOnlyStorageEngineTest {
     @Test(expected = VoldemortException.class)
     public void testBadSwapThrows() throws IOException {
         createStoreFiles(dir, ReadOnlyUtils.INDEX_ENTRY_SIZE * 5, 4 * 5 * 10, 2);
-        ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test", strategy, dir, 2);
+        ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test",
+                                                                 strategy,
+                                                                 dir,
+                                                                 2,
+                                                                 mmapData,
+                                                                 indexFences);
         assertVersionsExist(dir, 0);
 
         // swap to a new bad version
@@ -266,6 +350,455 @@ public class ReadOnlyStorageEngineTest {
         engine.swapFiles(newDir.getAbsolutePath());
     }
 
+    @Test
+    public void testDeltas() throws IOException {
+        Map<String, String> base = new TreeMap<String, String>();
+        for(int i = 0; i < 100; i++)
+            base.put("key" + i, "value" + i);
+        writeVersion(new File(dir, "version-0"), base, 3, false);
+        ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test",
+                                                                 strategy,
+                                                                 dir,
+                                                                 2,
+                                                                 mmapData,
+                                                                 indexFences,
+                                                                 0);
+
+        // change some keys, delete some and add some
+        Map<String, String> delta = new TreeMap<String, String>();
+        Map<String, String> expected = new TreeMap<String, String>(base);
+        for(int i = 0; i < 10; i++) {
+            delta.put("key" + i, "changed" + i);
+            delta.put("key" + (10 + i), null);
+            delta.put("new" + i, "new" + i);
+        }
+        File deltaDir = TestUtils.createTempDir();
+        writeVersion(deltaDir, delta, 2, true);
+        engine.swapFiles(deltaDir.getAbsolutePath());
+        assertEquals(1, engine.getNumDeltas());
+        assertVersionsExist(dir, 0);
+        for(Map.Entry<String, String> entry: delta.entrySet()) {
+            if(entry.getValue() == null)
+                expected.remove(entry.getKey());
+            else
+                expected.put(entry.getKey(), entry.getValue());
+        }
+        assertContents(engine, expected, delta.keySet());
+
+        // a second delta overrides the first
+        Map<String, String> delta2 = new TreeMap<String, String>();
+        delta2.put("key0", "again");
+        delta2.put("key10", "restored");
+        delta2.put("new0", null);
+        File deltaDir2 = TestUtils.createTempDir();
+        writeVersion(deltaDir2, delta2, 1, true);
+        engine.swapFiles(deltaDir2.getAbsolutePath());
+        assertEquals(2, engine.getNumDeltas());
+        Map<String, String> expected2 = new TreeMap<String, String>(expected);
+        expected2.put("key0", "again");
+        expected2.put("key10", "restored");
+        expected2.remove("new0");
+        assertContents(engine, expected2, delta.keySet());
+
+        // rolling back drops the newest delta
+        engine.rollback();
+        assertEquals(1, engine.getNumDeltas());
+        assertContents(engine, expected, delta.keySet());
+        deltaDir2 = TestUtils.createTempDir();
+        writeVersion(deltaDir2, delta2, 1, true);
+        engine.swapFiles(deltaDir2.getAbsolutePath());
+
+        // merging writes a new version with the same contents
+        engine.mergeDeltas();
+        assertEquals(0, engine.getNumDeltas());
+        assertVersionsExist(dir, 0, 1);
+        assertContents(engine, expected2, delta.keySet());
+
+        // the previous version keeps its deltas
+        engine.rollback();
+        assertEquals(2, engine.getNumDeltas());
+        assertContents(engine, expected2, delta.keySet());
+        engine.close();
+    }
+
+    @Test
+    public void testFailedMergeIsRemoved() throws IOException {
+        Map<String, String> entries = new TreeMap<String, String>();
+        for(int i = 0; i < 10; i++)
+            entries.put("key" + i, "value" + i);
+        writeVersion(new File(dir, "version-0"), entries, 1, false);
+        ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test",
+                                                                 strategy,
+                                                                 dir,
+                                                                 1,
+                                                                 mmapData,
+                                                                 indexFences);
+        File deltaDir = TestUtils.createTempDir();
+        writeVersion(deltaDir, ImmutableMap.of("key0", "changed"), 1, true);
+        // a negative position in the index of the delta fails the merge
+        RandomAccessFile index = new RandomAccessFile(new File(deltaDir, "0.index"), "rw");
+        try {
+            index.seek(ReadOnlyUtils.KEY_HASH_SIZE);
+            index.writeInt(-1);
+        } finally {
+            index.close();
+        }
+        engine.swapFiles(deltaDir.getAbsolutePath());
+
+        try {
+            engine.mergeDeltas();
+            fail("The merge of a corrupt delta should fail");
+        } catch(VoldemortException e) {
+            // expected
+        }
+        for(String name: dir.list())
+            assertFalse("Found " + name + " left by the failed merge", name.startsWith("merge-"));
+        assertEquals(1, engine.getNumDeltas());
+        engine.close();
+    }
+
+    @Test
+    public void testReadsDuringSwaps() throws Exception {
+        final Map<String, String> first = new TreeMap<String, String>();
+        final Map<String, String> second = new TreeMap<String, String>();
+        for(int i = 0; i < 100; i++) {
+            first.put("key" + i, "first" + i);
+            second.put("key" + i, "second" + i);
+        }
+        writeVersion(new File(dir, "version-0"), first, 3, false);
+        final ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test",
+                                                                       strategy,
+                                                                       dir,
+                                                                       1,
+                                                                       mmapData,
+                                                                       indexFences);
+        long epoch = engine.getEpoch();
+
+        // readers must always see one of the two versions, never an error
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] readers = new Thread[4];
+        for(int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        while(!done.get()) {
+                            for(String key: first.keySet()) {
+                                List<Versioned<byte[]>> found = engine.get(new ByteArray(ByteUtils.getBytes(key,
+                                                                                                            "UTF-8")));
+                                assertEquals("Lookup failure for " + key, 1, found.size());
+                                String value = ByteUtils.getString(found.get(0).getValue(),
+                                                                   "UTF-8");
+                                assertTrue(value.equals(first.get(key))
+                                           || value.equals(second.get(key)));
+                            }
+                        }
+                    } catch(Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        int swaps = 20;
+        for(int i = 0; i < swaps; i++) {
+            File newDir = TestUtils.createTempDir();
+            writeVersion(newDir, i % 2 == 0 ? second : first, 3, false);
+            engine.swapFiles(newDir.getAbsolutePath());
+        }
+        done.set(true);
+        for(Thread reader: readers)
+            reader.join();
+        if(failure.get() != null)
+            throw new AssertionError(failure.get());
+        assertEquals(epoch + swaps, engine.getEpoch());
+        assertContents(engine, first, Collections.<String> emptyList());
+
+        engine.close();
+        assertEquals(-1, engine.getEpoch());
+        try {
+            engine.get(new ByteArray(ByteUtils.getBytes("key0", "UTF-8")));
+            fail("Read from a closed store.");
+        } catch(VoldemortException e) {
+            // this is expected
+        }
+    }
+
+    @Test
+    public void testReadsDuringRollbacks() throws Exception {
+        final Map<String, String> first = new TreeMap<String, String>();
+        final Map<String, String> second = new TreeMap<String, String>();
+        for(int i = 0; i < 100; i++) {
+            first.put("key" + i, "first" + i);
+            second.put("key" + i, "second" + i);
+        }
+        int rollbacks = 10;
+        writeVersion(new File(dir, "version-0"), first, 3, false);
+        final ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test",
+                                                                       strategy,
+                                                                       dir,
+                                                                       rollbacks,
+                                                                       mmapData,
+                                                                       indexFences);
+        for(int i = 0; i < rollbacks; i++) {
+            File newDir = TestUtils.createTempDir();
+            writeVersion(newDir, i % 2 == 0 ? second : first, 3, false);
+            engine.swapFiles(newDir.getAbsolutePath());
+        }
+
+        // readers must always see one of the two versions, never an error
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] readers = new Thread[4];
+        for(int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        while(!done.get()) {
+                            for(String key: first.keySet()) {
+                                List<Versioned<byte[]>> found = engine.get(new ByteArray(ByteUtils.getBytes(key,
+                                                                                                            "UTF-8")));
+                                assertEquals("Lookup failure for " + key, 1, found.size());
+                                String value = ByteUtils.getString(found.get(0).getValue(),
+                                                                   "UTF-8");
+                                assertTrue(value.equals(first.get(key))
+                                           || value.equals(second.get(key)));
+                            }
+                        }
+                    } catch(Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for(int i = 0; i < rollbacks; i++) {
+            engine.rollback();
+            Thread.sleep(5);
+        }
+        done.set(true);
+        for(Thread reader: readers)
+            reader.join();
+        if(failure.get() != null)
+            throw new AssertionError(failure.get());
+        assertContents(engine, first, Collections.<String> emptyList());
+        engine.close();
+    }
+
+    @Test
+    public void testGenerationReferences() throws IOException {
+        Map<String, String> entries = new TreeMap<String, String>();
+        entries.put("key", "value");
+        File versionDir = new File(dir, "version-0");
+        writeVersion(versionDir, entries, 1, false);
+        ChunkedFileSet base = new ChunkedFileSet(versionDir, mmapData, indexFences);
+        FileSetGeneration previous = new FileSetGeneration(0,
+                                                           base,
+                                                           new ArrayList<ChunkedFileSet>());
+        FileSetGeneration current = new FileSetGeneration(1,
+                                                          base,
+                                                          new ArrayList<ChunkedFileSet>());
+
+        // a reader holds on to the previous generation after it is replaced
+        assertTrue(previous.acquire());
+        assertEquals(2, previous.getReferenceCount());
+        previous.release();
+        assertEquals(1, previous.getReferenceCount());
+        assertEquals("value", ByteUtils.getString(base.readValue(0, 0), "UTF-8"));
+        previous.release();
+        assertFalse("Acquired a released generation.", previous.acquire());
+
+        // the files are still open while the current generation uses them
+        assertEquals("value", ByteUtils.getString(base.readValue(0, 0), "UTF-8"));
+        assertFalse(base.isUnmapped());
+        current.release();
+        assertFalse(current.acquire());
+        assertTrue("Files still mapped after the last release.", base.isUnmapped());
+    }
+
+    @Test
+    public void testWarmup() throws IOException {
+        Map<String, String> entries = new TreeMap<String, String>();
+        for(int i = 0; i < 1000; i++)
+            entries.put("key" + i, "value" + i);
+        writeVersion(new File(dir, "version-0"), entries, 3, false);
+        FileSetWarmer warmer = new FileSetWarmer(10 * 1024 * 1024, 100);
+        ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test",
+                                                                 strategy,
+                                                                 dir,
+                                                                 1,
+                                                                 mmapData,
+                                                                 indexFences,
+                                                                 0,
+                                                                 warmer);
+        assertTrue(engine.getWarmupStatus().startsWith("Idle"));
+
+        // the reads of the current version pick the hot keys
+        assertContents(engine, entries, Collections.<String> emptyList());
+        File newDir = TestUtils.createTempDir();
+        writeVersion(newDir, entries, 3, false);
+        long indexBytes = 0;
+        for(int chunk = 0; chunk < 3; chunk++)
+            indexBytes += new File(newDir, chunk + ".index").length();
+        engine.swapFiles(newDir.getAbsolutePath());
+        assertEquals(indexBytes, warmer.getIndexBytes());
+        assertEquals(indexBytes, warmer.getIndexBytesWarmed());
+        assertEquals(100, warmer.getHotKeysWarmed());
+        assertTrue(warmer.getHotBytesWarmed() > 0);
+        assertFalse(warmer.isWarming());
+        // the files are warmed before they are moved into place
+        assertTrue(engine.getWarmupStatus(),
+                   engine.getWarmupStatus().startsWith("Warmed " + newDir.getAbsolutePath()));
+
+        // a delta is warmed on its own
+        Map<String, String> delta = new TreeMap<String, String>();
+        delta.put("key0", "changed");
+        File deltaDir = TestUtils.createTempDir();
+        writeVersion(deltaDir, delta, 1, true);
+        engine.swapFiles(deltaDir.getAbsolutePath());
+        assertEquals(new File(dir, "version-0/delta-1/0.index").length(), warmer.getIndexBytes());
+        assertEquals(warmer.getIndexBytes(), warmer.getIndexBytesWarmed());
+        engine.close();
+    }
+
+    @Test
+    public void testWarmupDoesNotHoldSwapLock() throws Exception {
+        Map<String, String> first = new TreeMap<String, String>();
+        Map<String, String> second = new TreeMap<String, String>();
+        final Map<String, String> third = new TreeMap<String, String>();
+        for(int i = 0; i < 100; i++) {
+            first.put("key" + i, "first" + i);
+            second.put("key" + i, "second" + i);
+            third.put("key" + i, "third" + i);
+        }
+        writeVersion(new File(dir, "version-0"), first, 3, false);
+        writeVersion(new File(dir, "version-1"), second, 3, false);
+        final CountDownLatch warming = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        FileSetWarmer warmer = new FileSetWarmer(10 * 1024 * 1024, 100) {
+
+            @Override
+            public synchronized void warm(List<ChunkedFileSet> fileSets,
+                                          SearchStrategy searchStrategy) {
+                warming.countDown();
+                try {
+                    finish.await();
+                } catch(InterruptedException e) {
+                    throw new VoldemortException(e);
+                }
+                super.warm(fileSets, searchStrategy);
+            }
+        };
+        final ReadOnlyStorageEngine engine = new ReadOnlyStorageEngine("test",
+                                                                       strategy,
+                                                                       dir,
+                                                                       2,
+                                                                       mmapData,
+                                                                       indexFences,
+                                                                       0,
+                                                                       warmer);
+        final File newDir = TestUtils.createTempDir();
+        writeVersion(newDir, third, 3, false);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread swap = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    engine.swapFiles(newDir.getAbsolutePath());
+                } catch(Throwable t) {
+                    failure.set(t);
+                }
+            }
+        };
+        swap.start();
+        assertTrue(warming.await(5, TimeUnit.SECONDS));
+
+        // a rollback goes ahead while the new files are warming
+        Thread rollback = new Thread() {
+
+            @Override
+            public void run() {
+                engine.rollback();
+            }
+        };
+        rollback.start();
+        rollback.join(5000);
+        boolean blocked = rollback.isAlive();
+        finish.countDown();
+        swap.join();
+        rollback.join();
+        assertFalse("The rollback waited for the warmup", blocked);
+        if(failure.get() != null)
+            throw new AssertionError(failure.get());
+        assertContents(engine, third, Collections.<String> emptyList());
+        engine.close();
+    }
+
+    private void assertContents(ReadOnlyStorageEngine engine,
+                                Map<String, String> expected,
+                                Iterable<String> deleted) {
+        List<ByteArray> keys = new ArrayList<ByteArray>();
+        for(Map.Entry<String, String> entry: expected.entrySet()) {
+            ByteArray key = new ByteArray(ByteUtils.getBytes(entry.getKey(), "UTF-8"));
+            List<Versioned<byte[]>> found = engine.get(key);
+            assertEquals("Lookup failure for " + entry.getKey(), 1, found.size());
+            assertEquals(entry.getValue(), ByteUtils.getString(found.get(0).getValue(), "UTF-8"));
+            keys.add(key);
+        }
+        for(String key: deleted) {
+            if(!expected.containsKey(key)) {
+                ByteArray keyBytes = new ByteArray(ByteUtils.getBytes(key, "UTF-8"));
+                assertEquals("Found deleted key " + key, 0, engine.get(keyBytes).size());
+                keys.add(keyBytes);
+            }
+        }
+        Map<ByteArray, List<Versioned<byte[]>>> all = engine.getAll(keys);
+        assertEquals(expected.size(), all.size());
+        for(Map.Entry<String, String> entry: expected.entrySet()) {
+            ByteArray key = new ByteArray(ByteUtils.getBytes(entry.getKey(), "UTF-8"));
+            assertEquals(entry.getValue(), ByteUtils.getString(all.get(key).get(0).getValue(),
+                                                               "UTF-8"));
+        }
+    }
+
+    /*
+     * Write the given keys and values, a null value is written as deleted
+     */
+    private void writeVersion(File versionDir, Map<String, String> entries, int chunks, boolean delta)
+            throws IOException {
+        versionDir.mkdirs();
+        List<Map<ByteArray, byte[]>> sorted = new ArrayList<Map<ByteArray, byte[]>>();
+        for(int chunk = 0; chunk < chunks; chunk++)
+            sorted.add(new TreeMap<ByteArray, byte[]>(new Comparator<ByteArray>() {
+
+                public int compare(ByteArray a1, ByteArray a2) {
+                    return ByteUtils.compare(a1.get(), a2.get());
+                }
+            }));
+        for(Map.Entry<String, String> entry: entries.entrySet()) {
+            byte[] keyMd5 = ByteUtils.md5(ByteUtils.getBytes(entry.getKey(), "UTF-8"));
+            byte[] value = entry.getValue() == null ? null
+                                                   : ByteUtils.getBytes(entry.getValue(), "UTF-8");
+            sorted.get(ReadOnlyUtils.chunk(keyMd5, chunks)).put(new ByteArray(keyMd5), value);
+        }
+        for(int chunk = 0; chunk < chunks; chunk++) {
+            ChunkWriter writer = new ChunkWriter(versionDir,
+                                                 chunk,
+                                                 ReadOnlyStorageFormat.READONLY_V0,
+                                                 4096);
+            for(Map.Entry<ByteArray, byte[]> entry: sorted.get(chunk).entrySet())
+                writer.write(entry.getKey().get(), entry.getValue());
+            writer.close();
+        }
+        if(delta)
+            ReadOnlyUtils.markDelta(versionDir);
+    }
+
     private void assertVersionsExist(File dir, int... versions) {
         for(int i = 0; i < versions.length; i++) {
             File versionDir = new File(dir, "version-" + versions[i]);
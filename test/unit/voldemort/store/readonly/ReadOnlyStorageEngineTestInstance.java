@@ -87,6 +87,29 @@ public class ReadOnlyStorageEngineTestInstance {
                                                            SerializerDefinition keySerDef,
                                                            SerializerDefinition valueSerDef)
             throws Exception {
+        return create(strategy,
+                      baseDir,
+                      testSize,
+                      numNodes,
+                      repFactor,
+                      keySerDef,
+                      valueSerDef,
+                      false,
+                      false,
+                      ReadOnlyStorageFormat.READONLY_V0);
+    }
+
+    public static ReadOnlyStorageEngineTestInstance create(SearchStrategy strategy,
+                                                           File baseDir,
+                                                           int testSize,
+                                                           int numNodes,
+                                                           int repFactor,
+                                                           SerializerDefinition keySerDef,
+                                                           SerializerDefinition valueSerDef,
+                                                           boolean mmapData,
+                                                           boolean indexFences,
+                                                           ReadOnlyStorageFormat format)
+            throws Exception {
         // create some test data
         Map<String, String> data = createTestData(testSize);
         JsonReader reader = makeTestDataReader(data, baseDir);
@@ -128,7 +151,8 @@ public class ReadOnlyStorageEngineTestInstance {
                                                              testSize / 5,
                                                              1,
                                                              2,
-                                                             10000);
+                                                             10000,
+                                                             format);
         storeBuilder.build();
 
         File nodeDir = TestUtils.createTempDir(baseDir);
@@ -150,7 +174,9 @@ public class ReadOnlyStorageEngineTestInstance {
             Store<ByteArray, byte[]> innerStore = new CompressingStore(new ReadOnlyStorageEngine("test",
                                                                                                  strategy,
                                                                                                  currNode,
-                                                                                                 1),
+                                                                                                 1,
+                                                                                                 mmapData,
+                                                                                                 indexFences),
                                                                        keyCompressionStrat,
                                                                        valueCompressionStrat);
 
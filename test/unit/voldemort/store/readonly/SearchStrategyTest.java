@@ -27,15 +27,20 @@ import voldemort.utils.ByteUtils;
 public class SearchStrategyTest {
 
     private SearchStrategy strategy;
+    private ReadOnlyStorageFormat format;
 
     @Parameters
     public static Collection<Object[]> configs() {
-        return Arrays.asList(new Object[][] { { new BinarySearchStrategy() },
-                { new InterpolationSearchStrategy() } });
+        return Arrays.asList(new Object[][] {
+                { new BinarySearchStrategy(), ReadOnlyStorageFormat.READONLY_V0 },
+                { new InterpolationSearchStrategy(), ReadOnlyStorageFormat.READONLY_V0 },
+                { new BinarySearchStrategy(), ReadOnlyStorageFormat.READONLY_V1 },
+                { new InterpolationSearchStrategy(), ReadOnlyStorageFormat.READONLY_V1 } });
     }
 
-    public SearchStrategyTest(SearchStrategy strategy) {
+    public SearchStrategyTest(SearchStrategy strategy, ReadOnlyStorageFormat format) {
         this.strategy = strategy;
+        this.format = format;
     }
 
     @Test
@@ -112,7 +117,7 @@ public class SearchStrategyTest {
         for(int i = 0; i < size; i++) {
             byte[] key = new byte[16];
             buffer.get(key);
-            int position = buffer.getInt();
+            long position = format.readPosition(buffer);
             System.out.println(ByteUtils.toHexString(key) + "\t" + position);
         }
     }
@@ -129,10 +134,13 @@ public class SearchStrategyTest {
                 return ByteUtils.compare(b1, b2);
             }
         });
-        ByteBuffer buffer = ByteBuffer.allocate(20 * copy.length);
+        ByteBuffer buffer = ByteBuffer.allocate(format.getIndexEntrySize() * copy.length);
         for(int i = 0; i < copy.length; i++) {
             buffer.put(copy[i]);
-            buffer.putInt(m.get(copy[i]));
+            if(format == ReadOnlyStorageFormat.READONLY_V0)
+                buffer.putInt(m.get(copy[i]));
+            else
+                buffer.putLong(m.get(copy[i]));
         }
         return buffer;
     }
@@ -145,7 +153,7 @@ public class SearchStrategyTest {
     }
 
     public void assertKeyFound(ByteBuffer buffer, byte[] key, int expected) {
-        int found = strategy.indexOf(buffer, key, buffer.limit());
+        long found = strategy.indexOf(buffer, key, buffer.limit(), format);
         assertTrue("Failed to find correct key " + key, found != -1);
         assertEquals(expected, found);
     }
@@ -153,7 +161,7 @@ public class SearchStrategyTest {
     public void assertKeysNotFound(ByteBuffer buffer, byte[]... keys) {
         for(byte[] key: keys) {
             assertTrue("Failed to find key " + key,
-                       strategy.indexOf(buffer, key, buffer.limit()) == -1);
+                       strategy.indexOf(buffer, key, buffer.limit(), format) == -1);
         }
     }
 
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.store.routed;
+
+import junit.framework.TestCase;
+
+public class NodeLatencyTrackerTest extends TestCase {
+
+    public void testPercentile() {
+        NodeLatencyTracker tracker = new NodeLatencyTracker(90, 100);
+        assertEquals(-1, tracker.getPercentileNs(1));
+        for(int i = 1; i < NodeLatencyTracker.MIN_SAMPLES; i++)
+            tracker.recordLatency(1, i);
+        assertEquals(-1, tracker.getPercentileNs(1));
+        tracker.recordLatency(1, NodeLatencyTracker.MIN_SAMPLES);
+        assertEquals(9, tracker.getPercentileNs(1));
+        for(int i = NodeLatencyTracker.MIN_SAMPLES + 1; i <= 100; i++)
+            tracker.recordLatency(1, i);
+        assertEquals(90, tracker.getPercentileNs(1));
+        assertEquals(-1, tracker.getPercentileNs(2));
+    }
+
+    public void testPercentileFollowsTheWindow() {
+        NodeLatencyTracker tracker = new NodeLatencyTracker(50, 20);
+        for(int i = 0; i < 20; i++)
+            tracker.recordLatency(1, 1000);
+        assertEquals(1000, tracker.getPercentileNs(1));
+        // once the slow samples are replaced the percentile drops
+        for(int i = 0; i < 20; i++)
+            tracker.recordLatency(1, 10);
+        assertEquals(10, tracker.getPercentileNs(1));
+    }
+
+}
@@ -26,9 +26,13 @@ import static voldemort.cluster.failuredetector.FailureDetectorUtils.create;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -47,22 +51,28 @@ import voldemort.cluster.Node;
 import voldemort.cluster.failuredetector.BannagePeriodFailureDetector;
 import voldemort.cluster.failuredetector.FailureDetector;
 import voldemort.cluster.failuredetector.FailureDetectorConfig;
+import voldemort.routing.RoutingStrategyFactory;
 import voldemort.routing.RoutingStrategyType;
 import voldemort.serialization.SerializerDefinition;
+import voldemort.server.StoreRepository;
+import voldemort.server.scheduler.SlopPusherJob;
 import voldemort.store.AbstractByteArrayStoreTest;
 import voldemort.store.FailingReadsStore;
 import voldemort.store.FailingStore;
 import voldemort.store.InsufficientOperationalNodesException;
 import voldemort.store.SleepyStore;
+import voldemort.store.StorageEngine;
 import voldemort.store.Store;
 import voldemort.store.StoreDefinition;
 import voldemort.store.StoreDefinitionBuilder;
 import voldemort.store.UnreachableStoreException;
 import voldemort.store.memory.InMemoryStorageEngine;
+import voldemort.store.slop.Slop;
 import voldemort.store.stats.StatTrackingStore;
 import voldemort.store.stats.Tracked;
 import voldemort.store.versioned.InconsistencyResolvingStore;
 import voldemort.utils.ByteArray;
+import voldemort.utils.SystemTime;
 import voldemort.utils.Utils;
 import voldemort.versioning.Occured;
 import voldemort.versioning.VectorClock;
@@ -500,6 +510,65 @@ public class RoutedStoreTest extends AbstractByteArrayStoreTest {
         }
     }
 
+    /**
+     * Tests that getAll splits the keys into batches, and sends the keys of a
+     * failed batch to the next node in their preference list.
+     */
+    @Test
+    public void testGetAllInBatchesWithFailingStore() throws Exception {
+        cluster = VoldemortTestConstants.getThreeNodeCluster();
+
+        StoreDefinition storeDef = ServerTestUtils.getStoreDef("test",
+                                                               3,
+                                                               2,
+                                                               2,
+                                                               2,
+                                                               2,
+                                                               RoutingStrategyType.CONSISTENT_STRATEGY);
+
+        Map<Integer, Store<ByteArray, byte[]>> subStores = Maps.newHashMap();
+        subStores.put(Iterables.get(cluster.getNodes(), 0).getId(),
+                      new FailingReadsStore<ByteArray, byte[]>("test"));
+        for(int i = 1; i < 3; ++i)
+            subStores.put(Iterables.get(cluster.getNodes(), i).getId(),
+                          new InMemoryStorageEngine<ByteArray, byte[]>("test"));
+
+        setFailureDetector(subStores);
+
+        RoutedStore routedStore = new RoutedStore("test",
+                                                  subStores,
+                                                  cluster,
+                                                  storeDef,
+                                                  true,
+                                                  Executors.newFixedThreadPool(2),
+                                                  1000L,
+                                                  failureDetector,
+                                                  SystemTime.INSTANCE,
+                                                  3);
+
+        Map<ByteArray, byte[]> expectedValues = Maps.newHashMap();
+        for(byte i = 1; i < 21; ++i) {
+            ByteArray key = new ByteArray(new byte[] { i });
+            byte[] value = new byte[] { (byte) (i + 50) };
+            for(int j = 1; j < 3; ++j)
+                subStores.get(Iterables.get(cluster.getNodes(), j).getId())
+                         .put(key, Versioned.value(value));
+            expectedValues.put(key, value);
+        }
+
+        Map<ByteArray, List<Versioned<byte[]>>> all = routedStore.getAll(expectedValues.keySet());
+        assertEquals(expectedValues.size(), all.size());
+        for(Map.Entry<ByteArray, List<Versioned<byte[]>>> mapEntry: all.entrySet()) {
+            byte[] value = expectedValues.get(mapEntry.getKey());
+            assertEquals("Expected one value from each of the two working nodes.",
+                         2,
+                         mapEntry.getValue().size());
+            for(Versioned<byte[]> versioned: mapEntry.getValue())
+                assertEquals(new ByteArray(value), new ByteArray(versioned.getValue()));
+        }
+        routedStore.close();
+    }
+
     /**
      * One node up, two preferred reads and one required read. See:
      * 
@@ -686,6 +755,125 @@ public class RoutedStoreTest extends AbstractByteArrayStoreTest {
         }
     }
 
+    /**
+     * Tests that a get that is slow to come back from the first node in the
+     * preference list is answered by the next node instead.
+     */
+    @Test
+    public void testHedgedGet() throws Exception {
+        long sleepMs = 1000;
+        cluster = VoldemortTestConstants.getThreeNodeCluster();
+        StoreDefinition storeDef = ServerTestUtils.getStoreDef("test",
+                                                               3,
+                                                               1,
+                                                               1,
+                                                               2,
+                                                               2,
+                                                               RoutingStrategyType.CONSISTENT_STRATEGY);
+        Node slowNode = new RoutingStrategyFactory().updateRoutingStrategy(storeDef, cluster)
+                                                    .routeRequest(aKey.get())
+                                                    .get(0);
+
+        NodeLatencyTracker hedgeTracker = new NodeLatencyTracker(90, 10);
+        Map<Integer, Store<ByteArray, byte[]>> subStores = Maps.newHashMap();
+        for(Node node: cluster.getNodes()) {
+            Store<ByteArray, byte[]> store = new InMemoryStorageEngine<ByteArray, byte[]>("test");
+            store.put(aKey, Versioned.value(aValue));
+            if(node.getId() == slowNode.getId())
+                store = new SleepyStore<ByteArray, byte[]>(sleepMs, store);
+            subStores.put(node.getId(), store);
+            for(int i = 0; i < 10; i++)
+                hedgeTracker.recordLatency(node.getId(), 1000000);
+        }
+
+        setFailureDetector(subStores);
+        RoutedStore routedStore = new RoutedStore("test",
+                                                  subStores,
+                                                  cluster,
+                                                  storeDef,
+                                                  false,
+                                                  Executors.newFixedThreadPool(3),
+                                                  5000L,
+                                                  failureDetector,
+                                                  SystemTime.INSTANCE,
+                                                  RoutedStore.DEFAULT_GET_ALL_BATCH_SIZE,
+                                                  hedgeTracker);
+
+        long start = System.currentTimeMillis();
+        List<Versioned<byte[]>> found = routedStore.get(aKey);
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(1, found.size());
+        assertEquals(new ByteArray(aValue), new ByteArray(found.get(0).getValue()));
+        assertTrue(elapsed + " < " + sleepMs / 2, elapsed < sleepMs / 2);
+        assertTrue("The slow node should stay available",
+                   failureDetector.isAvailable(slowNode));
+        routedStore.close();
+    }
+
+    /**
+     * Tests that the keys of a getAll batch that is slow to come back are
+     * answered by the next node in their preference list instead, without
+     * waiting for the slow node.
+     */
+    @Test
+    public void testHedgedGetAll() throws Exception {
+        long sleepMs = 2000;
+        long timeoutMs = 300;
+        cluster = VoldemortTestConstants.getThreeNodeCluster();
+        StoreDefinition storeDef = ServerTestUtils.getStoreDef("test",
+                                                               3,
+                                                               1,
+                                                               1,
+                                                               2,
+                                                               2,
+                                                               RoutingStrategyType.CONSISTENT_STRATEGY);
+        Node slowNode = Iterables.get(cluster.getNodes(), 0);
+
+        Map<ByteArray, byte[]> expectedValues = Maps.newHashMap();
+        for(byte i = 1; i < 21; ++i)
+            expectedValues.put(new ByteArray(new byte[] { i }), new byte[] { (byte) (i + 50) });
+
+        Map<Integer, Store<ByteArray, byte[]>> subStores = Maps.newHashMap();
+        for(Node node: cluster.getNodes()) {
+            Store<ByteArray, byte[]> store = new InMemoryStorageEngine<ByteArray, byte[]>("test");
+            for(Map.Entry<ByteArray, byte[]> entry: expectedValues.entrySet())
+                store.put(entry.getKey(), Versioned.value(entry.getValue()));
+            if(node.getId() == slowNode.getId())
+                store = new SleepyStore<ByteArray, byte[]>(sleepMs, store);
+            subStores.put(node.getId(), store);
+        }
+
+        setFailureDetector(subStores);
+        RoutedStore routedStore = new RoutedStore("test",
+                                                  subStores,
+                                                  cluster,
+                                                  storeDef,
+                                                  false,
+                                                  Executors.newFixedThreadPool(6),
+                                                  timeoutMs,
+                                                  failureDetector,
+                                                  SystemTime.INSTANCE,
+                                                  5,
+                                                  new NodeLatencyTracker(90, 10));
+
+        // Until enough batches have completed the slow node's batches are
+        // hedged after timeoutMs, well before the getAll timeout
+        long start = System.currentTimeMillis();
+        Map<ByteArray, List<Versioned<byte[]>>> all = routedStore.getAll(expectedValues.keySet());
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(elapsed + " < " + sleepMs / 2, elapsed < sleepMs / 2);
+
+        assertEquals(expectedValues.size(), all.size());
+        for(Map.Entry<ByteArray, List<Versioned<byte[]>>> mapEntry: all.entrySet()) {
+            assertEquals(1, mapEntry.getValue().size());
+            assertEquals(new ByteArray(expectedValues.get(mapEntry.getKey())),
+                         new ByteArray(mapEntry.getValue().get(0).getValue()));
+        }
+        assertTrue("The slow node should stay available",
+                   failureDetector.isAvailable(slowNode));
+        routedStore.close();
+    }
+
     /**
      * See Issue #211: Unnecessary read repairs during getAll with more than one
      * key
@@ -733,6 +921,122 @@ public class RoutedStoreTest extends AbstractByteArrayStoreTest {
                      statTrackingStore.getStats().getCount(Tracked.PUT));
     }
 
+    /**
+     * Tests that a put whose clock is pruned deletes the versions it replaced
+     * in the background.
+     */
+    @Test
+    public void testPrunedPutDeletesReplacedVersions() throws Exception {
+        cluster = VoldemortTestConstants.getThreeNodeCluster();
+        Map<Integer, Store<ByteArray, byte[]>> subStores = Maps.newHashMap();
+        for(Node node: cluster.getNodes())
+            subStores.put(node.getId(), new InMemoryStorageEngine<ByteArray, byte[]>("test"));
+        setFailureDetector(subStores);
+
+        // a version written by coordinators the next clock is pruned of
+        VectorClock base = getClock(7, 8);
+        for(Store<ByteArray, byte[]> store: subStores.values())
+            store.put(aKey, new Versioned<byte[]>(aValue, base.clone()));
+
+        ExecutorService threadPool = Executors.newFixedThreadPool(3);
+        RoutedStore routedStore = new RoutedStore("test",
+                                                  subStores,
+                                                  cluster,
+                                                  getPruningStoreDef(),
+                                                  true,
+                                                  threadPool,
+                                                  1000L,
+                                                  failureDetector,
+                                                  SystemTime.INSTANCE);
+        routedStore.put(aKey, new Versioned<byte[]>("replaced".getBytes(), base.clone()));
+        threadPool.shutdown();
+        assertTrue(threadPool.awaitTermination(5, TimeUnit.SECONDS));
+
+        for(Store<ByteArray, byte[]> store: subStores.values()) {
+            List<Versioned<byte[]>> found = store.get(aKey);
+            assertEquals("The put left a sibling behind", 1, found.size());
+            assertEquals("replaced", new String(found.get(0).getValue()));
+        }
+    }
+
+    /**
+     * Tests that the delete that follows a put with a pruned clock is recorded
+     * as slop for a node that cannot be reached.
+     */
+    @Test
+    public void testPrunedPutSlopsDeleteForUnreachableNode() throws Exception {
+        cluster = VoldemortTestConstants.getThreeNodeCluster();
+        Map<Integer, Store<ByteArray, byte[]>> subStores = Maps.newHashMap();
+        Map<Integer, Store<ByteArray, Slop>> slopStores = Maps.newHashMap();
+        for(Node node: cluster.getNodes()) {
+            if(node.getId() == 0)
+                subStores.put(node.getId(),
+                              new FailingStore<ByteArray, byte[]>("test",
+                                                                  new UnreachableStoreException("Node down")));
+            else
+                subStores.put(node.getId(), new InMemoryStorageEngine<ByteArray, byte[]>("test"));
+            slopStores.put(node.getId(), new InMemoryStorageEngine<ByteArray, Slop>("slop"));
+        }
+        setFailureDetector(subStores);
+
+        VectorClock base = getClock(7, 8);
+        ExecutorService threadPool = Executors.newFixedThreadPool(3);
+        RoutedStore routedStore = new RoutedStore("test",
+                                                  subStores,
+                                                  cluster,
+                                                  getPruningStoreDef(),
+                                                  true,
+                                                  threadPool,
+                                                  1000L,
+                                                  failureDetector,
+                                                  SystemTime.INSTANCE,
+                                                  RoutedStore.DEFAULT_GET_ALL_BATCH_SIZE,
+                                                  null,
+                                                  slopStores);
+        routedStore.put(aKey, new Versioned<byte[]>(aValue, base.clone()));
+        threadPool.shutdown();
+        assertTrue(threadPool.awaitTermination(5, TimeUnit.SECONDS));
+
+        ByteArray slopKey = new Slop("test", Slop.Operation.DELETE, aKey, null, 0, new Date()).makeKey();
+        List<Versioned<Slop>> slops = new ArrayList<Versioned<Slop>>();
+        for(Store<ByteArray, Slop> slopStore: slopStores.values())
+            slops.addAll(slopStore.get(slopKey));
+        assertEquals("The delete for the unreachable node was not recorded", 1, slops.size());
+        assertEquals(0, slops.get(0).getValue().getNodeId());
+        assertEquals(base, slops.get(0).getVersion());
+        assertEquals(0, slopStores.get(0).get(slopKey).size());
+
+        // once the node is back the slop pusher delivers the delete
+        InMemoryStorageEngine<ByteArray, byte[]> recovered = new InMemoryStorageEngine<ByteArray, byte[]>("test");
+        recovered.put(aKey, new Versioned<byte[]>(aValue, base.clone()));
+        for(Store<ByteArray, Slop> slopStore: slopStores.values()) {
+            if(slopStore.get(slopKey).isEmpty())
+                continue;
+            StoreRepository repo = new StoreRepository();
+            repo.setSlopStore((StorageEngine<ByteArray, Slop>) slopStore);
+            repo.addNodeStore(0, recovered);
+            new SlopPusherJob(repo).run();
+            assertEquals("The delete was not delivered", 0, slopStore.get(slopKey).size());
+        }
+        assertEquals(0, recovered.get(aKey).size());
+    }
+
+    private StoreDefinition getPruningStoreDef() {
+        return new StoreDefinitionBuilder().setName("test")
+                                           .setType("foo")
+                                           .setKeySerializer(new SerializerDefinition("test"))
+                                           .setValueSerializer(new SerializerDefinition("test"))
+                                           .setRoutingPolicy(RoutingTier.CLIENT)
+                                           .setRoutingStrategyType(RoutingStrategyType.CONSISTENT_STRATEGY)
+                                           .setReplicationFactor(3)
+                                           .setPreferredReads(2)
+                                           .setRequiredReads(2)
+                                           .setPreferredWrites(2)
+                                           .setRequiredWrites(2)
+                                           .setVectorClockMaxEntries(1)
+                                           .build();
+    }
+
     private void assertOperationalNodes(int expected) {
         int found = 0;
         for(Node n: cluster.getNodes())
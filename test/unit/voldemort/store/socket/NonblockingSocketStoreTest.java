@@ -0,0 +1,288 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package voldemort.store.socket;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import voldemort.ServerTestUtils;
+import voldemort.TestUtils;
+import voldemort.VoldemortTestConstants;
+import voldemort.client.protocol.RequestFormatType;
+import voldemort.server.AbstractSocketService;
+import voldemort.store.AbstractByteArrayStoreTest;
+import voldemort.store.Store;
+import voldemort.store.UnreachableStoreException;
+import voldemort.store.nonblockingstore.NonblockingStoreCallback;
+import voldemort.store.socket.clientrequest.ClientRequestExecutorPool;
+import voldemort.utils.ByteArray;
+import voldemort.versioning.Versioned;
+
+/**
+ * Tests for the non-blocking socket store, through both its blocking and its
+ * callback based interface
+ * 
+ * 
+ */
+@RunWith(Parameterized.class)
+public class NonblockingSocketStoreTest extends AbstractByteArrayStoreTest {
+
+    private final RequestFormatType requestFormatType;
+    private final boolean useNio;
+
+    private int socketPort;
+    private AbstractSocketService socketService;
+    private ClientRequestExecutorPool pool;
+    private NonblockingSocketStore socketStore;
+
+    public NonblockingSocketStoreTest(RequestFormatType requestFormatType, boolean useNio) {
+        this.requestFormatType = requestFormatType;
+        this.useNio = useNio;
+    }
+
+    @Parameters
+    public static Collection<Object[]> configs() {
+        return Arrays.asList(new Object[][] { { RequestFormatType.VOLDEMORT_V1, true },
+                { RequestFormatType.VOLDEMORT_V1, false },
+                { RequestFormatType.PROTOCOL_BUFFERS, true },
+                { RequestFormatType.VOLDEMORT_V3, true }, { RequestFormatType.VOLDEMORT_V3, false } });
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        this.socketPort = ServerTestUtils.findFreePort();
+        socketService = ServerTestUtils.getSocketService(useNio,
+                                                         VoldemortTestConstants.getOneNodeClusterXml(),
+                                                         VoldemortTestConstants.getSimpleStoreDefinitionsXml(),
+                                                         "test",
+                                                         socketPort);
+        socketService.start();
+        pool = new ClientRequestExecutorPool(2, 4, 10000, 10000, 32 * 1024, false);
+        socketStore = new NonblockingSocketStore("test",
+                                                 new SocketDestination("localhost",
+                                                                       socketPort,
+                                                                       requestFormatType),
+                                                 pool,
+                                                 false);
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+        socketStore.close();
+        pool.close();
+        socketService.stop();
+    }
+
+    @Override
+    public Store<ByteArray, byte[]> getStore() {
+        return socketStore;
+    }
+
+    @Test
+    public void testVeryLargeValues() {
+        // The responses are much larger than the socket buffer, so they arrive
+        // over many reads
+        byte[] biggie = new byte[1 * 1024 * 1024];
+        ByteArray key = new ByteArray("biggie".getBytes());
+        Random rand = new Random();
+        for(int i = 0; i < 5; i++) {
+            rand.nextBytes(biggie);
+            Versioned<byte[]> versioned = new Versioned<byte[]>(biggie);
+            socketStore.put(key, versioned);
+            List<Versioned<byte[]>> found = socketStore.get(key);
+            assertEquals(1, found.size());
+            assertTrue(Arrays.equals(biggie, found.get(0).getValue()));
+            assertTrue(socketStore.delete(key, versioned.getVersion()));
+        }
+    }
+
+    @Test
+    public void testManyOutstandingRequests() throws Exception {
+        int numOps = 200;
+        final CountDownLatch putLatch = new CountDownLatch(numOps);
+        final List<Object> errors = new CopyOnWriteArrayList<Object>();
+        final ByteArray[] keys = new ByteArray[numOps];
+        for(int i = 0; i < numOps; i++) {
+            keys[i] = TestUtils.toByteArray("key" + i);
+            socketStore.submitPutRequest(keys[i],
+                                         new Versioned<byte[]>(keys[i].get()),
+                                         new NonblockingStoreCallback() {
+
+                                             public void requestComplete(Object result,
+                                                                         long requestTime) {
+                                                 if(result instanceof Exception)
+                                                     errors.add(result);
+                                                 putLatch.countDown();
+                                             }
+                                         });
+        }
+        assertTrue(putLatch.await(10, TimeUnit.SECONDS));
+        assertEquals("Unexpected errors: " + errors, 0, errors.size());
+
+        final CountDownLatch getLatch = new CountDownLatch(numOps);
+        final ConcurrentHashMap<Integer, Object> results = new ConcurrentHashMap<Integer, Object>();
+        for(int i = 0; i < numOps; i++) {
+            final int index = i;
+            socketStore.submitGetRequest(keys[i], new NonblockingStoreCallback() {
+
+                public void requestComplete(Object result, long requestTime) {
+                    results.put(index, result);
+                    getLatch.countDown();
+                }
+            });
+        }
+        assertTrue(getLatch.await(10, TimeUnit.SECONDS));
+        for(int i = 0; i < numOps; i++) {
+            @SuppressWarnings("unchecked")
+            List<Versioned<byte[]>> found = (List<Versioned<byte[]>>) results.get(i);
+            assertEquals(1, found.size());
+            assertTrue(Arrays.equals(keys[i].get(), found.get(0).getValue()));
+        }
+    }
+
+    @Test
+    public void testPipelinedRequestsShareOneConnection() throws Exception {
+        if(!requestFormatType.isPipelined())
+            return;
+
+        int numOps = 100;
+        final CountDownLatch latch = new CountDownLatch(numOps);
+        final List<Object> errors = new CopyOnWriteArrayList<Object>();
+        for(int i = 0; i < numOps; i++) {
+            ByteArray key = TestUtils.toByteArray("key" + i);
+            socketStore.submitPutRequest(key,
+                                         new Versioned<byte[]>(key.get()),
+                                         new NonblockingStoreCallback() {
+
+                                             public void requestComplete(Object result,
+                                                                         long requestTime) {
+                                                 if(result instanceof Exception)
+                                                     errors.add(result);
+                                                 latch.countDown();
+                                             }
+                                         });
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals("Unexpected errors: " + errors, 0, errors.size());
+
+        // the connection goes back to the pool as soon as a request is on it,
+        // so a single thread never needs a second one
+        assertEquals(1, pool.getNumberSocketsCreated());
+    }
+
+    @Test
+    public void testRequestsQueueBehindSlowCallback() throws Exception {
+        // one connection, whose first callback doesn't return until the
+        // others are done: they have to queue for the connection rather than
+        // block the caller, and the callback mustn't hold up the selector
+        ClientRequestExecutorPool singlePool = new ClientRequestExecutorPool(1,
+                                                                             1,
+                                                                             10000,
+                                                                             10000,
+                                                                             32 * 1024,
+                                                                             false);
+        NonblockingSocketStore store = new NonblockingSocketStore("test",
+                                                                  new SocketDestination("localhost",
+                                                                                        socketPort,
+                                                                                        requestFormatType),
+                                                                  singlePool,
+                                                                  false);
+        try {
+            final ByteArray key = TestUtils.toByteArray("key");
+            store.put(key, new Versioned<byte[]>(key.get()));
+
+            final CountDownLatch release = new CountDownLatch(1);
+            store.submitGetRequest(key, new NonblockingStoreCallback() {
+
+                public void requestComplete(Object result, long requestTime) {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+            int numOps = 20;
+            final CountDownLatch latch = new CountDownLatch(numOps);
+            final List<Object> errors = new CopyOnWriteArrayList<Object>();
+            for(int i = 0; i < numOps; i++) {
+                store.submitGetRequest(key, new NonblockingStoreCallback() {
+
+                    public void requestComplete(Object result, long requestTime) {
+                        if(result instanceof Exception)
+                            errors.add(result);
+                        latch.countDown();
+                    }
+                });
+            }
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            release.countDown();
+            assertEquals("Unexpected errors: " + errors, 0, errors.size());
+            assertEquals(1, singlePool.getNumberSocketsCreated());
+            assertEquals(0, singlePool.getNumberOfQueuedRequests());
+        } finally {
+            store.close();
+            singlePool.close();
+        }
+    }
+
+    @Test
+    public void testCallbackGetsErrorWhenServerIsDown() throws Exception {
+        // leave an idle connection in the pool that the server then closes
+        socketStore.put(TestUtils.toByteArray("key"), new Versioned<byte[]>("value".getBytes()));
+        socketService.stop();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Object[] holder = new Object[1];
+        socketStore.submitGetRequest(TestUtils.toByteArray("key"), new NonblockingStoreCallback() {
+
+            public void requestComplete(Object result, long requestTime) {
+                holder[0] = result;
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue("Expected an UnreachableStoreException but got " + holder[0],
+                   holder[0] instanceof UnreachableStoreException);
+
+        // don't stop it twice in tearDown
+        socketService = ServerTestUtils.getSocketService(useNio,
+                                                         VoldemortTestConstants.getOneNodeClusterXml(),
+                                                         VoldemortTestConstants.getSimpleStoreDefinitionsXml(),
+                                                         "test",
+                                                         socketPort);
+        socketService.start();
+    }
+
+}
@@ -0,0 +1,91 @@
+package voldemort.store.stats;
+
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+public class HistogramTest extends TestCase {
+
+    public void testBucketsAreContiguous() {
+        for(int i = 1; i < Histogram.bucketIndex(Histogram.MAX_VALUE); i++) {
+            long upper = Histogram.bucketUpperBound(i);
+            assertEquals(i, Histogram.bucketIndex(upper));
+            assertEquals(i + 1, Histogram.bucketIndex(upper + 1));
+            long lower = Histogram.bucketUpperBound(i - 1) + 1;
+            assertTrue("Bucket " + i + " is too wide", upper - lower <= lower / 16);
+        }
+    }
+
+    public void testQuantiles() {
+        Histogram histogram = new Histogram(2);
+        assertEquals(0, histogram.getQuantile(0.99));
+        for(int i = 1; i <= 1000; i++)
+            histogram.record(i * 1000L);
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500000L, histogram.getSum());
+        assertEquals(500500.0, histogram.getMean(), 0.0);
+        assertWithin(500000, histogram.getQuantile(0.5));
+        assertWithin(990000, histogram.getQuantile(0.99));
+        assertWithin(1000000, histogram.getQuantile(1));
+        assertWithin(1000, histogram.getQuantile(0));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getQuantile(0.5));
+    }
+
+    public void testLargeValuesAreClamped() {
+        Histogram histogram = new Histogram(1);
+        histogram.record(Long.MAX_VALUE);
+        assertWithin(Histogram.MAX_VALUE, histogram.getQuantile(0.5));
+    }
+
+    public void testConcurrentRecording() throws Exception {
+        final Histogram histogram = new Histogram(4);
+        final int threads = 8;
+        final int perThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for(int i = 0; i < threads; i++) {
+            new Thread() {
+
+                @Override
+                public void run() {
+                    for(int j = 0; j < perThread; j++)
+                        histogram.record(j);
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        assertEquals(threads * perThread, histogram.getCount());
+    }
+
+    public void testResetDuringRecordingLosesNoCounts() throws Exception {
+        final Histogram histogram = new Histogram(4);
+        final int threads = 8;
+        final int perThread = 100000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for(int i = 0; i < threads; i++) {
+            new Thread() {
+
+                @Override
+                public void run() {
+                    for(int j = 0; j < perThread; j++)
+                        histogram.record(j);
+                    done.countDown();
+                }
+            }.start();
+        }
+        long cleared = 0;
+        while(done.getCount() > 0)
+            cleared += histogram.reset();
+        done.await();
+        assertEquals(threads * perThread, cleared + histogram.getCount());
+    }
+
+    private void assertWithin(long expected, long actual) {
+        assertTrue(actual + " is not within 1/16th of " + expected,
+                   actual >= expected && actual - expected <= expected / 16);
+    }
+
+}
@@ -0,0 +1,90 @@
+package voldemort.utils.pool;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class ByteBufferPoolTest extends TestCase {
+
+    private static final int MIN_SIZE = 1024;
+    private static final int SIZE_CLASSES = 4;
+
+    public void testBuffersAreReused() {
+        ByteBufferPool pool = new ByteBufferPool(MIN_SIZE, SIZE_CLASSES, 1024 * 1024);
+        ByteBuffer b1 = pool.allocate(MIN_SIZE);
+        assertTrue(b1.isDirect());
+        assertEquals(MIN_SIZE, b1.capacity());
+        b1.put((byte) 1);
+        pool.release(b1);
+        assertEquals(MIN_SIZE, pool.getPooledBytes());
+
+        ByteBuffer b2 = pool.allocate(MIN_SIZE);
+        assertSame(b1, b2);
+        assertEquals("Buffers should be cleared", 0, b2.position());
+        assertEquals(MIN_SIZE, b2.limit());
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(0.5, pool.getHitRate(), 0.0);
+        assertEquals(MIN_SIZE, pool.getAllocatedBytes());
+    }
+
+    public void testSizeClasses() {
+        ByteBufferPool pool = new ByteBufferPool(MIN_SIZE, SIZE_CLASSES, 1024 * 1024);
+        assertEquals(MIN_SIZE * 8, pool.getMaxBufferSize());
+        assertEquals(MIN_SIZE, pool.allocate(1).capacity());
+        assertEquals(MIN_SIZE * 2, pool.allocate(MIN_SIZE + 1).capacity());
+        assertEquals(MIN_SIZE * 8, pool.allocate(MIN_SIZE * 8).capacity());
+
+        // a small buffer isn't handed out for a larger size class
+        pool.release(pool.allocate(MIN_SIZE));
+        assertEquals(MIN_SIZE * 4, pool.allocate(MIN_SIZE * 3).capacity());
+        assertEquals(MIN_SIZE, pool.getPooledBytes());
+
+        // too large to pool
+        ByteBuffer huge = pool.allocate(MIN_SIZE * 8 + 1);
+        assertFalse(huge.isDirect());
+        assertEquals(MIN_SIZE * 8 + 1, huge.capacity());
+        pool.release(huge);
+        assertEquals(MIN_SIZE, pool.getPooledBytes());
+    }
+
+    public void testForeignBuffersAreIgnored() {
+        ByteBufferPool pool = new ByteBufferPool(MIN_SIZE, SIZE_CLASSES, 1024 * 1024);
+        pool.release(ByteBuffer.allocate(MIN_SIZE));
+        pool.release(ByteBuffer.allocateDirect(MIN_SIZE + 1));
+        pool.release(null);
+        assertEquals(0, pool.getPooledBytes());
+        assertTrue(pool.allocate(MIN_SIZE).isDirect());
+        assertEquals(0, pool.getHits());
+    }
+
+    public void testIdleBytesAreBounded() {
+        ByteBufferPool pool = new ByteBufferPool(MIN_SIZE, SIZE_CLASSES, 2 * MIN_SIZE);
+        ByteBuffer b1 = pool.allocate(MIN_SIZE);
+        ByteBuffer b2 = pool.allocate(MIN_SIZE);
+        ByteBuffer b3 = pool.allocate(MIN_SIZE);
+        pool.release(b1);
+        pool.release(b2);
+        pool.release(b3);
+        assertEquals(2 * MIN_SIZE, pool.getPooledBytes());
+        // the dropped buffer no longer counts as allocated
+        assertEquals(2 * MIN_SIZE, pool.getAllocatedBytes());
+    }
+
+    public void testInvalidArguments() {
+        try {
+            new ByteBufferPool(0, SIZE_CLASSES, 1024);
+            fail("Expected IllegalArgumentException");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new ByteBufferPool(Integer.MAX_VALUE / 2, 4, 1024);
+            fail("Expected IllegalArgumentException");
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
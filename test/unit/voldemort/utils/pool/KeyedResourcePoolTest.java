@@ -46,6 +46,21 @@ public class KeyedResourcePoolTest extends TestCase {
         }
     }
 
+    public void testCheckoutIfAvailableDoesNotBlock() throws Exception {
+        for(int i = 0; i < POOL_SIZE; i++)
+            assertNotNull(this.pool.checkoutIfAvailable("a"));
+        assertEquals(POOL_SIZE, this.pool.getTotalResourceCount());
+
+        long startMs = System.currentTimeMillis();
+        assertNull("A full pool should have nothing available.", this.pool.checkoutIfAvailable("a"));
+        assertTrue(System.currentTimeMillis() - startMs < TIMEOUT_MS);
+
+        TestResource r = this.pool.checkout("b");
+        this.pool.checkin("b", r);
+        assertTrue("A checked in resource should be reused.",
+                   r == this.pool.checkoutIfAvailable("b"));
+    }
+
     public void testExceptions() throws Exception {
         // we should start with an empty pool
         assertEquals(0, this.pool.getTotalResourceCount());
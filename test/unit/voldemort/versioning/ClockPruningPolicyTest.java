@@ -0,0 +1,72 @@
+/*
+ * Copyright 2008-2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package voldemort.versioning;
+
+import static voldemort.TestUtils.getClock;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class ClockPruningPolicyTest extends TestCase {
+
+    public void testNoPruning() {
+        VectorClock clock = getClock(1, 2, 3);
+        assertFalse(ClockPruningPolicy.NONE.increment(clock, 4, System.currentTimeMillis()));
+        assertEquals(getClock(1, 2, 3, 4), clock);
+    }
+
+    public void testMaxEntries() {
+        ClockPruningPolicy policy = new ClockPruningPolicy(3, null);
+        VectorClock clock = getClock(1, 1, 2, 3, 3, 3);
+        VectorClock pruned = policy.incremented(clock, 4, System.currentTimeMillis());
+        assertEquals(getClock(1, 3, 3, 3, 1, 4), pruned);
+        assertEquals("The original clock was modified", getClock(1, 1, 2, 3, 3, 3), clock);
+    }
+
+    public void testMaxAge() {
+        ClockPruningPolicy policy = new ClockPruningPolicy(null, 1000L);
+        VectorClock clock = getClock(1, 2, 3);
+        long lastWrite = clock.getTimestamp();
+        assertFalse(policy.increment(clock, 2, lastWrite + 500));
+        assertEquals(getClock(1, 2, 2, 3), clock);
+        assertTrue(policy.increment(clock, 3, lastWrite + 2000));
+        assertEquals(getClock(3, 3), clock);
+    }
+
+    /*
+     * Pruning may make a new clock concurrent to the one it was built from,
+     * but never before or equal to it
+     */
+    public void testPrunedClocksAreNeverObsolete() {
+        Random random = new Random(1234);
+        ClockPruningPolicy policy = new ClockPruningPolicy(2, 10L);
+        for(int i = 0; i < 1000; i++) {
+            int[] nodes = new int[random.nextInt(20)];
+            for(int j = 0; j < nodes.length; j++)
+                nodes[j] = random.nextInt(10);
+            VectorClock base = getClock(nodes);
+            VectorClock pruned = policy.incremented(base,
+                                                    random.nextInt(10),
+                                                    base.getTimestamp() + random.nextInt(20));
+            assertTrue(pruned.getEntries().size() <= 2);
+            assertFalse(base + " -> " + pruned,
+                        VectorClock.compare(pruned, base) == Occured.BEFORE);
+        }
+    }
+
+}
@@ -51,6 +51,45 @@ public class VectorClockTest extends TestCase {
                    && getClock(1, 2, 2, 3).compare(getClock(2, 2)) == Occured.AFTER);
     }
 
+    public void testSerializedComparisons() {
+        VectorClock[] clocks = { getClock(), getClock(1), getClock(2), getClock(1, 1, 2),
+                getClock(1, 1, 3), getClock(1, 1, 2, 3), getClock(2, 2), getClock(1, 2, 2, 3) };
+        for(VectorClock c1: clocks) {
+            for(VectorClock c2: clocks) {
+                Occured expected = c1.compare(c2);
+                assertEquals(c1 + " vs serialized " + c2, expected, c1.compare(c2.toBytes(), 0));
+                assertEquals("serialized " + c1 + " vs " + c2,
+                             expected,
+                             VectorClock.compare(c1.toBytes(), 0, c2));
+            }
+        }
+
+        byte[] bytes = getClock(1, 2).toBytes();
+        byte[] padded = new byte[bytes.length + 3];
+        System.arraycopy(bytes, 0, padded, 1, bytes.length);
+        assertEquals(Occured.BEFORE, getClock(1).compare(padded, 1));
+    }
+
+    public void testSerializedFormIsRefreshed() {
+        VectorClock clock = getClock(1);
+        byte[] bytes = clock.toBytes();
+        assertSame(bytes, clock.toBytes());
+        clock.incrementVersion(2, 5);
+        assertEquals(getClock(1, 2), new VectorClock(clock.toBytes()));
+        assertEquals(5, new VectorClock(clock.toBytes()).getTimestamp());
+    }
+
+    public void testPruneEntries() {
+        VectorClock clock = getClock(1, 1, 1, 2, 3, 3, 4, 4, 4, 4, 5);
+        assertFalse(clock.pruneEntries(1, 5));
+        // node 5 is kept although its version is the lowest
+        assertTrue(clock.pruneEntries(5, 3));
+        assertEquals(getClock(1, 1, 1, 4, 4, 4, 4, 5), clock);
+        assertEquals(clock, new VectorClock(clock.toBytes()));
+        assertTrue(clock.pruneEntries(5, 1));
+        assertEquals(getClock(5), clock);
+    }
+
     public void testMerge() {
         // merging two clocks should create a clock contain the element-wise
         // maximums
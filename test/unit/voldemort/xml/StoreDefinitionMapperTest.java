@@ -71,6 +71,15 @@ public class StoreDefinitionMapperTest extends TestCase {
         assertEquals(storeDefs, mapper.readStoreList(new StringReader(written)));
     }
 
+    public void testClockPruningStore() {
+        StoreDefinitionsMapper mapper = new StoreDefinitionsMapper();
+        List<StoreDefinition> storeDefs = mapper.readStoreList(new StringReader(VoldemortTestConstants.getStoreDefinitionsWithClockPruningXml()));
+        assertEquals(4, (int) storeDefs.get(0).getVectorClockMaxEntries());
+        assertEquals(86400000L, (long) storeDefs.get(0).getVectorClockMaxAgeMs());
+        String written = mapper.writeStoreList(storeDefs);
+        assertEquals(storeDefs, mapper.readStoreList(new StringReader(written)));
+    }
+
     public void testCompressedStore() {
         StoreDefinitionsMapper mapper = new StoreDefinitionsMapper();
         List<StoreDefinition> storeDefs = mapper.readStoreList(new StringReader(VoldemortTestConstants.getCompressedStoreDefinitionsXml()));